@@ -0,0 +1,108 @@
+package github.io.pedrogao.diskqueue.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result with a baseline, benchmarks are matched by name, mode and params.
+ * <p>
+ * A benchmark regresses when its score is worse than the baseline by more than the threshold,
+ * lower is better for every mode but throughput. Benchmarks running more threads than there are CPUs only
+ * measure the scheduler, they are listed but never count as a regression.
+ */
+public class BaselineComparison {
+    static final double DEFAULT_THRESHOLD_PERCENT = 10;
+
+    private final Map<String, Score> baseline;
+
+    private final Map<String, Score> current;
+
+    private final double thresholdPercent;
+
+    private final int cpus = Runtime.getRuntime().availableProcessors();
+
+    public BaselineComparison(File baselineFile, File currentFile, double thresholdPercent) throws IOException {
+        this.baseline = read(baselineFile);
+        this.current = read(currentFile);
+        this.thresholdPercent = thresholdPercent;
+    }
+
+    /**
+     * Print a row per benchmark of the current result
+     *
+     * @return number of regressed benchmarks
+     */
+    public int report(PrintStream out) {
+        int regressions = 0;
+        out.printf("%-70s %16s %16s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score now = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+            if (now.threads > cpus) {
+                out.printf("%-70s %16s %16.3f %9s%n", entry.getKey(), "-", now.value,
+                        now.threads + " threads on " + cpus + " CPUs");
+                continue;
+            }
+            if (before == null || before.value == 0) {
+                out.printf("%-70s %16s %16.3f %9s%n", entry.getKey(), "-", now.value, "new");
+                continue;
+            }
+            double change = (now.value - before.value) / before.value * 100;
+            double worse = now.higherIsBetter() ? -change : change;
+            boolean regressed = worse > thresholdPercent;
+            if (regressed) {
+                regressions++;
+            }
+            out.printf("%-70s %16.3f %16.3f %+8.1f%%%s%n", entry.getKey(), before.value, now.value, change,
+                    regressed ? "  REGRESSION" : "");
+        }
+        out.printf("%d of %d benchmarks regressed more than %.1f%%%n", regressions, current.size(), thresholdPercent);
+        return regressions;
+    }
+
+    private static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new TreeMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            String benchmark = run.path("benchmark").asText();
+            // class and method, the package is the same for all
+            int classStart = benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1;
+            StringBuilder key = new StringBuilder(benchmark.substring(classStart));
+            JsonNode params = run.path("params");
+            if (params.size() > 0) {
+                Map<String, String> sorted = new TreeMap<>();
+                params.fields().forEachRemaining(param -> sorted.put(param.getKey(), param.getValue().asText()));
+                key.append(sorted.toString().replace(", ", ","));
+            }
+            String mode = run.path("mode").asText();
+            key.append(" [").append(mode).append(']');
+            scores.put(key.toString(), new Score(mode, run.path("threads").asInt(1),
+                    run.path("primaryMetric").path("score").asDouble()));
+        }
+        return scores;
+    }
+
+    private record Score(String mode, int threads, double value) {
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+
+    /**
+     * @param args baseline json, current json and optionally the threshold percent
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineComparison <baseline.json> <current.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+        int regressions = new BaselineComparison(new File(args[0]), new File(args[1]), threshold).report(System.out);
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,62 @@
+package github.io.pedrogao.diskqueue.benchmark;
+
+import github.io.pedrogao.diskqueue.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Directories of the benchmark queues, under {@code bench.dir} of the build profile unless
+ * {@code -Dbench.dir} is given
+ */
+final class BenchmarkDirs {
+    static final String BENCH_DIR_PROPERTY = "bench.dir";
+
+    private static final AtomicInteger SEQ = new AtomicInteger();
+
+    private BenchmarkDirs() {
+    }
+
+    static String baseDir() {
+        String dir = System.getProperty(BENCH_DIR_PROPERTY);
+        if (dir != null && !dir.isEmpty()) {
+            return dir;
+        }
+        try (InputStream in = BenchmarkDirs.class.getResourceAsStream("/bench.properties")) {
+            Properties properties = new Properties();
+            if (in != null) {
+                properties.load(in);
+            }
+            dir = properties.getProperty(BENCH_DIR_PROPERTY, "");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (dir.isEmpty() || dir.startsWith("${")) { // not filtered when built outside maven
+            return Path.of(System.getProperty("java.io.tmpdir"), "tinymq-bench").toString();
+        }
+        return dir;
+    }
+
+    /**
+     * @return an empty directory for one trial, named after the benchmark
+     */
+    static String newDir(String name) throws IOException {
+        File dir = Path.of(baseDir(), name + "-" + ProcessHandle.current().pid() + "-" + SEQ.incrementAndGet()).toFile();
+        if (dir.exists()) {
+            FileUtil.deleteDirectory(dir);
+        }
+        if (!dir.mkdirs()) {
+            throw new IllegalStateException("can not create benchmark directory " + dir);
+        }
+        return dir.getPath();
+    }
+
+    static void delete(String dir) throws IOException {
+        FileUtil.deleteDirectory(new File(dir));
+    }
+}
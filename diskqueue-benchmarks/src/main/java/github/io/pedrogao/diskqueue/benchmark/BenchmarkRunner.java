@@ -0,0 +1,42 @@
+package github.io.pedrogao.diskqueue.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks with the JMH command line options, writing a JSON result to {@code jmh-result.json}
+ * unless {@code -rf}/{@code -rff} say otherwise.
+ * <p>
+ * The forks get the {@code bench.dir} of the launching JVM. With {@code -Dbench.baseline=<json>} the result
+ * is compared with the baseline afterwards and the exit code is 1 if a benchmark regressed more than
+ * {@code -Dbench.threshold} percent.
+ */
+public class BenchmarkRunner {
+    static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLine)
+                .jvmArgsAppend("-D" + BenchmarkDirs.BENCH_DIR_PROPERTY + "=" + BenchmarkDirs.baseDir());
+        if (!commandLine.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        String resultFile = commandLine.getResult().orElse(DEFAULT_RESULT_FILE);
+        builder.result(resultFile);
+        new Runner(builder.build()).run();
+
+        String baseline = System.getProperty("bench.baseline");
+        if (baseline != null) {
+            double threshold = Double.parseDouble(System.getProperty("bench.threshold",
+                    String.valueOf(BaselineComparison.DEFAULT_THRESHOLD_PERCENT)));
+            int regressions = new BaselineComparison(new File(baseline), new File(resultFile), threshold)
+                    .report(System.out);
+            System.exit(regressions == 0 ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package github.io.pedrogao.diskqueue.benchmark;
+
+import github.io.pedrogao.diskqueue.BigArrayImpl;
+import github.io.pedrogao.diskqueue.IBigArray;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BigArrayImpl} append, get and findClosestIndex across payload sizes, single threaded and contended.
+ * Other thread counts can be run with the JMH {@code -t} option
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class BigArrayBenchmark {
+    static final int PREFILLED_ITEMS = 16 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class AppendState {
+        @Param({"64", "1024", "4096"})
+        int payloadSize;
+
+        String dir;
+
+        IBigArray array;
+
+        byte[] payload;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = BenchmarkDirs.newDir("big-array-append");
+            array = new BigArrayImpl(dir, "array");
+            payload = new byte[payloadSize];
+            ThreadLocalRandom.current().nextBytes(payload);
+        }
+
+        // keeps the page files of an iteration from filling the benchmark directory
+        @TearDown(Level.Iteration)
+        public void removeAll() throws IOException {
+            array.removeAll();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            array.close();
+            BenchmarkDirs.delete(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class PrefilledState {
+        @Param({"64", "1024", "4096"})
+        int payloadSize;
+
+        String dir;
+
+        IBigArray array;
+
+        long firstTimestamp;
+
+        long lastTimestamp;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = BenchmarkDirs.newDir("big-array-prefilled");
+            array = new BigArrayImpl(dir, "array");
+            byte[] payload = new byte[payloadSize];
+            ThreadLocalRandom.current().nextBytes(payload);
+            for (int i = 0; i < PREFILLED_ITEMS; i++) {
+                array.append(payload);
+            }
+            firstTimestamp = array.getTimestamp(array.getTailIndex());
+            lastTimestamp = array.getTimestamp(array.getHeadIndex() - 1);
+        }
+
+        long randomIndex() {
+            return array.getTailIndex() + ThreadLocalRandom.current().nextLong(array.size());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            array.close();
+            BenchmarkDirs.delete(dir);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long append(AppendState state) throws IOException {
+        return state.array.append(state.payload);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long appendContended(AppendState state) throws IOException {
+        return state.array.append(state.payload);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] get(PrefilledState state) throws IOException {
+        return state.array.get(state.randomIndex());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] getContended(PrefilledState state) throws IOException {
+        return state.array.get(state.randomIndex());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long findClosestIndex(PrefilledState state) throws IOException {
+        long timestamp = ThreadLocalRandom.current().nextLong(state.firstTimestamp, state.lastTimestamp + 1);
+        return state.array.findClosestIndex(timestamp);
+    }
+}
@@ -0,0 +1,75 @@
+package github.io.pedrogao.diskqueue.benchmark;
+
+import github.io.pedrogao.diskqueue.BigQueueImpl;
+import github.io.pedrogao.diskqueue.IBigQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BigQueueImpl} enqueue, enqueue then dequeue, and a producer racing a consumer
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class BigQueueBenchmark {
+    @Param({"64", "1024"})
+    int payloadSize;
+
+    private String dir;
+
+    private IBigQueue queue;
+
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDirs.newDir("big-queue");
+        queue = new BigQueueImpl(dir, "queue");
+        payload = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeAll() throws IOException {
+        queue.removeAll();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        queue.close();
+        BenchmarkDirs.delete(dir);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void enqueue() throws IOException {
+        queue.enqueue(payload);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] enqueueAndDequeue() throws IOException {
+        queue.enqueue(payload);
+        return queue.dequeue();
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public void produce() throws IOException {
+        queue.enqueue(payload);
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public byte[] consume() throws IOException {
+        return queue.dequeue(); // null when the consumer caught up
+    }
+}
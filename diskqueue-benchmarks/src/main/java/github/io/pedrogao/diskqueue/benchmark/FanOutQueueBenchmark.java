@@ -0,0 +1,72 @@
+package github.io.pedrogao.diskqueue.benchmark;
+
+import github.io.pedrogao.diskqueue.FanOutQueueImpl;
+import github.io.pedrogao.diskqueue.IFanOutQueue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FanOutQueueImpl} with every fanout dequeuing each enqueued item, the cost of a fanout added
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(1)
+public class FanOutQueueBenchmark {
+    @Param({"1", "8", "64"})
+    int fanouts;
+
+    @Param({"256"})
+    int payloadSize;
+
+    private String dir;
+
+    private IFanOutQueue queue;
+
+    private String[] fanoutIds;
+
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDirs.newDir("fanout-queue");
+        queue = new FanOutQueueImpl(dir, "queue");
+        fanoutIds = new String[fanouts];
+        for (int i = 0; i < fanouts; i++) {
+            fanoutIds[i] = "fanout-" + i;
+        }
+        payload = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeAll() throws IOException {
+        queue.removeAll();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        queue.close();
+        BenchmarkDirs.delete(dir);
+    }
+
+    @Benchmark
+    public void enqueueAndDequeueAll(Blackhole blackhole) throws IOException {
+        queue.enqueue(payload);
+        for (String fanoutId : fanoutIds) {
+            blackhole.consume(queue.dequeue(fanoutId));
+        }
+    }
+
+    @Benchmark
+    public long minFrontIndex() throws IOException {
+        return queue.getMinFrontIndex();
+    }
+}
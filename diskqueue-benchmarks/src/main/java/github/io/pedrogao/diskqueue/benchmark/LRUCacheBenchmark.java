@@ -0,0 +1,75 @@
+package github.io.pedrogao.diskqueue.benchmark;
+
+import github.io.pedrogao.diskqueue.cache.ILRUCache;
+import github.io.pedrogao.diskqueue.cache.LRUCacheImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LRUCacheImpl} get then release of a cached key and put, which sweeps every key
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class LRUCacheBenchmark {
+    @Param({"16", "1024"})
+    int keys;
+
+    private ILRUCache<Long, Value> cache;
+
+    private Value[] values;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = new LRUCacheImpl<>();
+        values = new Value[keys];
+        for (int i = 0; i < keys; i++) {
+            values[i] = new Value();
+            cache.put((long) i, values[i], Long.MAX_VALUE); // never expires, puts replace live entries
+            cache.release((long) i);
+        }
+    }
+
+    private long randomKey() {
+        return ThreadLocalRandom.current().nextInt(keys);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<Value> getAndRelease() {
+        long key = randomKey();
+        Optional<Value> value = cache.get(key);
+        cache.release(key);
+        return value;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Optional<Value> getAndReleaseContended() {
+        long key = randomKey();
+        Optional<Value> value = cache.get(key);
+        cache.release(key);
+        return value;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void putAndRelease() {
+        int key = (int) randomKey();
+        cache.put((long) key, values[key], Long.MAX_VALUE);
+        cache.release((long) key);
+    }
+
+    static final class Value implements Closeable {
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package github.io.pedrogao.diskqueue.benchmark;
+
+import github.io.pedrogao.diskqueue.page.IMappedPage;
+import github.io.pedrogao.diskqueue.page.IMappedPageFactory;
+import github.io.pedrogao.diskqueue.page.MappedPageFactoryImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MappedPageFactoryImpl#acquirePage(long)} served from the page cache and mapping a new page file
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(1)
+public class MappedPageFactoryBenchmark {
+    static final int CACHED_PAGES = 64;
+
+    @State(Scope.Benchmark)
+    public static class HitState {
+        String dir;
+
+        IMappedPageFactory factory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = BenchmarkDirs.newDir("page-hit");
+            factory = new MappedPageFactoryImpl(64 * 1024, dir, Long.MAX_VALUE);
+            for (long i = 0; i < CACHED_PAGES; i++) {
+                factory.acquirePage(i);
+                factory.releasePage(i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            factory.releaseCachedPages();
+            BenchmarkDirs.delete(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MissState {
+        @Param({"4096", "1048576"})
+        int pageSize;
+
+        String dir;
+
+        IMappedPageFactory factory;
+
+        long nextIndex;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = BenchmarkDirs.newDir("page-miss");
+            // released pages expire at once, the next put closes them so mappings do not pile up
+            factory = new MappedPageFactoryImpl(pageSize, dir, 0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void deleteAllPages() throws IOException {
+            factory.deleteAllPages();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            factory.releaseCachedPages();
+            BenchmarkDirs.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public IMappedPage acquireHit(HitState state) throws IOException {
+        long index = ThreadLocalRandom.current().nextInt(CACHED_PAGES);
+        IMappedPage page = state.factory.acquirePage(index);
+        state.factory.releasePage(index);
+        return page;
+    }
+
+    @Benchmark
+    public IMappedPage acquireMiss(MissState state) throws IOException {
+        long index = state.nextIndex++;
+        IMappedPage page = state.factory.acquirePage(index);
+        state.factory.releasePage(index);
+        return page;
+    }
+}
@@ -1,5 +1,7 @@
 package github.io.pedrogao.diskqueue;
 
+import github.io.pedrogao.diskqueue.metrics.DataPageRolloverEvent;
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
 import github.io.pedrogao.diskqueue.page.IMappedPage;
 import github.io.pedrogao.diskqueue.page.IMappedPageFactory;
 import github.io.pedrogao.diskqueue.page.MappedPageFactoryImpl;
@@ -11,6 +13,8 @@ import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -53,6 +57,10 @@ public class BigArrayImpl implements IBigArray {
     private final static int INDEX_ITEM_DATA_ITEM_LENGTH_OFFSET = 12;
     // timestamp offset of a data item within an index item
     final static int INDEX_ITEM_DATA_ITEM_TIMESTAMP_OFFSET = 16;
+    // record count offset of a data item within an index item, 0 for a plain item
+    private final static int INDEX_ITEM_DATA_ITEM_RECORD_COUNT_OFFSET = 24;
+    // attributes offset of a data item within an index item
+    private final static int INDEX_ITEM_DATA_ITEM_ATTRIBUTES_OFFSET = 28;
 
     private String arrayDirectory;
 
@@ -62,6 +70,9 @@ public class BigArrayImpl implements IBigArray {
 
     private static final long META_DATA_PAGE_INDEX = 0;
 
+    // append time taken under the append lock, so it never goes down
+    private static final long NOW = -1;
+
     // head index of the big array, this is the read write barrier.
     // readers can only read items before this index, and writes can write this
     // index or after
@@ -75,6 +86,8 @@ public class BigArrayImpl implements IBigArray {
     // head offset of the data page, this is the to be appended data offset
     int headDataItemOffset;
 
+    final IStorageMetrics storageMetrics;
+
     // lock for appending state management
     final Lock appendLock = new ReentrantLock();
 
@@ -89,6 +102,15 @@ public class BigArrayImpl implements IBigArray {
     }
 
     public BigArrayImpl(String arrayDir, String arrayName, int pageSize) throws IOException {
+        this(arrayDir, arrayName, pageSize, IStorageMetrics.NOOP);
+    }
+
+    /**
+     * @param storageMetrics receives the timings of this array and its pages
+     */
+    public BigArrayImpl(String arrayDir, String arrayName, int pageSize, IStorageMetrics storageMetrics)
+            throws IOException {
+        this.storageMetrics = storageMetrics;
         arrayDirectory = arrayDir;
         if (!arrayDirectory.endsWith(File.separator)) {
             arrayDirectory += File.separator;
@@ -111,14 +133,14 @@ public class BigArrayImpl implements IBigArray {
         // initialize page factories
         this.indexPageFactory = new MappedPageFactoryImpl(INDEX_PAGE_SIZE,
                 this.arrayDirectory + INDEX_PAGE_FOLDER,
-                INDEX_PAGE_CACHE_TTL);
+                INDEX_PAGE_CACHE_TTL, storageMetrics);
         this.dataPageFactory = new MappedPageFactoryImpl(DATA_PAGE_SIZE,
                 this.arrayDirectory + DATA_PAGE_FOLDER,
-                DATA_PAGE_CACHE_TTL);
+                DATA_PAGE_CACHE_TTL, storageMetrics);
         // the ttl does not matter here since metadata page is always cached
         this.metaPageFactory = new MappedPageFactoryImpl(META_DATA_PAGE_SIZE,
                 this.arrayDirectory + META_DATA_PAGE_FOLDER,
-                10 * 1000/* does not matter */);
+                10 * 1000/* does not matter */, storageMetrics);
 
         // initialize array indexes
         initArrayIndex();
@@ -167,49 +189,102 @@ public class BigArrayImpl implements IBigArray {
 
     @Override
     public long append(byte[] data) throws IOException {
+        return append(Collections.singletonList(data));
+    }
+
+    @Override
+    public long append(byte[] data, int recordCount, int attributes) throws IOException {
+        return append(Collections.singletonList(data), recordCount, attributes, NOW);
+    }
+
+    @Override
+    public long append(byte[] data, int recordCount, int attributes, long timestamp) throws IOException {
+        return append(Collections.singletonList(data), recordCount, attributes, timestamp);
+    }
+
+    @Override
+    public long append(List<byte[]> items) throws IOException {
+        return append(items, 0, 0, NOW);
+    }
+
+    private long append(List<byte[]> items, int recordCount, int attributes, long timestamp) throws IOException {
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("items to append can not be empty");
+        }
+
+        long startNanos = storageMetrics.start();
+        long bytes = 0;
         try {
             arrayReadLock.lock(); // 读取页锁
             IMappedPage toAppendDataPage = null;
             IMappedPage toAppendIndexPage = null;
             long toAppendIndexPageIndex = -1L;
             long toAppendDataPageIndex = -1L;
-            long toAppendArrayIndex = -1L;
+            long firstArrayIndex = -1L;
 
             try {
                 appendLock.lock(); // only an appender
-                // 当前页写完了，下一页
-                if (this.headDataItemOffset + data.length > DATA_PAGE_SIZE) {
-                    this.headDataPageIndex++;
-                    this.headDataItemOffset = 0;
+                firstArrayIndex = this.arrayHeadIndex.get();
+                long currentTime = timestamp == NOW ? TimeUtil.now() : timestamp;
+
+                for (byte[] data : items) {
+                    // 当前页写完了，下一页
+                    if (this.headDataItemOffset + data.length > DATA_PAGE_SIZE) {
+                        this.headDataPageIndex++;
+                        this.headDataItemOffset = 0;
+                        DataPageRolloverEvent event = new DataPageRolloverEvent();
+                        if (event.isEnabled()) {
+                            event.arrayDirectory = this.arrayDirectory;
+                            event.fromPage = this.headDataPageIndex - 1;
+                            event.toPage = this.headDataPageIndex;
+                            event.commit();
+                        }
+                    }
+                    // 待写入页，同一页内的连续写入复用已获取的页
+                    if (toAppendDataPage == null || toAppendDataPageIndex != this.headDataPageIndex) {
+                        if (toAppendDataPage != null) {
+                            this.dataPageFactory.releasePage(toAppendDataPageIndex);
+                            toAppendDataPage = null;
+                        }
+                        toAppendDataPageIndex = this.headDataPageIndex;
+                        toAppendDataPage = this.dataPageFactory.acquirePage(toAppendDataPageIndex);
+                    }
+                    int toAppendDataItemOffset = this.headDataItemOffset;
+
+                    long toAppendArrayIndex = this.arrayHeadIndex.get(); // 当前头部
+
+                    ByteBuffer toAppendDataPageBuffer = toAppendDataPage.getLocal(toAppendDataItemOffset);
+                    toAppendDataPageBuffer.put(data);
+                    toAppendDataPage.setDirty(true);
+                    bytes += data.length;
+                    // update next
+                    this.headDataItemOffset += data.length;
+
+                    long indexPageIndex = MathUtil.div(toAppendArrayIndex, INDEX_ITEMS_PER_PAGE_BITS);
+                    if (toAppendIndexPage == null || toAppendIndexPageIndex != indexPageIndex) {
+                        if (toAppendIndexPage != null) {
+                            this.indexPageFactory.releasePage(toAppendIndexPageIndex);
+                            toAppendIndexPage = null;
+                        }
+                        toAppendIndexPageIndex = indexPageIndex;
+                        toAppendIndexPage = this.indexPageFactory.acquirePage(toAppendIndexPageIndex);
+                    }
+                    int toAppendIndexItemOffset = (int) (MathUtil
+                            .mul(MathUtil.mod(toAppendArrayIndex, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
+                    ByteBuffer toAppendIndexPageBuffer = toAppendIndexPage.getLocal(toAppendIndexItemOffset);
+                    toAppendIndexPageBuffer.putLong(toAppendDataPageIndex);
+                    toAppendIndexPageBuffer.putInt(toAppendDataItemOffset);
+                    toAppendIndexPageBuffer.putInt(data.length);
+                    toAppendIndexPageBuffer.putLong(currentTime);
+                    toAppendIndexPageBuffer.putInt(recordCount);
+                    toAppendIndexPageBuffer.putInt(attributes);
+                    toAppendIndexPage.setDirty(true);
+
+                    // advance the head
+                    this.arrayHeadIndex.incrementAndGet();
                 }
-                // 待写入页
-                toAppendDataPageIndex = this.headDataPageIndex;
-                int toAppendDataItemOffset = this.headDataItemOffset;
-
-                toAppendArrayIndex = this.arrayHeadIndex.get(); // 当前头部
-
-                toAppendDataPage = this.dataPageFactory.acquirePage(toAppendDataPageIndex);
-                ByteBuffer toAppendDataPageBuffer = toAppendDataPage.getLocal(toAppendDataItemOffset);
-                toAppendDataPageBuffer.put(data);
-                toAppendDataPage.setDirty(true);
-                // update next
-                this.headDataItemOffset += data.length;
-
-                toAppendIndexPageIndex = MathUtil.div(toAppendArrayIndex, INDEX_ITEMS_PER_PAGE_BITS);
-                toAppendIndexPage = this.indexPageFactory.acquirePage(toAppendIndexPageIndex);
-                int toAppendIndexItemOffset = (int) (MathUtil
-                        .mul(MathUtil.mod(toAppendArrayIndex, INDEX_ITEMS_PER_PAGE_BITS), INDEX_ITEM_LENGTH_BITS));
-                ByteBuffer toAppendIndexPageBuffer = toAppendIndexPage.getLocal(toAppendIndexItemOffset);
-                toAppendIndexPageBuffer.putLong(toAppendDataPageIndex);
-                toAppendIndexPageBuffer.putInt(toAppendDataItemOffset);
-                toAppendIndexPageBuffer.putInt(data.length);
-                long currentTime = TimeUtil.now();
-                toAppendIndexPageBuffer.putLong(currentTime);
-                toAppendIndexPage.setDirty(true);
-
-                // advance the head
-                this.arrayHeadIndex.incrementAndGet();
-                // update metadata
+
+                // update metadata, once per batch
                 IMappedPage metadataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
                 ByteBuffer metadataBuffer = metadataPage.getLocal(0);
                 metadataBuffer.putLong(this.arrayHeadIndex.get());
@@ -225,7 +300,8 @@ public class BigArrayImpl implements IBigArray {
                     this.indexPageFactory.releasePage(toAppendIndexPageIndex);
                 }
             }
-            return toAppendArrayIndex;
+            storageMetrics.append(items.size(), bytes, startNanos);
+            return firstArrayIndex;
         } finally {
             arrayReadLock.unlock();
         }
@@ -233,6 +309,7 @@ public class BigArrayImpl implements IBigArray {
 
     @Override
     public byte[] get(long index) throws IOException {
+        long startNanos = storageMetrics.start();
         try {
             arrayReadLock.lock();
             validateIndex(index);
@@ -245,7 +322,9 @@ public class BigArrayImpl implements IBigArray {
                 int dataItemOffset = indexItemBuffer.getInt();
                 int dataItemLength = indexItemBuffer.getInt();
                 dataPage = this.dataPageFactory.acquirePage(dataPageIndex);
-                return dataPage.getLocal(dataItemOffset, dataItemLength);
+                byte[] data = dataPage.getLocal(dataItemOffset, dataItemLength);
+                storageMetrics.get(startNanos);
+                return data;
             } finally {
                 if (dataPage != null) {
                     this.dataPageFactory.releasePage(dataPageIndex);
@@ -299,6 +378,30 @@ public class BigArrayImpl implements IBigArray {
         }
     }
 
+    @Override
+    public int getRecordCount(long index) throws IOException {
+        return getIndexItemInt(index, INDEX_ITEM_DATA_ITEM_RECORD_COUNT_OFFSET);
+    }
+
+    @Override
+    public int getAttributes(long index) throws IOException {
+        return getIndexItemInt(index, INDEX_ITEM_DATA_ITEM_ATTRIBUTES_OFFSET);
+    }
+
+    private int getIndexItemInt(long index, int offset) throws IOException {
+        try {
+            arrayReadLock.lock();
+            validateIndex(index);
+
+            ByteBuffer indexItemBuffer = this.getIndexItemBuffer(index);
+            int position = indexItemBuffer.position();
+            indexItemBuffer.position(position + offset);
+            return indexItemBuffer.getInt();
+        } finally {
+            arrayReadLock.unlock();
+        }
+    }
+
     @Override
     public long size() {
         try {
@@ -365,6 +468,24 @@ public class BigArrayImpl implements IBigArray {
         }
     }
 
+    @Override
+    public void resetIndex(long index) throws IOException {
+        try {
+            arrayWriteLock.lock();
+
+            removeAll(); // data page 0 offset 0 is free again
+            this.arrayHeadIndex.set(index);
+            this.arrayTailIndex.set(index);
+            IMappedPage metadataPage = this.metaPageFactory.acquirePage(META_DATA_PAGE_INDEX);
+            ByteBuffer metadataBuffer = metadataPage.getLocal(0);
+            metadataBuffer.putLong(index);
+            metadataBuffer.putLong(index);
+            metadataPage.setDirty(true);
+        } finally {
+            arrayWriteLock.unlock();
+        }
+    }
+
     @Override
     public void removeBeforeIndex(long index) throws IOException {
         try {
@@ -491,6 +612,22 @@ public class BigArrayImpl implements IBigArray {
         }
     }
 
+    @Override
+    public int getCachedPageCount() {
+        return this.indexPageFactory.getCacheSize() + this.dataPageFactory.getCacheSize() +
+                this.metaPageFactory.getCacheSize();
+    }
+
+    @Override
+    public long getMappedBytes() {
+        return mappedBytesOf(this.indexPageFactory) + mappedBytesOf(this.dataPageFactory) +
+                mappedBytesOf(this.metaPageFactory);
+    }
+
+    static long mappedBytesOf(IMappedPageFactory pageFactory) {
+        return (long) pageFactory.getCacheSize() * pageFactory.getPageSize();
+    }
+
     @Override
     public void limitBackFileSize(long sizeLimit) throws IOException {
         if (sizeLimit < INDEX_PAGE_SIZE + DATA_PAGE_SIZE) {
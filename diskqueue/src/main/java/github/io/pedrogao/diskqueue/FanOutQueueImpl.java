@@ -1,5 +1,6 @@
 package github.io.pedrogao.diskqueue;
 
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
 import github.io.pedrogao.diskqueue.page.IMappedPage;
 import github.io.pedrogao.diskqueue.page.IMappedPageFactory;
 import github.io.pedrogao.diskqueue.page.MappedPageFactoryImpl;
@@ -7,8 +8,12 @@ import github.io.pedrogao.diskqueue.util.FolderNameValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -36,13 +41,32 @@ public class FanOutQueueImpl implements IFanOutQueue {
 
     public FanOutQueueImpl(String queueDir, String queueName, int pageSize)
             throws IOException {
-        innerArray = new BigArrayImpl(queueDir, queueName, pageSize);
+        this(queueDir, queueName, pageSize, IStorageMetrics.NOOP);
+    }
+
+    /**
+     * @param storageMetrics receives the timings of the array and pages of this queue
+     */
+    public FanOutQueueImpl(String queueDir, String queueName, int pageSize, IStorageMetrics storageMetrics)
+            throws IOException {
+        innerArray = new BigArrayImpl(queueDir, queueName, pageSize, storageMetrics);
     }
 
     public FanOutQueueImpl(String queueDir, String queueName) throws IOException {
         this(queueDir, queueName, BigArrayImpl.DEFAULT_DATA_PAGE_SIZE);
     }
 
+    // fanouts not used since open only exist as index folders
+    private void loadAllQueueFronts() throws IOException {
+        File[] folders = new File(innerArray.getArrayDirectory()).listFiles((dir, name) ->
+                name.startsWith(QUEUE_FRONT_INDEX_PAGE_FOLDER_PREFIX));
+        if (folders != null) {
+            for (File folder : folders) {
+                getQueueFront(folder.getName().substring(QUEUE_FRONT_INDEX_PAGE_FOLDER_PREFIX.length()));
+            }
+        }
+    }
+
     QueueFront getQueueFront(String fanoutId) throws IOException {
         QueueFront front = queueFrontMap.get(fanoutId);
         if (front == null) {
@@ -79,6 +103,21 @@ public class FanOutQueueImpl implements IFanOutQueue {
         return innerArray.append(data);
     }
 
+    @Override
+    public long enqueue(List<byte[]> items) throws IOException {
+        return innerArray.append(items);
+    }
+
+    @Override
+    public long enqueue(byte[] data, int recordCount, int attributes) throws IOException {
+        return innerArray.append(data, recordCount, attributes);
+    }
+
+    @Override
+    public long enqueue(byte[] data, int recordCount, int attributes, long timestamp) throws IOException {
+        return innerArray.append(data, recordCount, attributes, timestamp);
+    }
+
     @Override
     public byte[] dequeue(String fanoutId) throws IOException {
         try {
@@ -111,6 +150,28 @@ public class FanOutQueueImpl implements IFanOutQueue {
         }
     }
 
+    @Override
+    public boolean advance(String fanoutId, long index) throws IOException {
+        try {
+            innerArray.arrayReadLock.lock();
+
+            QueueFront queueFront = getQueueFront(fanoutId);
+            try {
+                queueFront.writeLock.lock();
+
+                if (queueFront.index.get() != index || index == innerArray.arrayHeadIndex.get()) {
+                    return false;
+                }
+                queueFront.incrementIndex();
+                return true;
+            } finally {
+                queueFront.writeLock.unlock();
+            }
+        } finally {
+            innerArray.arrayReadLock.unlock();
+        }
+    }
+
     @Override
     public byte[] peek(String fanoutId) throws IOException {
         try {
@@ -166,6 +227,16 @@ public class FanOutQueueImpl implements IFanOutQueue {
         return innerArray.getItemLength(index);
     }
 
+    @Override
+    public int getRecordCount(long index) throws IOException {
+        return innerArray.getRecordCount(index);
+    }
+
+    @Override
+    public int getAttributes(long index) throws IOException {
+        return innerArray.getAttributes(index);
+    }
+
     @Override
     public long getTimestamp(long index) throws IOException {
         return innerArray.getTimestamp(index);
@@ -233,6 +304,31 @@ public class FanOutQueueImpl implements IFanOutQueue {
         }
     }
 
+    @Override
+    public void removeBeforeIndex(long index) throws IOException {
+        try {
+            this.innerArray.arrayWriteLock.lock();
+
+            if (index == this.innerArray.getTailIndex()) {
+                return;
+            }
+            if (index == this.innerArray.getHeadIndex()) { // the head item can not be removed, keep the last one
+                index--;
+            }
+            this.innerArray.removeBeforeIndex(index);
+            for (QueueFront qf : this.queueFrontMap.values()) {
+                try {
+                    qf.writeLock.lock();
+                    qf.validateAndAdjustIndex();
+                } finally {
+                    qf.writeLock.unlock();
+                }
+            }
+        } finally {
+            this.innerArray.arrayWriteLock.unlock();
+        }
+    }
+
     @Override
     public void limitBackFileSize(long sizeLimit) throws IOException {
         try {
@@ -258,6 +354,24 @@ public class FanOutQueueImpl implements IFanOutQueue {
         return this.innerArray.getBackFileSize();
     }
 
+    @Override
+    public int getCachedPageCount() {
+        int count = this.innerArray.getCachedPageCount();
+        for (QueueFront qf : queueFrontMap.values()) {
+            count += qf.indexPageFactory.getCacheSize();
+        }
+        return count;
+    }
+
+    @Override
+    public long getMappedBytes() {
+        long bytes = this.innerArray.getMappedBytes();
+        for (QueueFront qf : queueFrontMap.values()) {
+            bytes += BigArrayImpl.mappedBytesOf(qf.indexPageFactory);
+        }
+        return bytes;
+    }
+
     @Override
     public long findClosestIndex(long timestamp) throws IOException {
         try {
@@ -319,6 +433,27 @@ public class FanOutQueueImpl implements IFanOutQueue {
         }
     }
 
+    @Override
+    public void resetIndex(long index) throws IOException {
+        try {
+            this.innerArray.arrayWriteLock.lock();
+
+            loadAllQueueFronts();
+            innerArray.resetIndex(index);
+            for (QueueFront qf : this.queueFrontMap.values()) {
+                try {
+                    qf.writeLock.lock();
+                    qf.index.set(index);
+                    qf.persistIndex();
+                } finally {
+                    qf.writeLock.unlock();
+                }
+            }
+        } finally {
+            this.innerArray.arrayWriteLock.unlock();
+        }
+    }
+
     @Override
     public long getFrontIndex() {
         return this.innerArray.getTailIndex();
@@ -336,6 +471,57 @@ public class FanOutQueueImpl implements IFanOutQueue {
         }
     }
 
+    @Override
+    public Map<String, Long> getFrontIndexes() {
+        try {
+            this.innerArray.arrayReadLock.lock();
+
+            Map<String, Long> fronts = new HashMap<>();
+            for (QueueFront qf : queueFrontMap.values()) {
+                fronts.put(qf.fanoutId, qf.index.get());
+            }
+            return fronts;
+        } finally {
+            this.innerArray.arrayReadLock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getAllFrontIndexes() throws IOException {
+        try {
+            this.innerArray.arrayReadLock.lock();
+
+            loadAllQueueFronts();
+            Map<String, Long> fronts = new HashMap<>();
+            for (QueueFront qf : queueFrontMap.values()) {
+                fronts.put(qf.fanoutId, qf.index.get());
+            }
+            return fronts;
+        } finally {
+            this.innerArray.arrayReadLock.unlock();
+        }
+    }
+
+    @Override
+    public long getMinFrontIndex() throws IOException {
+        try {
+            this.innerArray.arrayReadLock.lock();
+
+            loadAllQueueFronts();
+            if (queueFrontMap.isEmpty()) {
+                return this.innerArray.getTailIndex();
+            }
+
+            long min = Long.MAX_VALUE;
+            for (QueueFront qf : queueFrontMap.values()) {
+                min = Math.min(min, qf.index.get());
+            }
+            return min;
+        } finally {
+            this.innerArray.arrayReadLock.unlock();
+        }
+    }
+
     @Override
     public long getRearIndex() {
         return this.innerArray.getHeadIndex();
@@ -380,7 +566,7 @@ public class FanOutQueueImpl implements IFanOutQueue {
             // the ttl does not matter here since queue front index page is always cached
             this.indexPageFactory = new MappedPageFactoryImpl(QUEUE_FRONT_INDEX_PAGE_SIZE,
                     innerArray.getArrayDirectory() + QUEUE_FRONT_INDEX_PAGE_FOLDER_PREFIX + fanoutId,
-                    10 * 1000/*does not matter*/);
+                    10 * 1000/*does not matter*/, innerArray.storageMetrics);
 
             IMappedPage indexPage = this.indexPageFactory.acquirePage(QUEUE_FRONT_PAGE_INDEX);
 
@@ -2,16 +2,47 @@ package github.io.pedrogao.diskqueue;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 
 public interface IBigArray extends Closeable {
     long NOT_FOUND = -1;
 
     long append(byte[] data) throws IOException;
 
+    /**
+     * Append items in one go, the items get consecutive indexes
+     *
+     * @param items items to append, can not be empty
+     * @return index of the first appended item
+     */
+    long append(List<byte[]> items) throws IOException;
+
+    /**
+     * Append one item tagged with caller defined metadata, kept in the index item
+     *
+     * @param recordCount number of records packed in the item, 0 for a plain item
+     * @param attributes  opaque flags of the item, e.g. the codec of a packed item
+     * @return index of the appended item
+     */
+    long append(byte[] data, int recordCount, int attributes) throws IOException;
+
+    /**
+     * Append one item with the timestamp it had elsewhere, e.g. when moved over from memory. Timestamps
+     * must not go down from one index to the next, {@link #findClosestIndex(long)} relies on it.
+     *
+     * @param timestamp millis stored as the append time of the item
+     * @return index of the appended item
+     */
+    long append(byte[] data, int recordCount, int attributes, long timestamp) throws IOException;
+
     byte[] get(long index) throws IOException;
 
     long getTimestamp(long index) throws IOException;
 
+    int getRecordCount(long index) throws IOException;
+
+    int getAttributes(long index) throws IOException;
+
     long size();
 
     int getDataPageSize();
@@ -26,6 +57,11 @@ public interface IBigArray extends Closeable {
 
     void removeAll() throws IOException;
 
+    /**
+     * Remove all items, the next appended item gets {@code index}
+     */
+    void resetIndex(long index) throws IOException;
+
     void removeBeforeIndex(long index) throws IOException;
 
     void removeBefore(long timestamp) throws IOException;
@@ -36,6 +72,16 @@ public interface IBigArray extends Closeable {
 
     long getBackFileSize() throws IOException;
 
+    /**
+     * @return pages held mapped by the page caches
+     */
+    int getCachedPageCount();
+
+    /**
+     * @return bytes of the pages held mapped by the page caches
+     */
+    long getMappedBytes();
+
     void limitBackFileSize(long sizeLimit) throws IOException;
 
     int getItemLength(long index) throws IOException;
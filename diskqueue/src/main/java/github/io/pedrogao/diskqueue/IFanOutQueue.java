@@ -2,6 +2,8 @@ package github.io.pedrogao.diskqueue;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 public interface IFanOutQueue extends Closeable {
     /*
@@ -19,8 +21,28 @@ public interface IFanOutQueue extends Closeable {
 
     long enqueue(byte[] data) throws IOException;
 
+    long enqueue(List<byte[]> items) throws IOException;
+
+    /**
+     * Enqueue one item tagged with a record count and attributes, see {@link IBigArray#append(byte[], int, int)}
+     */
+    long enqueue(byte[] data, int recordCount, int attributes) throws IOException;
+
+    /**
+     * Enqueue one item with a given timestamp, see {@link IBigArray#append(byte[], int, int, long)}
+     */
+    long enqueue(byte[] data, int recordCount, int attributes, long timestamp) throws IOException;
+
     byte[] dequeue(String fanoutId) throws IOException;
 
+    /**
+     * Move the front of the fanout past {@code index} if it is still there, for callers that already
+     * read the item at the front
+     *
+     * @return false when the front moved on, another consumer took the item
+     */
+    boolean advance(String fanoutId, long index) throws IOException;
+
     byte[] peek(String fanoutId) throws IOException;
 
     int peekLength(String fanoutId) throws IOException;
@@ -31,6 +53,10 @@ public interface IFanOutQueue extends Closeable {
 
     int getLength(long index) throws IOException;
 
+    int getRecordCount(long index) throws IOException;
+
+    int getAttributes(long index) throws IOException;
+
     long getTimestamp(long index) throws IOException;
 
     long size(String fanoutId) throws IOException;
@@ -41,10 +67,25 @@ public interface IFanOutQueue extends Closeable {
 
     void removeBefore(long timestamp) throws IOException;
 
+    /**
+     * Remove items before the index, fanout fronts behind it move up to it
+     */
+    void removeBeforeIndex(long index) throws IOException;
+
     void limitBackFileSize(long sizeLimit) throws IOException;
 
     long getBackFileSize() throws IOException;
 
+    /**
+     * @return pages held mapped by the page caches, fanout front pages included
+     */
+    int getCachedPageCount();
+
+    /**
+     * @return bytes of the pages held mapped by the page caches, fanout front pages included
+     */
+    long getMappedBytes();
+
 
     long findClosestIndex(long timestamp) throws IOException;
 
@@ -52,9 +93,35 @@ public interface IFanOutQueue extends Closeable {
 
     void removeAll() throws IOException;
 
+    /**
+     * Remove all items and move every fanout to {@code index}, the next enqueued item gets it
+     */
+    void resetIndex(long index) throws IOException;
+
     long getFrontIndex();
 
     long getFrontIndex(String fanoutId) throws IOException;
 
+    /**
+     * Front indexes of the fanouts used since the queue was opened, read without touching the disk
+     *
+     * @return fanout id => front index
+     */
+    Map<String, Long> getFrontIndexes();
+
+    /**
+     * Front indexes of every fanout, those not used since the queue was opened are read from disk
+     *
+     * @return fanout id => front index
+     */
+    Map<String, Long> getAllFrontIndexes() throws IOException;
+
+    /**
+     * Front index of the slowest fanout, including fanouts not used since the queue was opened
+     *
+     * @return front index of the queue when there is no fanout
+     */
+    long getMinFrontIndex() throws IOException;
+
     long getRearIndex();
 }
@@ -0,0 +1,26 @@
+package github.io.pedrogao.diskqueue.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An append moving on to the next data page, an instant event
+ */
+@Name("tinymq.DataPageRollover")
+@Label("Data Page Rollover")
+@Description("Append filled a data page and moved on to the next one")
+@Category({"TinyMQ", "Storage"})
+@Enabled(false)
+public final class DataPageRolloverEvent extends jdk.jfr.Event {
+    @Label("Array Directory")
+    public String arrayDirectory;
+
+    @Label("From Page")
+    public long fromPage;
+
+    @Label("To Page")
+    public long toPage;
+}
@@ -0,0 +1,47 @@
+package github.io.pedrogao.diskqueue.metrics;
+
+/**
+ * Receives timings of the storage operations of the arrays and pages it is passed to.
+ * <p>
+ * Called on the hot path, implementations must not block or allocate. Times are passed as the
+ * {@link #start()} the operation started at, so a disabled listener costs no clock read.
+ */
+public interface IStorageMetrics {
+    IStorageMetrics NOOP = new IStorageMetrics() {
+        @Override
+        public long start() {
+            return 0;
+        }
+    };
+
+    /**
+     * @return start time of an operation to pass back on its end
+     */
+    default long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Items appended to a big array in one call
+     */
+    default void append(int items, long bytes, long startNanos) {
+    }
+
+    default void get(long startNanos) {
+    }
+
+    /**
+     * A page acquired from the cache of its factory
+     */
+    default void pageHit() {
+    }
+
+    /**
+     * A page mapped on acquire, {@code startNanos} is when the mapping started
+     */
+    default void pageMiss(long startNanos) {
+    }
+
+    default void pageFlush(long startNanos) {
+    }
+}
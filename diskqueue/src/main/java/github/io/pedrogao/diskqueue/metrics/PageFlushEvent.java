@@ -0,0 +1,23 @@
+package github.io.pedrogao.diskqueue.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A dirty page forced to disk, the msync behind a flush
+ */
+@Name("tinymq.PageFlush")
+@Label("Page Flush")
+@Description("Dirty mapped page forced to disk")
+@Category({"TinyMQ", "Storage"})
+@Enabled(false)
+public final class PageFlushEvent extends jdk.jfr.Event {
+    @Label("Page File")
+    public String pageFile;
+
+    @Label("Page Index")
+    public long pageIndex;
+}
@@ -0,0 +1,28 @@
+package github.io.pedrogao.diskqueue.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A page file mapped on a page cache miss, disabled unless a recording turns it on
+ */
+@Name("tinymq.PageMap")
+@Label("Page Map")
+@Description("Page file mapped into memory on a page cache miss")
+@Category({"TinyMQ", "Storage"})
+@Enabled(false)
+public final class PageMapEvent extends jdk.jfr.Event {
+    @Label("Page File")
+    public String pageFile;
+
+    @Label("Page Index")
+    public long pageIndex;
+
+    @Label("Page Size")
+    @DataAmount
+    public long pageSize;
+}
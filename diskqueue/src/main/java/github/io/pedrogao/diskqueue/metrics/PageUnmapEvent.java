@@ -0,0 +1,23 @@
+package github.io.pedrogao.diskqueue.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A page unmapped on close, the duration includes the flush of a dirty page
+ */
+@Name("tinymq.PageUnmap")
+@Label("Page Unmap")
+@Description("Page closed and unmapped, including the flush of a dirty page")
+@Category({"TinyMQ", "Storage"})
+@Enabled(false)
+public final class PageUnmapEvent extends jdk.jfr.Event {
+    @Label("Page File")
+    public String pageFile;
+
+    @Label("Page Index")
+    public long pageIndex;
+}
@@ -39,5 +39,8 @@ public interface IMappedPageFactory {
 
     Set<String> getBackPageFileSet();
 
+    /**
+     * @return bytes of the page files, tracked in memory without listing the page directory
+     */
     long getBackPageFileSize();
 }
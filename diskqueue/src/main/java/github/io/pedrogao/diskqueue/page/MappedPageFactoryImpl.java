@@ -2,6 +2,8 @@ package github.io.pedrogao.diskqueue.page;
 
 import github.io.pedrogao.diskqueue.cache.ILRUCache;
 import github.io.pedrogao.diskqueue.cache.LRUCacheImpl;
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
+import github.io.pedrogao.diskqueue.metrics.PageMapEvent;
 import github.io.pedrogao.diskqueue.util.FileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,6 +14,7 @@ import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MappedPageFactoryImpl implements IMappedPageFactory {
     private final static Logger logger = LoggerFactory.getLogger(MappedPageFactoryImpl.class);
@@ -30,7 +33,17 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 
     private final ILRUCache<Long, MappedPageImpl> cache;
 
+    // indexes of the page files on disk, listed once on creation so sizes need no directory listing
+    private final Set<Long> backPageIndexes = ConcurrentHashMap.newKeySet();
+
+    private final IStorageMetrics storageMetrics;
+
     public MappedPageFactoryImpl(int pageSize, String pageDir, long cacheTTL) {
+        this(pageSize, pageDir, cacheTTL, IStorageMetrics.NOOP);
+    }
+
+    public MappedPageFactoryImpl(int pageSize, String pageDir, long cacheTTL, IStorageMetrics storageMetrics) {
+        this.storageMetrics = storageMetrics;
         this.pageSize = pageSize;
         this.pageDir = pageDir;
         this.ttl = cacheTTL;
@@ -43,6 +56,7 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
         }
         this.pageFile = this.pageDir + PAGE_FILE_NAME + "-";
         this.cache = new LRUCacheImpl<>();
+        this.backPageIndexes.addAll(getExistingBackFileIndexSet());
     }
 
     @Override
@@ -60,6 +74,9 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
                 synchronized (lock) {
                     pageOptional = cache.get(index);
                     if (pageOptional.isEmpty()) {
+                        long startNanos = storageMetrics.start();
+                        PageMapEvent event = new PageMapEvent();
+                        event.begin();
                         RandomAccessFile randomAccessFile = null;
                         FileChannel channel = null;
                         try {
@@ -67,8 +84,16 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
                             randomAccessFile = new RandomAccessFile(fileName, "rw");
                             channel = randomAccessFile.getChannel();
                             MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.pageSize);
-                            pageOptional = Optional.of(new MappedPageImpl(buffer, fileName, index));
+                            pageOptional = Optional.of(new MappedPageImpl(buffer, fileName, index, storageMetrics));
                             cache.put(index, pageOptional.get(), ttl);
+                            backPageIndexes.add(index);
+                            storageMetrics.pageMiss(startNanos);
+                            if (event.shouldCommit()) {
+                                event.pageFile = fileName;
+                                event.pageIndex = index;
+                                event.pageSize = this.pageSize;
+                                event.commit();
+                            }
                             if (logger.isDebugEnabled()) {
                                 logger.debug("Mapped page for " + fileName + " was just created and cached.");
                             }
@@ -86,6 +111,7 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
                 }
             }
         } else {
+            storageMetrics.pageHit();
             if (logger.isDebugEnabled()) {
                 logger.debug("Hit mapped page " + pageOptional.get().getPageFile() + " in cache.");
             }
@@ -139,6 +165,7 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
             }
         }
         if (deleted) {
+            backPageIndexes.remove(index);
             logger.info("Page file " + fileName + " was just deleted.");
         } else {
             logger.warn(
@@ -276,17 +303,8 @@ public class MappedPageFactoryImpl implements IMappedPageFactory {
 
     @Override
     public long getBackPageFileSize() {
-        long totalSize = 0;
-        File[] pageFiles = this.pageDirFile.listFiles();
-        if (pageFiles != null) {
-            for (File pageFile : pageFiles) {
-                String fileName = pageFile.getName();
-                if (fileName.endsWith(PAGE_FILE_SUFFIX)) {
-                    totalSize += pageFile.length();
-                }
-            }
-        }
-        return totalSize;
+        // every page file is mapped with the full page size
+        return (long) backPageIndexes.size() * pageSize;
     }
 
     // for testing
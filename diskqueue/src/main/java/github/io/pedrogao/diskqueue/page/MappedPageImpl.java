@@ -1,5 +1,8 @@
 package github.io.pedrogao.diskqueue.page;
 
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
+import github.io.pedrogao.diskqueue.metrics.PageFlushEvent;
+import github.io.pedrogao.diskqueue.metrics.PageUnmapEvent;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
@@ -24,11 +27,19 @@ public class MappedPageImpl implements IMappedPage, Closeable {
 
     private final long index;
 
+    private final IStorageMetrics storageMetrics;
+
     public MappedPageImpl(MappedByteBuffer mappedByteBuffer,
                           String pageFile, long index) {
+        this(mappedByteBuffer, pageFile, index, IStorageMetrics.NOOP);
+    }
+
+    public MappedPageImpl(MappedByteBuffer mappedByteBuffer,
+                          String pageFile, long index, IStorageMetrics storageMetrics) {
         this.threadLocalBuffer = new ThreadLocalBuffer(mappedByteBuffer);
         this.pageFile = pageFile;
         this.index = index;
+        this.storageMetrics = storageMetrics;
     }
 
     @Override
@@ -72,9 +83,18 @@ public class MappedPageImpl implements IMappedPage, Closeable {
             if (closed)
                 return;
             if (dirty) {
+                long startNanos = storageMetrics.start();
+                PageFlushEvent event = new PageFlushEvent();
+                event.begin();
                 var buffer = (MappedByteBuffer) threadLocalBuffer.getBuffer();
                 buffer.force(); // flush changes to disk
                 dirty = false;
+                storageMetrics.pageFlush(startNanos);
+                if (event.shouldCommit()) {
+                    event.pageFile = pageFile;
+                    event.pageIndex = index;
+                    event.commit();
+                }
                 if (logger.isDebugEnabled()) {
                     logger.debug("Mapped page for " + this.pageFile + " was just flushed.");
                 }
@@ -88,10 +108,17 @@ public class MappedPageImpl implements IMappedPage, Closeable {
             if (closed)
                 return;
 
+            PageUnmapEvent event = new PageUnmapEvent();
+            event.begin();
             flush();
 
             var buffer = (MappedByteBuffer) threadLocalBuffer.getBuffer();
             unmap(buffer);
+            if (event.shouldCommit()) {
+                event.pageFile = pageFile;
+                event.pageIndex = index;
+                event.commit();
+            }
 
             this.threadLocalBuffer = null; // for gc
             closed = true;
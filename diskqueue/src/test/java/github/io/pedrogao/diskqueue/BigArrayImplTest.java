@@ -1,5 +1,6 @@
 package github.io.pedrogao.diskqueue;
 
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
 import org.junit.Rule;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -8,10 +9,12 @@ import org.junit.rules.TemporaryFolder;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -346,6 +349,99 @@ class BigArrayImplTest {
         }
     }
 
+    @Test
+    public void batchAppendTest() throws IOException {
+        bigArray = new BigArrayImpl(testDir, "batch_append_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        assertNotNull(bigArray);
+
+        bigArray.append("first".getBytes());
+
+        // spans several data pages and index pages
+        String randomString = TestUtil.randomString(1024);
+        List<byte[]> items = new ArrayList<>();
+        int loop = 200 * 1024;
+        for (int i = 0; i < loop; i++) {
+            items.add((i + randomString).getBytes());
+        }
+        long firstIndex = bigArray.append(items);
+        assertEquals(1L, firstIndex);
+        assertEquals(loop + 1L, bigArray.size());
+        assertEquals(loop + 1L, bigArray.getHeadIndex());
+
+        for (int i = 0; i < loop; i++) {
+            assertEquals(i + randomString, new String(bigArray.get(firstIndex + i)));
+        }
+
+        assertEquals(loop + 1L, bigArray.append("last".getBytes()));
+        assertEquals("last", new String(bigArray.get(loop + 1L)));
+
+        bigArray.close();
+
+        // reopen, the head is restored from the batch metadata
+        bigArray = new BigArrayImpl(testDir, "batch_append_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        assertEquals(loop + 2L, bigArray.size());
+        assertEquals((loop - 1) + randomString, new String(bigArray.get(loop)));
+
+        try {
+            bigArray.append(Collections.emptyList());
+            fail("IllegalArgumentException should be thrown here");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void recordMetadataTest() throws IOException {
+        bigArray = new BigArrayImpl(testDir, "record_metadata_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        assertNotNull(bigArray);
+
+        bigArray.append("plain".getBytes());
+        bigArray.append("packed".getBytes(), 16, 2);
+        bigArray.append(Arrays.asList("a".getBytes(), "b".getBytes()));
+
+        assertEquals(0, bigArray.getRecordCount(0));
+        assertEquals(0, bigArray.getAttributes(0));
+        assertEquals(16, bigArray.getRecordCount(1));
+        assertEquals(2, bigArray.getAttributes(1));
+        assertEquals("packed", new String(bigArray.get(1)));
+        assertEquals(0, bigArray.getRecordCount(3));
+
+        bigArray.close();
+
+        bigArray = new BigArrayImpl(testDir, "record_metadata_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        assertEquals(16, bigArray.getRecordCount(1));
+        assertEquals(2, bigArray.getAttributes(1));
+
+        try {
+            bigArray.getRecordCount(4);
+            fail("IndexOutOfBoundsException should be thrown here");
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+    }
+
+    @Test
+    public void appendTimestampTest() throws IOException {
+        bigArray = new BigArrayImpl(testDir, "append_timestamp_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        assertNotNull(bigArray);
+
+        long now = System.currentTimeMillis();
+        bigArray.append("old".getBytes(), 4, 1, now - 60_000);
+        bigArray.append("older".getBytes(), 0, 0, now - 30_000);
+        bigArray.append("new".getBytes());
+
+        assertEquals(now - 60_000, bigArray.getTimestamp(0));
+        assertEquals(4, bigArray.getRecordCount(0));
+        assertEquals(1, bigArray.getAttributes(0));
+        assertEquals(now - 30_000, bigArray.getTimestamp(1));
+        assertTrue(bigArray.getTimestamp(2) >= now);
+        assertEquals(1, bigArray.findClosestIndex(now - 30_000));
+
+        // kept over a reopen
+        bigArray.close();
+        bigArray = new BigArrayImpl(testDir, "append_timestamp_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        assertEquals(now - 60_000, bigArray.getTimestamp(0));
+        assertEquals(now - 30_000, bigArray.getTimestamp(1));
+    }
+
     @Test
     public void testInvalidDataPageSize() throws IOException {
         try {
@@ -432,6 +528,79 @@ class BigArrayImplTest {
         System.out.println(count);
     }
 
+    @Test
+    public void storageMetricsTest() throws IOException {
+        AtomicLong appendedItems = new AtomicLong();
+        AtomicLong appendedBytes = new AtomicLong();
+        AtomicLong gets = new AtomicLong();
+        AtomicLong pageMisses = new AtomicLong();
+        AtomicLong pageFlushes = new AtomicLong();
+        IStorageMetrics storageMetrics = new IStorageMetrics() {
+            @Override
+            public void append(int items, long bytes, long startNanos) {
+                assertTrue(System.nanoTime() >= startNanos);
+                appendedItems.addAndGet(items);
+                appendedBytes.addAndGet(bytes);
+            }
+
+            @Override
+            public void get(long startNanos) {
+                gets.incrementAndGet();
+            }
+
+            @Override
+            public void pageMiss(long startNanos) {
+                pageMisses.incrementAndGet();
+            }
+
+            @Override
+            public void pageFlush(long startNanos) {
+                pageFlushes.incrementAndGet();
+            }
+        };
+        bigArray = new BigArrayImpl(testDir, "storage_metrics_test", BigArrayImpl.DEFAULT_DATA_PAGE_SIZE, storageMetrics);
+        bigArray.append("hello".getBytes());
+        bigArray.append(Arrays.asList("a".getBytes(), "bc".getBytes()));
+        assertEquals("bc", new String(bigArray.get(2)));
+        bigArray.flush();
+
+        assertEquals(3, appendedItems.get());
+        assertEquals(8, appendedBytes.get());
+        assertEquals(1, gets.get());
+        assertTrue(pageMisses.get() > 0);
+        assertTrue(pageFlushes.get() > 0);
+
+        // another array records elsewhere
+        IBigArray other = new BigArrayImpl(testDir, "storage_metrics_other");
+        try {
+            other.append("x".getBytes());
+            other.get(0);
+        } finally {
+            other.removeAll();
+            other.close();
+        }
+        assertEquals(3, appendedItems.get());
+        assertEquals(1, gets.get());
+        assertEquals(0, IStorageMetrics.NOOP.start());
+    }
+
+    @Test
+    public void mappedBytesTest() throws IOException {
+        bigArray = new BigArrayImpl(testDir, "mapped_bytes_test", BigArrayImpl.MINIMUM_DATA_PAGE_SIZE);
+        // the meta page is mapped on open
+        assertEquals(1, bigArray.getCachedPageCount());
+        assertEquals(BigArrayImpl.META_DATA_PAGE_SIZE, bigArray.getMappedBytes());
+
+        bigArray.append("hello".getBytes());
+        assertEquals(3, bigArray.getCachedPageCount());
+        assertEquals(BigArrayImpl.META_DATA_PAGE_SIZE + BigArrayImpl.INDEX_PAGE_SIZE + bigArray.getDataPageSize(),
+                bigArray.getMappedBytes());
+
+        bigArray.close();
+        assertEquals(0, bigArray.getCachedPageCount());
+        assertEquals(0, bigArray.getMappedBytes());
+    }
+
     @AfterEach
     public void clean() throws IOException {
         if (bigArray != null) {
@@ -5,6 +5,9 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -63,6 +66,26 @@ class FanOutQueueImplTest {
         }
     }
 
+    @Test
+    public void batchEnqueueTest() throws IOException {
+        foQueue = new FanOutQueueImpl(testDir, "batch_enqueue_test");
+        assertNotNull(foQueue);
+
+        List<byte[]> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(("" + i).getBytes());
+        }
+        assertEquals(0L, foQueue.enqueue(items));
+        assertEquals(100L, foQueue.enqueue(items));
+
+        String fid = "batchEnqueueTest";
+        assertEquals(200L, foQueue.size(fid));
+        for (int i = 0; i < 200; i++) {
+            assertEquals("" + (i % 100), new String(foQueue.dequeue(fid)));
+        }
+        assertTrue(foQueue.isEmpty(fid));
+    }
+
     @Test
     public void bigLoopTest() throws IOException {
         foQueue = new FanOutQueueImpl(testDir, "big_loop_test");
@@ -344,6 +367,138 @@ class FanOutQueueImplTest {
         assertEquals(randomString3, new String(foQueue.dequeue("test")));
     }
 
+    @Test
+    public void removeBeforeIndexTest() throws IOException {
+        foQueue = new FanOutQueueImpl(testDir, "remove_before_index");
+        assertNotNull(foQueue);
+
+        for (int i = 0; i < 10; i++) {
+            foQueue.enqueue(("hello" + i).getBytes());
+        }
+        assertEquals(0L, foQueue.getMinFrontIndex()); // no fanout yet
+
+        for (int i = 0; i < 6; i++) {
+            foQueue.dequeue("fast");
+        }
+        for (int i = 0; i < 3; i++) {
+            foQueue.dequeue("slow");
+        }
+        assertEquals(3L, foQueue.getMinFrontIndex());
+
+        foQueue.removeBeforeIndex(foQueue.getMinFrontIndex());
+        assertEquals(3L, foQueue.getFrontIndex());
+        assertEquals("hello3", new String(foQueue.dequeue("slow")));
+        assertEquals("hello6", new String(foQueue.dequeue("fast")));
+
+        // fanouts persisted on disk count after reopen
+        foQueue.close();
+        foQueue = new FanOutQueueImpl(testDir, "remove_before_index");
+        assertEquals(4L, foQueue.getMinFrontIndex());
+
+        for (int i = 0; i < 6; i++) {
+            foQueue.dequeue("slow");
+            foQueue.dequeue("fast");
+        }
+        foQueue.removeBeforeIndex(foQueue.getMinFrontIndex()); // everything consumed, the last item stays
+        assertEquals(9L, foQueue.getFrontIndex());
+        assertTrue(foQueue.isEmpty("slow"));
+        assertTrue(foQueue.isEmpty("fast"));
+    }
+
+    @Test
+    public void resetIndexTest() throws IOException {
+        foQueue = new FanOutQueueImpl(testDir, "reset_index");
+        assertNotNull(foQueue);
+
+        for (int i = 0; i < 5; i++) {
+            foQueue.enqueue(("hello" + i).getBytes());
+        }
+        foQueue.dequeue("fid");
+
+        foQueue.resetIndex(100);
+        assertTrue(foQueue.isEmpty("fid"));
+        assertEquals(100L, foQueue.getFrontIndex());
+        assertEquals(100L, foQueue.getRearIndex());
+        assertEquals(100L, foQueue.enqueue("world".getBytes()));
+        assertEquals("world", new String(foQueue.get(100)));
+        assertEquals("world", new String(foQueue.dequeue("fid")));
+
+        foQueue.close();
+        foQueue = new FanOutQueueImpl(testDir, "reset_index");
+        assertEquals(100L, foQueue.getFrontIndex());
+        assertEquals(101L, foQueue.getRearIndex());
+        assertEquals(101L, foQueue.enqueue("again".getBytes()));
+        assertEquals("again", new String(foQueue.dequeue("fid")));
+    }
+
+    @Test
+    public void getFrontIndexesTest() throws IOException {
+        foQueue = new FanOutQueueImpl(testDir, "front_indexes");
+        assertNotNull(foQueue);
+        assertTrue(foQueue.getFrontIndexes().isEmpty());
+
+        for (int i = 0; i < 5; i++) {
+            foQueue.enqueue(("hello" + i).getBytes());
+        }
+        foQueue.dequeue("fid1");
+        foQueue.dequeue("fid1");
+        foQueue.dequeue("fid2");
+        assertEquals(Map.of("fid1", 2L, "fid2", 1L), foQueue.getFrontIndexes());
+
+        // only fanouts used since open
+        foQueue.close();
+        foQueue = new FanOutQueueImpl(testDir, "front_indexes");
+        assertTrue(foQueue.getFrontIndexes().isEmpty());
+        assertEquals(1L, foQueue.getFrontIndex("fid2"));
+        assertEquals(Map.of("fid2", 1L), foQueue.getFrontIndexes());
+        assertEquals(2L, foQueue.getFrontIndex("fid1"));
+        assertEquals(Map.of("fid1", 2L, "fid2", 1L), foQueue.getFrontIndexes());
+    }
+
+    @Test
+    public void advanceTest() throws IOException {
+        foQueue = new FanOutQueueImpl(testDir, "advance");
+        assertNotNull(foQueue);
+        assertFalse(foQueue.advance("fid1", 0L)); // empty
+
+        for (int i = 0; i < 3; i++) {
+            foQueue.enqueue(("hello" + i).getBytes());
+        }
+        assertFalse(foQueue.advance("fid1", 1L)); // not the front
+        assertTrue(foQueue.advance("fid1", 0L));
+        assertFalse(foQueue.advance("fid1", 0L)); // taken already
+        assertEquals(1L, foQueue.getFrontIndex("fid1"));
+        assertEquals("hello1", new String(foQueue.peek("fid1")));
+        assertEquals(0L, foQueue.getFrontIndex("fid2"));
+
+        assertTrue(foQueue.advance("fid1", 1L));
+        assertTrue(foQueue.advance("fid1", 2L));
+        assertFalse(foQueue.advance("fid1", 3L)); // at the rear
+        assertTrue(foQueue.isEmpty("fid1"));
+
+        // persisted like a dequeue
+        foQueue.close();
+        foQueue = new FanOutQueueImpl(testDir, "advance");
+        assertEquals(3L, foQueue.getFrontIndex("fid1"));
+    }
+
+    @Test
+    public void allFrontIndexesTest() throws IOException {
+        foQueue = new FanOutQueueImpl(testDir, "all_front_indexes");
+        for (int i = 0; i < 3; i++) {
+            foQueue.enqueue(("hello" + i).getBytes());
+        }
+        foQueue.dequeue("fid1");
+        foQueue.dequeue("fid2");
+        foQueue.dequeue("fid2");
+        foQueue.close();
+
+        // fanouts not used since open are only on disk
+        foQueue = new FanOutQueueImpl(testDir, "all_front_indexes");
+        assertTrue(foQueue.getFrontIndexes().isEmpty());
+        assertEquals(Map.of("fid1", 1L, "fid2", 2L), foQueue.getAllFrontIndexes());
+    }
+
     @AfterEach
     public void clean() throws IOException {
         if (foQueue != null) {
@@ -2,11 +2,15 @@ package github.io.pedrogao.diskqueue.page;
 
 import github.io.pedrogao.diskqueue.TestUtil;
 import github.io.pedrogao.diskqueue.util.FileUtil;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -44,6 +48,61 @@ class MappedPageFactoryImplTest {
         assertEquals(1024 * 1024 * 100, mappedPageFactory.getBackPageFileSize());
     }
 
+    @Test
+    public void testBackPageFileSizeTracked() throws IOException {
+        String pageDir = Path.of(testDir, "test_backpage_filesize_tracked").toString();
+        mappedPageFactory = new MappedPageFactoryImpl(1024, pageDir, 2 * 1000);
+
+        for (int i = 0; i < 10; i++) {
+            mappedPageFactory.acquirePage(i);
+        }
+        mappedPageFactory.acquirePage(3); // no new file
+        assertEquals(1024 * 10, mappedPageFactory.getBackPageFileSize());
+
+        mappedPageFactory.deletePagesBeforePageIndex(4);
+        assertEquals(1024 * 6, mappedPageFactory.getBackPageFileSize());
+
+        // existing files are counted on creation
+        mappedPageFactory.releaseCachedPages();
+        mappedPageFactory = new MappedPageFactoryImpl(1024, pageDir, 2 * 1000);
+        assertEquals(1024 * 6, mappedPageFactory.getBackPageFileSize());
+
+        mappedPageFactory.deleteAllPages();
+        assertEquals(0, mappedPageFactory.getBackPageFileSize());
+    }
+
+    @Test
+    public void testPageEventsRecorded() throws IOException {
+        mappedPageFactory = new MappedPageFactoryImpl(1024, Path.of(testDir, "test_page_events").toString(), 2 * 1000);
+
+        Path recordingFile = Files.createTempFile("page-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("tinymq.PageMap");
+            recording.enable("tinymq.PageFlush");
+            recording.enable("tinymq.PageUnmap");
+            recording.start();
+
+            IMappedPage page = mappedPageFactory.acquirePage(2);
+            page.getLocal(0).put((byte) 1);
+            page.setDirty(true);
+            page.flush();
+            mappedPageFactory.releaseCachedPages();
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        Map<String, RecordedEvent> events = new HashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+            events.put(event.getEventType().getName(), event);
+        }
+        Files.delete(recordingFile);
+        assertEquals(2, events.get("tinymq.PageMap").getLong("pageIndex"));
+        assertEquals(1024, events.get("tinymq.PageMap").getLong("pageSize"));
+        assertEquals(2, events.get("tinymq.PageFlush").getLong("pageIndex"));
+        assertEquals(2, events.get("tinymq.PageUnmap").getLong("pageIndex"));
+    }
+
 
     @Test
     public void testSingleThread() throws IOException {
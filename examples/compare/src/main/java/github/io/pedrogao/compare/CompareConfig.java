@@ -0,0 +1,99 @@
+package github.io.pedrogao.compare;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sizes and selection of a comparison run, parsed from {@code --name=value} arguments
+ */
+public class CompareConfig {
+    private String dir = Path.of(System.getProperty("java.io.tmpdir"), "tinymq-compare").toString();
+    // messages written by every round
+    private int messages = 100_000;
+    private int payloadSize = 256;
+    // producer threads of the concurrent producers workload
+    private int threads = 4;
+    // measured rounds of every engine and workload, the median is reported
+    private int rounds = 3;
+    // unreported rounds run first
+    private int warmupRounds = 1;
+    private List<Engine> engines = List.of(Engine.values());
+    private List<Workload> workloads = List.of(Workload.values());
+
+    public static CompareConfig parse(String[] args) {
+        CompareConfig config = new CompareConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("expect --name=value, got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "dir" -> config.dir = value;
+                case "messages" -> config.messages = Integer.parseInt(value);
+                case "payloadSize" -> config.payloadSize = Integer.parseInt(value);
+                case "threads" -> config.threads = Integer.parseInt(value);
+                case "rounds" -> config.rounds = Integer.parseInt(value);
+                case "warmupRounds" -> config.warmupRounds = Integer.parseInt(value);
+                case "engines" -> config.engines = parseList(Engine.class, value);
+                case "workloads" -> config.workloads = parseList(Workload.class, value);
+                default -> throw new IllegalArgumentException("unknown option --" + name);
+            }
+        }
+        if (config.messages < 2 || config.payloadSize < 8 || config.threads < 1 || config.rounds < 1
+                || config.warmupRounds < 0) {
+            throw new IllegalArgumentException("messages >= 2, payloadSize >= 8, threads >= 1, rounds >= 1 "
+                    + "and warmupRounds >= 0 expected");
+        }
+        return config;
+    }
+
+    // comma separated constant names, case and dash insensitive
+    private static <E extends Enum<E>> List<E> parseList(Class<E> type, String value) {
+        List<E> list = new ArrayList<>();
+        for (String name : value.split(",")) {
+            list.add(Enum.valueOf(type, name.trim().replace('-', '_').toUpperCase(Locale.ROOT)));
+        }
+        return list;
+    }
+
+    public String getDir() {
+        return dir;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public int getWarmupRounds() {
+        return warmupRounds;
+    }
+
+    public List<Engine> getEngines() {
+        return engines;
+    }
+
+    public List<Workload> getWorkloads() {
+        return workloads;
+    }
+
+    @Override
+    public String toString() {
+        return "messages=" + messages + ", payloadSize=" + payloadSize + ", threads=" + threads + ", rounds="
+                + rounds + ", warmupRounds=" + warmupRounds + ", dir=" + dir;
+    }
+}
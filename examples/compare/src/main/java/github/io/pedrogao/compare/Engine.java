@@ -0,0 +1,131 @@
+package github.io.pedrogao.compare;
+
+import github.io.pedrogao.diskqueue.BigQueueImpl;
+import github.io.pedrogao.diskqueue.IBigQueue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+
+/**
+ * The engines under comparison, each opened in a directory of its own
+ */
+public enum Engine {
+    DQV1("dqv1") {
+        @Override
+        QueueEngine open(File dir) throws IOException {
+            return new DiskQueueEngine(new github.io.pedrogao.dqv1.DiskQueue(new File(dir, "queue.dqv1")));
+        }
+
+        @Override
+        long capacity() {
+            // a single mapped file, written space is never reclaimed
+            return github.io.pedrogao.dqv1.QueueFile.QUEUE_FILE_LIMIT_LENGTH;
+        }
+    },
+    DQV2("dqv2") {
+        @Override
+        QueueEngine open(File dir) throws IOException {
+            return new DiskQueueEngine(new github.io.pedrogao.dqv2.DiskQueue(dir));
+        }
+    },
+    DQV3("dqv3") {
+        @Override
+        QueueEngine open(File dir) throws IOException {
+            return new DiskQueueEngine(new github.io.pedrogao.dqv3.DiskQueue(dir.getPath(), "queue"));
+        }
+    },
+    BIGQUEUE("bigqueue") {
+        @Override
+        QueueEngine open(File dir) throws IOException {
+            return new BigQueueEngine(new BigQueueImpl(dir.getPath(), "queue"));
+        }
+    };
+
+    private final String label;
+
+    Engine(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Open the engine, reloading what a previous open left in {@code dir}
+     */
+    abstract QueueEngine open(File dir) throws IOException;
+
+    /**
+     * @return bytes the engine can take in over its whole life, items plus their length headers
+     */
+    long capacity() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * dqv1, dqv2 and dqv3 are {@link Queue}s reporting failed writes by returning false
+     */
+    private static final class DiskQueueEngine implements QueueEngine {
+        private final Queue<byte[]> queue;
+
+        private final Closeable closeable;
+
+        <Q extends Queue<byte[]> & Closeable> DiskQueueEngine(Q queue) {
+            this.queue = queue;
+            this.closeable = queue;
+        }
+
+        @Override
+        public void offer(byte[] item) throws IOException {
+            if (!queue.offer(item)) {
+                throw new IOException("offer failed");
+            }
+        }
+
+        @Override
+        public byte[] poll() {
+            return queue.poll();
+        }
+
+        @Override
+        public long size() {
+            return queue.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeable.close();
+        }
+    }
+
+    private static final class BigQueueEngine implements QueueEngine {
+        private final IBigQueue queue;
+
+        BigQueueEngine(IBigQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void offer(byte[] item) throws IOException {
+            queue.enqueue(item);
+        }
+
+        @Override
+        public byte[] poll() throws IOException {
+            return queue.dequeue();
+        }
+
+        @Override
+        public long size() {
+            return queue.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            queue.close();
+        }
+    }
+}
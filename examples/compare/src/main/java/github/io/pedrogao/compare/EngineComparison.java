@@ -0,0 +1,124 @@
+package github.io.pedrogao.compare;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Run every workload against every engine and print the medians as a markdown table
+ * <p>
+ * Each round gets an empty directory under {@code --dir}, removed once the round is over.
+ * <pre>
+ * java github.io.pedrogao.compare.EngineComparison --messages=100000 --payloadSize=256 --threads=4
+ * </pre>
+ */
+public class EngineComparison {
+    private static final Logger log = LoggerFactory.getLogger(EngineComparison.class);
+
+    // item length header written by every engine
+    private static final int HEADER_LENGTH = 4;
+
+    private final CompareConfig config;
+
+    private final byte[] payload;
+
+    public EngineComparison(CompareConfig config) {
+        this.config = config;
+        this.payload = new byte[config.getPayloadSize()];
+        ThreadLocalRandom.current().nextBytes(payload);
+    }
+
+    public static void main(String[] args) throws Exception {
+        CompareConfig config = CompareConfig.parse(args);
+        System.out.println(new EngineComparison(config).run());
+    }
+
+    /**
+     * @return the comparison table, workloads as rows and engines as columns
+     */
+    public String run() throws Exception {
+        Map<Workload, Map<Engine, Double>> results = new EnumMap<>(Workload.class);
+        File root = new File(config.getDir());
+        for (Workload workload : config.getWorkloads()) {
+            for (Engine engine : config.getEngines()) {
+                if ((long) (config.getPayloadSize() + HEADER_LENGTH) * config.getMessages() > engine.capacity()) {
+                    log.warn("skip {} on {}, a round writes more than the engine can hold", workload, engine);
+                    continue;
+                }
+                double[] values = new double[config.getRounds()];
+                for (int i = -config.getWarmupRounds(); i < config.getRounds(); i++) {
+                    double value = runRound(root, workload, engine);
+                    if (i >= 0) {
+                        values[i] = value;
+                    }
+                }
+                Arrays.sort(values);
+                double median = values[values.length / 2];
+                log.info("{} on {}: {} {}", workload, engine, format(median), workload.getUnit());
+                results.computeIfAbsent(workload, k -> new EnumMap<>(Engine.class)).put(engine, median);
+            }
+        }
+        return table(results);
+    }
+
+    private double runRound(File root, Workload workload, Engine engine) throws Exception {
+        File dir = new File(root, engine.getLabel() + "-" + System.nanoTime());
+        if (!dir.mkdirs()) {
+            throw new IOException("can not create " + dir.getAbsolutePath());
+        }
+        try {
+            return workload.run(engine, dir, config, payload);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private String table(Map<Workload, Map<Engine, Double>> results) {
+        StringBuilder out = new StringBuilder();
+        out.append("engine comparison, ").append(config).append("\n\n");
+        out.append("| workload | unit |");
+        for (Engine engine : config.getEngines()) {
+            out.append(' ').append(engine.getLabel()).append(" |");
+        }
+        out.append("\n|---|---|");
+        out.append("---:|".repeat(config.getEngines().size()));
+        out.append('\n');
+        for (Workload workload : config.getWorkloads()) {
+            Map<Engine, Double> row = results.getOrDefault(workload, Map.of());
+            Engine best = null;
+            for (Map.Entry<Engine, Double> entry : row.entrySet()) {
+                if (best == null || (workload.higherIsBetter() ? entry.getValue() > row.get(best)
+                        : entry.getValue() < row.get(best))) {
+                    best = entry.getKey();
+                }
+            }
+            out.append("| ").append(workload.getLabel()).append(" | ").append(workload.getUnit()).append(" |");
+            for (Engine engine : config.getEngines()) {
+                Double value = row.get(engine);
+                if (value == null) {
+                    out.append(" n/a |");
+                } else if (engine == best) {
+                    out.append(" **").append(format(value)).append("** |");
+                } else {
+                    out.append(' ').append(format(value)).append(" |");
+                }
+            }
+            out.append('\n');
+        }
+        out.append("\nmedian of ").append(config.getRounds()).append(" rounds, best in bold. ")
+                .append("cold replay reopens the engine but reads pages still in the OS page cache.\n");
+        return out.toString();
+    }
+
+    private static String format(double value) {
+        return value >= 100 ? String.format(Locale.ROOT, "%,.0f", value) : String.format(Locale.ROOT, "%.2f", value);
+    }
+}
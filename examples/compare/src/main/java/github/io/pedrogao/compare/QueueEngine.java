@@ -0,0 +1,19 @@
+package github.io.pedrogao.compare;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Common view of the queue engines compared by {@link EngineComparison}
+ */
+public interface QueueEngine extends Closeable {
+
+    void offer(byte[] item) throws IOException;
+
+    /**
+     * @return the head item, null when the queue is empty
+     */
+    byte[] poll() throws IOException;
+
+    long size();
+}
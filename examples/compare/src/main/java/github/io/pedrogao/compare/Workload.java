@@ -0,0 +1,168 @@
+package github.io.pedrogao.compare;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One measured round against a freshly opened engine in an empty directory
+ */
+public enum Workload {
+    SEQUENTIAL_APPEND("sequential append", "msg/s") {
+        @Override
+        double run(Engine engine, File dir, CompareConfig config, byte[] payload) throws Exception {
+            long start;
+            try (QueueEngine queue = engine.open(dir)) {
+                start = System.nanoTime();
+                append(queue, config.getMessages(), payload);
+            }
+            return rate(config.getMessages(), System.nanoTime() - start);
+        }
+    },
+    APPEND_POLL("append + poll", "msg/s") {
+        @Override
+        double run(Engine engine, File dir, CompareConfig config, byte[] payload) throws Exception {
+            long start;
+            try (QueueEngine queue = engine.open(dir)) {
+                start = System.nanoTime();
+                for (int i = 0; i < config.getMessages(); i++) {
+                    queue.offer(payload);
+                    if (queue.poll() == null) {
+                        throw new IllegalStateException(engine.getLabel() + " lost message " + i);
+                    }
+                }
+            }
+            return rate(config.getMessages(), System.nanoTime() - start);
+        }
+    },
+    CONCURRENT_PRODUCERS("concurrent producers", "msg/s") {
+        @Override
+        double run(Engine engine, File dir, CompareConfig config, byte[] payload) throws Exception {
+            int threads = config.getThreads();
+            int perThread = config.getMessages() / threads;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            long start;
+            long elapsed;
+            try (QueueEngine queue = engine.open(dir)) {
+                CountDownLatch ready = new CountDownLatch(threads);
+                CountDownLatch go = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executor.submit(() -> {
+                        ready.countDown();
+                        go.await();
+                        append(queue, perThread, payload);
+                        return null;
+                    }));
+                }
+                ready.await();
+                start = System.nanoTime();
+                go.countDown();
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                elapsed = System.nanoTime() - start;
+                if (queue.size() != (long) perThread * threads) {
+                    throw new IllegalStateException(engine.getLabel() + " holds " + queue.size() + " messages, expect "
+                            + (long) perThread * threads);
+                }
+            } finally {
+                executor.shutdownNow();
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            return rate((long) perThread * threads, elapsed);
+        }
+    },
+    COLD_REPLAY("cold replay", "msg/s") {
+        @Override
+        double run(Engine engine, File dir, CompareConfig config, byte[] payload) throws Exception {
+            try (QueueEngine queue = engine.open(dir)) {
+                append(queue, config.getMessages(), payload);
+            }
+            // reopened, but the pages just written are still in the OS page cache
+            long start = System.nanoTime();
+            try (QueueEngine queue = engine.open(dir)) {
+                drain(engine, queue, config.getMessages());
+            }
+            return rate(config.getMessages(), System.nanoTime() - start);
+        }
+    },
+    RESTART_RECOVERY("restart recovery", "ms") {
+        @Override
+        double run(Engine engine, File dir, CompareConfig config, byte[] payload) throws Exception {
+            int messages = config.getMessages();
+            try (QueueEngine queue = engine.open(dir)) {
+                append(queue, messages, payload);
+                drain(engine, queue, messages / 2);
+            }
+            // open until the first message left behind is served
+            long start = System.nanoTime();
+            try (QueueEngine queue = engine.open(dir)) {
+                if (queue.poll() == null) {
+                    throw new IllegalStateException(engine.getLabel() + " lost its messages over the restart");
+                }
+                long elapsed = System.nanoTime() - start;
+                if (queue.size() != messages - messages / 2 - 1) {
+                    throw new IllegalStateException(engine.getLabel() + " recovered " + (queue.size() + 1)
+                            + " messages, expect " + (messages - messages / 2));
+                }
+                return elapsed / 1e6;
+            }
+        }
+
+        @Override
+        boolean higherIsBetter() {
+            return false;
+        }
+    };
+
+    private final String label;
+
+    private final String unit;
+
+    Workload(String label, String unit) {
+        this.label = label;
+        this.unit = unit;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return the measured value in {@link #getUnit()}
+     */
+    abstract double run(Engine engine, File dir, CompareConfig config, byte[] payload) throws Exception;
+
+    boolean higherIsBetter() {
+        return true;
+    }
+
+    private static void append(QueueEngine queue, int messages, byte[] payload) throws Exception {
+        for (int i = 0; i < messages; i++) {
+            queue.offer(payload);
+        }
+    }
+
+    private static void drain(Engine engine, QueueEngine queue, int messages) throws Exception {
+        for (int i = 0; i < messages; i++) {
+            if (queue.poll() == null) {
+                throw new IllegalStateException(engine.getLabel() + " ran empty after " + i + " of " + messages
+                        + " messages");
+            }
+        }
+    }
+
+    private static double rate(long messages, long nanos) {
+        return messages * 1e9 / nanos;
+    }
+}
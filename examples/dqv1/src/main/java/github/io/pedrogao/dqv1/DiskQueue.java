@@ -3,12 +3,13 @@ package github.io.pedrogao.dqv1;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.AbstractQueue;
 import java.util.Iterator;
 
-public class DiskQueue extends AbstractQueue<byte[]> {
+public class DiskQueue extends AbstractQueue<byte[]> implements Closeable {
 
     private final Logger log = LoggerFactory.getLogger(DiskQueue.class);
 
@@ -56,4 +57,9 @@ public class DiskQueue extends AbstractQueue<byte[]> {
     public byte[] peek() {
         return queueFile.peek();
     }
+
+    @Override
+    public void close() throws IOException {
+        queueFile.close();
+    }
 }
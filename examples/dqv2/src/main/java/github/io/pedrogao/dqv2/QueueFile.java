@@ -208,7 +208,7 @@ public class QueueFile {
     }
 
     private void flush() {
-        indexFile.flush();
+        indexFile.flushIndexData();
         readerHeapFile.flush();
         writerHeapFile.flush();
     }
@@ -49,4 +49,25 @@ class DiskQueueTest {
         size = queue.size();
         assertEquals(size, 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    void closeAndReopen() throws IOException {
+        File file = Files.createTempDirectory("queue").toFile();
+        DiskQueue queue = new DiskQueue(file, true);
+        for (int i = 0; i < 1000; i++) {
+            queue.offer(("Hello Queue" + i).getBytes());
+        }
+        for (int i = 0; i < 400; i++) {
+            queue.poll();
+        }
+        queue.close();
+
+        queue = new DiskQueue(file);
+        assertEquals(queue.size(), 600);
+        for (int i = 400; i < 1000; i++) {
+            assertEquals(new String(queue.poll()), "Hello Queue" + i);
+        }
+        assertNull(queue.poll());
+        queue.close();
+    }
+}
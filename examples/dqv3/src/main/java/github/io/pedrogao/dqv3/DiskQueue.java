@@ -3,11 +3,12 @@ package github.io.pedrogao.dqv3;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.AbstractQueue;
 import java.util.Iterator;
 
-public class DiskQueue extends AbstractQueue<byte[]> {
+public class DiskQueue extends AbstractQueue<byte[]> implements Closeable {
 
     private final Logger log = LoggerFactory.getLogger(DiskQueue.class);
 
@@ -61,4 +62,9 @@ public class DiskQueue extends AbstractQueue<byte[]> {
             throw new RuntimeException(e);
         }
     }
+
+    @Override
+    public void close() throws IOException {
+        queueFile.close();
+    }
 }
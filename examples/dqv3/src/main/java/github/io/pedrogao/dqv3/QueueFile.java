@@ -7,7 +7,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.file.Path;
-import java.util.Random;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -41,12 +40,15 @@ public class QueueFile {
     private RandomAccessFile writeFile;
 
     // Common fields
-    private final Random random = new Random(System.currentTimeMillis());
 
     private final Logger log = LoggerFactory.getLogger(QueueFile.class);
 
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
 
+    private final Thread syncThread;
+
+    private volatile boolean closed = false;
+
     public QueueFile(String path) throws IOException {
         this(path, "anonymous", DEFAULT_MAX_BYTES_PER_FILE, DEFAULT_SYNC_INTERVAL);
     }
@@ -88,20 +90,53 @@ public class QueueFile {
 
         readMetadata();
 
-        new Thread(() -> {
-            while (true) {
+        syncThread = new Thread(() -> {
+            while (!closed) {
                 try {
                     Thread.sleep(syncInterval);
+                } catch (InterruptedException e) {
+                    return; // closed
+                }
 
-                    readWriteLock.writeLock().lock();
-                    sync();
+                readWriteLock.writeLock().lock();
+                try {
+                    if (!closed) {
+                        sync();
+                    }
                 } catch (Exception e) {
                     log.error("sync queue " + name + " error", e);
                 } finally {
                     readWriteLock.writeLock().unlock();
                 }
             }
-        }).start();
+        }, "dqv3-sync-" + name);
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * Stop the sync thread, sync once more and close the data files
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        syncThread.interrupt();
+        try {
+            readWriteLock.writeLock().lock();
+            sync();
+            if (readFile != null) {
+                readFile.close();
+                readFile = null;
+            }
+            if (writeFile != null) {
+                writeFile.close();
+                writeFile = null;
+            }
+        } finally {
+            readWriteLock.writeLock().unlock();
+        }
     }
 
 
@@ -110,7 +145,8 @@ public class QueueFile {
         // 2. write metadata to temp file
         // 3. rename temp file to index file
         String path = getMetaFilePath();
-        File tempFile = File.createTempFile(path + random.nextInt(), ".tmp");
+        // next to the meta file, a rename can not cross file systems
+        File tempFile = File.createTempFile(name + ".meta", ".tmp", new File(this.path));
         try (RandomAccessFile tempRandomAccessFile = new RandomAccessFile(tempFile, "rw")) {
             tempRandomAccessFile.writeLong(readPosition);
             tempRandomAccessFile.writeLong(writePosition);
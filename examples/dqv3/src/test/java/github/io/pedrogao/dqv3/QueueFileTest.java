@@ -142,6 +142,27 @@ class QueueFileTest {
         assertEquals(size, 1);
     }
 
+    @Test
+    void closeAndReopen() throws IOException {
+        String path = Files.createTempDirectory("queue" + random.nextInt()).toString();
+        QueueFile queueFile = new QueueFile(path, "reopen", 1024);
+
+        for (int i = 0; i < 1000; i++) {
+            queueFile.write(("Hello Queue" + i).getBytes());
+        }
+        for (int i = 0; i < 400; i++) {
+            queueFile.read();
+        }
+        queueFile.close();
+
+        queueFile = new QueueFile(path, "reopen", 1024);
+        assertEquals(queueFile.getSize(), 600);
+        for (int i = 400; i < 1000; i++) {
+            assertEquals(new String(queueFile.read()), "Hello Queue" + i);
+        }
+        queueFile.close();
+    }
+
     @Test
     void getMaxBytesPerFile() throws IOException {
         String path = Files.createTempDirectory("queue" + random.nextInt()).toString();
@@ -0,0 +1,11 @@
+package github.io.pedrogao.mq.loadgen;
+
+/**
+ * Client API driving the load
+ */
+public enum ClientType {
+    // Sender and DefaultFetcher, message framing and retries included
+    CLIENT,
+    // generated blocking stubs with raw payloads
+    STUB
+}
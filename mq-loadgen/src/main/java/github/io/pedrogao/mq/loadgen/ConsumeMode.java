@@ -0,0 +1,11 @@
+package github.io.pedrogao.mq.loadgen;
+
+/**
+ * How consumers get messages
+ */
+public enum ConsumeMode {
+    // consumeMessage polling, backing off briefly when the channel is empty
+    FETCH,
+    // subscribe stream, the broker pushes batches
+    SUBSCRIBE
+}
@@ -0,0 +1,81 @@
+package github.io.pedrogao.mq.loadgen;
+
+import github.io.pedrogao.mq.metrics.MetricsInterceptor;
+import github.io.pedrogao.mq.queue.QueueManager;
+import github.io.pedrogao.mq.registry.LocalRegistry;
+import github.io.pedrogao.mq.registry.RegistryService;
+import github.io.pedrogao.mq.server.GrpcServer;
+import github.io.pedrogao.mq.server.ServerConfig;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A broker in this JVM with an in-memory registry, served in-process or by Netty on a local port
+ */
+public class LoadBroker {
+    private final LoadConfig config;
+
+    private final ServerConfig serverConfig;
+
+    private final RegistryService registry = new LocalRegistry();
+
+    private final QueueManager queueManager;
+
+    private final String serverName = "tinymq-loadgen-" + System.nanoTime();
+
+    // one of them, by transport
+    private Server inProcessServer;
+
+    private GrpcServer grpcServer;
+
+    public LoadBroker(LoadConfig config, ServerConfig serverConfig) {
+        this.config = config;
+        this.serverConfig = serverConfig;
+        this.queueManager = new QueueManager(serverConfig, registry);
+    }
+
+    public void start() throws IOException {
+        if (config.getTransport() == Transport.IN_PROCESS) {
+            inProcessServer = InProcessServerBuilder.forName(serverName)
+                    .addService(ServerInterceptors.intercept(queueManager,
+                            new MetricsInterceptor(queueManager.getMetrics())))
+                    .build()
+                    .start();
+        } else {
+            grpcServer = new GrpcServer(queueManager, serverConfig);
+            grpcServer.start(config.getPort());
+        }
+    }
+
+    /**
+     * @return a new channel to the broker, owned by the caller
+     */
+    public ManagedChannel newChannel() {
+        if (config.getTransport() == Transport.IN_PROCESS) {
+            return InProcessChannelBuilder.forName(serverName).build();
+        }
+        return ManagedChannelBuilder.forAddress("127.0.0.1", config.getPort()).usePlaintext().build();
+    }
+
+    public QueueManager getQueueManager() {
+        return queueManager;
+    }
+
+    public void close() throws InterruptedException, IOException {
+        if (inProcessServer != null) {
+            inProcessServer.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (grpcServer != null) {
+            grpcServer.close();
+        }
+        queueManager.close();
+        registry.close();
+    }
+}
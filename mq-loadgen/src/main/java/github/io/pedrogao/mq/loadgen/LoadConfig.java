@@ -0,0 +1,219 @@
+package github.io.pedrogao.mq.loadgen;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Mix and pacing of a load run, parsed from {@code --name=value} arguments
+ */
+public class LoadConfig {
+    private Transport transport = Transport.IN_PROCESS;
+    private ClientType clientType = ClientType.CLIENT;
+    private ConsumeMode consumeMode = ConsumeMode.FETCH;
+    private int port = 17070;
+    private String dataDir = Path.of(System.getProperty("java.io.tmpdir"), "tinymq-loadgen").toString();
+    private int queues = 1;
+    // producer threads per queue
+    private int producers = 1;
+    // channels per queue, every channel gets every message
+    private int fanouts = 1;
+    // consumer threads per channel
+    private int consumers = 1;
+    private int payloadSize = 256;
+    // storage engine of the queues
+    private String engine = "disk";
+    // messages per produce request, above 1 produces batches
+    private int produceBatch = 1;
+    private int consumeBatch = 64;
+    // messages per second of each producer, 0 sends as fast as responses come back
+    private long rate = 0;
+    private int warmupSeconds = 5;
+    private int durationSeconds = 30;
+    // how long consumers may drain what was produced once producers stop
+    private int drainSeconds = 10;
+
+    public static LoadConfig parse(String[] args) {
+        LoadConfig config = new LoadConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("expect --name=value, got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "transport" -> config.transport = Transport.valueOf(enumName(value));
+                case "client" -> config.clientType = ClientType.valueOf(enumName(value));
+                case "consume" -> config.consumeMode = ConsumeMode.valueOf(enumName(value));
+                case "port" -> config.port = Integer.parseInt(value);
+                case "dataDir" -> config.dataDir = value;
+                case "queues" -> config.queues = Integer.parseInt(value);
+                case "producers" -> config.producers = Integer.parseInt(value);
+                case "fanouts" -> config.fanouts = Integer.parseInt(value);
+                case "consumers" -> config.consumers = Integer.parseInt(value);
+                case "payloadSize" -> config.payloadSize = Integer.parseInt(value);
+                case "engine" -> config.engine = value;
+                case "produceBatch" -> config.produceBatch = Integer.parseInt(value);
+                case "consumeBatch" -> config.consumeBatch = Integer.parseInt(value);
+                case "rate" -> config.rate = Long.parseLong(value);
+                case "warmup" -> config.warmupSeconds = Integer.parseInt(value);
+                case "duration" -> config.durationSeconds = Integer.parseInt(value);
+                case "drain" -> config.drainSeconds = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("unknown option " + name);
+            }
+        }
+        if (config.payloadSize < LoadGenerator.TIMESTAMP_BYTES) {
+            throw new IllegalArgumentException("payloadSize must hold the " + LoadGenerator.TIMESTAMP_BYTES
+                    + " byte send timestamp");
+        }
+        return config;
+    }
+
+    private static String enumName(String value) {
+        return value.toUpperCase(Locale.ROOT).replace('-', '_');
+    }
+
+    @Override
+    public String toString() {
+        return "transport=" + transport + " client=" + clientType + " consume=" + consumeMode + " engine=" + engine +
+                " queues=" + queues + " producers=" + producers + " fanouts=" + fanouts +
+                " consumers=" + consumers + " payloadSize=" + payloadSize + " produceBatch=" + produceBatch +
+                " consumeBatch=" + consumeBatch + " rate=" + (rate > 0 ? rate + "/s" : "unpaced") +
+                " warmup=" + warmupSeconds + "s duration=" + durationSeconds + "s";
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public ClientType getClientType() {
+        return clientType;
+    }
+
+    public void setClientType(ClientType clientType) {
+        this.clientType = clientType;
+    }
+
+    public ConsumeMode getConsumeMode() {
+        return consumeMode;
+    }
+
+    public void setConsumeMode(ConsumeMode consumeMode) {
+        this.consumeMode = consumeMode;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getDataDir() {
+        return dataDir;
+    }
+
+    public void setDataDir(String dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    public int getQueues() {
+        return queues;
+    }
+
+    public void setQueues(int queues) {
+        this.queues = queues;
+    }
+
+    public int getProducers() {
+        return producers;
+    }
+
+    public void setProducers(int producers) {
+        this.producers = producers;
+    }
+
+    public int getFanouts() {
+        return fanouts;
+    }
+
+    public void setFanouts(int fanouts) {
+        this.fanouts = fanouts;
+    }
+
+    public int getConsumers() {
+        return consumers;
+    }
+
+    public void setConsumers(int consumers) {
+        this.consumers = consumers;
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    public void setPayloadSize(int payloadSize) {
+        this.payloadSize = payloadSize;
+    }
+
+    public int getProduceBatch() {
+        return produceBatch;
+    }
+
+    public void setProduceBatch(int produceBatch) {
+        this.produceBatch = produceBatch;
+    }
+
+    public int getConsumeBatch() {
+        return consumeBatch;
+    }
+
+    public void setConsumeBatch(int consumeBatch) {
+        this.consumeBatch = consumeBatch;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public void setRate(long rate) {
+        this.rate = rate;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public void setWarmupSeconds(int warmupSeconds) {
+        this.warmupSeconds = warmupSeconds;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(int durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public int getDrainSeconds() {
+        return drainSeconds;
+    }
+
+    public void setDrainSeconds(int drainSeconds) {
+        this.drainSeconds = drainSeconds;
+    }
+}
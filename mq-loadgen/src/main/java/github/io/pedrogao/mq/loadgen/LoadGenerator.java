@@ -0,0 +1,364 @@
+package github.io.pedrogao.mq.loadgen;
+
+import com.google.protobuf.ByteString;
+import github.io.pedrogao.diskqueue.util.FileUtil;
+import github.io.pedrogao.mq.api.ConsumeMessageRequest;
+import github.io.pedrogao.mq.api.MessageList;
+import github.io.pedrogao.mq.api.ProduceBatchRequest;
+import github.io.pedrogao.mq.api.ProduceMessageRequest;
+import github.io.pedrogao.mq.api.QueueServiceGrpc;
+import github.io.pedrogao.mq.api.Result;
+import github.io.pedrogao.mq.api.ResultCode;
+import github.io.pedrogao.mq.api.SubscribeRequest;
+import github.io.pedrogao.mq.api.SubscribeResponse;
+import github.io.pedrogao.mq.consumer.DefaultFetcher;
+import github.io.pedrogao.mq.exception.StubException;
+import github.io.pedrogao.mq.message.Message;
+import github.io.pedrogao.mq.message.MessagePack;
+import github.io.pedrogao.mq.producer.Sender;
+import github.io.pedrogao.mq.server.ServerConfig;
+import io.grpc.ManagedChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts a broker in this JVM and drives a producer/consumer/fanout mix against it.
+ * <p>
+ * Every payload starts with the nanos its send was due, producers with a rate send on a fixed
+ * schedule and catch up when the broker held them back, so latencies are measured from the schedule
+ * rather than from when a stalled producer got around to sending.
+ * <pre>
+ * LoadGenerator --transport=netty --client=stub --producers=4 --fanouts=2 --rate=5000 --duration=60
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    static final int TIMESTAMP_BYTES = 8;
+
+    // polling consumers wait this long when their channel is empty
+    private static final long IDLE_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final LoadConfig config;
+
+    private final LoadStats stats = new LoadStats();
+
+    // warmup and drain included, to know when consumers caught up
+    private final LongAdder producedTotal = new LongAdder();
+
+    private final LongAdder consumedTotal = new LongAdder();
+
+    private final List<ManagedChannel> channels = new CopyOnWriteArrayList<>();
+
+    private volatile boolean producing = true;
+
+    private volatile boolean consuming = true;
+
+    private LoadBroker broker;
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+    }
+
+    public LoadStats run() throws Exception {
+        String dataDir = Path.of(config.getDataDir(), "run-" + System.currentTimeMillis()).toString();
+        if (!new File(dataDir).mkdirs()) {
+            throw new IOException("can not create data dir " + dataDir);
+        }
+        ServerConfig serverConfig = new ServerConfig("loadgen", "127.0.0.1", null, dataDir, config.getPort());
+        serverConfig.setDefaultQueueEngine(config.getEngine());
+        broker = new LoadBroker(config, serverConfig);
+        broker.start();
+        try {
+            List<String> queues = new ArrayList<>();
+            Sender admin = new Sender(broker.newChannel(), "");
+            for (int i = 0; i < config.getQueues(); i++) {
+                queues.add("loadgen-" + i);
+                admin.createQueue(queues.get(i));
+            }
+            admin.shutdown();
+
+            List<Thread> consumerThreads = new ArrayList<>();
+            List<Thread> producerThreads = new ArrayList<>();
+            for (String queue : queues) {
+                for (int fanout = 0; fanout < config.getFanouts(); fanout++) {
+                    String channelName = "channel-" + fanout;
+                    for (int i = 0; i < config.getConsumers(); i++) {
+                        consumerThreads.add(start("consumer-" + queue + "-" + channelName + "-" + i,
+                                () -> consume(queue, channelName)));
+                    }
+                }
+                for (int i = 0; i < config.getProducers(); i++) {
+                    producerThreads.add(start("producer-" + queue + "-" + i, () -> produce(queue)));
+                }
+            }
+
+            TimeUnit.SECONDS.sleep(config.getWarmupSeconds());
+            stats.start();
+            TimeUnit.SECONDS.sleep(config.getDurationSeconds());
+            stats.stop();
+
+            producing = false;
+            for (Thread thread : producerThreads) {
+                thread.join();
+            }
+            long expected = producedTotal.sum() * config.getFanouts();
+            long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getDrainSeconds());
+            while (consumedTotal.sum() < expected && System.nanoTime() < drainDeadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            if (consumedTotal.sum() < expected) {
+                log.warn("consumers left {} of {} messages behind", expected - consumedTotal.sum(), expected);
+            }
+            consuming = false;
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow(); // wakes consumers blocked on a subscribe stream
+            }
+            for (Thread thread : consumerThreads) {
+                thread.join();
+            }
+            return stats;
+        } finally {
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow();
+            }
+            broker.close();
+            FileUtil.deleteDirectory(new File(dataDir));
+        }
+    }
+
+    private Thread start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private ManagedChannel newChannel() {
+        ManagedChannel channel = broker.newChannel();
+        channels.add(channel);
+        return channel;
+    }
+
+    private void produce(String queue) {
+        ManagedChannel channel = newChannel();
+        Sender sender = config.getClientType() == ClientType.CLIENT ? new Sender(channel, queue) : null;
+        QueueServiceGrpc.QueueServiceBlockingStub stub = QueueServiceGrpc.newBlockingStub(channel);
+        int batch = config.getProduceBatch();
+        long intervalNanos = config.getRate() > 0 ? TimeUnit.SECONDS.toNanos(batch) / config.getRate() : 0;
+        long nextDueNanos = System.nanoTime();
+        while (producing) {
+            long dueNanos;
+            if (intervalNanos > 0) {
+                dueNanos = nextDueNanos;
+                nextDueNanos += intervalNanos;
+                waitUntil(dueNanos);
+            } else {
+                dueNanos = System.nanoTime();
+            }
+            List<byte[]> payloads = new ArrayList<>(batch);
+            for (int i = 0; i < batch; i++) {
+                payloads.add(payloadOf(dueNanos));
+            }
+
+            long startNanos = System.nanoTime();
+            try {
+                if (sender != null) {
+                    send(sender, payloads);
+                } else {
+                    send(stub, queue, payloads);
+                }
+            } catch (RuntimeException e) {
+                if (!producing) {
+                    return;
+                }
+                if (stats.isRecording()) {
+                    stats.produceErrors.increment();
+                }
+                log.debug("produce to {} error", queue, e);
+                continue;
+            }
+            long endNanos = System.nanoTime();
+            producedTotal.add(batch);
+            if (stats.isRecording()) {
+                stats.serviceTime.record(endNanos - startNanos);
+                stats.responseTime.record(endNanos - dueNanos);
+                stats.producedMessages.add(batch);
+                stats.producedBytes.add((long) batch * config.getPayloadSize());
+            }
+        }
+    }
+
+    private static void send(Sender sender, List<byte[]> payloads) {
+        if (payloads.size() == 1) {
+            sender.send(payloads.get(0));
+        } else {
+            sender.sendBatch(payloads);
+        }
+    }
+
+    private static void send(QueueServiceGrpc.QueueServiceBlockingStub stub, String queue, List<byte[]> payloads) {
+        Result result;
+        if (payloads.size() == 1) {
+            ProduceMessageRequest request = ProduceMessageRequest.newBuilder().setQueueName(queue)
+                    .setPayload(ByteString.copyFrom(payloads.get(0))).build();
+            result = stub.produceMessage(request).getResult();
+        } else {
+            MessagePack.Builder pack = MessagePack.newBuilder();
+            for (byte[] payload : payloads) {
+                pack.addPayloads(ByteString.copyFrom(payload));
+            }
+            ProduceBatchRequest request = ProduceBatchRequest.newBuilder().setQueueName(queue)
+                    .setMessagePack(pack).build();
+            result = stub.produceBatch(request).getResult();
+        }
+        throwIfNotSuccess(result);
+    }
+
+    private byte[] payloadOf(long dueNanos) {
+        byte[] payload = new byte[config.getPayloadSize()];
+        ByteBuffer.wrap(payload).putLong(dueNanos);
+        return payload;
+    }
+
+    private static void waitUntil(long dueNanos) {
+        long waitNanos;
+        while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+
+    private void consume(String queue, String channelName) {
+        ManagedChannel channel = newChannel();
+        try {
+            if (config.getClientType() == ClientType.CLIENT) {
+                consumeWithFetcher(new DefaultFetcher(channel, queue, channelName, config.getConsumeBatch()));
+            } else {
+                consumeWithStub(QueueServiceGrpc.newBlockingStub(channel), queue, channelName);
+            }
+        } catch (RuntimeException e) {
+            if (consuming) {
+                log.error("consumer of {}/{} stopped", queue, channelName, e);
+            }
+        }
+    }
+
+    private void consumeWithFetcher(DefaultFetcher fetcher) {
+        if (config.getConsumeMode() == ConsumeMode.SUBSCRIBE) {
+            Iterator<Message> messages = fetcher.subscribe();
+            while (consuming && messages.hasNext()) {
+                received(messages.next().getBody());
+            }
+            return;
+        }
+        while (consuming) {
+            List<Message> messages;
+            try {
+                messages = fetcher.fetch();
+            } catch (StubException e) {
+                consumeError(e);
+                continue;
+            }
+            for (Message message : messages) {
+                received(message.getBody());
+            }
+            if (messages.isEmpty()) {
+                LockSupport.parkNanos(IDLE_BACKOFF_NANOS);
+            }
+        }
+    }
+
+    private void consumeWithStub(QueueServiceGrpc.QueueServiceBlockingStub stub, String queue, String channelName) {
+        if (config.getConsumeMode() == ConsumeMode.SUBSCRIBE) {
+            SubscribeRequest request = SubscribeRequest.newBuilder().setQueueName(queue).setChannelName(channelName)
+                    .setBatchSize(config.getConsumeBatch()).build();
+            Iterator<SubscribeResponse> responses = stub.subscribe(request);
+            while (consuming && responses.hasNext()) {
+                SubscribeResponse response = responses.next();
+                throwIfNotSuccess(response.getResult());
+                receivedRaw(response.getMessageList());
+            }
+            return;
+        }
+        ConsumeMessageRequest request = ConsumeMessageRequest.newBuilder().setQueueName(queue)
+                .setChannelName(channelName).setBatchSize(config.getConsumeBatch()).build();
+        while (consuming) {
+            MessageList messageList;
+            try {
+                var response = stub.consumeMessage(request);
+                throwIfNotSuccess(response.getResult());
+                messageList = response.getMessageList();
+            } catch (StubException e) {
+                consumeError(e);
+                continue;
+            }
+            receivedRaw(messageList);
+            if (messageList.getSize() == 0) {
+                LockSupport.parkNanos(IDLE_BACKOFF_NANOS);
+            }
+        }
+    }
+
+    private void consumeError(StubException e) {
+        if (stats.isRecording()) {
+            stats.consumeErrors.increment();
+        }
+        log.debug("consume error", e);
+        LockSupport.parkNanos(IDLE_BACKOFF_NANOS);
+    }
+
+    // payloads as produced by the stubs, packed and uncompressed
+    private void receivedRaw(MessageList messageList) {
+        if (messageList.getBatchesCount() > 0) {
+            for (MessageList batch : messageList.getBatchesList()) {
+                receivedRaw(batch);
+            }
+            return;
+        }
+        if (messageList.getSize() == 0) {
+            return;
+        }
+        MessagePack pack;
+        try {
+            pack = MessagePack.parseFrom(messageList.getPayload());
+        } catch (IOException e) {
+            throw new StubException("parse message pack error", e);
+        }
+        for (ByteString payload : pack.getPayloadsList()) {
+            received(payload.toByteArray());
+        }
+    }
+
+    private void received(byte[] payload) {
+        consumedTotal.increment();
+        if (stats.isRecording()) {
+            stats.consumedMessages.increment();
+            stats.endToEnd.record(System.nanoTime() - ByteBuffer.wrap(payload).getLong());
+        }
+    }
+
+    private static void throwIfNotSuccess(Result result) {
+        if (result.getResultCodeValue() != ResultCode.SUCCESS_VALUE) {
+            throw new StubException(result.getErrorMessage(), result.getErrorCodeValue());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.parse(args);
+        LoadStats stats = new LoadGenerator(config).run();
+        stats.report(config, System.out);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,107 @@
+package github.io.pedrogao.mq.loadgen;
+
+import github.io.pedrogao.mq.metrics.Histogram;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a load run measured once warmup was over.
+ * <p>
+ * Service time runs from sending a request to its response. Response time runs from when the
+ * request was due by the producer's rate, so a stalled broker is charged for the requests it held
+ * back (coordinated omission correction). End to end runs from that due time until a consumer
+ * received the message, once per channel.
+ */
+public class LoadStats {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    final Histogram serviceTime = new Histogram();
+
+    final Histogram responseTime = new Histogram();
+
+    final Histogram endToEnd = new Histogram();
+
+    final LongAdder producedMessages = new LongAdder();
+
+    final LongAdder producedBytes = new LongAdder();
+
+    final LongAdder produceErrors = new LongAdder();
+
+    final LongAdder consumedMessages = new LongAdder();
+
+    final LongAdder consumeErrors = new LongAdder();
+
+    private volatile boolean recording;
+
+    private volatile long startNanos;
+
+    private volatile long endNanos;
+
+    boolean isRecording() {
+        return recording;
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+        recording = true;
+    }
+
+    void stop() {
+        endNanos = System.nanoTime();
+        recording = false;
+    }
+
+    public double getSeconds() {
+        return (endNanos - startNanos) / 1e9;
+    }
+
+    public long getProducedMessages() {
+        return producedMessages.sum();
+    }
+
+    public long getConsumedMessages() {
+        return consumedMessages.sum();
+    }
+
+    public long getProduceErrors() {
+        return produceErrors.sum();
+    }
+
+    public Histogram.Snapshot getServiceTime() {
+        return serviceTime.snapshot();
+    }
+
+    public Histogram.Snapshot getResponseTime() {
+        return responseTime.snapshot();
+    }
+
+    public Histogram.Snapshot getEndToEnd() {
+        return endToEnd.snapshot();
+    }
+
+    public void report(LoadConfig config, PrintStream out) {
+        double seconds = getSeconds();
+        out.println(config);
+        out.printf("produced  %,d msgs  %,.0f msgs/s  %,.2f MB/s  errors %d%n", getProducedMessages(),
+                getProducedMessages() / seconds, producedBytes.sum() / seconds / (1024 * 1024), getProduceErrors());
+        out.printf("consumed  %,d msgs  %,.0f msgs/s  errors %d%n", getConsumedMessages(),
+                getConsumedMessages() / seconds, consumeErrors.sum());
+        out.printf("%-14s %10s %10s %10s %10s %10s%n", "latency (us)", "p50", "p99", "p99.9", "max", "count");
+        row(out, "service", getServiceTime());
+        if (config.getRate() > 0) {
+            row(out, "response", getResponseTime());
+        } else {
+            out.println("response       unpaced run, set --rate for coordinated omission corrected latencies");
+        }
+        row(out, "end-to-end", getEndToEnd());
+    }
+
+    private static void row(PrintStream out, String name, Histogram.Snapshot snapshot) {
+        out.printf("%-14s", name);
+        for (double quantile : QUANTILES) {
+            out.printf(" %10.1f", snapshot.getValueAtQuantile(quantile) / 1e3);
+        }
+        out.printf(" %10.1f %10d%n", snapshot.getMax() / 1e3, snapshot.getCount());
+    }
+}
@@ -0,0 +1,11 @@
+package github.io.pedrogao.mq.loadgen;
+
+/**
+ * How the load generator reaches the broker it started
+ */
+public enum Transport {
+    // gRPC in-process transport, the broker without the network stack
+    IN_PROCESS,
+    // Netty server on a local port, the same stack as a deployed broker
+    NETTY
+}
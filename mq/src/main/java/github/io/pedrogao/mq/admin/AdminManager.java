@@ -1,5 +1,6 @@
 package github.io.pedrogao.mq.admin;
 
+import github.io.pedrogao.mq.api.QueueRetention;
 import github.io.pedrogao.mq.broker.BrokerInfo;
 import github.io.pedrogao.mq.broker.QueueInfo;
 import github.io.pedrogao.mq.broker.TopicInfo;
@@ -84,6 +85,19 @@ public class AdminManager implements AutoCloseable {
         registryService.unRegisterTopic(topic);
     }
 
+    /**
+     * Set the retention policy of every queue of the topic
+     */
+    public void setRetention(String topic, QueueRetention retention) {
+        if (registryService.getTopic(topic) == null) {
+            throw new IllegalArgumentException("Topic " + topic + " not exists");
+        }
+
+        for (QueueInfo queueInfo : registryService.getQueuesByTopic(topic)) {
+            adminClientMap.get(queueInfo.getBrokerId()).setRetention(queueInfo.getId(), retention);
+        }
+    }
+
     @Override
     public void close() throws Exception {
         for (AdminClient adminClient : adminClientMap.values()) {
@@ -2,12 +2,21 @@ package github.io.pedrogao.mq.client;
 
 import com.google.protobuf.ByteString;
 import github.io.pedrogao.mq.api.*;
+import github.io.pedrogao.mq.compress.CompressorFactory;
+import github.io.pedrogao.mq.compress.ICompressor;
 import github.io.pedrogao.mq.exception.StubException;
+import github.io.pedrogao.mq.exception.TryAgainException;
+import github.io.pedrogao.mq.message.MessagePack;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractApiClient {
@@ -16,14 +25,39 @@ public abstract class AbstractApiClient {
 
     private final ManagedChannel channel;
     private final QueueServiceGrpc.QueueServiceBlockingStub blockingStub;
+    private final QueueServiceGrpc.QueueServiceStub asyncStub;
 
     private volatile boolean shutdown = false;
 
+    // largest message list payload accepted after decompression
+    private int maxMessageBytes = ICompressor.DEFAULT_MAX_LENGTH;
+
+    // how long the current dictionary version of a queue is trusted before asking again
+    private static final long DICTIONARY_REFRESH_MS = 60 * 1000;
+
+    // "queue/version" => dictionary, versions never change once published
+    private final Map<String, byte[]> dictionaries = new ConcurrentHashMap<>();
+
+    // queue => {version, checked at ms}
+    private final Map<String, long[]> currentDictionaries = new ConcurrentHashMap<>();
+
     public AbstractApiClient(String host, int port) {
-        channel = ManagedChannelBuilder.forAddress(host, port)
+        this(ManagedChannelBuilder.forAddress(host, port)
                 .usePlaintext()
-                .build();
+                .build());
+    }
+
+    /**
+     * Use a channel built by the caller, an in-process one for example, it is shut down with the client
+     */
+    public AbstractApiClient(ManagedChannel channel) {
+        this.channel = channel;
         blockingStub = QueueServiceGrpc.newBlockingStub(channel);
+        asyncStub = QueueServiceGrpc.newStub(channel);
+    }
+
+    public void setMaxMessageBytes(int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
     }
 
     public void shutdown() throws InterruptedException {
@@ -47,6 +81,67 @@ public abstract class AbstractApiClient {
         return response.getIndex();
     }
 
+    /**
+     * Produce many payloads with one request, they get consecutive indexes
+     *
+     * @return index of the first payload
+     */
+    public long produceBatch(String queueName, List<byte[]> payloads) {
+        MessagePack.Builder messagePackBuilder = MessagePack.newBuilder();
+        for (byte[] payload : payloads) {
+            messagePackBuilder.addPayloads(ByteString.copyFrom(payload));
+        }
+        ProduceBatchRequest request = ProduceBatchRequest.newBuilder().
+                setQueueName(queueName).setMessagePack(messagePackBuilder).build();
+        ProduceBatchResponse response = blockingStub.produceBatch(request);
+
+        Result result = response.getResult();
+        throwIfNotSuccess(result);
+
+        return response.getFirstIndex();
+    }
+
+    /**
+     * Pack and compress the payloads on the client, the broker stores them as one item and hands
+     * them to consumers as is
+     *
+     * @return index of the stored batch
+     */
+    public long produceBatch(String queueName, List<byte[]> payloads, CompressionType compressionType) {
+        MessagePack.Builder messagePackBuilder = MessagePack.newBuilder();
+        for (byte[] payload : payloads) {
+            messagePackBuilder.addPayloads(ByteString.copyFrom(payload));
+        }
+        int dictionaryVersion = 0;
+        byte[] dictionary = null;
+        if (compressionType == CompressionType.DEFLATE_DICT) {
+            dictionaryVersion = currentDictionaryVersion(queueName);
+            if (dictionaryVersion == 0) {
+                compressionType = CompressionType.GZIP; // no dictionary trained yet
+            } else {
+                dictionary = getDictionary(queueName, dictionaryVersion);
+            }
+        }
+        byte[] packed;
+        try {
+            packed = CompressorFactory.getCompressor(compressionType, dictionary).
+                    compress(messagePackBuilder.build().toByteArray());
+        } catch (IOException e) {
+            throw new StubException("compress batch error", e);
+        }
+        MessageList packedBatch = MessageList.newBuilder().setSize(payloads.size()).
+                setCompressionType(compressionType).setDictionaryVersion(dictionaryVersion).
+                setPayload(ByteString.copyFrom(packed)).build();
+        ProduceBatchRequest request = ProduceBatchRequest.newBuilder().
+                setQueueName(queueName).setPackedBatch(packedBatch).build();
+        ProduceBatchResponse response = blockingStub.produceBatch(request);
+
+        Result result = response.getResult();
+        throwIfNotSuccess(result);
+
+        return response.getFirstIndex();
+    }
+
     public void asyncProduceMessage(String queueName, byte[] payload) {
         ProduceMessageRequest request = ProduceMessageRequest.newBuilder().
                 setQueueName(queueName).setPayload(ByteString.copyFrom(payload)).build();
@@ -55,9 +150,29 @@ public abstract class AbstractApiClient {
         throwIfNotSuccess(result);
     }
 
+    /**
+     * Open a pipelined produce stream, at most {@code window} messages are in flight
+     */
+    public ProduceStream openProduceStream(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("invalid produce stream window " + window);
+        }
+        return new ProduceStream(asyncStub, window);
+    }
+
     public MessageList consumeMessage(String queueName, String channelName, int batchSize) {
+        return consumeMessage(queueName, channelName, batchSize, CompressionType.NONE, 0);
+    }
+
+    /**
+     * Consume with a preferred codec, the broker compresses batches of at least {@code compressMinBytes},
+     * 0 means the broker default threshold
+     */
+    public MessageList consumeMessage(String queueName, String channelName, int batchSize,
+                                      CompressionType compressionType, int compressMinBytes) {
         ConsumeMessageRequest request = ConsumeMessageRequest.newBuilder().
-                setQueueName(queueName).setChannelName(channelName).setBatchSize(batchSize).build();
+                setQueueName(queueName).setChannelName(channelName).setBatchSize(batchSize).
+                setCompressionType(compressionType).setCompressMinBytes(compressMinBytes).build();
         ConsumeMessageResponse response = blockingStub.consumeMessage(request);
 
         Result result = response.getResult();
@@ -67,9 +182,15 @@ public abstract class AbstractApiClient {
     }
 
     public MessageList fetchMessage(String queueName, String channelName, int index, int batchSize) {
+        return fetchMessage(queueName, channelName, index, batchSize, CompressionType.NONE, 0);
+    }
+
+    public MessageList fetchMessage(String queueName, String channelName, int index, int batchSize,
+                                    CompressionType compressionType, int compressMinBytes) {
         FetchMessageRequest request = FetchMessageRequest.newBuilder().
                 setQueueName(queueName).setChannelName(channelName).
-                setIndex(index).setBatchSize(batchSize).build();
+                setIndex(index).setBatchSize(batchSize).
+                setCompressionType(compressionType).setCompressMinBytes(compressMinBytes).build();
 
         FetchMessageResponse response = blockingStub.fetchMessage(request);
         Result result = response.getResult();
@@ -78,6 +199,39 @@ public abstract class AbstractApiClient {
         return response.getMessageList();
     }
 
+    /**
+     * Subscribe a channel of the queue, the broker pushes batches as data becomes available.
+     * The returned iterator blocks until the next batch arrives and only requests more batches
+     * from the broker when the previous one is consumed.
+     */
+    public Iterator<MessageList> subscribe(String queueName, String channelName, int batchSize) {
+        return subscribe(queueName, channelName, batchSize, CompressionType.NONE, 0);
+    }
+
+    public Iterator<MessageList> subscribe(String queueName, String channelName, int batchSize,
+                                           CompressionType compressionType, int compressMinBytes) {
+        SubscribeRequest request = SubscribeRequest.newBuilder().
+                setQueueName(queueName).setChannelName(channelName).setBatchSize(batchSize).
+                setCompressionType(compressionType).setCompressMinBytes(compressMinBytes).build();
+        Iterator<SubscribeResponse> responses = blockingStub.subscribe(request);
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return responses.hasNext();
+            }
+
+            @Override
+            public MessageList next() {
+                SubscribeResponse response = responses.next();
+                Result result = response.getResult();
+                throwIfNotSuccess(result);
+
+                return response.getMessageList();
+            }
+        };
+    }
+
     public void createQueue(String queueName) {
         CreateQueueRequest request = CreateQueueRequest.newBuilder().setQueueName(queueName).build();
         CreateQueueResponse response = blockingStub.createQueue(request);
@@ -85,6 +239,17 @@ public abstract class AbstractApiClient {
         throwIfNotSuccess(result);
     }
 
+    /**
+     * Create the queue on the named storage engine, fails if it exists on another engine
+     */
+    public void createQueue(String queueName, String engine, Map<String, String> engineOptions) {
+        CreateQueueRequest request = CreateQueueRequest.newBuilder().setQueueName(queueName).setEngine(engine).
+                putAllEngineOptions(engineOptions).build();
+        CreateQueueResponse response = blockingStub.createQueue(request);
+        Result result = response.getResult();
+        throwIfNotSuccess(result);
+    }
+
     public void deleteQueue(String queueName) {
         DeleteQueueRequest request = DeleteQueueRequest.newBuilder().setQueueName(queueName).build();
         DeleteQueueResponse response = blockingStub.deleteQueue(request);
@@ -92,6 +257,33 @@ public abstract class AbstractApiClient {
         throwIfNotSuccess(result);
     }
 
+    public void setRetention(String queueName, QueueRetention retention) {
+        SetRetentionRequest request = SetRetentionRequest.newBuilder().setQueueName(queueName).
+                setRetention(retention).build();
+        SetRetentionResponse response = blockingStub.setRetention(request);
+        Result result = response.getResult();
+        throwIfNotSuccess(result);
+    }
+
+    public QueueRetention getRetention(String queueName) {
+        GetRetentionRequest request = GetRetentionRequest.newBuilder().setQueueName(queueName).build();
+        GetRetentionResponse response = blockingStub.getRetention(request);
+        Result result = response.getResult();
+        throwIfNotSuccess(result);
+        return response.getRetention();
+    }
+
+    /**
+     * Stats of the queues, of every queue when none is named
+     */
+    public List<QueueStats> getBrokerStats(String... queueNames) {
+        GetBrokerStatsRequest request = GetBrokerStatsRequest.newBuilder().addAllQueueNames(List.of(queueNames)).build();
+        GetBrokerStatsResponse response = blockingStub.getBrokerStats(request);
+        Result result = response.getResult();
+        throwIfNotSuccess(result);
+        return response.getQueuesList();
+    }
+
     public long getQueueSize(String queueName, String channelName) {
         GetQueueSizeResponse response = blockingStub.getQueueSize(GetQueueSizeRequest.newBuilder().
                 setQueueName(queueName).setChannelName(channelName).build());
@@ -102,7 +294,63 @@ public abstract class AbstractApiClient {
         return response.getSize();
     }
 
+    /**
+     * Dictionary of the queue by version, cached
+     */
+    public byte[] getDictionary(String queueName, int version) {
+        String key = queueName + "/" + version;
+        byte[] dictionary = dictionaries.get(key);
+        if (dictionary != null) {
+            return dictionary;
+        }
+        // fetched outside the map, a blocking call must not hold its bin lock
+        GetDictionaryResponse response = blockingStub.getDictionary(GetDictionaryRequest.newBuilder().
+                setQueueName(queueName).setVersion(version).build());
+        throwIfNotSuccess(response.getResult());
+        dictionary = response.getDictionary().toByteArray();
+        byte[] existing = dictionaries.putIfAbsent(key, dictionary);
+        return existing == null ? dictionary : existing;
+    }
+
+    /**
+     * Decompress the payload of a message list, fetching the dictionary it needs
+     */
+    protected byte[] decompress(String queueName, MessageList messageList) throws IOException {
+        CompressionType compressionType = messageList.getCompressionType();
+        byte[] dictionary = null;
+        if (compressionType == CompressionType.DEFLATE_DICT) {
+            dictionary = getDictionary(queueName, messageList.getDictionaryVersion());
+        }
+        return CompressorFactory.getCompressor(compressionType, dictionary, maxMessageBytes).
+                decompress(messageList.getPayload().toByteArray());
+    }
+
+    private int currentDictionaryVersion(String queueName) {
+        long now = System.currentTimeMillis();
+        long[] current = currentDictionaries.get(queueName);
+        if (current != null && now - current[1] < DICTIONARY_REFRESH_MS) {
+            return (int) current[0];
+        }
+
+        GetDictionaryResponse response = blockingStub.getDictionary(GetDictionaryRequest.newBuilder().
+                setQueueName(queueName).build());
+        Result result = response.getResult();
+        int version = 0;
+        if (result.getResultCodeValue() == ResultCode.SUCCESS_VALUE) {
+            version = response.getVersion();
+            dictionaries.putIfAbsent(queueName + "/" + version, response.getDictionary().toByteArray());
+        } else if (result.getErrorCode() != ErrorCode.DICTIONARY_NOT_FOUND) {
+            throwIfNotSuccess(result);
+        }
+        currentDictionaries.put(queueName, new long[]{version, now});
+        return version;
+    }
+
     private void throwIfNotSuccess(Result result) {
+        if (result.getResultCodeValue() == ResultCode.TRY_AGAIN_VALUE) {
+            log.warn("try again, error code: {}, error message: {}", result.getErrorCodeValue(), result.getErrorMessage());
+            throw new TryAgainException(result.getErrorMessage(), result.getErrorCodeValue(), result.getRetryAfterMs());
+        }
         if (result.getResultCodeValue() != ResultCode.SUCCESS_VALUE) {
             log.error("error code: {}, error message: {}", result.getErrorCodeValue(), result.getErrorMessage());
             throw new StubException(result.getErrorMessage(), result.getErrorCodeValue());
@@ -0,0 +1,151 @@
+package github.io.pedrogao.mq.client;
+
+import com.google.protobuf.ByteString;
+import github.io.pedrogao.mq.api.ProduceMessageRequest;
+import github.io.pedrogao.mq.api.ProduceStreamResponse;
+import github.io.pedrogao.mq.api.QueueServiceGrpc;
+import github.io.pedrogao.mq.api.Result;
+import github.io.pedrogao.mq.api.ResultCode;
+import github.io.pedrogao.mq.exception.StubException;
+import github.io.pedrogao.mq.exception.TryAgainException;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Client side of a produce stream.
+ * <p>
+ * Frames are sent without waiting for the broker, at most {@code window} of them unacknowledged.
+ * Each frame gets a future completed with its assigned index once a cumulative ack covers it.
+ */
+public class ProduceStream implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ProduceStream.class);
+
+    public static final int DEFAULT_WINDOW = 1024;
+
+    private final int window;
+
+    private final Semaphore credits;
+
+    // unacknowledged frames, in send order
+    private final Queue<CompletableFuture<Long>> inflight = new ConcurrentLinkedQueue<>();
+
+    private final StreamObserver<ProduceMessageRequest> requestObserver;
+
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private long ackedCount = 0;
+
+    private volatile Throwable error;
+
+    ProduceStream(QueueServiceGrpc.QueueServiceStub asyncStub, int window) {
+        this.window = window;
+        this.credits = new Semaphore(window);
+        this.requestObserver = asyncStub.produceStream(new AckObserver());
+    }
+
+    /**
+     * Send one message, blocks while the in-flight window is full
+     *
+     * @return future of the index assigned by the broker
+     */
+    public CompletableFuture<Long> send(String queueName, byte[] payload) throws InterruptedException {
+        throwIfFailed();
+        credits.acquire();
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        ProduceMessageRequest request = ProduceMessageRequest.newBuilder().
+                setQueueName(queueName).setPayload(ByteString.copyFrom(payload)).build();
+        synchronized (this) { // stream observers are not thread safe
+            throwIfFailed();
+            inflight.add(future);
+            requestObserver.onNext(request);
+        }
+        return future;
+    }
+
+    /**
+     * Wait until every sent frame is acknowledged
+     */
+    public void flush() throws InterruptedException {
+        credits.acquire(window);
+        credits.release(window);
+        throwIfFailed();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            if (error == null) {
+                requestObserver.onCompleted();
+            }
+        }
+        try {
+            done.join();
+        } catch (Exception e) {
+            log.warn("produce stream closed with error", e);
+        }
+    }
+
+    private void throwIfFailed() {
+        if (error != null) {
+            throw new StubException("produce stream failed", error);
+        }
+    }
+
+    private void failAll(Throwable t) {
+        error = t;
+        CompletableFuture<Long> future;
+        while ((future = inflight.poll()) != null) {
+            future.completeExceptionally(t);
+            credits.release();
+        }
+    }
+
+    private class AckObserver implements StreamObserver<ProduceStreamResponse> {
+        @Override
+        public void onNext(ProduceStreamResponse response) {
+            long count = response.getAckedCount() - ackedCount;
+            ackedCount = response.getAckedCount();
+
+            Result result = response.getResult();
+            boolean success = result.getResultCodeValue() == ResultCode.SUCCESS_VALUE;
+            boolean tryAgain = result.getResultCodeValue() == ResultCode.TRY_AGAIN_VALUE;
+            for (long i = 0; i < count; i++) {
+                CompletableFuture<Long> future = inflight.poll();
+                if (future == null) {
+                    break;
+                }
+                if (success) {
+                    future.complete(response.getFirstIndex() + i);
+                } else if (tryAgain) {
+                    future.completeExceptionally(new TryAgainException(result.getErrorMessage(),
+                            result.getErrorCodeValue(), result.getRetryAfterMs()));
+                } else {
+                    future.completeExceptionally(new StubException(result.getErrorMessage(), result.getErrorCodeValue()));
+                }
+            }
+            credits.release((int) count);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.error("produce stream error", t);
+            failAll(t);
+            done.completeExceptionally(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            if (!inflight.isEmpty()) {
+                failAll(new StubException("produce stream completed before all frames were acknowledged"));
+            }
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package github.io.pedrogao.mq.compress;
+
+import github.io.pedrogao.mq.api.CompressionType;
+
+public class CompressorFactory {
+    private static final ICompressor NONE = new NoneCompressor();
+    private static final ICompressor GZIP = new GzipCompressor();
+    private static final ICompressor SNAPPY = new SnappyCompressor();
+    private static final ICompressor LZ4 = new Lz4Compressor();
+
+    public static ICompressor getCompressor(CompressionType type) {
+        return switch (type) {
+            case NONE -> NONE;
+            case GZIP -> GZIP;
+            case SNAPPY -> SNAPPY;
+            case LZ4 -> LZ4;
+            default -> throw new IllegalArgumentException("Invalid compression type: " + type);
+        };
+    }
+
+    /**
+     * Codecs that need the preset dictionary of the queue
+     */
+    public static ICompressor getCompressor(CompressionType type, byte[] dictionary) {
+        if (type == CompressionType.DEFLATE_DICT) {
+            if (dictionary == null) {
+                throw new IllegalArgumentException("compression type " + type + " needs a dictionary");
+            }
+            return new DictionaryCompressor(dictionary);
+        }
+        return getCompressor(type);
+    }
+
+    /**
+     * Codecs refusing to decompress a payload to more than {@code maxLength} bytes, for payloads
+     * that come from a producer
+     */
+    public static ICompressor getCompressor(CompressionType type, byte[] dictionary, int maxLength) {
+        return switch (type) {
+            case NONE -> NONE;
+            case GZIP -> new GzipCompressor(maxLength);
+            case SNAPPY -> new SnappyCompressor(maxLength);
+            case LZ4 -> new Lz4Compressor(maxLength);
+            case DEFLATE_DICT -> {
+                if (dictionary == null) {
+                    throw new IllegalArgumentException("compression type " + type + " needs a dictionary");
+                }
+                yield new DictionaryCompressor(dictionary, maxLength);
+            }
+            default -> throw new IllegalArgumentException("Invalid compression type: " + type);
+        };
+    }
+}
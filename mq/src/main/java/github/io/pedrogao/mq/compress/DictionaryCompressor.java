@@ -0,0 +1,85 @@
+package github.io.pedrogao.mq.compress;
+
+import github.io.pedrogao.mq.api.CompressionType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate with a preset dictionary, small payloads sharing most of their bytes with the
+ * dictionary compress well even one by one
+ */
+public class DictionaryCompressor implements ICompressor {
+    private final byte[] dictionary;
+
+    private final int maxLength;
+
+    public DictionaryCompressor(byte[] dictionary) {
+        this(dictionary, DEFAULT_MAX_LENGTH);
+    }
+
+    public DictionaryCompressor(byte[] dictionary, int maxLength) {
+        this.dictionary = dictionary;
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public CompressionType getType() {
+        return CompressionType.DEFLATE_DICT;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(data);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(data.length * 4L, maxLength));
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n > 0) {
+                    if (out.size() + n > maxLength) {
+                        throw new IOException("invalid deflate data, longer than " + maxLength + " bytes");
+                    }
+                    out.write(buffer, 0, n);
+                } else if (inflater.needsDictionary()) {
+                    inflater.setDictionary(dictionary);
+                } else if (inflater.needsInput() && !inflater.finished()) {
+                    throw new IOException("truncated deflate data");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("invalid deflate data", e);
+        } catch (IllegalArgumentException e) {
+            // the data was compressed with another dictionary
+            throw new IOException("invalid deflate data, dictionary mismatch", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
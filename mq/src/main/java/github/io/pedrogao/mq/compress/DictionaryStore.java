@@ -0,0 +1,88 @@
+package github.io.pedrogao.mq.compress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versioned dictionaries of one queue, one {@code <version>.dict} file each.
+ * <p>
+ * Versions start at 1 and are never reused or removed, records and batches compressed with an
+ * older dictionary stay readable.
+ */
+public class DictionaryStore {
+    private static final Logger log = LoggerFactory.getLogger(DictionaryStore.class);
+
+    private static final String SUFFIX = ".dict";
+
+    private final File dir;
+
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+
+    private volatile int currentVersion = 0;
+
+    public DictionaryStore(String dir) throws IOException {
+        this.dir = new File(dir);
+        load();
+    }
+
+    /**
+     * @return version of the newest dictionary, 0 when none is trained yet
+     */
+    public int getCurrentVersion() {
+        return currentVersion;
+    }
+
+    /**
+     * @return the dictionary, null if the version does not exist
+     */
+    public byte[] get(int version) {
+        return dictionaries.get(version);
+    }
+
+    /**
+     * Persist a new dictionary and make it the current one
+     *
+     * @return version of the dictionary
+     */
+    public synchronized int add(byte[] dictionary) throws IOException {
+        int version = currentVersion + 1;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can not create dictionary dir " + dir);
+        }
+
+        File tmp = new File(dir, version + SUFFIX + ".tmp");
+        Files.write(tmp.toPath(), dictionary);
+        Files.move(tmp.toPath(), new File(dir, version + SUFFIX).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        dictionaries.put(version, dictionary);
+        currentVersion = version;
+        return version;
+    }
+
+    private void load() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            int version;
+            try {
+                version = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                log.warn("skip dictionary file {}", file);
+                continue;
+            }
+            dictionaries.put(version, Files.readAllBytes(file.toPath()));
+            currentVersion = Math.max(currentVersion, version);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package github.io.pedrogao.mq.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a preset dictionary from sample payloads.
+ * <p>
+ * Segments found in many samples are the ones worth keeping, e.g. the keys of JSON events.
+ * They are concatenated up to the dictionary size, the most common last since deflate
+ * encodes nearer matches cheaper.
+ */
+public class DictionaryTrainer {
+
+    // deflate only looks back 32KB
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int SEGMENT_LENGTH = 16;
+
+    private static final int SEGMENT_STEP = 4;
+
+    private static final int MAX_CANDIDATES = 4096;
+
+    private DictionaryTrainer() {
+    }
+
+    /**
+     * @return the dictionary, empty when the samples share nothing
+     */
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        int size = Math.min(dictionarySize, MAX_DICTIONARY_SIZE);
+
+        // number of samples each segment appears in, latin1 keeps bytes one to one
+        Map<String, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            String text = new String(sample, StandardCharsets.ISO_8859_1);
+            Set<String> seen = new HashSet<>();
+            for (int i = 0; i + SEGMENT_LENGTH <= text.length(); i += SEGMENT_STEP) {
+                seen.add(text.substring(i, i + SEGMENT_LENGTH));
+            }
+            for (String segment : seen) {
+                counts.merge(segment, 1, Integer::sum);
+            }
+        }
+
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        if (candidates.size() > MAX_CANDIDATES) {
+            candidates = candidates.subList(0, MAX_CANDIDATES);
+        }
+
+        // pick from the most common down, skip segments already covered
+        StringBuilder picked = new StringBuilder();
+        List<String> segments = new ArrayList<>();
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            String segment = candidate.getKey();
+            if (picked.length() + segment.length() > size) {
+                break;
+            }
+            if (picked.indexOf(segment) >= 0) {
+                continue;
+            }
+            picked.append(segment);
+            segments.add(segment);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(picked.length());
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            out.writeBytes(segments.get(i).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return out.toByteArray();
+    }
+}
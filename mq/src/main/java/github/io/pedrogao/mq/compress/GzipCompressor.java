@@ -0,0 +1,47 @@
+package github.io.pedrogao.mq.compress;
+
+import github.io.pedrogao.mq.api.CompressionType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class GzipCompressor implements ICompressor {
+    private final int maxLength;
+
+    public GzipCompressor() {
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    public GzipCompressor(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public CompressionType getType() {
+        return CompressionType.GZIP;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            // one byte over tells a payload longer than the max
+            byte[] out = gzip.readNBytes(maxLength == Integer.MAX_VALUE ? maxLength : maxLength + 1);
+            if (out.length > maxLength) {
+                throw new IOException("invalid gzip data, longer than " + maxLength + " bytes");
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package github.io.pedrogao.mq.compress;
+
+import github.io.pedrogao.mq.api.CompressionType;
+
+import java.io.IOException;
+
+public interface ICompressor {
+    // largest decompressed length a payload may have, it comes from a producer and is not trusted
+    int DEFAULT_MAX_LENGTH = 64 * 1024 * 1024;
+
+    CompressionType getType();
+
+    byte[] compress(byte[] data) throws IOException;
+
+    /**
+     * @throws IOException if the data is corrupt or decompresses to more than the max length
+     */
+    byte[] decompress(byte[] data) throws IOException;
+}
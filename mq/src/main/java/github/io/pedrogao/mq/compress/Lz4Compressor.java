@@ -0,0 +1,68 @@
+package github.io.pedrogao.mq.compress;
+
+import github.io.pedrogao.mq.api.CompressionType;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Block format: [original length (int32)][lz4 block]
+public class Lz4Compressor implements ICompressor {
+
+    private static final LZ4Factory factory = LZ4Factory.fastestInstance();
+
+    // largest original length a block may claim
+    private final int maxLength;
+
+    public Lz4Compressor() {
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    public Lz4Compressor(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public CompressionType getType() {
+        return CompressionType.LZ4;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        LZ4Compressor compressor = factory.fastCompressor();
+        byte[] out = new byte[4 + compressor.maxCompressedLength(data.length)];
+        ByteBuffer.wrap(out).putInt(data.length);
+        int length = compressor.compress(data, 0, data.length, out, 4);
+        byte[] compressed = new byte[4 + length];
+        System.arraycopy(out, 0, compressed, 0, compressed.length);
+        return compressed;
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) throws IOException {
+        if (data.length < 4) {
+            throw new IOException("invalid lz4 block, length " + data.length);
+        }
+        int length = ByteBuffer.wrap(data).getInt();
+        // the header is not trusted, a corrupt one must not allocate an arbitrary buffer
+        if (length < 0 || length > maxLength) {
+            throw new IOException("invalid lz4 block, original length " + length + " not in [0, " + maxLength + "]");
+        }
+        // the fast decompressor trusts the block and may read past it
+        LZ4SafeDecompressor decompressor = factory.safeDecompressor();
+        byte[] out = new byte[length];
+        int decompressed;
+        try {
+            decompressed = decompressor.decompress(data, 4, data.length - 4, out, 0, length);
+        } catch (LZ4Exception e) {
+            throw new IOException("invalid lz4 block", e);
+        }
+        if (decompressed != length) {
+            throw new IOException("invalid lz4 block, " + decompressed + " bytes for original length " + length);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,20 @@
+package github.io.pedrogao.mq.compress;
+
+import github.io.pedrogao.mq.api.CompressionType;
+
+public class NoneCompressor implements ICompressor {
+    @Override
+    public CompressionType getType() {
+        return CompressionType.NONE;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        return data;
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) {
+        return data;
+    }
+}
@@ -0,0 +1,38 @@
+package github.io.pedrogao.mq.compress;
+
+import github.io.pedrogao.mq.api.CompressionType;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+
+public class SnappyCompressor implements ICompressor {
+    private final int maxLength;
+
+    public SnappyCompressor() {
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    public SnappyCompressor(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public CompressionType getType() {
+        return CompressionType.SNAPPY;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        return Snappy.compress(data);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data) throws IOException {
+        // the length in the header is allocated as is, check it first
+        int length = Snappy.uncompressedLength(data);
+        if (length < 0 || length > maxLength) {
+            throw new IOException("invalid snappy block, original length " + length + " not in [0, " + maxLength + "]");
+        }
+        return Snappy.uncompress(data);
+    }
+}
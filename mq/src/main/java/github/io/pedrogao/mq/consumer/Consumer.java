@@ -71,6 +71,7 @@ public class Consumer {
         int port = brokerInfo.getPort();
         String queue = nextQueueInfo.getId();
         int batchSize = config.getBatchSize();
-        return new MessageStream(host, port, queue, channel, batchSize);
+        return new MessageStream(host, port, queue, channel, batchSize,
+                config.getCompressionType(), config.getCompressMinBytes());
     }
 }
@@ -1,13 +1,21 @@
 package github.io.pedrogao.mq.consumer;
 
+import github.io.pedrogao.mq.api.CompressionType;
+
 public class ConsumerConfig {
     private int batchSize;
 
     private String zkAddress;
 
+    private CompressionType compressionType;
+
+    private int compressMinBytes; // 0 means the broker default
+
     public ConsumerConfig(String zkAddress, int batchSize) {
         this.zkAddress = zkAddress;
         this.batchSize = batchSize;
+        this.compressionType = CompressionType.NONE;
+        this.compressMinBytes = 0;
     }
 
     public int getBatchSize() {
@@ -25,4 +33,20 @@ public class ConsumerConfig {
     public void setZkAddress(String zkAddress) {
         this.zkAddress = zkAddress;
     }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    public void setCompressionType(CompressionType compressionType) {
+        this.compressionType = compressionType;
+    }
+
+    public int getCompressMinBytes() {
+        return compressMinBytes;
+    }
+
+    public void setCompressMinBytes(int compressMinBytes) {
+        this.compressMinBytes = compressMinBytes;
+    }
 }
@@ -1,17 +1,21 @@
 package github.io.pedrogao.mq.consumer;
 
 import com.google.protobuf.ByteString;
-import com.google.protobuf.InvalidProtocolBufferException;
 import github.io.pedrogao.mq.api.CompressionType;
 import github.io.pedrogao.mq.api.MessageList;
 import github.io.pedrogao.mq.client.AbstractApiClient;
 import github.io.pedrogao.mq.message.Message;
 import github.io.pedrogao.mq.message.MessagePack;
+import io.grpc.ManagedChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 public class DefaultFetcher extends AbstractApiClient implements IFetcher {
 
@@ -23,11 +27,31 @@ public class DefaultFetcher extends AbstractApiClient implements IFetcher {
 
     private final int batchSize;
 
+    private final CompressionType compressionType;
+
+    private final int compressMinBytes;
+
     public DefaultFetcher(String host, int port, String queue, String channel, int batchSize) {
+        this(host, port, queue, channel, batchSize, CompressionType.NONE, 0);
+    }
+
+    public DefaultFetcher(String host, int port, String queue, String channel, int batchSize,
+                          CompressionType compressionType, int compressMinBytes) {
         super(host, port);
         this.queue = queue;
         this.channel = channel;
         this.batchSize = batchSize;
+        this.compressionType = compressionType;
+        this.compressMinBytes = compressMinBytes;
+    }
+
+    public DefaultFetcher(ManagedChannel managedChannel, String queue, String channel, int batchSize) {
+        super(managedChannel);
+        this.queue = queue;
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.compressionType = CompressionType.NONE;
+        this.compressMinBytes = 0;
     }
 
     @Override
@@ -35,20 +59,56 @@ public class DefaultFetcher extends AbstractApiClient implements IFetcher {
         return fetchOneQueue(queue, batchSize);
     }
 
+    @Override
+    public Iterator<Message> subscribe() {
+        Iterator<MessageList> batches = subscribe(queue, channel, batchSize, compressionType, compressMinBytes);
+
+        return new Iterator<>() {
+            private Iterator<Message> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (!batches.hasNext()) {
+                        return false;
+                    }
+                    current = unpack(batches.next()).iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public Message next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
     private List<Message> fetchOneQueue(String queueName, int batchSize) {
-        MessageList messageList = consumeMessage(queueName, channel, batchSize);
+        MessageList messageList = consumeMessage(queueName, channel, batchSize, compressionType, compressMinBytes);
+        return unpack(messageList);
+    }
+
+    private List<Message> unpack(MessageList messageList) {
         if (messageList.getSize() == 0) {
             return new ArrayList<>();
         }
-
-        CompressionType compressionType = messageList.getCompressionType(); // TODO
-
-        ByteString payload = messageList.getPayload();
+        if (messageList.getBatchesCount() > 0) {
+            List<Message> messages = new ArrayList<>(messageList.getSize());
+            for (MessageList batch : messageList.getBatchesList()) {
+                messages.addAll(unpack(batch));
+            }
+            return messages;
+        }
 
         MessagePack messagePack = null;
         try {
+            byte[] payload = decompress(queue, messageList);
             messagePack = MessagePack.parseFrom(payload);
-        } catch (InvalidProtocolBufferException e) {
+        } catch (IOException e) {
             log.error("parse message pack error", e);
             throw new RuntimeException(e);
         }
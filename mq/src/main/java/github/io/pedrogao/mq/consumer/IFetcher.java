@@ -2,8 +2,11 @@ package github.io.pedrogao.mq.consumer;
 
 import github.io.pedrogao.mq.message.Message;
 
+import java.util.Iterator;
 import java.util.List;
 
 public interface IFetcher {
     List<Message> fetch();
+
+    Iterator<Message> subscribe();
 }
@@ -1,17 +1,37 @@
 package github.io.pedrogao.mq.consumer;
 
+import github.io.pedrogao.mq.api.CompressionType;
 import github.io.pedrogao.mq.message.Message;
 
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class MessageStream {
     private final IFetcher fetcher;
 
     public MessageStream(String host, int port, String queue, String channel, int batchSize) {
-        fetcher = new DefaultFetcher(host, port, queue, channel, batchSize);
+        this(host, port, queue, channel, batchSize, CompressionType.NONE, 0);
     }
 
+    public MessageStream(String host, int port, String queue, String channel, int batchSize,
+                         CompressionType compressionType, int compressMinBytes) {
+        fetcher = new DefaultFetcher(host, port, queue, channel, batchSize, compressionType, compressMinBytes);
+    }
+
+    /**
+     * A continuously flowing stream of the channel, backed by a broker push subscription
+     */
     public Stream<Message> getMessageStream() {
+        Spliterator<Message> spliterator = Spliterators.spliteratorUnknownSize(fetcher.subscribe(), Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * Fetch one batch of the channel
+     */
+    public Stream<Message> fetch() {
         return fetcher.fetch().stream();
     }
 }
@@ -0,0 +1,20 @@
+package github.io.pedrogao.mq.exception;
+
+/**
+ * The broker refused the request for now, e.g. a quota is exceeded, and it may succeed later
+ */
+public class TryAgainException extends StubException {
+    private final long retryAfterMs;
+
+    public TryAgainException(String message, int code, long retryAfterMs) {
+        super(message, code);
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * @return wait the broker suggested, 0 when it gave none
+     */
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+}
@@ -0,0 +1,22 @@
+package github.io.pedrogao.mq.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter, striped so concurrent increments do not contend on one cell
+ */
+public final class Counter {
+    private final LongAdder adder = new LongAdder();
+
+    public void increment() {
+        adder.increment();
+    }
+
+    public void add(long delta) {
+        adder.add(delta);
+    }
+
+    public long get() {
+        return adder.sum();
+    }
+}
@@ -0,0 +1,161 @@
+package github.io.pedrogao.mq.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with log buckets, values are usually nanoseconds.
+ * <p>
+ * Every power of two is split in {@value #SUB_BUCKETS} linear buckets like HdrHistogram with
+ * one significant digit, so a recorded value is off by under 12.5%. Buckets are striped per
+ * thread and recording is two atomic adds without allocation. Counts are cumulative, a
+ * snapshot is not atomic across stripes.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // values from 2^MAX_EXPONENT, about 18 minutes of nanos, land in the overflow bucket
+    private static final int MAX_EXPONENT = 40;
+
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + 1;
+
+    private static final int SUM = BUCKETS;
+
+    private static final int MAX_STRIPES = 16;
+
+    private final AtomicLongArray[] stripes;
+
+    private final int mask;
+
+    public Histogram() {
+        int stripeCount = Integer.highestOneBit(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+        this.stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS + 1);
+        }
+        this.mask = stripeCount - 1;
+    }
+
+    public void record(long value) {
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().threadId() & mask];
+        stripe.getAndIncrement(bucketOf(value));
+        stripe.getAndAdd(SUM, Math.max(0, value));
+    }
+
+    /**
+     * Record the nanos elapsed since {@code startNanos}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+            sum += stripe.get(SUM);
+        }
+        return new Snapshot(counts, sum);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return largest value of the bucket, Long.MAX_VALUE for the overflow bucket
+     */
+    public static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        if (bucket >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sum;
+
+        Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            this.sum = sum;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the quantile, 0 when empty
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBoundOf(i);
+                }
+            }
+            return upperBoundOf(counts.length - 1);
+        }
+
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return upperBoundOf(i);
+                }
+            }
+            return 0;
+        }
+
+        public int getBucketCount() {
+            return counts.length;
+        }
+
+        /**
+         * @return values recorded in the bucket, see {@link Histogram#upperBoundOf(int)}
+         */
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+    }
+}
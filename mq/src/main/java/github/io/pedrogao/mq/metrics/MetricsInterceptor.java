@@ -0,0 +1,79 @@
+package github.io.pedrogao.mq.metrics;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times every call of a service from its start until its status is sent, streams included,
+ * and counts the calls closed with an error status.
+ * <p>
+ * Unary produce and consume calls over the {@link SlowRpcEvent} threshold are also recorded for JFR,
+ * streams are left out as their duration is their lifetime
+ */
+public class MetricsInterceptor implements ServerInterceptor {
+    private static final Set<String> SLOW_RPC_METHODS = Set.of(
+            "produceMessage", "asyncProduceMessage", "produceBatch", "consumeMessage", "fetchMessage");
+
+    private final MetricsRegistry registry;
+
+    // full method name => its metrics
+    private final Map<String, MethodMetrics> methodMap = new ConcurrentHashMap<>();
+
+    public MetricsInterceptor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        MethodMetrics metrics = methodMap.computeIfAbsent(call.getMethodDescriptor().getFullMethodName(),
+                k -> new MethodMetrics(call.getMethodDescriptor()));
+        long startNanos = System.nanoTime();
+        SlowRpcEvent event = metrics.slowRpc ? new SlowRpcEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void close(Status status, Metadata trailers) {
+                metrics.latency.recordSince(startNanos);
+                if (!status.isOk()) {
+                    metrics.errors.increment();
+                }
+                if (event != null && event.shouldCommit()) {
+                    event.method = metrics.method;
+                    event.status = status.getCode().name();
+                    event.commit();
+                }
+                super.close(status, trailers);
+            }
+        }, headers);
+    }
+
+    private final class MethodMetrics {
+        private final String method;
+
+        private final Histogram latency;
+
+        private final Counter errors;
+
+        private final boolean slowRpc;
+
+        MethodMetrics(MethodDescriptor<?, ?> descriptor) {
+            this.method = descriptor.getBareMethodName();
+            this.slowRpc = descriptor.getType() == MethodDescriptor.MethodType.UNARY
+                    && SLOW_RPC_METHODS.contains(method);
+            this.latency = registry.histogram("rpc." + method + ".nanos");
+            this.errors = registry.counter("rpc." + method + ".errors");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package github.io.pedrogao.mq.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and histograms of a broker.
+ * <p>
+ * Look a metric up once and keep it, recording then touches no map.
+ */
+public class MetricsRegistry {
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * Register a gauge read on every snapshot, replaces one of the same name
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Drop the metric of the name, of something gone like the pipeline of a deleted queue
+     */
+    public void remove(String name) {
+        counters.remove(name);
+        gauges.remove(name);
+        histograms.remove(name);
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.get()));
+        return result;
+    }
+
+    public Map<String, Long> getGauges() {
+        Map<String, Long> result = new TreeMap<>();
+        gauges.forEach((name, gauge) -> result.put(name, gauge.getAsLong()));
+        return result;
+    }
+
+    public Map<String, Histogram.Snapshot> getHistograms() {
+        Map<String, Histogram.Snapshot> result = new TreeMap<>();
+        histograms.forEach((name, histogram) -> result.put(name, histogram.snapshot()));
+        return result;
+    }
+}
@@ -0,0 +1,219 @@
+package github.io.pedrogao.mq.metrics;
+
+import github.io.pedrogao.mq.api.ChannelStats;
+import github.io.pedrogao.mq.api.QueueStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Renders the registry and the queue stats in the Prometheus text format.
+ * <p>
+ * {@link #refresh()} renders a snapshot off the scrape path, scrapes only copy the last one out.
+ * Metrics named {@code rpc.<method>.<name>} get a method label, {@code pipeline.<queue>.<name>} a
+ * queue label, histograms become summaries and nanos are exported as seconds.
+ */
+public class PrometheusExporter {
+    private static final Logger log = LoggerFactory.getLogger(PrometheusExporter.class);
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "tinymq_";
+
+    private static final String RPC_PREFIX = "rpc.";
+
+    private static final String PIPELINE_PREFIX = "pipeline.";
+
+    private static final String NANOS_SUFFIX = ".nanos";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final MetricsRegistry registry;
+
+    private final Callable<List<QueueStats>> queueStats;
+
+    private volatile byte[] snapshot = new byte[0];
+
+    public PrometheusExporter(MetricsRegistry registry, Callable<List<QueueStats>> queueStats) {
+        this.registry = registry;
+        this.queueStats = queueStats;
+    }
+
+    /**
+     * @return the last rendered snapshot
+     */
+    public byte[] getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Render a new snapshot, the previous one stays if rendering fails
+     */
+    public void refresh() {
+        try {
+            snapshot = render().getBytes(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            log.error("render metrics error", e);
+        }
+    }
+
+    String render() throws Exception {
+        // samples of a family must be written together, registry names do not sort that way
+        Map<String, Family> families = new TreeMap<>();
+        registry.getCounters().forEach((registryName, value) -> {
+            Metric metric = Metric.of(registryName);
+            family(families, metric.name + "_total", "counter").add(metric.name + "_total", metric.labels, value);
+        });
+        registry.getGauges().forEach((registryName, value) -> {
+            Metric metric = Metric.of(registryName);
+            family(families, metric.name, "gauge").add(metric.name, metric.labels, value);
+        });
+        registry.getHistograms().forEach((registryName, snapshot) -> {
+            Metric metric = Metric.of(registryName);
+            Family family = family(families, metric.name, "summary");
+            for (double quantile : QUANTILES) {
+                long value = snapshot.getCount() == 0 ? 0 : snapshot.getValueAtQuantile(quantile);
+                family.add(metric.name, join(metric.labels, "quantile=\"" + quantile + "\""), metric.scale(value));
+            }
+            family.add(metric.name + "_sum", metric.labels, metric.scale(snapshot.getSum()));
+            family.add(metric.name + "_count", metric.labels, snapshot.getCount());
+        });
+
+        List<QueueStats> queues = queueStats.call();
+        queueFamily(families, queues, "queue_messages_in_total", "counter", QueueStats::getMessagesIn);
+        queueFamily(families, queues, "queue_bytes_in_total", "counter", QueueStats::getBytesIn);
+        queueFamily(families, queues, "queue_messages_out_total", "counter", QueueStats::getMessagesOut);
+        queueFamily(families, queues, "queue_bytes_out_total", "counter", QueueStats::getBytesOut);
+        queueFamily(families, queues, "queue_depth", "gauge", stats ->
+                stats.getFrontIndex() < 0 ? 0 : stats.getRearIndex() - stats.getFrontIndex());
+        queueFamily(families, queues, "queue_disk_bytes", "gauge", QueueStats::getDiskUsage);
+        queueFamily(families, queues, "queue_cached_pages", "gauge", QueueStats::getCachedPages);
+        queueFamily(families, queues, "queue_mapped_bytes", "gauge", QueueStats::getMappedBytes);
+        queueFamily(families, queues, "queue_open", "gauge", stats -> stats.getOpen() ? 1 : 0);
+        queueFamily(families, queues, "queue_flush_lag_ms", "gauge", QueueStats::getFlushLagMs);
+        String lagName = PREFIX + "channel_lag";
+        Family lag = family(families, lagName, "gauge");
+        for (QueueStats stats : queues) {
+            for (ChannelStats channel : stats.getChannelsList()) {
+                lag.add(lagName, queueLabel(stats) + ",channel=\"" + escape(channel.getChannelName()) + "\"",
+                        channel.getLag());
+            }
+        }
+
+        StringBuilder out = new StringBuilder(64 * 1024);
+        families.forEach((name, family) -> {
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            out.append(family.samples);
+        });
+        return out.toString();
+    }
+
+    @FunctionalInterface
+    private interface QueueValue {
+        long of(QueueStats stats);
+    }
+
+    private static void queueFamily(Map<String, Family> families, List<QueueStats> queues, String name, String type,
+                                    QueueValue value) {
+        String fullName = PREFIX + name;
+        Family family = family(families, fullName, type);
+        for (QueueStats stats : queues) {
+            family.add(fullName, queueLabel(stats), value.of(stats));
+        }
+    }
+
+    private static String queueLabel(QueueStats stats) {
+        return "queue=\"" + escape(stats.getQueueName()) + "\"";
+    }
+
+    private static Family family(Map<String, Family> families, String name, String type) {
+        return families.computeIfAbsent(name, k -> new Family(type));
+    }
+
+    /**
+     * Type and sample lines of one metric family
+     */
+    private static final class Family {
+        final String type;
+
+        final StringBuilder samples = new StringBuilder();
+
+        Family(String type) {
+            this.type = type;
+        }
+
+        void add(String name, String labels, long value) {
+            sampleName(name, labels).append(value).append('\n');
+        }
+
+        void add(String name, String labels, double value) {
+            sampleName(name, labels).append(value).append('\n');
+        }
+
+        private StringBuilder sampleName(String name, String labels) {
+            samples.append(name);
+            if (!labels.isEmpty()) {
+                samples.append('{').append(labels).append('}');
+            }
+            return samples.append(' ');
+        }
+    }
+
+    private static String join(String labels, String label) {
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    /**
+     * Registry name split in the exported name and labels
+     */
+    private static final class Metric {
+        final String name;
+
+        final String labels;
+
+        final boolean nanos;
+
+        private Metric(String name, String labels, boolean nanos) {
+            this.name = name;
+            this.labels = labels;
+            this.nanos = nanos;
+        }
+
+        static Metric of(String registryName) {
+            String name = registryName;
+            String labels = "";
+            if (name.startsWith(RPC_PREFIX) && name.indexOf('.', RPC_PREFIX.length()) > 0) {
+                int end = name.indexOf('.', RPC_PREFIX.length());
+                labels = "method=\"" + escape(name.substring(RPC_PREFIX.length(), end)) + "\"";
+                name = "rpc" + name.substring(end);
+            } else if (name.startsWith(PIPELINE_PREFIX) && name.lastIndexOf('.') > PIPELINE_PREFIX.length()) {
+                // queue names may contain dots, metric names do not
+                int end = name.lastIndexOf('.');
+                labels = "queue=\"" + escape(name.substring(PIPELINE_PREFIX.length(), end)) + "\"";
+                name = "pipeline" + name.substring(end);
+            }
+            boolean nanos = name.endsWith(NANOS_SUFFIX);
+            if (nanos) {
+                name = name.substring(0, name.length() - NANOS_SUFFIX.length()) + ".seconds";
+            }
+            return new Metric(PREFIX + sanitize(name), labels, nanos);
+        }
+
+        double scale(long value) {
+            return nanos ? value / 1e9 : value;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package github.io.pedrogao.mq.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A retention run that deleted items of a queue
+ */
+@Name("tinymq.RetentionDelete")
+@Label("Retention Delete")
+@Description("Retention run that deleted items of a queue")
+@Category({"TinyMQ", "Storage"})
+@Enabled(false)
+public final class RetentionDeleteEvent extends jdk.jfr.Event {
+    @Label("Queue")
+    public String queue;
+
+    @Label("Deleted Items")
+    public long items;
+
+    @Label("Deleted Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,25 @@
+package github.io.pedrogao.mq.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A produce or consume call slower than the threshold, from its start until its status is sent
+ */
+@Name("tinymq.SlowRpc")
+@Label("Slow RPC")
+@Description("Produce or consume call slower than the threshold")
+@Category({"TinyMQ", "RPC"})
+@Enabled(false)
+@Threshold("100 ms")
+public final class SlowRpcEvent extends jdk.jfr.Event {
+    @Label("Method")
+    public String method;
+
+    @Label("Status")
+    public String status;
+}
@@ -0,0 +1,63 @@
+package github.io.pedrogao.mq.metrics;
+
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
+
+/**
+ * Records the disk queue operations of one broker into its registry, handed to its queues on open
+ */
+public class StorageMetricsRecorder implements IStorageMetrics {
+    private final Histogram append;
+
+    private final Counter appendItems;
+
+    private final Counter appendBytes;
+
+    private final Histogram get;
+
+    private final Counter pageHits;
+
+    private final Counter pageMisses;
+
+    private final Histogram pageMap;
+
+    private final Histogram pageFlush;
+
+    public StorageMetricsRecorder(MetricsRegistry registry) {
+        this.append = registry.histogram("storage.append.nanos");
+        this.appendItems = registry.counter("storage.append.items");
+        this.appendBytes = registry.counter("storage.append.bytes");
+        this.get = registry.histogram("storage.get.nanos");
+        this.pageHits = registry.counter("storage.page.hits");
+        this.pageMisses = registry.counter("storage.page.misses");
+        this.pageMap = registry.histogram("storage.page.map.nanos");
+        this.pageFlush = registry.histogram("storage.page.flush.nanos");
+    }
+
+    @Override
+    public void append(int items, long bytes, long startNanos) {
+        append.recordSince(startNanos);
+        appendItems.add(items);
+        appendBytes.add(bytes);
+    }
+
+    @Override
+    public void get(long startNanos) {
+        get.recordSince(startNanos);
+    }
+
+    @Override
+    public void pageHit() {
+        pageHits.increment();
+    }
+
+    @Override
+    public void pageMiss(long startNanos) {
+        pageMisses.increment();
+        pageMap.recordSince(startNanos);
+    }
+
+    @Override
+    public void pageFlush(long startNanos) {
+        pageFlush.recordSince(startNanos);
+    }
+}
@@ -1,7 +1,15 @@
 package github.io.pedrogao.mq.producer;
 
+import github.io.pedrogao.mq.api.CompressionType;
+
+import java.util.List;
+
 public interface ISender {
     void send(byte[] payload);
 
     void send(String payload);
+
+    void sendBatch(List<byte[]> payloads);
+
+    void sendBatch(List<byte[]> payloads, CompressionType compressionType);
 }
@@ -1,26 +1,56 @@
 package github.io.pedrogao.mq.producer;
 
+import github.io.pedrogao.mq.api.CompressionType;
 import github.io.pedrogao.mq.client.AbstractApiClient;
+import github.io.pedrogao.mq.client.ProduceStream;
+import github.io.pedrogao.mq.exception.StubException;
+import github.io.pedrogao.mq.exception.TryAgainException;
 import github.io.pedrogao.mq.message.Message;
+import io.grpc.ManagedChannel;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
-public class Sender extends AbstractApiClient implements ISender {
+public class Sender extends AbstractApiClient implements ISender, Closeable {
+
+    private static final long INITIAL_BACKOFF_MS = 10;
 
     private final String queue;
 
+    // retries of a send the broker answered with TRY_AGAIN
+    private int maxRetries = 5;
+
+    private long maxBackoffMs = 10_000;
+
+    private ProduceStream produceStream;
+
+    private boolean closed = false;
+
     public Sender(String host, int port, String queue) {
         super(host, port);
         this.queue = queue;
     }
 
+    public Sender(ManagedChannel channel, String queue) {
+        super(channel);
+        this.queue = queue;
+    }
+
     @Override
     public void send(byte[] payload) {
         byte[] id = generateId();
 
         Message message = new Message(id, payload);
-        produceMessage(queue, message.serialize());
+        byte[] data = message.serialize();
+        withRetry(() -> produceMessage(queue, data));
     }
 
     @Override
@@ -28,6 +58,127 @@ public class Sender extends AbstractApiClient implements ISender {
         send(payload.getBytes());
     }
 
+    @Override
+    public void sendBatch(List<byte[]> payloads) {
+        List<byte[]> messages = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            Message message = new Message(generateId(), payload);
+            messages.add(message.serialize());
+        }
+        withRetry(() -> produceBatch(queue, messages));
+    }
+
+    /**
+     * Send as one compressed batch, stored by the broker without recompression
+     */
+    @Override
+    public void sendBatch(List<byte[]> payloads, CompressionType compressionType) {
+        List<byte[]> messages = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            Message message = new Message(generateId(), payload);
+            messages.add(message.serialize());
+        }
+        withRetry(() -> produceBatch(queue, messages, compressionType));
+    }
+
+    /**
+     * Send through a pipelined produce stream instead of one blocking RPC per message
+     *
+     * @return future of the index assigned by the broker
+     */
+    public CompletableFuture<Long> sendAsync(byte[] payload) throws InterruptedException {
+        Message message = new Message(generateId(), payload);
+        return getProduceStream().send(queue, message.serialize());
+    }
+
+    /**
+     * Wait until all messages sent by {@link #sendAsync(byte[])} are acknowledged
+     */
+    public void flush() throws InterruptedException {
+        ProduceStream stream;
+        synchronized (this) {
+            stream = produceStream;
+        }
+        if (stream != null) {
+            stream.flush();
+        }
+    }
+
+    /**
+     * Wait for the messages sent by {@link #sendAsync(byte[])}, end the produce stream once the broker
+     * acknowledged them, then shut the channel down
+     */
+    @Override
+    public void close() throws IOException {
+        ProduceStream stream;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stream = produceStream;
+        }
+        try {
+            try {
+                if (stream != null) {
+                    stream.flush();
+                    stream.close();
+                }
+            } finally {
+                shutdown();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while closing sender of queue " + queue);
+        }
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setMaxBackoffMs(long maxBackoffMs) {
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * Retry while the broker answers TRY_AGAIN, waiting at least its retry after hint
+     */
+    private <T> T withRetry(Supplier<T> call) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return call.get();
+            } catch (TryAgainException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(backoffOf(attempt, e.getRetryAfterMs()));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new StubException("interrupted while backing off", ie);
+                }
+            }
+        }
+    }
+
+    private long backoffOf(int attempt, long retryAfterMs) {
+        long backoff = Math.max(retryAfterMs, INITIAL_BACKOFF_MS << Math.min(attempt, 20));
+        backoff = Math.min(backoff, maxBackoffMs);
+        // jitter above the hint, producers refused together do not come back together
+        return backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private synchronized ProduceStream getProduceStream() {
+        if (closed) {
+            throw new StubException("sender of queue " + queue + " is closed");
+        }
+        if (produceStream == null) {
+            produceStream = openProduceStream(ProduceStream.DEFAULT_WINDOW);
+        }
+        return produceStream;
+    }
+
     private byte[] generateId() {
         UUID uuid = UUID.randomUUID();
         ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
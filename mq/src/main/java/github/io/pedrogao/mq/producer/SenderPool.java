@@ -1,5 +1,6 @@
 package github.io.pedrogao.mq.producer;
 
+import github.io.pedrogao.mq.api.CompressionType;
 import github.io.pedrogao.mq.broker.BrokerInfo;
 import github.io.pedrogao.mq.broker.QueueInfo;
 
@@ -60,4 +61,18 @@ public class SenderPool {
         sender.send(payload);
     }
 
+    public void sendBatch(List<byte[]> payloads) {
+        ISender sender = getSender("");
+        sender.sendBatch(payloads);
+    }
+
+    public void sendBatch(String key, List<byte[]> payloads) {
+        ISender sender = getSender(key);
+        sender.sendBatch(payloads);
+    }
+
+    public void sendBatch(String key, List<byte[]> payloads, CompressionType compressionType) {
+        ISender sender = getSender(key);
+        sender.sendBatch(payloads, compressionType);
+    }
 }
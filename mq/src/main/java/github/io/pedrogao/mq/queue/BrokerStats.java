@@ -0,0 +1,123 @@
+package github.io.pedrogao.mq.queue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message and byte counters of every queue with their recent rates.
+ * <p>
+ * Produce and consume paths only add to striped counters. {@link #sample()} turns the totals
+ * counted since the previous sample into per second rates, so reading stats costs no queue
+ * access at all.
+ */
+final class BrokerStats {
+
+    static final class QueueCounters {
+        private final LongAdder messagesIn = new LongAdder();
+
+        private final LongAdder bytesIn = new LongAdder();
+
+        private final LongAdder messagesOut = new LongAdder();
+
+        private final LongAdder bytesOut = new LongAdder();
+
+        // totals at the last sample, only touched by the sampler
+        private final long[] sampled = new long[4];
+
+        // per second over the last sample interval: messages in, bytes in, messages out, bytes out
+        private volatile double[] rates = new double[4];
+
+        private void sample(double seconds) {
+            long[] totals = {getMessagesIn(), getBytesIn(), getMessagesOut(), getBytesOut()};
+            double[] next = new double[totals.length];
+            for (int i = 0; i < totals.length; i++) {
+                next[i] = (totals[i] - sampled[i]) / seconds;
+                sampled[i] = totals[i];
+            }
+            rates = next;
+        }
+
+        long getMessagesIn() {
+            return messagesIn.sum();
+        }
+
+        long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        long getMessagesOut() {
+            return messagesOut.sum();
+        }
+
+        long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        double getMessagesInRate() {
+            return rates[0];
+        }
+
+        double getBytesInRate() {
+            return rates[1];
+        }
+
+        double getMessagesOutRate() {
+            return rates[2];
+        }
+
+        double getBytesOutRate() {
+            return rates[3];
+        }
+    }
+
+    private static final QueueCounters EMPTY = new QueueCounters();
+
+    private final Map<String, QueueCounters> counters = new ConcurrentHashMap<>();
+
+    private long lastSampleNanos = System.nanoTime();
+
+    void in(String queueName, long messages, long bytes) {
+        QueueCounters queueCounters = countersOf(queueName);
+        queueCounters.messagesIn.add(messages);
+        queueCounters.bytesIn.add(bytes);
+    }
+
+    void out(String queueName, long messages, long bytes) {
+        if (messages == 0) {
+            return;
+        }
+        QueueCounters queueCounters = countersOf(queueName);
+        queueCounters.messagesOut.add(messages);
+        queueCounters.bytesOut.add(bytes);
+    }
+
+    private QueueCounters countersOf(String queueName) {
+        QueueCounters queueCounters = counters.get(queueName);
+        return queueCounters != null ? queueCounters : counters.computeIfAbsent(queueName, k -> new QueueCounters());
+    }
+
+    /**
+     * @return counters of the queue, all zero if nothing was counted for it
+     */
+    QueueCounters get(String queueName) {
+        return counters.getOrDefault(queueName, EMPTY);
+    }
+
+    void remove(String queueName) {
+        counters.remove(queueName);
+    }
+
+    /**
+     * Update the rates, called from a single thread
+     */
+    void sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(now - lastSampleNanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastSampleNanos = now;
+        for (QueueCounters queueCounters : counters.values()) {
+            queueCounters.sample(seconds);
+        }
+    }
+}
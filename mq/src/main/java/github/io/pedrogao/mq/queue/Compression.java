@@ -0,0 +1,58 @@
+package github.io.pedrogao.mq.queue;
+
+import com.google.protobuf.UnsafeByteOperations;
+import github.io.pedrogao.mq.api.CompressionType;
+import github.io.pedrogao.mq.api.MessageList;
+import github.io.pedrogao.mq.compress.CompressorFactory;
+import github.io.pedrogao.mq.compress.DictionaryStore;
+
+import java.io.IOException;
+
+/**
+ * Codec a consumer asked for, resolved against the broker defaults and the queue dictionaries.
+ * <p>
+ * {@code DEFLATE_DICT} falls back to GZIP until the queue has a trained dictionary.
+ */
+final class Compression {
+
+    private final CompressionType type;
+
+    private final int minBytes;
+
+    private final DictionaryStore dictionaries;
+
+    Compression(CompressionType type, int minBytes, DictionaryStore dictionaries) {
+        this.type = type == CompressionType.UNRECOGNIZED ? CompressionType.NONE : type;
+        this.minBytes = minBytes;
+        this.dictionaries = dictionaries;
+    }
+
+    /**
+     * Set the payload compressed when that is worth it, plain otherwise.
+     * The array is wrapped, not copied, the caller must not touch it afterwards.
+     */
+    MessageList.Builder compress(MessageList.Builder builder, byte[] bytes) throws IOException {
+        CompressionType compressionType = type;
+        int dictionaryVersion = 0;
+        byte[] dictionary = null;
+        if (compressionType == CompressionType.DEFLATE_DICT) {
+            dictionaryVersion = dictionaries == null ? 0 : dictionaries.getCurrentVersion();
+            if (dictionaryVersion == 0) {
+                compressionType = CompressionType.GZIP;
+            } else {
+                dictionary = dictionaries.get(dictionaryVersion);
+            }
+        }
+
+        if (compressionType != CompressionType.NONE && bytes.length >= minBytes) {
+            byte[] compressed = CompressorFactory.getCompressor(compressionType, dictionary).compress(bytes);
+            if (compressed.length < bytes.length) {
+                builder.setCompressionType(compressionType).setDictionaryVersion(dictionaryVersion);
+                return builder.setPayload(UnsafeByteOperations.unsafeWrap(compressed));
+            }
+        }
+
+        builder.setCompressionType(CompressionType.NONE);
+        return builder.setPayload(UnsafeByteOperations.unsafeWrap(bytes));
+    }
+}
@@ -0,0 +1,317 @@
+package github.io.pedrogao.mq.queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deficit round robin over per flow request queues, a flow being a queue or a tenant prefix.
+ * <p>
+ * A fixed set of workers takes tasks flow by flow: every turn a flow earns {@code quantum * weight}
+ * credits and runs tasks while their cost fits its credits, so a flow with a deep backlog of
+ * expensive requests can not take the workers away from the others.
+ * <p>
+ * A flow is dropped, with its stats, once it has been empty for {@code idleMs} or its queue is removed,
+ * so deleted queues and one-off tenants do not stay in the stats forever.
+ */
+public class FairScheduler implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(FairScheduler.class);
+
+    public static final long DEFAULT_FLOW_IDLE_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    // guarded by lock
+    private final Map<String, Flow> flows = new HashMap<>();
+    private final ArrayDeque<Flow> active = new ArrayDeque<>();
+    private boolean closed = false;
+    private long lastExpireNanos = System.nanoTime();
+
+    private final int quantum;
+
+    private final long idleNanos;
+
+    private final Map<String, Integer> weights;
+
+    private final Thread[] workers;
+
+    public FairScheduler(int threads, int quantum, Map<String, Integer> weights) {
+        this("fair-scheduler", threads, quantum, weights);
+    }
+
+    /**
+     * @param name prefix of the worker thread names
+     */
+    public FairScheduler(String name, int threads, int quantum, Map<String, Integer> weights) {
+        this(name, threads, quantum, weights, DEFAULT_FLOW_IDLE_MS);
+    }
+
+    /**
+     * @param idleMs a flow empty for that long is dropped
+     */
+    public FairScheduler(String name, int threads, int quantum, Map<String, Integer> weights, long idleMs) {
+        this.quantum = quantum;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMs);
+        this.weights = weights;
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, threads == 1 ? name : name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * @param flow key the task is accounted to
+     * @param cost units of work, e.g. messages to read or write
+     * @throws RejectedExecutionException once closed
+     */
+    public void submit(String flow, int cost, Runnable task) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException("fair scheduler closed");
+            }
+            long now = System.nanoTime();
+            if (now - lastExpireNanos >= idleNanos) {
+                expireIdle(now);
+            }
+            Flow f = flows.computeIfAbsent(flow, k -> new Flow(k, weights.getOrDefault(k, 1)));
+            f.removed = false;
+            f.tasks.addLast(new Task(task, Math.max(1, cost), now));
+            if (!f.active) {
+                f.active = true;
+                active.addLast(f);
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Task take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                while (active.isEmpty()) {
+                    if (closed) {
+                        return null;
+                    }
+                    notEmpty.await();
+                }
+
+                Flow flow = active.peekFirst();
+                if (!flow.credited) {
+                    flow.deficit += (long) quantum * flow.weight;
+                    flow.credited = true;
+                }
+                Task task = flow.tasks.peekFirst();
+                if (task.cost > flow.deficit) {
+                    // turn is over, keep the deficit for the next round
+                    active.pollFirst();
+                    flow.credited = false;
+                    active.addLast(flow);
+                    continue;
+                }
+
+                flow.tasks.pollFirst();
+                flow.deficit -= task.cost;
+                if (flow.tasks.isEmpty()) {
+                    active.pollFirst();
+                    flow.active = false;
+                    flow.credited = false;
+                    flow.deficit = 0;
+                    flow.idleSinceNanos = System.nanoTime();
+                    if (flow.removed) {
+                        flows.remove(flow.key);
+                    }
+                }
+
+                long delay = System.nanoTime() - task.enqueuedNanos;
+                flow.served++;
+                flow.totalDelayNanos += delay;
+                flow.maxDelayNanos = Math.max(flow.maxDelayNanos, delay);
+                return task;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+
+            try {
+                task.runnable.run();
+            } catch (Throwable t) {
+                log.error("fair scheduler task error", t);
+            }
+        }
+    }
+
+    /**
+     * Drop a flow, e.g. of a deleted queue, once its queued tasks have run
+     */
+    public void remove(String flow) {
+        lock.lock();
+        try {
+            Flow f = flows.get(flow);
+            if (f == null) {
+                return;
+            }
+            if (f.tasks.isEmpty()) {
+                flows.remove(flow);
+            } else {
+                f.removed = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // guarded by lock
+    private void expireIdle(long now) {
+        lastExpireNanos = now;
+        flows.values().removeIf(flow -> flow.tasks.isEmpty() && now - flow.idleSinceNanos >= idleNanos);
+    }
+
+    /**
+     * Queueing delay and backlog of every flow not dropped yet, the max delay is reset on read
+     */
+    public Map<String, FlowStats> stats() {
+        lock.lock();
+        try {
+            expireIdle(System.nanoTime());
+            Map<String, FlowStats> stats = new HashMap<>();
+            for (Flow flow : flows.values()) {
+                long avgDelayMicros = flow.served == 0 ? 0 :
+                        TimeUnit.NANOSECONDS.toMicros(flow.totalDelayNanos / flow.served);
+                stats.put(flow.key, new FlowStats(flow.weight, flow.tasks.size(), flow.served,
+                        avgDelayMicros, TimeUnit.NANOSECONDS.toMicros(flow.maxDelayNanos)));
+                flow.maxDelayNanos = 0;
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop taking new tasks, queued ones still run
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public static class FlowStats {
+        private final int weight;
+        private final int pending;
+        private final long served;
+        private final long avgDelayMicros;
+        private final long maxDelayMicros;
+
+        FlowStats(int weight, int pending, long served, long avgDelayMicros, long maxDelayMicros) {
+            this.weight = weight;
+            this.pending = pending;
+            this.served = served;
+            this.avgDelayMicros = avgDelayMicros;
+            this.maxDelayMicros = maxDelayMicros;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public int getPending() {
+            return pending;
+        }
+
+        public long getServed() {
+            return served;
+        }
+
+        public long getAvgDelayMicros() {
+            return avgDelayMicros;
+        }
+
+        public long getMaxDelayMicros() {
+            return maxDelayMicros;
+        }
+
+        /**
+         * Stats of one flow served by two schedulers
+         */
+        static FlowStats merge(FlowStats a, FlowStats b) {
+            long served = a.served + b.served;
+            long avgDelayMicros = served == 0 ? 0 :
+                    (a.avgDelayMicros * a.served + b.avgDelayMicros * b.served) / served;
+            return new FlowStats(a.weight, a.pending + b.pending, served, avgDelayMicros,
+                    Math.max(a.maxDelayMicros, b.maxDelayMicros));
+        }
+    }
+
+    private static class Flow {
+        final String key;
+        final int weight;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        boolean active = false;
+        boolean credited = false;
+        boolean removed = false;
+        long idleSinceNanos = System.nanoTime();
+        long deficit = 0;
+        long served = 0;
+        long totalDelayNanos = 0;
+        long maxDelayNanos = 0;
+
+        Flow(String key, int weight) {
+            this.key = key;
+            this.weight = Math.max(1, weight);
+        }
+    }
+
+    private static class Task {
+        final Runnable runnable;
+        final int cost;
+        final long enqueuedNanos;
+
+        Task(Runnable runnable, int cost, long enqueuedNanos) {
+            this.runnable = runnable;
+            this.cost = cost;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.metrics.Histogram;
+import github.io.pedrogao.mq.storage.BackendQueue;
+import github.io.pedrogao.mq.utils.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flushes a queue once its dirty bytes or the age of its oldest unflushed push cross a threshold.
+ * <p>
+ * A tick only reads counters, clean queues cost nothing. Due queues are flushed oldest first on a
+ * small I/O pool, at most one flush per queue at a time, and an optional byte rate caps the msyncs;
+ * queues over the cap wait for a later tick.
+ */
+final class FlushScheduler implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(FlushScheduler.class);
+
+    private final Map<String, BackendQueue> queues;
+
+    private final long dirtyBytesThreshold;
+
+    private final long maxAgeMs;
+
+    // null when flushes are not rate limited
+    private final TokenBucket ioBucket;
+
+    private final ScheduledExecutorService tickExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final ExecutorService ioExecutor;
+
+    private final Set<String> flushing = ConcurrentHashMap.newKeySet();
+
+    // duration of every queue flush
+    private final Histogram flushNanos;
+
+    FlushScheduler(Map<String, BackendQueue> queues, long dirtyBytesThreshold, long maxAgeMs, int threads,
+                   long bytesPerSec, Histogram flushNanos) {
+        this.queues = queues;
+        this.flushNanos = flushNanos;
+        this.dirtyBytesThreshold = dirtyBytesThreshold;
+        this.maxAgeMs = maxAgeMs;
+        this.ioBucket = bytesPerSec > 0 ? new TokenBucket(bytesPerSec, bytesPerSec) : null;
+        AtomicInteger count = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "queue-flush-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long tickMs = Math.max(10, Math.min(maxAgeMs / 4, 100));
+        tickExecutor.scheduleWithFixedDelay(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        try {
+            flushDue();
+        } catch (Throwable t) {
+            // an escaping error would cancel the schedule and no queue would be flushed again
+            log.error("flush tick error", t);
+        }
+    }
+
+    private void flushDue() {
+        // ages keep growing while sorting, sort on one reading of them
+        List<Due> due = new ArrayList<>();
+        for (BackendQueue queue : queues.values()) {
+            long dirtyBytes = queue.getDirtyBytes();
+            long ageMs = queue.getDirtyAgeMs();
+            if (dirtyBytes > 0 && (dirtyBytes >= dirtyBytesThreshold || ageMs >= maxAgeMs)) {
+                due.add(new Due(queue, dirtyBytes, ageMs));
+            }
+        }
+        due.sort(Comparator.comparingLong((Due d) -> d.ageMs).reversed());
+
+        for (Due d : due) {
+            BackendQueue queue = d.queue;
+            if (flushing.contains(queue.getName())) {
+                continue;
+            }
+            if (ioBucket != null && ioBucket.tryAcquire(d.dirtyBytes) > 0) {
+                break; // over the I/O cap, the oldest keep their place next tick
+            }
+            flushing.add(queue.getName());
+            try {
+                ioExecutor.execute(() -> flush(queue));
+            } catch (RejectedExecutionException e) {
+                flushing.remove(queue.getName());
+                return; // closing
+            }
+        }
+    }
+
+    private void flush(BackendQueue queue) {
+        long startNanos = System.nanoTime();
+        try {
+            queue.flush();
+            flushNanos.recordSince(startNanos);
+        } catch (Exception e) {
+            log.error("flush queue {} error", queue.getName(), e);
+        } finally {
+            flushing.remove(queue.getName());
+        }
+    }
+
+    /**
+     * Flush lag per queue, the age of its oldest push not flushed yet
+     */
+    Map<String, Long> getFlushLagMs() {
+        Map<String, Long> lags = new HashMap<>();
+        for (BackendQueue queue : queues.values()) {
+            lags.put(queue.getName(), queue.getDirtyAgeMs());
+        }
+        return lags;
+    }
+
+    private static final class Due {
+        final BackendQueue queue;
+        final long dirtyBytes;
+        final long ageMs;
+
+        Due(BackendQueue queue, long dirtyBytes, long ageMs) {
+            this.queue = queue;
+            this.dirtyBytes = dirtyBytes;
+            this.ageMs = ageMs;
+        }
+    }
+
+    @Override
+    public void close() {
+        tickExecutor.shutdown();
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("flushes still running on close");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
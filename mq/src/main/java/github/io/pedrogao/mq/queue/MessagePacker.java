@@ -0,0 +1,146 @@
+package github.io.pedrogao.mq.queue;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnsafeByteOperations;
+import github.io.pedrogao.mq.api.CompressionType;
+import github.io.pedrogao.mq.api.MessageList;
+import github.io.pedrogao.mq.message.MessagePack;
+import github.io.pedrogao.mq.storage.BackendQueue;
+import github.io.pedrogao.mq.storage.QueueItem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs queue items into a {@link MessageList}, shared by consume, fetch and subscribe.
+ * <p>
+ * Items are written in the {@link MessagePack} wire format straight into one exactly sized
+ * array that the payload wraps, so an item is copied once after it is read from its page.
+ * <p>
+ * The packed payload is compressed as the consumer asked, see {@link Compression}.
+ * Producer packed batches are forwarded as stored, a list holding any of them puts every run
+ * of items into {@code batches} to keep the order.
+ */
+final class MessagePacker {
+
+    // low byte of the item attributes is the codec of a producer packed batch,
+    // the rest is the dictionary version for DEFLATE_DICT
+    static final int CODEC_MASK = 0xff;
+
+    static final int DICTIONARY_VERSION_SHIFT = 8;
+
+    private MessagePacker() {
+    }
+
+    static MessageList poll(BackendQueue queue, String channel, int batchSize,
+                            Compression compression) throws IOException {
+        Builder builder = new Builder(compression);
+        while (builder.size < batchSize) {
+            QueueItem item = queue.pollItem(channel);
+            if (item == null) {
+                break;
+            }
+
+            builder.add(item);
+        }
+
+        return builder.build().build();
+    }
+
+    /**
+     * Items are addressed by index, a batch item takes one index but counts all its messages
+     * against {@code batchSize}
+     */
+    static MessageList fetch(BackendQueue queue, long index, int batchSize,
+                             Compression compression) throws IOException {
+        Builder builder = new Builder(compression);
+        while (builder.size < batchSize) {
+            QueueItem item = queue.getItem(index);
+            if (item == null) {
+                break;
+            }
+
+            builder.add(item);
+            index++;
+        }
+
+        return builder.build().setNextIndex(index).build();
+    }
+
+    static int attributesOf(CompressionType compressionType, int dictionaryVersion) {
+        return (compressionType.getNumber() & CODEC_MASK) | (dictionaryVersion << DICTIONARY_VERSION_SHIFT);
+    }
+
+    private static final class Builder {
+        private final Compression compression;
+
+        private final List<MessageList> batches = new ArrayList<>();
+
+        private final List<byte[]> plain = new ArrayList<>();
+
+        // messages, not items
+        private int size = 0;
+
+        Builder(Compression compression) {
+            this.compression = compression;
+        }
+
+        void add(QueueItem item) throws IOException {
+            if (item.isBatch()) {
+                flushPlain();
+                int attributes = item.getAttributes();
+                CompressionType type = CompressionType.forNumber(attributes & CODEC_MASK);
+                batches.add(MessageList.newBuilder().setSize(item.getRecordCount()).
+                        setCompressionType(type == null ? CompressionType.NONE : type).
+                        setDictionaryVersion(attributes >>> DICTIONARY_VERSION_SHIFT).
+                        setPayload(UnsafeByteOperations.unsafeWrap(item.getData())).build());
+            } else {
+                plain.add(item.getData());
+            }
+            size += item.getMessageCount();
+        }
+
+        MessageList.Builder build() throws IOException {
+            if (batches.isEmpty()) {
+                return pack();
+            }
+
+            flushPlain();
+            return MessageList.newBuilder().setSize(size).setCompressionType(CompressionType.NONE).
+                    addAllBatches(batches);
+        }
+
+        private void flushPlain() throws IOException {
+            if (plain.isEmpty()) {
+                return;
+            }
+            batches.add(pack().build());
+            plain.clear();
+        }
+
+        private MessageList.Builder pack() throws IOException {
+            MessageList.Builder builder = MessageList.newBuilder();
+            builder.setSize(plain.size());
+            return compression.compress(builder, encode(plain));
+        }
+    }
+
+    /**
+     * Same bytes as {@code MessagePack.toByteArray()} without building the message
+     */
+    static byte[] encode(List<byte[]> payloads) throws IOException {
+        int size = 0;
+        for (byte[] payload : payloads) {
+            size += CodedOutputStream.computeByteArraySize(MessagePack.PAYLOADS_FIELD_NUMBER, payload);
+        }
+
+        byte[] bytes = new byte[size];
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        for (byte[] payload : payloads) {
+            output.writeByteArray(MessagePack.PAYLOADS_FIELD_NUMBER, payload);
+        }
+        output.checkNoSpaceLeft();
+        return bytes;
+    }
+}
@@ -0,0 +1,308 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.api.ProduceMessageRequest;
+import github.io.pedrogao.mq.api.ProduceStreamResponse;
+import github.io.pedrogao.mq.api.Result;
+import github.io.pedrogao.mq.storage.BackendQueue;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Server side of a produce stream.
+ * <p>
+ * Inbound frames are requested from the transport in a window, buffered, and appended by a
+ * drain task with one batch append per run of frames of the same queue. Every batch is
+ * acknowledged with the cumulative frame count and the first assigned index, then its frames
+ * are credited back to the window. A run over the queue quotas, or short of in-sync replicas in
+ * SEMI_SYNC mode, is acknowledged with TRY_AGAIN and not appended.
+ * <p>
+ * In SEMI_SYNC mode a batch is acknowledged once the in-sync replicas stored it. Acknowledgements
+ * leave in stream order, so later batches wait behind one that is not replicated yet.
+ * <p>
+ * When sharded, every run is appended on the shard owning its queue and the drain task waits
+ * for it, a run the shard has no room for is acknowledged with TRY_AGAIN.
+ */
+class ProduceStreamHandler implements StreamObserver<ProduceMessageRequest> {
+    private static final Logger log = LoggerFactory.getLogger(ProduceStreamHandler.class);
+
+    private final ServerCallStreamObserver<ProduceStreamResponse> responseObserver;
+
+    private final Function<String, BackendQueue> queueLookup;
+
+    // null when the queue takes produces, else the result to answer with
+    private final Function<String, Result> writableCheck;
+
+    private final ReplicationLeader replicationLeader;
+
+    private final Consumer<String> appendListener;
+
+    private final Quotas quotas;
+
+    private final BrokerStats brokerStats;
+
+    private final Executor executor;
+
+    // null when not sharded
+    private final ShardDispatcher shardDispatcher;
+
+    private final int window;
+
+    private final boolean flush;
+
+    private final Queue<ProduceMessageRequest> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private volatile boolean halfClosed = false;
+
+    private volatile boolean closed = false;
+
+    // acknowledgements not sent yet in stream order, guards every call on the response observer
+    private final Deque<Ack> acks = new ArrayDeque<>();
+
+    // only touched by the drain task
+    private long ackedCount = 0;
+
+    ProduceStreamHandler(ServerCallStreamObserver<ProduceStreamResponse> responseObserver,
+                         Function<String, BackendQueue> queueLookup, Function<String, Result> writableCheck,
+                         ReplicationLeader replicationLeader, Consumer<String> appendListener,
+                         Quotas quotas, BrokerStats brokerStats, Executor executor, ShardDispatcher shardDispatcher,
+                         int window, boolean flush) {
+        this.responseObserver = responseObserver;
+        this.queueLookup = queueLookup;
+        this.writableCheck = writableCheck;
+        this.replicationLeader = replicationLeader;
+        this.appendListener = appendListener;
+        this.quotas = quotas;
+        this.brokerStats = brokerStats;
+        this.executor = executor;
+        this.shardDispatcher = shardDispatcher;
+        this.window = window;
+        this.flush = flush;
+    }
+
+    /**
+     * Must be called inside the service method, before the call starts
+     */
+    void start() {
+        responseObserver.disableAutoRequest();
+        responseObserver.setOnCancelHandler(() -> closed = true);
+        responseObserver.request(window);
+    }
+
+    @Override
+    public void onNext(ProduceMessageRequest request) {
+        pending.add(request);
+        signal();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        log.warn("produce stream error", t);
+        closed = true;
+    }
+
+    @Override
+    public void onCompleted() {
+        halfClosed = true;
+        signal();
+    }
+
+    private void signal() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            List<ProduceMessageRequest> frames = new ArrayList<>();
+            while (!closed) {
+                ProduceMessageRequest frame;
+                while (frames.size() < window && (frame = pending.poll()) != null) {
+                    frames.add(frame);
+                }
+                if (frames.isEmpty()) {
+                    break;
+                }
+
+                // credited back once acknowledged
+                appendFrames(frames);
+                frames.clear();
+            }
+        } catch (Exception e) {
+            log.error("produce stream append error", e);
+            closed = true;
+            synchronized (acks) {
+                responseObserver.onError(e);
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        if (closed) {
+            return;
+        }
+        if (!pending.isEmpty()) {
+            signal();
+        } else if (halfClosed && draining.compareAndSet(false, true)) {
+            // all frames were acknowledged, finish the stream once
+            if (pending.isEmpty() && !closed && acksSent()) {
+                closed = true;
+                synchronized (acks) {
+                    responseObserver.onCompleted();
+                }
+            } else {
+                draining.set(false);
+                // else the last acknowledgement signals
+                if (!pending.isEmpty() || acksSent()) {
+                    signal();
+                }
+            }
+        }
+    }
+
+    private boolean acksSent() {
+        synchronized (acks) {
+            return acks.isEmpty();
+        }
+    }
+
+    private Ack newAck(ProduceStreamResponse.Builder builder, int frames) {
+        Ack ack = new Ack(builder, frames);
+        synchronized (acks) {
+            acks.add(ack);
+        }
+        return ack;
+    }
+
+    /**
+     * Send the acknowledgements ready from the head of the stream order and credit their frames back
+     */
+    private void complete(Ack ack, Result result) {
+        boolean sent;
+        synchronized (acks) {
+            ack.result = result;
+            int credits = 0;
+            while (!acks.isEmpty() && acks.peek().result != null) {
+                Ack head = acks.poll();
+                credits += head.frames;
+                if (!closed) {
+                    responseObserver.onNext(head.builder.setResult(head.result).build());
+                }
+            }
+            if (credits > 0 && !closed && !halfClosed) {
+                responseObserver.request(credits);
+            }
+            sent = acks.isEmpty();
+        }
+        if (sent && halfClosed) {
+            signal();
+        }
+    }
+
+    private void appendFrames(List<ProduceMessageRequest> frames) throws Exception {
+        int from = 0;
+        while (from < frames.size()) {
+            String queueName = frames.get(from).getQueueName();
+            int to = from + 1;
+            while (to < frames.size() && frames.get(to).getQueueName().equals(queueName)) {
+                to++;
+            }
+
+            List<byte[]> items = new ArrayList<>(to - from);
+            long bytes = 0;
+            for (int i = from; i < to; i++) {
+                items.add(frames.get(i).getPayload().toByteArray());
+                bytes += items.get(items.size() - 1).length;
+            }
+            ackedCount += items.size();
+
+            ProduceStreamResponse.Builder builder = ProduceStreamResponse.newBuilder().
+                    setAckedCount(ackedCount).setBatchSize(items.size());
+            Ack ack = newAck(builder, items.size());
+            BackendQueue queue = queueLookup.apply(queueName);
+            Result writableResult = queue == null ? null : writableCheck.apply(queueName);
+            long retryAfterMs = queue == null || writableResult != null ? 0 : quotas.acquire(queueName, bytes);
+            if (queue == null) {
+                log.error("queue {} not found", queueName);
+                complete(ack, Results.queueNotFound(queueName));
+            } else if (writableResult != null) {
+                complete(ack, writableResult);
+            } else if (retryAfterMs > 0) {
+                complete(ack, Results.quotaExceeded("quota of queue " + queueName + " exceeded", retryAfterMs));
+            } else {
+                long firstIndex;
+                try {
+                    firstIndex = append(queue, items);
+                } catch (RejectedExecutionException e) {
+                    quotas.release(queueName, bytes);
+                    complete(ack, Results.tryAgain("shard of queue " + queueName + " is busy"));
+                    from = to;
+                    continue;
+                } catch (Exception e) {
+                    quotas.release(queueName, bytes);
+                    throw e;
+                }
+                brokerStats.in(queueName, items.size(), bytes);
+                appendListener.accept(queueName);
+                builder.setFirstIndex(firstIndex);
+                if (replicationLeader.isSemiSync()) {
+                    long lastIndex = firstIndex + items.size() - 1;
+                    replicationLeader.whenReplicated(queueName, lastIndex, result -> complete(ack, result));
+                } else {
+                    complete(ack, Results.success());
+                }
+            }
+            from = to;
+        }
+    }
+
+    private long append(BackendQueue queue, List<byte[]> items) throws Exception {
+        if (shardDispatcher == null) {
+            return push(queue, items);
+        }
+        try {
+            return shardDispatcher.submit(queue.getName(), () -> push(queue, items)).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private long push(BackendQueue queue, List<byte[]> items) throws Exception {
+        long firstIndex = queue.push(items);
+        if (flush) {
+            queue.flush();
+        }
+        return firstIndex;
+    }
+
+    private static class Ack {
+        final ProduceStreamResponse.Builder builder;
+
+        final int frames;
+
+        // set once known, guarded by the acks
+        Result result;
+
+        Ack(ProduceStreamResponse.Builder builder, int frames) {
+            this.builder = builder;
+            this.frames = frames;
+        }
+    }
+}
@@ -1,12 +1,25 @@
 package github.io.pedrogao.mq.queue;
 
 import com.google.protobuf.ByteString;
+import github.io.pedrogao.diskqueue.util.FileUtil;
 import github.io.pedrogao.mq.api.*;
-import github.io.pedrogao.mq.message.MessagePack;
+import github.io.pedrogao.mq.compress.DictionaryCompressor;
+import github.io.pedrogao.mq.compress.DictionaryStore;
+import github.io.pedrogao.mq.compress.DictionaryTrainer;
+import github.io.pedrogao.mq.metrics.MetricsRegistry;
+import github.io.pedrogao.mq.metrics.StorageMetricsRecorder;
 import github.io.pedrogao.mq.registry.RegistryService;
+import github.io.pedrogao.mq.server.ServerConfig;
 import github.io.pedrogao.mq.storage.BackendQueue;
-import github.io.pedrogao.mq.storage.DiskQueueImpl;
+import github.io.pedrogao.mq.storage.LazyQueue;
+import github.io.pedrogao.mq.storage.MemoryBudget;
+import github.io.pedrogao.mq.storage.QueueEngineSpec;
+import github.io.pedrogao.mq.storage.QueueEngineContext;
+import github.io.pedrogao.mq.storage.QueueEngines;
+import github.io.pedrogao.mq.storage.QueueItem;
+import github.io.pedrogao.mq.storage.QueueStatus;
 import github.io.pedrogao.mq.utils.Closer;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,14 +27,32 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(QueueManager.class);
 
+    private static final int MIN_DICTIONARY_SAMPLES = 100;
+
+    private static final long WRITE_PIPELINE_CLOSE_TIMEOUT_MS = 5000;
+
+    private static final long RETENTION_TICK_MS = 1000;
+
+    private static final long IDLE_CHECK_INTERVAL_MS = 1000;
+
     private final String dataDir;
 
     private final Map<String, BackendQueue> queueMap;
@@ -30,51 +61,209 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
 
     private final RegistryService registryService;
 
-    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final FlushScheduler flushScheduler;
 
     private final ScheduledExecutorService cleanExecutor = Executors.newSingleThreadScheduledExecutor();
 
+    private final RetentionEngine retentionEngine;
+
+    private final ScheduledExecutorService idleExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // queue name => push subscriptions
+    private final Map<String, Set<Subscription>> subscriptionMap = new ConcurrentHashMap<>();
+
+    // drains push subscriptions and produce streams, every stream queues at most one drain task
+    private final ExecutorService streamExecutor;
+
+    // queue name => versioned preset dictionaries, opened on first use
+    private final Map<String, DictionaryStore> dictionaryMap = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService dictionaryExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // queue name => write pipeline of asyncProduceMessage
+    private final Map<String, WritePipeline> writePipelineMap = new ConcurrentHashMap<>();
+
+    private final ExecutorService writeExecutor = Executors.newCachedThreadPool();
+
+    // null when queues are shared by all handler threads
+    private final ShardDispatcher shardDispatcher;
+
+    // null when requests run on the calling handler thread
+    private final FairScheduler fairScheduler;
+
+    private final String fairTenantDelimiter;
+
+    private final Quotas quotas;
+
+    private final ScheduledExecutorService quotaExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final ReplicationLeader replicationLeader;
+
+    // null unless this broker follows a leader
+    private final ReplicaFetcher replicaFetcher;
+
+    // queues pulled from the leader, they take no produces
+    private final Set<String> replicaQueues;
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    // queues of this broker record their storage timings into its registry and share its memory budget
+    private final QueueEngineContext engineContext;
+
+    private final BrokerStats brokerStats = new BrokerStats();
+
+    private final ScheduledExecutorService statsExecutor = Executors.newSingleThreadScheduledExecutor();
+
     private final int flushIntervalMs;
     private final int cleanIntervalMs;
-    private final int expireIntervalHour;
+    private final long queueIdleCloseMs;
+    private final int maxOpenQueues;
+    private final int produceStreamWindow;
+    private final boolean produceStreamFlush;
+    private final int compressMinBytes;
+    private final int dictionarySize;
+    private final int dictionaryTrainIntervalMs;
+    private final int dictionarySampleSize;
+    private final int asyncWriteRingSize;
+    private final int asyncWriteMaxBatch;
+    // engine of queues created without one
+    private final QueueEngineSpec defaultEngine;
 
     public QueueManager(String dataDir, RegistryService registryService, int flushIntervalMs, int cleanIntervalMs, int expireIntervalHour) {
-        this.dataDir = dataDir;
+        this(newServerConfig(dataDir, flushIntervalMs, cleanIntervalMs, expireIntervalHour), registryService);
+    }
+
+    public QueueManager(ServerConfig config, RegistryService registryService) {
+        this.dataDir = config.getDataDir();
         this.queueMap = new ConcurrentHashMap<>();
         this.queueLock = new ReentrantReadWriteLock();
-        this.flushIntervalMs = flushIntervalMs;
-        this.cleanIntervalMs = cleanIntervalMs;
-        this.expireIntervalHour = expireIntervalHour;
+        this.flushIntervalMs = config.getQueueFlushIntervalMs();
+        this.cleanIntervalMs = config.getQueueCleanIntervalMs();
+        this.queueIdleCloseMs = config.getQueueIdleCloseMs();
+        this.maxOpenQueues = config.getMaxOpenQueues();
+        this.produceStreamWindow = config.getProduceStreamWindow();
+        this.produceStreamFlush = config.isProduceStreamFlush();
+        this.compressMinBytes = config.getCompressMinBytes();
+        this.dictionarySize = config.getDictionarySize();
+        this.dictionaryTrainIntervalMs = config.getDictionaryTrainIntervalMs();
+        this.dictionarySampleSize = config.getDictionarySampleSize();
+        this.asyncWriteRingSize = config.getAsyncWriteRingSize();
+        this.asyncWriteMaxBatch = config.getAsyncWriteMaxBatch();
+        this.streamExecutor = Executors.newFixedThreadPool(config.getStreamThreads());
+        this.defaultEngine = new QueueEngineSpec(config.getDefaultQueueEngine(), Map.of());
+        QueueEngines.validate(defaultEngine);
+        this.engineContext = new QueueEngineContext(new StorageMetricsRecorder(metrics),
+                new MemoryBudget(config.getMemoryQueueBudgetBytes()));
         this.registryService = registryService;
+        this.fairTenantDelimiter = config.getFairTenantDelimiter();
+        if (config.getShardCount() <= 0) {
+            this.shardDispatcher = null;
+        } else if (config.isFairScheduling()) {
+            // every shard thread schedules its own queues fairly
+            this.shardDispatcher = new ShardDispatcher(config.getShardCount(), config.getShardQueueSize(),
+                    config.getFairQuantum(), config.getFairWeights(), this::flowOf);
+        } else {
+            this.shardDispatcher = new ShardDispatcher(config.getShardCount(), config.getShardQueueSize());
+        }
+        this.fairScheduler = config.isFairScheduling() && shardDispatcher == null ?
+                new FairScheduler(config.getFairThreads(), config.getFairQuantum(), config.getFairWeights()) : null;
+        RetentionPolicy defaultRetention = new RetentionPolicy(
+                TimeUnit.HOURS.toMillis(config.getQueueExpireIntervalHour()), config.getRetentionMaxBytes(),
+                config.isRetentionDeleteConsumed());
+        this.retentionEngine = new RetentionEngine(dataDir, defaultRetention, cleanIntervalMs, metrics,
+                queueName -> executorOf(queueName, Runnable::run));
+        this.quotas = new Quotas(config.getQueueDiskQuotaBytes(), config.getBrokerDiskQuotaBytes(),
+                config.getQueueProduceBytesPerSec(), config.getBrokerProduceBytesPerSec(),
+                config.getDiskQuotaRetryAfterMs());
 
         load();
-        flushExecutor.schedule(this::flushQueues, flushIntervalMs, TimeUnit.MILLISECONDS);
-        cleanExecutor.schedule(this::cleanupQueueOldItems, cleanIntervalMs, TimeUnit.MILLISECONDS);
+        this.replicationLeader = new ReplicationLeader(config.getReplicationMode(), config.getMinInsyncReplicas(),
+                config.getReplicaLagMaxMs(), queueMap::get, this::engineOf, streamExecutor);
+        this.replicaQueues = new HashSet<>(config.getReplicatedQueues());
+        this.replicaFetcher = config.getReplicationLeader() == null ? null :
+                startReplicaFetcher(config);
+        this.flushScheduler = new FlushScheduler(queueMap, config.getFlushDirtyBytes(), flushIntervalMs,
+                config.getFlushThreads(), config.getFlushBytesPerSec(), metrics.histogram("queue.flush.nanos"));
+        // every queue is due once per clean interval, the tick only picks the due ones
+        long retentionTickMs = Math.min(cleanIntervalMs, RETENTION_TICK_MS);
+        cleanExecutor.scheduleWithFixedDelay(() -> retentionEngine.tick(queueMap), retentionTickMs,
+                retentionTickMs, TimeUnit.MILLISECONDS);
+        if (queueIdleCloseMs > 0 || maxOpenQueues > 0) {
+            idleExecutor.scheduleWithFixedDelay(this::closeIdleQueues, IDLE_CHECK_INTERVAL_MS, IDLE_CHECK_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+        quotaExecutor.scheduleWithFixedDelay(() -> quotas.refresh(queueMap), 0, config.getQuotaRefreshIntervalMs(),
+                TimeUnit.MILLISECONDS);
+        statsExecutor.scheduleWithFixedDelay(brokerStats::sample, config.getStatsSampleIntervalMs(),
+                config.getStatsSampleIntervalMs(), TimeUnit.MILLISECONDS);
+        if (dictionaryTrainIntervalMs > 0) {
+            dictionaryExecutor.scheduleWithFixedDelay(this::trainDictionaries, dictionaryTrainIntervalMs,
+                    dictionaryTrainIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        metrics.gauge("queues", queueMap::size);
+        metrics.gauge("queues.open", () -> queueMap.values().stream().filter(BackendQueue::isOpen).count());
+        metrics.gauge("queues.memory.bytes", engineContext.getMemoryBudget()::getUsedBytes);
+        metrics.gauge("queues.memory.pooled.bytes", engineContext.getMemoryBudget()::getPooledBytes);
+        metrics.gauge("subscriptions", () -> subscriptionMap.values().stream().mapToLong(Set::size).sum());
+        metrics.gauge("flush.lag.max.ms", () -> getFlushLagMs().values().stream().mapToLong(Long::longValue).max().orElse(0));
     }
 
     @Override
     public void produceMessage(ProduceMessageRequest request, StreamObserver<ProduceMessageResponse> responseObserver) {
+        dispatch(request.getQueueName(), 1, () -> doProduceMessage(request, responseObserver), result -> {
+            responseObserver.onNext(ProduceMessageResponse.newBuilder().setResult(result).build());
+            responseObserver.onCompleted();
+        });
+    }
+
+    private void doProduceMessage(ProduceMessageRequest request, StreamObserver<ProduceMessageResponse> responseObserver) {
         String queueName = request.getQueueName();
         ByteString payload = request.getPayload();
 
+        boolean completed = true; // false once SEMI_SYNC answers later
         try {
             BackendQueue queue = queueMap.get(queueName);
             if (queue == null) {
                 log.error("queue {} not found", queueName);
-                Result result = genQueueNotFoundResult(queueName);
+                Result result = Results.queueNotFound(queueName);
                 ProduceMessageResponse response = ProduceMessageResponse.newBuilder().setResult(result).build();
                 responseObserver.onNext(response);
                 return;
             }
 
-            long index = queue.push(payload.toByteArray());
-            ProduceMessageResponse response = ProduceMessageResponse.newBuilder().setResult(genSuccessResult()).setIndex(index).build();
-            responseObserver.onNext(response);
+            Result writableResult = checkWritable(queueName, true);
+            if (writableResult != null) {
+                ProduceMessageResponse response = ProduceMessageResponse.newBuilder().setResult(writableResult).build();
+                responseObserver.onNext(response);
+                return;
+            }
+
+            Result quotaResult = acquireQuota(queueName, payload.size());
+            if (quotaResult != null) {
+                ProduceMessageResponse response = ProduceMessageResponse.newBuilder().setResult(quotaResult).build();
+                responseObserver.onNext(response);
+                return;
+            }
+
+            long index;
+            try {
+                index = queue.push(payload.toByteArray());
+            } catch (Exception e) {
+                quotas.release(queueName, payload.size());
+                throw e;
+            }
+            written(queueName, 1, payload.size());
+            notifySubscriptions(queueName);
+            completed = respondAppended(queueName, index, responseObserver, result ->
+                    ProduceMessageResponse.newBuilder().setResult(result).setIndex(index).build());
         } catch (Exception e) {
             log.error("produce message error", e);
             responseObserver.onError(e);
         } finally {
-            responseObserver.onCompleted();
+            if (completed) {
+                responseObserver.onCompleted();
+            }
         }
     }
 
@@ -87,16 +276,36 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
             BackendQueue queue = queueMap.get(queueName);
             if (queue == null) {
                 log.error("queue {} not found", queueName);
-                Result result = genQueueNotFoundResult(queueName);
+                Result result = Results.queueNotFound(queueName);
                 Empty response = Empty.newBuilder().setResult(result).build();
                 responseObserver.onNext(response);
                 return;
             }
 
-            // TODO async produce message, no block
-            // push message to queue by another background worker thread
-            queue.push(payload.toByteArray());
-            Result result = genSuccessResult();
+            Result writableResult = checkWritable(queueName, false);
+            if (writableResult != null) {
+                responseObserver.onNext(Empty.newBuilder().setResult(writableResult).build());
+                return;
+            }
+
+            Result quotaResult = acquireQuota(queueName, payload.size());
+            if (quotaResult != null) {
+                responseObserver.onNext(Empty.newBuilder().setResult(quotaResult).build());
+                return;
+            }
+
+            // acknowledged once in the ring, the pipeline writer appends it
+            WritePipeline pipeline = writePipelineMap.computeIfAbsent(queueName, k ->
+                    new WritePipeline(queue, asyncWriteRingSize, asyncWriteMaxBatch, this::notifySubscriptions,
+                            executorOf(queueName, writeExecutor), metrics));
+            Result result;
+            if (pipeline.offer(payload.toByteArray())) {
+                written(queueName, 1, payload.size());
+                result = Results.success();
+            } else {
+                quotas.release(queueName, payload.size());
+                result = Results.tryAgain("write pipeline of queue " + queueName + " is full");
+            }
             Empty response = Empty.newBuilder().setResult(result).build();
             responseObserver.onNext(response);
         } catch (Exception e) {
@@ -107,8 +316,152 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
         }
     }
 
+    @Override
+    public void produceBatch(ProduceBatchRequest request, StreamObserver<ProduceBatchResponse> responseObserver) {
+        int cost = request.getMessagePack().getPayloadsCount() + request.getPackedBatch().getSize();
+        dispatch(request.getQueueName(), cost, () -> doProduceBatch(request, responseObserver), result -> {
+            responseObserver.onNext(ProduceBatchResponse.newBuilder().setResult(result).build());
+            responseObserver.onCompleted();
+        });
+    }
+
+    private void doProduceBatch(ProduceBatchRequest request, StreamObserver<ProduceBatchResponse> responseObserver) {
+        String queueName = request.getQueueName();
+        List<ByteString> payloads = request.getMessagePack().getPayloadsList();
+
+        boolean completed = true; // false once SEMI_SYNC answers later
+        try {
+            BackendQueue queue = queueMap.get(queueName);
+            if (queue == null) {
+                log.error("queue {} not found", queueName);
+                Result result = Results.queueNotFound(queueName);
+                ProduceBatchResponse response = ProduceBatchResponse.newBuilder().setResult(result).build();
+                responseObserver.onNext(response);
+                return;
+            }
+            Result writableResult = checkWritable(queueName, true);
+            if (writableResult != null) {
+                ProduceBatchResponse response = ProduceBatchResponse.newBuilder().setResult(writableResult).build();
+                responseObserver.onNext(response);
+                return;
+            }
+            if (request.hasPackedBatch()) {
+                completed = producePackedBatch(queue, request.getPackedBatch(), responseObserver);
+                return;
+            }
+            if (payloads.isEmpty()) {
+                Result result = Results.invalidRequest("empty batch for queue " + queueName);
+                ProduceBatchResponse response = ProduceBatchResponse.newBuilder().setResult(result).build();
+                responseObserver.onNext(response);
+                return;
+            }
+
+            long bytes = 0;
+            for (ByteString payload : payloads) {
+                bytes += payload.size();
+            }
+            Result quotaResult = acquireQuota(queueName, bytes);
+            if (quotaResult != null) {
+                ProduceBatchResponse response = ProduceBatchResponse.newBuilder().setResult(quotaResult).build();
+                responseObserver.onNext(response);
+                return;
+            }
+
+            List<byte[]> items = new ArrayList<>(payloads.size());
+            for (ByteString payload : payloads) {
+                items.add(payload.toByteArray());
+            }
+            long firstIndex;
+            try {
+                firstIndex = queue.push(items);
+            } catch (Exception e) {
+                quotas.release(queueName, bytes);
+                throw e;
+            }
+            long lastIndex = firstIndex + items.size() - 1;
+            written(queueName, items.size(), bytes);
+            notifySubscriptions(queueName);
+            completed = respondAppended(queueName, lastIndex, responseObserver, result ->
+                    ProduceBatchResponse.newBuilder().setResult(result).
+                            setFirstIndex(firstIndex).setLastIndex(lastIndex).build());
+        } catch (Exception e) {
+            log.error("produce batch error", e);
+            responseObserver.onError(e);
+        } finally {
+            if (completed) {
+                responseObserver.onCompleted();
+            }
+        }
+    }
+
+    /**
+     * @return false when the answer completes the call later
+     */
+    private boolean producePackedBatch(BackendQueue queue, MessageList packedBatch,
+                                       StreamObserver<ProduceBatchResponse> responseObserver) throws IOException {
+        CompressionType compressionType = packedBatch.getCompressionType();
+        int dictionaryVersion = packedBatch.getDictionaryVersion();
+        boolean valid = packedBatch.getSize() > 0 && !packedBatch.getPayload().isEmpty() &&
+                compressionType != CompressionType.UNRECOGNIZED;
+        if (valid && compressionType == CompressionType.DEFLATE_DICT) {
+            valid = getDictionaryStore(queue.getName()).get(dictionaryVersion) != null;
+        }
+        if (!valid) {
+            Result result = Results.invalidRequest("invalid packed batch for queue " + queue.getName());
+            ProduceBatchResponse response = ProduceBatchResponse.newBuilder().setResult(result).build();
+            responseObserver.onNext(response);
+            return true;
+        }
+
+        int bytes = packedBatch.getPayload().size();
+        Result quotaResult = acquireQuota(queue.getName(), bytes);
+        if (quotaResult != null) {
+            ProduceBatchResponse response = ProduceBatchResponse.newBuilder().setResult(quotaResult).build();
+            responseObserver.onNext(response);
+            return true;
+        }
+
+        // stored as is, the broker never looks inside
+        long index;
+        try {
+            index = queue.push(packedBatch.getPayload().toByteArray(), packedBatch.getSize(),
+                    MessagePacker.attributesOf(compressionType, dictionaryVersion));
+        } catch (Exception e) {
+            quotas.release(queue.getName(), bytes);
+            throw e;
+        }
+        written(queue.getName(), packedBatch.getSize(), bytes);
+        notifySubscriptions(queue.getName());
+        return respondAppended(queue.getName(), index, responseObserver, result ->
+                ProduceBatchResponse.newBuilder().setResult(result).setFirstIndex(index).setLastIndex(index).build());
+    }
+
+    @Override
+    public StreamObserver<ProduceMessageRequest> produceStream(StreamObserver<ProduceStreamResponse> responseObserver) {
+        ServerCallStreamObserver<ProduceStreamResponse> serverObserver =
+                (ServerCallStreamObserver<ProduceStreamResponse>) responseObserver;
+        ProduceStreamHandler handler = new ProduceStreamHandler(serverObserver, queueMap::get,
+                queueName -> checkWritable(queueName, true), replicationLeader, this::notifySubscriptions, quotas, brokerStats, streamExecutor, shardDispatcher, produceStreamWindow,
+                produceStreamFlush);
+        handler.start();
+        return handler;
+    }
+
     @Override
     public void consumeMessage(ConsumeMessageRequest request, StreamObserver<ConsumeMessageResponse> responseObserver) {
+        if (request.getBatchSize() <= 0) {
+            Result result = Results.invalidRequest("invalid batch size " + request.getBatchSize());
+            responseObserver.onNext(ConsumeMessageResponse.newBuilder().setResult(result).build());
+            responseObserver.onCompleted();
+            return;
+        }
+        dispatch(request.getQueueName(), request.getBatchSize(), () -> doConsumeMessage(request, responseObserver), result -> {
+            responseObserver.onNext(ConsumeMessageResponse.newBuilder().setResult(result).build());
+            responseObserver.onCompleted();
+        });
+    }
+
+    private void doConsumeMessage(ConsumeMessageRequest request, StreamObserver<ConsumeMessageResponse> responseObserver) {
         String queueName = request.getQueueName();
         String channel = request.getChannelName();
         int batchSize = request.getBatchSize();
@@ -117,37 +470,26 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
         if (queue == null) {
             log.error("queue {} not found", queueName);
 
-            Result result = genQueueNotFoundResult(queueName);
+            Result result = Results.queueNotFound(queueName);
             ConsumeMessageResponse response = ConsumeMessageResponse.newBuilder().setResult(result).build();
             responseObserver.onNext(response);
             responseObserver.onCompleted();
             return;
         }
 
-        try {
-            MessageList.Builder builder = MessageList.newBuilder();
-            MessagePack.Builder messagePackBuilder = MessagePack.newBuilder();
-            int size = 0;
-            while (batchSize > 0) {
-                byte[] item = queue.poll(channel);
-                if (item == null) {
-                    break;
-                }
-
-                messagePackBuilder.addPayloads(ByteString.copyFrom(item));
-                batchSize--;
-                size++;
-            }
-
-            MessagePack messagePack = messagePackBuilder.build();
-            byte[] bytes = messagePack.toByteArray();
+        // the caller gave up while the request waited, a poll would drop the batch
+        if (((ServerCallStreamObserver<ConsumeMessageResponse>) responseObserver).isCancelled()) {
+            log.warn("consume of queue {} channel {} cancelled", queueName, channel);
+            return;
+        }
 
-            builder.setSize(size);
-            builder.setCompressionType(CompressionType.NONE); // TODO
-            builder.setPayload(ByteString.copyFrom(bytes));
+        try {
+            MessageList messageList = MessagePacker.poll(queue, channel, batchSize,
+                    compressionOf(queueName, request.getCompressionType(), request.getCompressMinBytes()));
+            brokerStats.out(queueName, messageList.getSize(), messageList.getSerializedSize());
 
-            Result result = genSuccessResult();
-            ConsumeMessageResponse response = ConsumeMessageResponse.newBuilder().setResult(result).setMessageList(builder.build()).build();
+            Result result = Results.success();
+            ConsumeMessageResponse response = ConsumeMessageResponse.newBuilder().setResult(result).setMessageList(messageList).build();
             responseObserver.onNext(response);
         } catch (IOException e) {
             log.error("poll message error", e);
@@ -159,6 +501,19 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
 
     @Override
     public void fetchMessage(FetchMessageRequest request, StreamObserver<FetchMessageResponse> responseObserver) {
+        if (request.getBatchSize() <= 0) {
+            Result result = Results.invalidRequest("invalid batch size " + request.getBatchSize());
+            responseObserver.onNext(FetchMessageResponse.newBuilder().setResult(result).build());
+            responseObserver.onCompleted();
+            return;
+        }
+        dispatch(request.getQueueName(), request.getBatchSize(), () -> doFetchMessage(request, responseObserver), result -> {
+            responseObserver.onNext(FetchMessageResponse.newBuilder().setResult(result).build());
+            responseObserver.onCompleted();
+        });
+    }
+
+    private void doFetchMessage(FetchMessageRequest request, StreamObserver<FetchMessageResponse> responseObserver) {
         String queueName = request.getQueueName();
         String channelName = request.getChannelName(); // TODO 暂时没啥用
         long index = request.getIndex();
@@ -168,35 +523,18 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
             BackendQueue queue = queueMap.get(queueName);
             if (queue == null) {
                 log.error("queue {} not found", queueName);
-                Result result = genQueueNotFoundResult(queueName);
+                Result result = Results.queueNotFound(queueName);
                 FetchMessageResponse response = FetchMessageResponse.newBuilder().setResult(result).build();
                 responseObserver.onNext(response);
                 return;
             }
 
-            MessageList.Builder builder = MessageList.newBuilder();
-            MessagePack.Builder messagePackBuilder = MessagePack.newBuilder();
-            int size = 0;
-            while (batchSize > 0) {
-                byte[] item = queue.get(index);
-                if (item == null) {
-                    break;
-                }
+            MessageList messageList = MessagePacker.fetch(queue, index, batchSize,
+                    compressionOf(queueName, request.getCompressionType(), request.getCompressMinBytes()));
+            brokerStats.out(queueName, messageList.getSize(), messageList.getSerializedSize());
 
-                messagePackBuilder.addPayloads(ByteString.copyFrom(item));
-                batchSize--;
-                size++;
-                index++;
-            }
-
-            MessagePack messagePack = messagePackBuilder.build();
-            byte[] bytes = messagePack.toByteArray();
-            builder.setSize(size);
-            builder.setCompressionType(CompressionType.NONE); // TODO
-            builder.setPayload(ByteString.copyFrom(bytes));
-
-            Result result = genSuccessResult();
-            FetchMessageResponse response = FetchMessageResponse.newBuilder().setResult(result).setMessageList(builder.build()).build();
+            Result result = Results.success();
+            FetchMessageResponse response = FetchMessageResponse.newBuilder().setResult(result).setMessageList(messageList).build();
             responseObserver.onNext(response);
         } catch (IOException e) {
             log.error("fetch message error", e);
@@ -206,16 +544,77 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
         }
     }
 
+    @Override
+    public void subscribe(SubscribeRequest request, StreamObserver<SubscribeResponse> responseObserver) {
+        String queueName = request.getQueueName();
+        String channel = request.getChannelName();
+        int batchSize = request.getBatchSize();
+        if (batchSize <= 0) {
+            Result result = Results.invalidRequest("invalid batch size " + batchSize);
+            responseObserver.onNext(SubscribeResponse.newBuilder().setResult(result).build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        BackendQueue queue = queueMap.get(queueName);
+        if (queue == null) {
+            log.error("queue {} not found", queueName);
+
+            Result result = Results.queueNotFound(queueName);
+            SubscribeResponse response = SubscribeResponse.newBuilder().setResult(result).build();
+            responseObserver.onNext(response);
+            responseObserver.onCompleted();
+            return;
+        }
+
+        ServerCallStreamObserver<SubscribeResponse> serverObserver =
+                (ServerCallStreamObserver<SubscribeResponse>) responseObserver;
+        Compression compression;
+        try {
+            compression = compressionOf(queueName, request.getCompressionType(), request.getCompressMinBytes());
+        } catch (IOException e) {
+            log.error("subscribe queue {} error", queueName, e);
+            responseObserver.onError(e);
+            return;
+        }
+        Subscription subscription = new Subscription(queue, channel, batchSize, compression, serverObserver,
+                brokerStats, executorOf(queueName, streamExecutor));
+        serverObserver.setOnCancelHandler(() -> {
+            subscription.cancel();
+            removeSubscription(subscription);
+        });
+        serverObserver.setOnReadyHandler(subscription::signal);
+
+        subscriptionMap.computeIfAbsent(queueName, k -> ConcurrentHashMap.newKeySet()).add(subscription);
+        log.info("subscribe queue {} channel {}", queueName, channel);
+        subscription.signal();
+    }
+
     @Override
     public void createQueue(CreateQueueRequest request, StreamObserver<CreateQueueResponse> responseObserver) {
         String queueName = request.getQueueName();
+        QueueEngineSpec engine = request.getEngine().isEmpty() ? defaultEngine :
+                new QueueEngineSpec(request.getEngine(), request.getEngineOptionsMap());
 
         try {
             queueLock.writeLock().lock();
-            log.info("create queue {} in {}", queueName, dataDir);
-            // Support call many times
-            queueMap.putIfAbsent(queueName, new DiskQueueImpl(dataDir + File.separator + queueName, queueName));
-            CreateQueueResponse response = CreateQueueResponse.newBuilder().setResult(genSuccessResult()).build();
+            log.info("create queue {} in {} on engine {}", queueName, dataDir, engine);
+            Result result;
+            if (queueMap.containsKey(queueName)) {
+                // Support call many times, on the engine the queue was created with
+                QueueEngineSpec existing = QueueEngines.readSpec(new File(dataDir, queueName));
+                result = request.getEngine().isEmpty() || existing.equals(engine) ? Results.success() :
+                        Results.invalidRequest("queue " + queueName + " exists on engine " + existing);
+            } else {
+                try {
+                    QueueEngines.validate(engine);
+                    createLocalQueue(queueName, engine);
+                    result = Results.success();
+                } catch (IllegalArgumentException e) {
+                    result = Results.invalidRequest(e.getMessage());
+                }
+            }
+            CreateQueueResponse response = CreateQueueResponse.newBuilder().setResult(result).build();
             responseObserver.onNext(response);
         } catch (Exception e) {
             log.error("create queue error", e);
@@ -234,14 +633,20 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
             String queueName = request.getQueueName();
             BackendQueue queue = queueMap.get(queueName);
             if (queue == null) {
-                Result result = genQueueNotFoundResult(queueName);
+                Result result = Results.queueNotFound(queueName);
                 DeleteQueueResponse response = DeleteQueueResponse.newBuilder().setResult(result).build();
                 responseObserver.onNext(response);
                 return;
             }
 
+            closeWritePipeline(queueName);
             queue.delete();
-            Result result = genSuccessResult();
+            closeSubscriptions(queueName);
+            // the files stay, clients cache dictionaries by version and versions must never repeat
+            dictionaryMap.remove(queueName);
+            brokerStats.remove(queueName);
+            removeFlow(queueName);
+            Result result = Results.success();
             DeleteQueueResponse response = DeleteQueueResponse.newBuilder().setResult(result).build();
             responseObserver.onNext(response);
         } catch (IOException e) {
@@ -255,13 +660,20 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
 
     @Override
     public void getQueueSize(GetQueueSizeRequest request, StreamObserver<GetQueueSizeResponse> responseObserver) {
+        dispatch(request.getQueueName(), 1, () -> doGetQueueSize(request, responseObserver), result -> {
+            responseObserver.onNext(GetQueueSizeResponse.newBuilder().setResult(result).build());
+            responseObserver.onCompleted();
+        });
+    }
+
+    private void doGetQueueSize(GetQueueSizeRequest request, StreamObserver<GetQueueSizeResponse> responseObserver) {
         String queueName = request.getQueueName();
         String channelName = request.getChannelName();
         BackendQueue queue = queueMap.get(queueName);
         if (queue == null) {
             log.error("queue {} not found", queueName);
 
-            Result result = genQueueNotFoundResult(queueName);
+            Result result = Results.queueNotFound(queueName);
             GetQueueSizeResponse response = GetQueueSizeResponse.newBuilder().setResult(result).build();
             responseObserver.onNext(response);
             responseObserver.onCompleted();
@@ -270,7 +682,7 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
 
         try {
             long size = queue.size(channelName);
-            Result result = genSuccessResult();
+            Result result = Results.success();
             GetQueueSizeResponse response = GetQueueSizeResponse.newBuilder().setResult(result).setSize(size).build();
             responseObserver.onNext(response);
         } catch (IOException e) {
@@ -281,41 +693,514 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
         }
     }
 
+    @Override
+    public void getDictionary(GetDictionaryRequest request, StreamObserver<GetDictionaryResponse> responseObserver) {
+        String queueName = request.getQueueName();
+        try {
+            BackendQueue queue = queueMap.get(queueName);
+            if (queue == null) {
+                log.error("queue {} not found", queueName);
+                Result result = Results.queueNotFound(queueName);
+                GetDictionaryResponse response = GetDictionaryResponse.newBuilder().setResult(result).build();
+                responseObserver.onNext(response);
+                return;
+            }
+
+            DictionaryStore store = getDictionaryStore(queueName);
+            int version = request.getVersion() == 0 ? store.getCurrentVersion() : request.getVersion();
+            byte[] dictionary = store.get(version);
+            if (dictionary == null) {
+                Result result = Results.dictionaryNotFound(queueName, version);
+                GetDictionaryResponse response = GetDictionaryResponse.newBuilder().setResult(result).build();
+                responseObserver.onNext(response);
+                return;
+            }
+
+            GetDictionaryResponse response = GetDictionaryResponse.newBuilder().setResult(Results.success()).
+                    setVersion(version).setDictionary(ByteString.copyFrom(dictionary)).build();
+            responseObserver.onNext(response);
+        } catch (Exception e) {
+            log.error("get dictionary error", e);
+            responseObserver.onError(e);
+        } finally {
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void setRetention(SetRetentionRequest request, StreamObserver<SetRetentionResponse> responseObserver) {
+        String queueName = request.getQueueName();
+        try {
+            Result result;
+            if (!queueMap.containsKey(queueName)) {
+                log.error("queue {} not found", queueName);
+                result = Results.queueNotFound(queueName);
+            } else if (request.getRetention().getMaxAgeMs() < 0 || request.getRetention().getMaxBytes() < 0) {
+                result = Results.invalidRequest("negative retention for queue " + queueName);
+            } else {
+                retentionEngine.setPolicy(queueName, RetentionPolicy.fromProto(request.getRetention()));
+                result = Results.success();
+            }
+            SetRetentionResponse response = SetRetentionResponse.newBuilder().setResult(result).build();
+            responseObserver.onNext(response);
+        } catch (Exception e) {
+            log.error("set retention error", e);
+            responseObserver.onError(e);
+        } finally {
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void getRetention(GetRetentionRequest request, StreamObserver<GetRetentionResponse> responseObserver) {
+        String queueName = request.getQueueName();
+        try {
+            if (!queueMap.containsKey(queueName)) {
+                log.error("queue {} not found", queueName);
+                Result result = Results.queueNotFound(queueName);
+                GetRetentionResponse response = GetRetentionResponse.newBuilder().setResult(result).build();
+                responseObserver.onNext(response);
+                return;
+            }
+
+            RetentionPolicy policy = retentionEngine.getPolicy(queueName);
+            GetRetentionResponse response = GetRetentionResponse.newBuilder().setResult(Results.success()).
+                    setRetention(policy.toProto()).build();
+            responseObserver.onNext(response);
+        } catch (Exception e) {
+            log.error("get retention error", e);
+            responseObserver.onError(e);
+        } finally {
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void getBrokerStats(GetBrokerStatsRequest request, StreamObserver<GetBrokerStatsResponse> responseObserver) {
+        try {
+            List<String> queueNames = request.getQueueNamesCount() > 0 ? request.getQueueNamesList() :
+                    new ArrayList<>(new TreeSet<>(queueMap.keySet()));
+            GetBrokerStatsResponse.Builder builder = GetBrokerStatsResponse.newBuilder();
+            for (String queueName : queueNames) {
+                BackendQueue queue = queueMap.get(queueName);
+                if (queue == null) {
+                    log.error("queue {} not found", queueName);
+                    builder.clearQueues().setResult(Results.queueNotFound(queueName));
+                    responseObserver.onNext(builder.build());
+                    return;
+                }
+                builder.addQueues(queueStatsOf(queue));
+            }
+            responseObserver.onNext(builder.setResult(Results.success()).build());
+        } catch (Exception e) {
+            log.error("get broker stats error", e);
+            responseObserver.onError(e);
+        } finally {
+            responseObserver.onCompleted();
+        }
+    }
+
+    private QueueStats queueStatsOf(BackendQueue queue) throws IOException {
+        QueueStatus status = queue.getStatus();
+        BrokerStats.QueueCounters counters = brokerStats.get(queue.getName());
+        QueueStats.Builder builder = QueueStats.newBuilder().setQueueName(queue.getName()).
+                setOpen(status.isOpen()).setFrontIndex(status.getFrontIndex()).setRearIndex(status.getRearIndex()).
+                setDiskUsage(status.getDiskUsage()).
+                setCachedPages(status.getCachedPages()).setMappedBytes(status.getMappedBytes()).
+                setFlushLagMs(queue.getDirtyAgeMs()).
+                setMessagesIn(counters.getMessagesIn()).setBytesIn(counters.getBytesIn()).
+                setMessagesOut(counters.getMessagesOut()).setBytesOut(counters.getBytesOut()).
+                setMessagesInRate(counters.getMessagesInRate()).setBytesInRate(counters.getBytesInRate()).
+                setMessagesOutRate(counters.getMessagesOutRate()).setBytesOutRate(counters.getBytesOutRate());
+        WritePipeline pipeline = writePipelineMap.get(queue.getName());
+        if (pipeline != null) {
+            builder.setPipelineDepth(pipeline.getDepth()).setPipelineLastBatchSize(pipeline.getLastBatchSize()).
+                    setPipelineAverageBatchSize(pipeline.getAverageBatchSize()).
+                    setPipelineRejected(pipeline.getRejectedCount()).setPipelineDropped(pipeline.getDroppedCount());
+        }
+        for (Map.Entry<String, Long> front : new TreeMap<>(status.getChannelFronts()).entrySet()) {
+            builder.addChannels(ChannelStats.newBuilder().setChannelName(front.getKey()).setFrontIndex(front.getValue()).
+                    setLag(Math.max(status.getRearIndex() - front.getValue(), 0)));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public StreamObserver<ReplicaFetchRequest> replicate(StreamObserver<ReplicaFetchResponse> responseObserver) {
+        return replicationLeader.open((ServerCallStreamObserver<ReplicaFetchResponse>) responseObserver);
+    }
+
     @Override
     public void close() throws IOException {
         log.info("close queue manager");
+        if (replicaFetcher != null) {
+            replicaFetcher.close();
+        }
+        replicationLeader.close();
+        for (Set<Subscription> subscriptions : subscriptionMap.values()) {
+            subscriptions.forEach(Subscription::complete);
+        }
+        subscriptionMap.clear();
+        streamExecutor.shutdown();
+        for (WritePipeline pipeline : writePipelineMap.values()) {
+            try {
+                pipeline.close(WRITE_PIPELINE_CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        writePipelineMap.clear();
+        writeExecutor.shutdown();
+        if (fairScheduler != null) {
+            fairScheduler.close();
+        }
+        if (shardDispatcher != null) {
+            shardDispatcher.close();
+        }
+        idleExecutor.shutdown();
+        flushScheduler.close();
         for (BackendQueue queue : queueMap.values()) {
             Closer.closeQuietly(queue, log);
         }
         queueMap.clear();
-        flushExecutor.shutdown();
         cleanExecutor.shutdown();
+        dictionaryExecutor.shutdown();
+        quotaExecutor.shutdown();
+        statsExecutor.shutdown();
     }
 
-    private void cleanupQueueOldItems() {
-        // remove items older
-        long startMs = System.currentTimeMillis();
-        long removedMs = startMs - TimeUnit.HOURS.toMillis(expireIntervalHour);
+    private static ServerConfig newServerConfig(String dataDir, int flushIntervalMs, int cleanIntervalMs, int expireIntervalHour) {
+        ServerConfig config = new ServerConfig(null, null, null, dataDir);
+        config.setQueueFlushIntervalMs(flushIntervalMs);
+        config.setQueueCleanIntervalMs(cleanIntervalMs);
+        config.setQueueExpireIntervalHour(expireIntervalHour);
+        return config;
+    }
 
-        for (BackendQueue queue : queueMap.values()) {
+    /**
+     * Count appended messages in the broker stats, the quotas counted them when acquired
+     */
+    private void written(String queueName, long messages, long bytes) {
+        brokerStats.in(queueName, messages, bytes);
+    }
+
+    /**
+     * Counts the bytes as written, give them back with {@link Quotas#release(String, long)} when
+     * the append does not happen after all
+     *
+     * @return null when the bytes fit the quotas, else the TRY_AGAIN result to answer with
+     */
+    private Result acquireQuota(String queueName, long bytes) {
+        long retryAfterMs = quotas.acquire(queueName, bytes);
+        if (retryAfterMs == 0) {
+            return null;
+        }
+        return Results.quotaExceeded("quota of queue " + queueName + " exceeded", retryAfterMs);
+    }
+
+    /**
+     * @param semiSync whether the produce waits for the in-sync replicas in SEMI_SYNC mode
+     * @return null when the queue takes produces, else the result to answer with
+     */
+    private Result checkWritable(String queueName, boolean semiSync) {
+        if (replicaQueues.contains(queueName)) {
+            return Results.invalidRequest("queue " + queueName + " is a replica, produce to its leader");
+        }
+        return semiSync ? replicationLeader.checkReplicas(queueName) : null;
+    }
+
+    /**
+     * Answer a produce of the items up to {@code lastIndex}, in SEMI_SYNC mode once the in-sync
+     * replicas stored them
+     *
+     * @return false when the answer completes the call later
+     */
+    private <T> boolean respondAppended(String queueName, long lastIndex, StreamObserver<T> responseObserver,
+                                        Function<Result, T> response) {
+        if (!replicationLeader.isSemiSync()) {
+            responseObserver.onNext(response.apply(Results.success()));
+            return true;
+        }
+        replicationLeader.whenReplicated(queueName, lastIndex, result -> {
+            responseObserver.onNext(response.apply(result));
+            responseObserver.onCompleted();
+        });
+        return false;
+    }
+
+    private ReplicaFetcher startReplicaFetcher(ServerConfig config) {
+        List<BackendQueue> queues = new ArrayList<>();
+        for (String queueName : config.getReplicatedQueues()) {
             try {
-                queue.removeBefore(removedMs);
+                queues.add(createLocalQueue(queueName));
             } catch (IOException e) {
-                log.error("cleanup queue {} error", queue.getName(), e);
+                throw new UncheckedIOException("open replica queue " + queueName + " error", e);
             }
         }
+        ReplicaFetcher fetcher = new ReplicaFetcher(config.getReplicationLeader(), config.getBrokerId(),
+                config.getReplicaFetchMaxRecords(), this::notifySubscriptions, this::openReplicaQueue);
+        fetcher.start(queues);
+        return fetcher;
     }
 
-    private void flushQueues() {
-        for (BackendQueue queue : queueMap.values()) {
+    private QueueEngineSpec engineOf(String queueName) {
+        try {
+            return QueueEngines.readSpec(new File(dataDir, queueName));
+        } catch (IOException e) {
+            throw new UncheckedIOException("read engine of queue " + queueName + " error", e);
+        }
+    }
+
+    /**
+     * Replica queue on the engine of the leader, one stored on another engine is dropped and created again
+     */
+    private BackendQueue openReplicaQueue(String queueName, QueueEngineSpec engine) throws IOException {
+        queueLock.writeLock().lock();
+        try {
+            File queueDir = new File(dataDir, queueName);
+            BackendQueue queue = queueMap.get(queueName);
+            if (queue != null) {
+                if (QueueEngines.readSpec(queueDir).equals(engine)) {
+                    return queue;
+                }
+                log.info("drop replica of queue {} on engine {}, the leader has {}", queueName,
+                        QueueEngines.readSpec(queueDir), engine);
+                queueMap.remove(queueName, queue);
+                closeSubscriptions(queueName);
+                queue.close();
+                FileUtil.deleteDirectory(queueDir);
+            }
+            QueueEngines.validate(engine);
+            return createLocalQueue(queueName, engine);
+        } finally {
+            queueLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Counters, gauges and latency histograms of this broker
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stats of every queue by name, read from memory like {@code getBrokerStats}
+     */
+    public List<QueueStats> getQueueStats() throws IOException {
+        List<QueueStats> stats = new ArrayList<>();
+        for (String queueName : new TreeSet<>(queueMap.keySet())) {
+            BackendQueue queue = queueMap.get(queueName);
+            if (queue != null) {
+                stats.add(queueStatsOf(queue));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Followers in sync per queue this broker leads
+     */
+    public Map<String, List<String>> getInSyncReplicas() {
+        return replicationLeader.getInSyncReplicas();
+    }
+
+    /**
+     * Age of the oldest unflushed push per queue, 0 for queues with everything flushed
+     */
+    public Map<String, Long> getFlushLagMs() {
+        return flushScheduler.getFlushLagMs();
+    }
+
+    /**
+     * Queueing delay and backlog per fair scheduling flow, empty when fair scheduling is off
+     */
+    public Map<String, FairScheduler.FlowStats> getQueueingDelays() {
+        if (shardDispatcher != null) {
+            return shardDispatcher.stats();
+        }
+        return fairScheduler == null ? Map.of() : fairScheduler.stats();
+    }
+
+    /**
+     * Run on the shard owning the queue, or right here when not sharded.
+     * With fair scheduling the task first waits for the turn of its flow, on its shard when sharded.
+     *
+     * @param cost messages the request reads or writes
+     * @param busy answers the request when its shard has too many requests queued
+     */
+    private void dispatch(String queueName, int cost, Runnable task, Consumer<Result> busy) {
+        if (shardDispatcher != null) {
             try {
-                queue.flush();
-            } catch (IOException e) {
-                log.error("flush queue {} error", queue.getName(), e);
+                shardDispatcher.execute(queueName, cost, task);
+            } catch (RejectedExecutionException e) {
+                busy.accept(Results.tryAgain("shard of queue " + queueName + " is busy"));
+            }
+        } else if (fairScheduler != null) {
+            fairScheduler.submit(flowOf(queueName), cost, task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * A tenant flow is shared with other queues and only dropped once idle
+     */
+    private void removeFlow(String queueName) {
+        if (!flowOf(queueName).equals(queueName)) {
+            return;
+        }
+        if (shardDispatcher != null) {
+            shardDispatcher.removeFlow(queueName);
+        } else if (fairScheduler != null) {
+            fairScheduler.remove(queueName);
+        }
+    }
+
+    private String flowOf(String queueName) {
+        if (fairTenantDelimiter == null || fairTenantDelimiter.isEmpty()) {
+            return queueName;
+        }
+        int end = queueName.indexOf(fairTenantDelimiter);
+        return end < 0 ? queueName : queueName.substring(0, end);
+    }
+
+    private Executor executorOf(String queueName, Executor shared) {
+        return shardDispatcher == null ? shared : shardDispatcher.executorOf(queueName);
+    }
+
+    private Compression compressionOf(String queueName, CompressionType compressionType, int requestedMinBytes)
+            throws IOException {
+        int minBytes = requestedMinBytes > 0 ? requestedMinBytes : compressMinBytes;
+        DictionaryStore dictionaries = null;
+        if (compressionType == CompressionType.DEFLATE_DICT) {
+            dictionaries = getDictionaryStore(queueName);
+        }
+        return new Compression(compressionType, minBytes, dictionaries);
+    }
+
+    private DictionaryStore getDictionaryStore(String queueName) throws IOException {
+        DictionaryStore store = dictionaryMap.get(queueName);
+        if (store == null) {
+            String dir = dataDir + File.separator + queueName + File.separator + "dict";
+            dictionaryMap.putIfAbsent(queueName, new DictionaryStore(dir));
+            store = dictionaryMap.get(queueName);
+        }
+        return store;
+    }
+
+    /**
+     * @return the newest plain items of the queue
+     */
+    private List<byte[]> dictionarySamples(BackendQueue queue) throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        long rear = queue.getRearIndex();
+        long front = Math.max(queue.getFrontIndex(), rear - dictionarySampleSize);
+        for (long index = front; index < rear; index++) {
+            QueueItem item = queue.getItem(index);
+            if (!item.isBatch()) {
+                samples.add(item.getData());
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Train a dictionary from the newest plain items of every queue using DEFLATE_DICT, a new version is only
+     * published when it compresses the samples clearly better than the current one
+     */
+    private void trainDictionaries() {
+        // queues a client produced or negotiated DEFLATE_DICT for since the broker started
+        for (Map.Entry<String, DictionaryStore> entry : dictionaryMap.entrySet()) {
+            BackendQueue queue = queueMap.get(entry.getKey());
+            if (queue == null) {
+                continue;
+            }
+            boolean idle = queue instanceof LazyQueue && ((LazyQueue) queue).getIdleMs() >= dictionaryTrainIntervalMs;
+            if (!queue.isOpen() || idle) {
+                continue; // idle, no new messages to learn from
+            }
+            try {
+                // sampling is no access, it must not keep the queue open longer
+                List<byte[]> samples = queue instanceof LazyQueue ?
+                        ((LazyQueue) queue).maintain(this::dictionarySamples) : dictionarySamples(queue);
+                if (samples.size() < MIN_DICTIONARY_SAMPLES) {
+                    continue;
+                }
+
+                byte[] dictionary = DictionaryTrainer.train(samples, dictionarySize);
+                if (dictionary.length == 0) {
+                    continue;
+                }
+                DictionaryStore store = entry.getValue();
+                byte[] current = store.get(store.getCurrentVersion());
+                long trainedSize = compressedSize(samples, dictionary);
+                if (current == null || trainedSize < compressedSize(samples, current) * 9 / 10) {
+                    int version = store.add(dictionary);
+                    log.info("queue {} dictionary version {}, {} bytes", queue.getName(), version, dictionary.length);
+                }
+            } catch (Exception e) {
+                log.error("train dictionary of queue {} error", queue.getName(), e);
             }
         }
     }
 
+    private static long compressedSize(List<byte[]> samples, byte[] dictionary) throws IOException {
+        DictionaryCompressor compressor = new DictionaryCompressor(dictionary);
+        long size = 0;
+        for (byte[] sample : samples) {
+            size += compressor.compress(sample).length;
+        }
+        return size;
+    }
+
+    private void notifySubscriptions(String queueName) {
+        replicationLeader.signal(queueName);
+        Set<Subscription> subscriptions = subscriptionMap.get(queueName);
+        if (subscriptions == null) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    /**
+     * Writes what the pipeline of a deleted queue accepted so far, then forgets it
+     */
+    private void closeWritePipeline(String queueName) {
+        WritePipeline pipeline = writePipelineMap.remove(queueName);
+        if (pipeline == null) {
+            return;
+        }
+        try {
+            pipeline.close(WRITE_PIPELINE_CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Completes the push subscriptions of a deleted queue, consumers see the end of the stream
+     */
+    private void closeSubscriptions(String queueName) {
+        Set<Subscription> subscriptions = subscriptionMap.remove(queueName);
+        if (subscriptions == null) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    private void removeSubscription(Subscription subscription) {
+        Set<Subscription> subscriptions = subscriptionMap.get(subscription.getQueueName());
+        if (subscriptions != null) {
+            subscriptions.remove(subscription);
+        }
+    }
+
     private void load() {
         File file = new File(dataDir);
         if (!file.isDirectory()) {
@@ -335,23 +1220,68 @@ public class QueueManager extends QueueServiceGrpc.QueueServiceImplBase implemen
             return;
         }
 
+        // only discovered here, every queue opens on first access
         for (File subDir : subDirs) {
-            String queueName = subDir.getName();
-            try {
-                BackendQueue queue = new DiskQueueImpl(subDir.getAbsolutePath(), queueName);
-                queueMap.put(queueName, queue);
-            } catch (Exception e) {
-                log.error("load queue {} error", queueName, e);
+            if (subDir.isDirectory()) {
+                queueMap.put(subDir.getName(), newQueue(subDir));
+            }
+        }
+    }
+
+    private BackendQueue createLocalQueue(String queueName) throws IOException {
+        return createLocalQueue(queueName, defaultEngine);
+    }
+
+    private BackendQueue createLocalQueue(String queueName, QueueEngineSpec engine) throws IOException {
+        File queueDir = new File(dataDir, queueName);
+        LazyQueue queue = newQueue(queueDir);
+        BackendQueue existing = queueMap.putIfAbsent(queueName, queue);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            if (!queueDir.isDirectory() && !queueDir.mkdirs()) {
+                throw new IOException("create queue directory " + queueDir.getAbsolutePath() + " error");
+            }
+            // stored first, the queue opens with the engine found in its directory
+            if (!new File(queueDir, QueueEngines.ENGINE_FILE).exists()) {
+                QueueEngines.writeSpec(queueDir, engine);
             }
+            queue.open();
+        } catch (IOException e) {
+            queueMap.remove(queueName, queue);
+            throw e;
         }
+        return queue;
     }
 
-    private Result genSuccessResult() {
-        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.SUCCESS_VALUE)).build();
+    private LazyQueue newQueue(File queueDir) {
+        String queueName = queueDir.getName();
+        return new LazyQueue(queueName, queueDir, () -> QueueEngines.open(queueDir, queueName, engineContext));
     }
 
-    private Result genQueueNotFoundResult(String queueName) {
-        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.FAILURE_VALUE)).
-                setErrorCode(ErrorCode.QUEUE_NOT_FOUND).setErrorMessage("queue " + queueName + " not found").build();
+    /**
+     * Close queues idle for queueIdleCloseMs, then the least recently used ones over maxOpenQueues
+     */
+    private void closeIdleQueues() {
+        List<LazyQueue> openQueues = new ArrayList<>();
+        for (BackendQueue queue : queueMap.values()) {
+            if (queue instanceof LazyQueue && queue.isOpen()) {
+                openQueues.add((LazyQueue) queue);
+            }
+        }
+        openQueues.sort(Comparator.comparingLong(LazyQueue::getIdleMs).reversed());
+
+        int excess = maxOpenQueues > 0 ? openQueues.size() - maxOpenQueues : 0;
+        for (LazyQueue queue : openQueues) {
+            boolean idle = queueIdleCloseMs > 0 && queue.getIdleMs() >= queueIdleCloseMs;
+            if (!idle && excess <= 0) {
+                break; // the rest were used more recently
+            }
+            // trimmed on the way out, retention skips closed queues
+            if (queue.closeIfIdle(idle ? queueIdleCloseMs : 0, retentionEngine::applyNow)) {
+                excess--;
+            }
+        }
     }
 }
@@ -0,0 +1,154 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.storage.BackendQueue;
+import github.io.pedrogao.mq.utils.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk quotas and produce rate limits of the broker and of every queue, 0 means unlimited.
+ * <p>
+ * The produce path never blocks: it compares against disk usage measured by {@link #refresh(Map)}
+ * plus the bytes accepted since, and takes bytes from lock-free token buckets.
+ * <p>
+ * {@link #acquire(String, long)} checks and counts the bytes in one step, so concurrent produces
+ * can not all pass the same room. A produce that is not written after all gives them back with
+ * {@link #release(String, long)}.
+ */
+final class Quotas {
+    private static final Logger log = LoggerFactory.getLogger(Quotas.class);
+
+    private final long queueDiskBytes;
+
+    private final long brokerDiskBytes;
+
+    private final long queueBytesPerSec;
+
+    private final long diskRetryAfterMs;
+
+    // null when the broker rate is unlimited
+    private final TokenBucket brokerBucket;
+
+    private final Map<String, TokenBucket> queueBuckets = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> queueUsage = new ConcurrentHashMap<>();
+
+    private final AtomicLong brokerUsage = new AtomicLong();
+
+    Quotas(long queueDiskBytes, long brokerDiskBytes, long queueBytesPerSec, long brokerBytesPerSec,
+           long diskRetryAfterMs) {
+        this.queueDiskBytes = queueDiskBytes;
+        this.brokerDiskBytes = brokerDiskBytes;
+        this.queueBytesPerSec = queueBytesPerSec;
+        this.diskRetryAfterMs = diskRetryAfterMs;
+        // a second of rate can go at once
+        this.brokerBucket = brokerBytesPerSec > 0 ? new TokenBucket(brokerBytesPerSec, brokerBytesPerSec) : null;
+    }
+
+    /**
+     * Count {@code bytes} as written and take them from the rate limits, if the quotas leave room
+     *
+     * @return 0 when the bytes may be written, else milliseconds to wait before trying again,
+     * nothing is taken then
+     */
+    long acquire(String queueName, long bytes) {
+        AtomicLong queueUsage = usageOf(queueName);
+        if (!reserve(brokerUsage, brokerDiskBytes, bytes)) {
+            return diskRetryAfterMs;
+        }
+        if (!reserve(queueUsage, queueDiskBytes, bytes)) {
+            brokerUsage.addAndGet(-bytes);
+            return diskRetryAfterMs;
+        }
+        TokenBucket queueBucket = bucketOf(queueName);
+        long retryAfterMs = queueBucket == null ? 0 : queueBucket.tryAcquire(bytes);
+        if (retryAfterMs == 0 && brokerBucket != null) {
+            retryAfterMs = brokerBucket.tryAcquire(bytes);
+            if (retryAfterMs > 0 && queueBucket != null) {
+                queueBucket.refund(bytes);
+            }
+        }
+        if (retryAfterMs > 0) {
+            brokerUsage.addAndGet(-bytes);
+            queueUsage.addAndGet(-bytes);
+        }
+        return retryAfterMs;
+    }
+
+    /**
+     * Give back bytes acquired for a produce that was not written
+     */
+    void release(String queueName, long bytes) {
+        brokerUsage.addAndGet(-bytes);
+        usageOf(queueName).addAndGet(-bytes);
+        TokenBucket queueBucket = bucketOf(queueName);
+        if (queueBucket != null) {
+            queueBucket.refund(bytes);
+        }
+        if (brokerBucket != null) {
+            brokerBucket.refund(bytes);
+        }
+    }
+
+    /**
+     * Add {@code bytes} to the usage unless that goes over the limit
+     */
+    private static boolean reserve(AtomicLong usage, long limit, long bytes) {
+        while (true) {
+            long current = usage.get();
+            if (limit > 0 && current + bytes > limit) {
+                return false;
+            }
+            if (usage.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    private TokenBucket bucketOf(String queueName) {
+        if (queueBytesPerSec <= 0) {
+            return null;
+        }
+        TokenBucket bucket = queueBuckets.get(queueName);
+        return bucket != null ? bucket :
+                queueBuckets.computeIfAbsent(queueName, k -> new TokenBucket(queueBytesPerSec, queueBytesPerSec));
+    }
+
+    /**
+     * Measure the disk usage of every queue again, also forgets deleted queues
+     */
+    void refresh(Map<String, BackendQueue> queues) {
+        long total = 0;
+        for (BackendQueue queue : queues.values()) {
+            try {
+                long usage = queue.getDiskUsage();
+                usageOf(queue.getName()).set(usage);
+                total += usage;
+            } catch (Exception e) {
+                log.error("measure disk usage of queue {} error", queue.getName(), e);
+                total += usageOf(queue.getName()).get();
+            }
+        }
+        brokerUsage.set(total);
+        queueUsage.keySet().retainAll(queues.keySet());
+        queueBuckets.keySet().retainAll(queues.keySet());
+    }
+
+    long getDiskUsage(String queueName) {
+        AtomicLong usage = queueUsage.get(queueName);
+        return usage == null ? 0 : usage.get();
+    }
+
+    long getDiskUsage() {
+        return brokerUsage.get();
+    }
+
+    private AtomicLong usageOf(String queueName) {
+        AtomicLong usage = queueUsage.get(queueName);
+        return usage != null ? usage : queueUsage.computeIfAbsent(queueName, k -> new AtomicLong());
+    }
+}
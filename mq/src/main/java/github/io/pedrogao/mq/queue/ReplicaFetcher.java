@@ -0,0 +1,252 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.api.QueueServiceGrpc;
+import github.io.pedrogao.mq.api.ReplicaFetchRequest;
+import github.io.pedrogao.mq.api.ReplicaFetchResponse;
+import github.io.pedrogao.mq.api.ReplicaRecord;
+import github.io.pedrogao.mq.api.ResultCode;
+import github.io.pedrogao.mq.storage.BackendQueue;
+import github.io.pedrogao.mq.storage.QueueEngineSpec;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follower side of queue replication.
+ * <p>
+ * Every replicated queue pulls its leader over its own {@code replicate} stream. Records are
+ * appended with the indexes they have on the leader, a reset realigns the local queue first.
+ * The next fetch goes out once a response is stored, so it acknowledges it. Broken streams are
+ * reconnected with exponential backoff and continue from the local rear index.
+ * <p>
+ * The first response of a stream carries the engine of the queue on the leader, a replica stored
+ * on another engine is recreated empty on the leader's and fetched again from the start.
+ */
+class ReplicaFetcher implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ReplicaFetcher.class);
+
+    private static final long INITIAL_BACKOFF_MS = 100;
+
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    private final String leader;
+
+    private final String followerId;
+
+    private final int maxRecords;
+
+    private final Consumer<String> appendListener;
+
+    private final ReplicaOpener replicaOpener;
+
+    private final ManagedChannel channel;
+
+    private final QueueServiceGrpc.QueueServiceStub stub;
+
+    private final ScheduledExecutorService reconnectExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final List<Link> links = new ArrayList<>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param leader host:port of the leader broker
+     */
+    ReplicaFetcher(String leader, String followerId, int maxRecords, Consumer<String> appendListener,
+                   ReplicaOpener replicaOpener) {
+        this.leader = leader;
+        this.followerId = followerId;
+        this.maxRecords = maxRecords;
+        this.appendListener = appendListener;
+        this.replicaOpener = replicaOpener;
+        this.channel = ManagedChannelBuilder.forTarget(leader).usePlaintext().build();
+        this.stub = QueueServiceGrpc.newStub(channel);
+    }
+
+    void start(List<BackendQueue> queues) {
+        for (BackendQueue queue : queues) {
+            Link link = new Link(queue);
+            links.add(link);
+            link.connect();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        reconnectExecutor.shutdownNow();
+        for (Link link : links) {
+            link.close();
+        }
+        channel.shutdown();
+        try {
+            channel.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Opens the local replica of a queue on the engine it has on the leader
+     */
+    interface ReplicaOpener {
+        BackendQueue open(String queueName, QueueEngineSpec engine) throws IOException;
+    }
+
+    /**
+     * Replicate stream of one queue, the fetch goes out on connect and after each stored response
+     */
+    private class Link implements StreamObserver<ReplicaFetchResponse> {
+        // replaced when the leader has the queue on another engine
+        private volatile BackendQueue queue;
+
+        private long backoffMs = INITIAL_BACKOFF_MS;
+
+        private volatile StreamObserver<ReplicaFetchRequest> requestObserver;
+
+        Link(BackendQueue queue) {
+            this.queue = queue;
+        }
+
+        void connect() {
+            if (closed) {
+                return;
+            }
+            try {
+                requestObserver = stub.replicate(this);
+                fetch();
+                log.info("replicate queue {} from {} at index {}", queue.getName(), leader, queue.getRearIndex());
+            } catch (Exception e) {
+                log.warn("connect replica of queue {} to {} error", queue.getName(), leader, e);
+                reconnect();
+            }
+        }
+
+        private void fetch() {
+            requestObserver.onNext(ReplicaFetchRequest.newBuilder().setQueueName(queue.getName()).
+                    setFollowerId(followerId).setNextIndex(queue.getRearIndex()).setMaxRecords(maxRecords).build());
+        }
+
+        @Override
+        public void onNext(ReplicaFetchResponse response) {
+            if (response.getResult().getResultCodeValue() != ResultCode.SUCCESS_VALUE) {
+                // the leader completes the stream, we reconnect after a backoff
+                log.warn("replicate queue {} from {} failed: {}", queue.getName(), leader,
+                        response.getResult().getErrorMessage());
+                return;
+            }
+            try {
+                apply(response);
+                backoffMs = INITIAL_BACKOFF_MS;
+                fetch();
+            } catch (Exception e) {
+                log.error("store replica of queue {} error", queue.getName(), e);
+                requestObserver.onError(e); // cancels the call, onError reconnects
+            }
+        }
+
+        private void apply(ReplicaFetchResponse response) throws IOException {
+            if (!response.getEngine().isEmpty()) {
+                BackendQueue replica = replicaOpener.open(queue.getName(),
+                        new QueueEngineSpec(response.getEngine(), response.getEngineOptionsMap()));
+                if (replica != queue) {
+                    log.info("replica of queue {} recreated on engine {} of the leader", queue.getName(),
+                            response.getEngine());
+                    queue = replica;
+                    return; // fetch again from the start
+                }
+            }
+            if (response.getReset()) {
+                log.info("reset replica of queue {} from {} to {}", queue.getName(), queue.getRearIndex(),
+                        response.getFirstIndex());
+                queue.reset(response.getFirstIndex());
+                return;
+            }
+            if (response.getFirstIndex() != queue.getRearIndex()) {
+                log.warn("replica of queue {} at {} got records from {}, fetch again", queue.getName(),
+                        queue.getRearIndex(), response.getFirstIndex());
+                return;
+            }
+
+            // runs of plain records go in one batch append, packed batches one by one
+            List<byte[]> plain = new ArrayList<>();
+            for (ReplicaRecord record : response.getRecordsList()) {
+                if (record.getRecordCount() == 0) {
+                    plain.add(record.getData().toByteArray());
+                    continue;
+                }
+                append(plain);
+                long expected = queue.getRearIndex();
+                long index = queue.push(record.getData().toByteArray(), record.getRecordCount(), record.getAttributes());
+                checkIndex(expected, index);
+            }
+            append(plain);
+            if (response.getRecordsCount() > 0) {
+                appendListener.accept(queue.getName());
+            }
+        }
+
+        private void append(List<byte[]> plain) throws IOException {
+            if (plain.isEmpty()) {
+                return;
+            }
+            long expected = queue.getRearIndex();
+            checkIndex(expected, queue.push(plain));
+            plain.clear();
+        }
+
+        private void checkIndex(long expected, long index) throws IOException {
+            if (index != expected) {
+                throw new IOException("replica of queue " + queue.getName() + " stored index " + index +
+                        ", expected " + expected);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.warn("replicate stream of queue {} from {} error: {}", queue.getName(), leader, t.getMessage());
+            reconnect();
+        }
+
+        @Override
+        public void onCompleted() {
+            reconnect();
+        }
+
+        private void reconnect() {
+            if (closed) {
+                return;
+            }
+            long delayMs = backoffMs;
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            try {
+                reconnectExecutor.schedule(this::connect, delayMs, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                log.warn("schedule reconnect of queue {} error", queue.getName(), e);
+            }
+        }
+
+        void close() {
+            StreamObserver<ReplicaFetchRequest> observer = requestObserver;
+            if (observer == null) {
+                return;
+            }
+            try {
+                observer.onCompleted();
+            } catch (Exception e) {
+                log.warn("close replicate stream of queue {} error", queue.getName(), e);
+            }
+        }
+    }
+}
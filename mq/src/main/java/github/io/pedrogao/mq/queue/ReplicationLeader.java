@@ -0,0 +1,472 @@
+package github.io.pedrogao.mq.queue;
+
+import com.google.protobuf.UnsafeByteOperations;
+import github.io.pedrogao.mq.api.ReplicaFetchRequest;
+import github.io.pedrogao.mq.api.ReplicaFetchResponse;
+import github.io.pedrogao.mq.api.ReplicaRecord;
+import github.io.pedrogao.mq.api.Result;
+import github.io.pedrogao.mq.server.ReplicationMode;
+import github.io.pedrogao.mq.storage.BackendQueue;
+import github.io.pedrogao.mq.storage.QueueEngineSpec;
+import github.io.pedrogao.mq.storage.QueueItem;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Leader side of queue replication.
+ * <p>
+ * Followers pull over a {@code replicate} stream with one fetch in flight. A fetch acknowledges
+ * every index before its {@code nextIndex} and is answered once the queue has items from there,
+ * else it is parked until the next append. A follower is in sync while it caught up with the
+ * queue within {@code replicaLagMaxMs}: it fetched from the rear the leader had when answering
+ * its previous fetch, so under continuous produce it need not hit the moving rear exactly.
+ * <p>
+ * In SEMI_SYNC mode a produce is answered once every in-sync follower acknowledged it. Waiting
+ * produces are checked on every acknowledgement and on a tick that also shrinks the in-sync set.
+ * <p>
+ * The first fetch of a stream is answered right away with the engine of the queue, so the follower
+ * stores its replica on the same engine before taking records.
+ */
+class ReplicationLeader implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ReplicationLeader.class);
+
+    private static final long MIN_TICK_MS = 10;
+
+    private static final long MAX_TICK_MS = 100;
+
+    private final ReplicationMode mode;
+
+    private final int minInsyncReplicas;
+
+    private final long replicaLagMaxNanos;
+
+    private final Function<String, BackendQueue> queueLookup;
+
+    private final Function<String, QueueEngineSpec> engineLookup;
+
+    private final Executor executor;
+
+    // queue name => follower id => replica
+    private final Map<String, Map<String, Replica>> replicaMap = new ConcurrentHashMap<>();
+
+    // queue name => produces waiting for the followers, guarded by the list itself
+    private final Map<String, List<Waiter>> waiterMap = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService tickExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    ReplicationLeader(ReplicationMode mode, int minInsyncReplicas, long replicaLagMaxMs,
+                      Function<String, BackendQueue> queueLookup, Function<String, QueueEngineSpec> engineLookup,
+                      Executor executor) {
+        this.mode = mode;
+        this.minInsyncReplicas = minInsyncReplicas;
+        this.replicaLagMaxNanos = TimeUnit.MILLISECONDS.toNanos(replicaLagMaxMs);
+        this.queueLookup = queueLookup;
+        this.engineLookup = engineLookup;
+        this.executor = executor;
+
+        long tickMs = Math.max(MIN_TICK_MS, Math.min(MAX_TICK_MS, replicaLagMaxMs / 4));
+        tickExecutor.scheduleWithFixedDelay(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    boolean isSemiSync() {
+        return mode == ReplicationMode.SEMI_SYNC;
+    }
+
+    /**
+     * @return null when a SEMI_SYNC produce may append, else the TRY_AGAIN result to answer with
+     */
+    Result checkReplicas(String queueName) {
+        if (!isSemiSync()) {
+            return null;
+        }
+        int replicas = 1 + inSyncReplicas(queueName, System.nanoTime()).size();
+        if (replicas >= minInsyncReplicas) {
+            return null;
+        }
+        return Results.notEnoughReplicas("queue " + queueName + " has " + replicas +
+                " in-sync replicas, " + minInsyncReplicas + " required");
+    }
+
+    /**
+     * Call back once every in-sync follower stored the items up to {@code lastIndex}, maybe right here
+     */
+    void whenReplicated(String queueName, long lastIndex, Consumer<Result> callback) {
+        List<Waiter> waiters = waiterMap.computeIfAbsent(queueName, k -> new ArrayList<>());
+        synchronized (waiters) {
+            waiters.add(new Waiter(lastIndex, callback));
+        }
+        checkWaiters(queueName);
+    }
+
+    /**
+     * New items were appended to the queue, answer parked fetches
+     */
+    void signal(String queueName) {
+        Map<String, Replica> replicas = replicaMap.get(queueName);
+        if (replicas == null) {
+            return;
+        }
+        for (Replica replica : replicas.values()) {
+            Session session = replica.session;
+            if (session != null) {
+                session.signal();
+            }
+        }
+    }
+
+    StreamObserver<ReplicaFetchRequest> open(ServerCallStreamObserver<ReplicaFetchResponse> responseObserver) {
+        Session session = new Session(responseObserver);
+        responseObserver.setOnCancelHandler(session::cancel);
+        return session;
+    }
+
+    /**
+     * Followers in sync per queue
+     */
+    Map<String, List<String>> getInSyncReplicas() {
+        long now = System.nanoTime();
+        Map<String, List<String>> result = new HashMap<>();
+        for (String queueName : replicaMap.keySet()) {
+            result.put(queueName, inSyncReplicas(queueName, now));
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        tickExecutor.shutdown();
+        for (Map<String, Replica> replicas : replicaMap.values()) {
+            for (Replica replica : replicas.values()) {
+                Session session = replica.session;
+                if (session != null) {
+                    session.complete();
+                }
+            }
+        }
+        for (List<Waiter> waiters : waiterMap.values()) {
+            List<Waiter> failed;
+            synchronized (waiters) {
+                failed = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+            for (Waiter waiter : failed) {
+                waiter.callback.accept(Results.notReplicated("broker closed before index " + waiter.lastIndex +
+                        " was replicated"));
+            }
+        }
+    }
+
+    private List<String> inSyncReplicas(String queueName, long now) {
+        Map<String, Replica> replicas = replicaMap.get(queueName);
+        if (replicas == null) {
+            return List.of();
+        }
+        List<String> inSync = new ArrayList<>();
+        for (Replica replica : replicas.values()) {
+            if (replica.isInSync(now, replicaLagMaxNanos)) {
+                inSync.add(replica.followerId);
+            }
+        }
+        return inSync;
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Map<String, Replica>> entry : replicaMap.entrySet()) {
+            BackendQueue queue = queueLookup.apply(entry.getKey());
+            if (queue == null) {
+                continue;
+            }
+            // a waiting fetch that caught up is caught up for as long as it waits
+            long rear = queue.getRearIndex();
+            for (Replica replica : entry.getValue().values()) {
+                Session session = replica.session;
+                if (session != null && session.pending != null && replica.isCaughtUp(rear)) {
+                    replica.caughtUp(now);
+                }
+            }
+            checkWaiters(entry.getKey());
+        }
+    }
+
+    private void checkWaiters(String queueName) {
+        List<Waiter> waiters = waiterMap.get(queueName);
+        if (waiters == null) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        Map<String, Replica> replicas = replicaMap.getOrDefault(queueName, Map.of());
+        int inSync = 1;
+        long minAcked = Long.MAX_VALUE;
+        for (Replica replica : replicas.values()) {
+            if (replica.isInSync(now, replicaLagMaxNanos)) {
+                inSync++;
+                minAcked = Math.min(minAcked, replica.ackedIndex);
+            }
+        }
+        boolean enough = inSync >= minInsyncReplicas;
+
+        List<Waiter> done = new ArrayList<>();
+        synchronized (waiters) {
+            Iterator<Waiter> it = waiters.iterator();
+            while (it.hasNext()) {
+                Waiter waiter = it.next();
+                if (!enough || waiter.lastIndex < minAcked) {
+                    done.add(waiter);
+                    it.remove();
+                }
+            }
+        }
+        for (Waiter waiter : done) {
+            Result result = enough ? Results.success() : Results.notReplicated("queue " + queueName +
+                    " stored index " + waiter.lastIndex + " with " + inSync + " in-sync replicas, " +
+                    minInsyncReplicas + " required");
+            try {
+                waiter.callback.accept(result);
+            } catch (Exception e) {
+                log.warn("answer replicated produce of queue {} error", queueName, e);
+            }
+        }
+    }
+
+    private Replica replicaOf(String queueName, String followerId) {
+        return replicaMap.computeIfAbsent(queueName, k -> new ConcurrentHashMap<>()).
+                computeIfAbsent(followerId, Replica::new);
+    }
+
+    private static final class Replica {
+        private final String followerId;
+
+        // every index before it is stored by the follower
+        private volatile long ackedIndex = -1;
+
+        // leader rear sent with the last response, none yet
+        private volatile long sentRearIndex = Long.MAX_VALUE;
+
+        private volatile boolean caughtUp = false;
+
+        private volatile long caughtUpNanos;
+
+        private volatile Session session;
+
+        Replica(String followerId) {
+            this.followerId = followerId;
+        }
+
+        /**
+         * Whether the follower stored everything up to the current rear or up to the rear of the
+         * last response it got
+         */
+        boolean isCaughtUp(long rear) {
+            return ackedIndex >= Math.min(rear, sentRearIndex);
+        }
+
+        void caughtUp(long now) {
+            caughtUpNanos = now;
+            caughtUp = true;
+        }
+
+        boolean isInSync(long now, long lagMaxNanos) {
+            return caughtUp && now - caughtUpNanos <= lagMaxNanos;
+        }
+    }
+
+    private record Waiter(long lastIndex, Consumer<Result> callback) {
+    }
+
+    /**
+     * One replicate stream of a follower, the responses are only written by the drain task
+     */
+    private class Session implements StreamObserver<ReplicaFetchRequest> {
+        private final ServerCallStreamObserver<ReplicaFetchResponse> responseObserver;
+
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+
+        // parked fetch, null while the follower applies the last response
+        private volatile ReplicaFetchRequest pending;
+
+        private volatile Replica replica;
+
+        // the engine goes out with the first response
+        private volatile boolean engineSent = false;
+
+        private volatile boolean closed = false;
+
+        Session(ServerCallStreamObserver<ReplicaFetchResponse> responseObserver) {
+            this.responseObserver = responseObserver;
+        }
+
+        @Override
+        public void onNext(ReplicaFetchRequest request) {
+            String queueName = request.getQueueName();
+            BackendQueue queue = queueLookup.apply(queueName);
+            if (queue != null) {
+                Replica replica = replicaOf(queueName, request.getFollowerId());
+                replica.session = this;
+                long rear = queue.getRearIndex();
+                // a follower ahead of the leader diverged, it is reset and acknowledges nothing
+                if (request.getNextIndex() <= rear) {
+                    replica.ackedIndex = request.getNextIndex();
+                    if (replica.isCaughtUp(rear)) {
+                        replica.caughtUp(System.nanoTime());
+                    }
+                }
+                this.replica = replica;
+            }
+            pending = request;
+            signal();
+            if (queue != null) {
+                checkWaiters(queueName);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.warn("replicate stream error", t);
+            cancel();
+        }
+
+        @Override
+        public void onCompleted() {
+            complete();
+        }
+
+        void signal() {
+            if (!closed && draining.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            ReplicaFetchRequest fetch = pending;
+            try {
+                if (fetch != null && !closed) {
+                    answer(fetch);
+                }
+            } catch (Exception e) {
+                log.error("replicate queue {} to {} error", fetch.getQueueName(), fetch.getFollowerId(), e);
+                fail(e);
+            } finally {
+                draining.set(false);
+            }
+
+            // an append may have signaled while we were still draining
+            fetch = pending;
+            if (fetch != null && !closed) {
+                BackendQueue queue = queueLookup.apply(fetch.getQueueName());
+                if (queue == null || queue.getRearIndex() != fetch.getNextIndex()) {
+                    signal();
+                }
+            }
+        }
+
+        private void answer(ReplicaFetchRequest fetch) throws Exception {
+            String queueName = fetch.getQueueName();
+            BackendQueue queue = queueLookup.apply(queueName);
+            if (queue == null) {
+                log.error("queue {} not found", queueName);
+                Result result = Results.queueNotFound(queueName);
+                pending = null;
+                synchronized (this) {
+                    responseObserver.onNext(ReplicaFetchResponse.newBuilder().setResult(result).build());
+                }
+                complete();
+                return;
+            }
+
+            long front = queue.getFrontIndex();
+            long rear = queue.getRearIndex();
+            long next = fetch.getNextIndex();
+            if (next == rear && engineSent) {
+                return; // parked until the next append
+            }
+
+            ReplicaFetchResponse.Builder builder = ReplicaFetchResponse.newBuilder().
+                    setResult(Results.success()).setLeaderRearIndex(rear);
+            if (!engineSent) {
+                QueueEngineSpec engine = engineLookup.apply(queueName);
+                builder.setEngine(engine.getEngine()).putAllEngineOptions(engine.getOptions());
+                engineSent = true;
+            }
+            if (next < front || next > rear) {
+                // the follower has items the leader removed or never had
+                log.info("reset replica {} of queue {} from {} to {}", fetch.getFollowerId(), queueName, next, front);
+                builder.setReset(true).setFirstIndex(front);
+            } else {
+                builder.setFirstIndex(next);
+                long end = Math.min(rear, next + Math.max(1, fetch.getMaxRecords()));
+                for (long index = next; index < end; index++) {
+                    QueueItem item = queue.getItem(index);
+                    builder.addRecords(ReplicaRecord.newBuilder().
+                            setData(UnsafeByteOperations.unsafeWrap(item.getData())).
+                            setRecordCount(item.getRecordCount()).setAttributes(item.getAttributes()));
+                }
+            }
+            // the follower is caught up once it fetches from this rear
+            replicaOf(queueName, fetch.getFollowerId()).sentRearIndex = rear;
+            pending = null;
+            synchronized (this) {
+                if (!closed) {
+                    responseObserver.onNext(builder.build());
+                }
+            }
+        }
+
+        void cancel() {
+            closed = true;
+            detach();
+        }
+
+        synchronized void complete() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            detach();
+            try {
+                responseObserver.onCompleted();
+            } catch (Exception e) {
+                log.warn("complete replicate stream error", e);
+            }
+        }
+
+        private synchronized void fail(Throwable t) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            detach();
+            try {
+                responseObserver.onError(t);
+            } catch (Exception e) {
+                log.warn("fail replicate stream error", e);
+            }
+        }
+
+        // the replica stays until it lags out of sync, a reconnect takes it over
+        private void detach() {
+            Replica replica = this.replica;
+            if (replica != null && replica.session == this) {
+                replica.session = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.api.ErrorCode;
+import github.io.pedrogao.mq.api.Result;
+import github.io.pedrogao.mq.api.ResultCode;
+
+/**
+ * Result factory shared by the queue service handlers
+ */
+final class Results {
+
+    private Results() {
+    }
+
+    static Result success() {
+        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.SUCCESS_VALUE)).build();
+    }
+
+    static Result queueNotFound(String queueName) {
+        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.FAILURE_VALUE)).
+                setErrorCode(ErrorCode.QUEUE_NOT_FOUND).setErrorMessage("queue " + queueName + " not found").build();
+    }
+
+    static Result invalidRequest(String message) {
+        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.FAILURE_VALUE)).
+                setErrorCode(ErrorCode.INVALID_REQUEST).setErrorMessage(message).build();
+    }
+
+    static Result dictionaryNotFound(String queueName, int version) {
+        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.FAILURE_VALUE)).
+                setErrorCode(ErrorCode.DICTIONARY_NOT_FOUND).
+                setErrorMessage("dictionary " + version + " of queue " + queueName + " not found").build();
+    }
+
+    static Result tryAgain(String message) {
+        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.TRY_AGAIN_VALUE)).
+                setErrorCode(ErrorCode.QUEUE_BUSY).setErrorMessage(message).build();
+    }
+
+    static Result quotaExceeded(String message, long retryAfterMs) {
+        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.TRY_AGAIN_VALUE)).
+                setErrorCode(ErrorCode.QUOTA_EXCEEDED).setErrorMessage(message).setRetryAfterMs(retryAfterMs).build();
+    }
+
+    static Result notEnoughReplicas(String message) {
+        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.TRY_AGAIN_VALUE)).
+                setErrorCode(ErrorCode.NOT_ENOUGH_REPLICAS).setErrorMessage(message).build();
+    }
+
+    /**
+     * Stored by the leader but not by enough replicas, retrying may duplicate it
+     */
+    static Result notReplicated(String message) {
+        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.FAILURE_VALUE)).
+                setErrorCode(ErrorCode.NOT_ENOUGH_REPLICAS).setErrorMessage(message).build();
+    }
+
+    static Result internalError(String message) {
+        return Result.newBuilder().setResultCode(ResultCode.forNumber(ResultCode.FAILURE_VALUE)).
+                setErrorCode(ErrorCode.INTERNAL_ERROR).setErrorMessage(message).build();
+    }
+}
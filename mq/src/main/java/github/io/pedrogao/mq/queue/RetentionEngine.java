@@ -0,0 +1,165 @@
+package github.io.pedrogao.mq.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.io.pedrogao.mq.metrics.Counter;
+import github.io.pedrogao.mq.metrics.RetentionDeleteEvent;
+import github.io.pedrogao.mq.metrics.MetricsRegistry;
+import github.io.pedrogao.mq.storage.BackendQueue;
+import github.io.pedrogao.mq.storage.QueueStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Applies the retention policy of every queue: max age, max bytes and consumed items.
+ * <p>
+ * Each queue is due once per interval at its own jittered time, so the page deletes of many
+ * queues do not hit the disk in the same tick. Closed queues are skipped. Queues without a policy
+ * file use the broker default. The deletes of a queue run on the executor owning it, its shard
+ * when the broker is sharded.
+ */
+final class RetentionEngine {
+    private static final Logger log = LoggerFactory.getLogger(RetentionEngine.class);
+
+    static final String POLICY_FILE = "retention.json";
+
+    private final String dataDir;
+
+    private final RetentionPolicy defaultPolicy;
+
+    private final long intervalMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // queue name => policy, loaded lazily
+    private final Map<String, RetentionPolicy> policies = new ConcurrentHashMap<>();
+
+    // queue name => next time retention runs
+    private final Map<String, Long> dueAtMs = new ConcurrentHashMap<>();
+
+    private final Counter deletedItems;
+
+    private final Counter deletedBytes;
+
+    // queue name => executor its deletes run on
+    private final Function<String, Executor> executorOf;
+
+    RetentionEngine(String dataDir, RetentionPolicy defaultPolicy, long intervalMs, MetricsRegistry metrics,
+                    Function<String, Executor> executorOf) {
+        this.dataDir = dataDir;
+        this.executorOf = executorOf;
+        this.defaultPolicy = defaultPolicy;
+        this.intervalMs = intervalMs;
+        this.deletedItems = metrics.counter("retention.deleted.items");
+        this.deletedBytes = metrics.counter("retention.deleted.bytes");
+    }
+
+    RetentionPolicy getPolicy(String queueName) {
+        return policies.computeIfAbsent(queueName, this::load);
+    }
+
+    /**
+     * Store the policy of the queue, it is applied on the next tick
+     */
+    void setPolicy(String queueName, RetentionPolicy policy) throws IOException {
+        File dir = new File(dataDir, queueName);
+        File tmp = new File(dir, POLICY_FILE + ".tmp");
+        objectMapper.writeValue(tmp, policy);
+        Files.move(tmp.toPath(), new File(dir, POLICY_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        policies.put(queueName, policy);
+        dueAtMs.put(queueName, System.currentTimeMillis());
+        log.info("set retention of queue {} to {}", queueName, policy);
+    }
+
+    /**
+     * Run retention of the queues that are due
+     */
+    void tick(Map<String, BackendQueue> queues) {
+        long now = System.currentTimeMillis();
+        for (BackendQueue queue : queues.values()) {
+            if (!queue.isOpen()) {
+                continue; // trimmed before it was closed, and again once reopened
+            }
+            // first run at a random point of the interval spreads queues loaded together
+            long dueAt = dueAtMs.computeIfAbsent(queue.getName(), k ->
+                    now + ThreadLocalRandom.current().nextLong(intervalMs + 1));
+            if (dueAt > now) {
+                continue;
+            }
+
+            dueAtMs.put(queue.getName(), now + jitteredInterval());
+            RetentionPolicy policy = getPolicy(queue.getName());
+            executorOf.apply(queue.getName()).execute(() -> apply(queue, policy, now));
+        }
+        dueAtMs.keySet().retainAll(queues.keySet());
+        policies.keySet().retainAll(queues.keySet());
+    }
+
+    /**
+     * Run retention of the queue now, e.g. before it is closed
+     */
+    void applyNow(BackendQueue queue) {
+        long now = System.currentTimeMillis();
+        apply(queue, getPolicy(queue.getName()), now);
+        dueAtMs.put(queue.getName(), now + jitteredInterval());
+    }
+
+    private void apply(BackendQueue queue, RetentionPolicy policy, long now) {
+        RetentionDeleteEvent event = new RetentionDeleteEvent();
+        event.begin();
+        try {
+            // read from memory without counting as an access, the difference is what this run deleted
+            QueueStatus before = queue.getStatus();
+            if (policy.getMaxAgeMs() > 0) {
+                queue.removeBefore(now - policy.getMaxAgeMs());
+            }
+            if (policy.getMaxBytes() > 0) {
+                queue.limitDiskUsage(policy.getMaxBytes());
+            }
+            if (policy.isDeleteConsumed()) {
+                queue.removeConsumed();
+            }
+            QueueStatus after = queue.getStatus();
+            long items = Math.max(after.getFrontIndex() - before.getFrontIndex(), 0);
+            long bytes = Math.max(before.getDiskUsage() - after.getDiskUsage(), 0);
+            deletedItems.add(items);
+            deletedBytes.add(bytes);
+            if ((items > 0 || bytes > 0) && event.shouldCommit()) {
+                event.queue = queue.getName();
+                event.items = items;
+                event.bytes = bytes;
+                event.commit();
+            }
+        } catch (IOException e) {
+            log.error("retention of queue {} error", queue.getName(), e);
+        }
+    }
+
+    // +-25% of the interval
+    private long jitteredInterval() {
+        return intervalMs * 3 / 4 + ThreadLocalRandom.current().nextLong(intervalMs / 2 + 1);
+    }
+
+    private RetentionPolicy load(String queueName) {
+        File file = new File(new File(dataDir, queueName), POLICY_FILE);
+        if (!file.exists()) {
+            return defaultPolicy;
+        }
+        try {
+            return objectMapper.readValue(file, RetentionPolicy.class);
+        } catch (IOException e) {
+            log.error("load retention of queue {} error, use the default", queueName, e);
+            return defaultPolicy;
+        }
+    }
+}
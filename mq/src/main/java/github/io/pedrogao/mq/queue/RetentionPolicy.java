@@ -0,0 +1,68 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.api.QueueRetention;
+
+/**
+ * What a queue keeps, stored as json next to the queue data
+ */
+public class RetentionPolicy {
+    // 0 keeps items forever
+    private long maxAgeMs;
+
+    // 0 is unlimited
+    private long maxBytes;
+
+    // remove items every channel has consumed, i.e. before the slowest consumer position
+    private boolean deleteConsumed;
+
+    public RetentionPolicy() {
+    }
+
+    public RetentionPolicy(long maxAgeMs, long maxBytes, boolean deleteConsumed) {
+        this.maxAgeMs = maxAgeMs;
+        this.maxBytes = maxBytes;
+        this.deleteConsumed = deleteConsumed;
+    }
+
+    static RetentionPolicy fromProto(QueueRetention retention) {
+        return new RetentionPolicy(retention.getMaxAgeMs(), retention.getMaxBytes(), retention.getDeleteConsumed());
+    }
+
+    QueueRetention toProto() {
+        return QueueRetention.newBuilder().setMaxAgeMs(maxAgeMs).setMaxBytes(maxBytes).
+                setDeleteConsumed(deleteConsumed).build();
+    }
+
+    public long getMaxAgeMs() {
+        return maxAgeMs;
+    }
+
+    public void setMaxAgeMs(long maxAgeMs) {
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isDeleteConsumed() {
+        return deleteConsumed;
+    }
+
+    public void setDeleteConsumed(boolean deleteConsumed) {
+        this.deleteConsumed = deleteConsumed;
+    }
+
+    @Override
+    public String toString() {
+        return "RetentionPolicy{" +
+                "maxAgeMs=" + maxAgeMs +
+                ", maxBytes=" + maxBytes +
+                ", deleteConsumed=" + deleteConsumed +
+                '}';
+    }
+}
@@ -0,0 +1,213 @@
+package github.io.pedrogao.mq.queue;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Pins every queue to one of N single threaded shards.
+ * <p>
+ * All storage work of a queue runs on its shard thread, the storage locks are then only ever
+ * taken by one thread and never contended. Handlers hand requests off to the owning shard.
+ * <p>
+ * Requests waiting for a shard are bounded, a full shard rejects them so the handler can answer
+ * TRY_AGAIN. Tasks of {@link #executorOf(String)} are not counted, streams and pipelines keep at
+ * most one of them queued.
+ * <p>
+ * A fair dispatcher runs every shard as a one worker {@link FairScheduler}, the shard thread then
+ * takes its tasks by deficit round robin over the flows of its queues instead of in arrival order.
+ */
+public class ShardDispatcher implements Closeable {
+
+    // FIFO shards, null when fair
+    private final ExecutorService[] shards;
+
+    // fair shards, null when FIFO
+    private final FairScheduler[] fairShards;
+
+    // queue name => flow, fair shards only
+    private final Function<String, String> flowOf;
+
+    // requests queued per shard
+    private final AtomicInteger[] pending;
+
+    private final int maxPending;
+
+    public ShardDispatcher(int shardCount) {
+        this(shardCount, 0);
+    }
+
+    /**
+     * @param maxPending requests a shard queues before rejecting more, 0 is unbounded
+     */
+    public ShardDispatcher(int shardCount, int maxPending) {
+        checkShardCount(shardCount);
+        this.maxPending = maxPending;
+        this.fairShards = null;
+        this.flowOf = null;
+        this.shards = new ExecutorService[shardCount];
+        this.pending = newCounters(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            String name = "queue-shard-" + i;
+            shards[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Fair shards, see {@link FairScheduler} for {@code quantum} and {@code weights}
+     *
+     * @param flowOf flow a queue is accounted to
+     */
+    public ShardDispatcher(int shardCount, int maxPending, int quantum, Map<String, Integer> weights,
+                           Function<String, String> flowOf) {
+        checkShardCount(shardCount);
+        this.maxPending = maxPending;
+        this.shards = null;
+        this.flowOf = flowOf;
+        this.fairShards = new FairScheduler[shardCount];
+        this.pending = newCounters(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            fairShards[i] = new FairScheduler("queue-shard-" + i, 1, quantum, weights);
+        }
+    }
+
+    private static void checkShardCount(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shard count must be positive");
+        }
+    }
+
+    private static AtomicInteger[] newCounters(int count) {
+        AtomicInteger[] counters = new AtomicInteger[count];
+        for (int i = 0; i < count; i++) {
+            counters[i] = new AtomicInteger();
+        }
+        return counters;
+    }
+
+    public int shardOf(String queueName) {
+        return Math.floorMod(queueName.hashCode(), shardCount());
+    }
+
+    public void execute(String queueName, Runnable task) {
+        execute(queueName, 1, task);
+    }
+
+    /**
+     * @param cost messages the task reads or writes, only weighs on fair shards
+     * @throws RejectedExecutionException if the shard has {@code maxPending} requests queued
+     */
+    public void execute(String queueName, int cost, Runnable task) {
+        int shard = shardOf(queueName);
+        int queued = pending[shard].incrementAndGet();
+        if (maxPending > 0 && queued > maxPending) {
+            pending[shard].decrementAndGet();
+            throw new RejectedExecutionException("shard " + shard + " has " + maxPending + " requests queued");
+        }
+        Runnable counted = () -> {
+            pending[shard].decrementAndGet();
+            task.run();
+        };
+        try {
+            if (fairShards != null) {
+                fairShards[shard].submit(flowOf.apply(queueName), cost, counted);
+            } else {
+                shards[shard].execute(counted);
+            }
+        } catch (RejectedExecutionException e) {
+            pending[shard].decrementAndGet();
+            throw e;
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(String queueName, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(queueName, () -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Executor running everything on the shard of the queue
+     */
+    public Executor executorOf(String queueName) {
+        int shard = shardOf(queueName);
+        if (fairShards != null) {
+            String flow = flowOf.apply(queueName);
+            return task -> fairShards[shard].submit(flow, 1, task);
+        }
+        return shards[shard];
+    }
+
+    public int getShardCount() {
+        return shardCount();
+    }
+
+    private int shardCount() {
+        return pending.length;
+    }
+
+    /**
+     * Drop the flow of the queue from its fair shard, see {@link FairScheduler#remove}
+     */
+    public void removeFlow(String queueName) {
+        if (fairShards != null) {
+            fairShards[shardOf(queueName)].remove(flowOf.apply(queueName));
+        }
+    }
+
+    /**
+     * Queueing delay and backlog per flow over all fair shards, empty when FIFO
+     */
+    public Map<String, FairScheduler.FlowStats> stats() {
+        Map<String, FairScheduler.FlowStats> stats = new HashMap<>();
+        if (fairShards == null) {
+            return stats;
+        }
+        // a tenant flow may have queues on several shards
+        for (FairScheduler shard : fairShards) {
+            shard.stats().forEach((flow, s) -> stats.merge(flow, s, FairScheduler.FlowStats::merge));
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        if (fairShards != null) {
+            for (FairScheduler shard : fairShards) {
+                shard.close();
+            }
+            return;
+        }
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        for (ExecutorService shard : shards) {
+            try {
+                shard.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.api.MessageList;
+import github.io.pedrogao.mq.api.Result;
+import github.io.pedrogao.mq.api.SubscribeResponse;
+import github.io.pedrogao.mq.storage.BackendQueue;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A server side push subscription of one queue channel.
+ * <p>
+ * Batches are only pushed while the transport is ready, so a slow consumer stops the
+ * drain loop until gRPC calls the on ready handler again.
+ */
+class Subscription {
+    private static final Logger log = LoggerFactory.getLogger(Subscription.class);
+
+    private final BackendQueue queue;
+
+    private final String channel;
+
+    private final int batchSize;
+
+    private final Compression compression;
+
+    private final ServerCallStreamObserver<SubscribeResponse> observer;
+
+    private final BrokerStats brokerStats;
+
+    private final Executor executor;
+
+    // only one drain loop per subscription, keep the channel order
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private volatile boolean closed = false;
+
+    Subscription(BackendQueue queue, String channel, int batchSize,
+                 Compression compression,
+                 ServerCallStreamObserver<SubscribeResponse> observer, BrokerStats brokerStats, Executor executor) {
+        this.queue = queue;
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.compression = compression;
+        this.observer = observer;
+        this.brokerStats = brokerStats;
+        this.executor = executor;
+    }
+
+    String getQueueName() {
+        return queue.getName();
+    }
+
+    /**
+     * Data arrived or transport became ready, schedule a drain if none is running
+     */
+    void signal() {
+        if (closed) {
+            return;
+        }
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            // a cancelled call must not poll, the batch would be dropped
+            while (!closed && !observer.isCancelled() && observer.isReady()) {
+                MessageList messageList = MessagePacker.poll(queue, channel, batchSize, compression);
+                if (messageList.getSize() == 0) {
+                    break;
+                }
+
+                Result result = Results.success();
+                if (!push(SubscribeResponse.newBuilder().setResult(result).setMessageList(messageList).build())) {
+                    break;
+                }
+                brokerStats.out(queue.getName(), messageList.getSize(), messageList.getSerializedSize());
+            }
+        } catch (Exception e) {
+            log.error("push queue {} channel {} error", queue.getName(), channel, e);
+            fail(e);
+        } finally {
+            draining.set(false);
+        }
+
+        // a produce may have signaled while we were still draining
+        try {
+            if (!closed && observer.isReady() && !queue.isEmpty(channel)) {
+                signal();
+            }
+        } catch (IOException e) {
+            log.error("check queue {} channel {} error", queue.getName(), channel, e);
+        }
+    }
+
+    // completion may come from another thread, never interleave it with a push
+    private synchronized boolean push(SubscribeResponse response) {
+        if (closed) {
+            return false;
+        }
+        observer.onNext(response);
+        return true;
+    }
+
+    void cancel() {
+        closed = true;
+    }
+
+    synchronized void complete() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            observer.onCompleted();
+        } catch (Exception e) {
+            log.warn("complete subscription of queue {} error", queue.getName(), e);
+        }
+    }
+
+    private synchronized void fail(Throwable t) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            observer.onError(t);
+        } catch (Exception e) {
+            log.warn("fail subscription of queue {} error", queue.getName(), e);
+        }
+    }
+}
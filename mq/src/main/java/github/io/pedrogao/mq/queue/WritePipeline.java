@@ -0,0 +1,204 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.metrics.Counter;
+import github.io.pedrogao.mq.metrics.MetricsRegistry;
+import github.io.pedrogao.mq.storage.BackendQueue;
+import github.io.pedrogao.mq.utils.MpscRingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Write pipeline of one queue behind asyncProduceMessage.
+ * <p>
+ * Producers only put the payload into a bounded ring and return, a single drain task at a time
+ * takes what has piled up and appends it with one batch push. A full ring rejects the payload
+ * so the caller can answer TRY_AGAIN.
+ * <p>
+ * A drain task writes at most {@link #MAX_BATCHES_PER_DRAIN} batches, then submits the next one,
+ * so a busy queue does not hold a shard thread the other queues of the shard wait for.
+ * <p>
+ * Its metrics are registered as {@code pipeline.<queue>.<name>} until {@link #close(long)}.
+ */
+class WritePipeline {
+    private static final Logger log = LoggerFactory.getLogger(WritePipeline.class);
+
+    // spins on a claimed but unpublished slot before parking
+    private static final int PUBLISH_SPINS = 64;
+
+    private static final long PUBLISH_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    static final int MAX_BATCHES_PER_DRAIN = 4;
+
+    private final BackendQueue queue;
+
+    private final MpscRingBuffer<byte[]> ring;
+
+    private final Consumer<String> appendListener;
+
+    private final Executor executor;
+
+    private final int maxBatchSize;
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private final MetricsRegistry metrics;
+
+    private final String metricsPrefix;
+
+    private final Counter rejected;
+
+    // written by the drain task only
+    private final Counter written;
+    private final Counter batches;
+    private final Counter dropped;
+    private volatile int lastBatchSize = 0;
+
+    WritePipeline(BackendQueue queue, int capacity, int maxBatchSize,
+                  Consumer<String> appendListener, Executor executor, MetricsRegistry metrics) {
+        this.queue = queue;
+        this.ring = new MpscRingBuffer<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.appendListener = appendListener;
+        this.executor = executor;
+
+        this.metrics = metrics;
+        this.metricsPrefix = "pipeline." + queue.getName() + ".";
+        this.rejected = metrics.counter(metricsPrefix + "rejected");
+        this.written = metrics.counter(metricsPrefix + "written");
+        this.batches = metrics.counter(metricsPrefix + "batches");
+        this.dropped = metrics.counter(metricsPrefix + "dropped");
+        metrics.gauge(metricsPrefix + "depth", ring::size);
+        metrics.gauge(metricsPrefix + "batch_size", () -> lastBatchSize);
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    boolean offer(byte[] data) {
+        if (!ring.offer(data)) {
+            rejected.increment();
+            return false;
+        }
+        signal();
+        return true;
+    }
+
+    private void signal() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            drainRing();
+        } finally {
+            draining.set(false);
+        }
+
+        // an offer may have seen the drain still running
+        if (!ring.isEmpty()) {
+            signal();
+        }
+    }
+
+    private void drainRing() {
+        List<byte[]> items = new ArrayList<>(maxBatchSize);
+        int waits = 0;
+        int drained = 0;
+        while (drained < MAX_BATCHES_PER_DRAIN) {
+            byte[] item;
+            while (items.size() < maxBatchSize && (item = ring.poll()) != null) {
+                items.add(item);
+            }
+            if (items.isEmpty()) {
+                if (ring.isEmpty()) {
+                    return;
+                }
+                // a producer claimed the next slot and is about to publish it
+                if (waits++ < PUBLISH_SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(PUBLISH_PARK_NANOS);
+                }
+                continue;
+            }
+            waits = 0;
+
+            try {
+                queue.push(items);
+                written.add(items.size());
+                batches.increment();
+                lastBatchSize = items.size();
+                appendListener.accept(queue.getName());
+            } catch (Exception e) {
+                // already acknowledged, nothing to answer
+                log.error("write {} items to queue {} error", items.size(), queue.getName(), e);
+                dropped.add(items.size());
+            }
+            items.clear();
+            drained++;
+        }
+    }
+
+    /**
+     * Wait until everything accepted so far is written, or the timeout, then unregister the metrics
+     */
+    void close(long timeoutMs) throws InterruptedException {
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (!ring.isEmpty() || draining.get()) {
+                if (System.nanoTime() > deadline) {
+                    log.warn("queue {} write pipeline closed with {} items left", queue.getName(), ring.size());
+                    return;
+                }
+                if (draining.compareAndSet(false, true)) {
+                    drain();
+                } else {
+                    Thread.sleep(1);
+                }
+            }
+        } finally {
+            for (String name : List.of("rejected", "written", "batches", "dropped", "depth", "batch_size")) {
+                metrics.remove(metricsPrefix + name);
+            }
+        }
+    }
+
+    int getDepth() {
+        return ring.size();
+    }
+
+    long getWrittenCount() {
+        return written.get();
+    }
+
+    long getBatchCount() {
+        return batches.get();
+    }
+
+    int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    double getAverageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0 : (double) written.get() / count;
+    }
+
+    long getRejectedCount() {
+        return rejected.get();
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+}
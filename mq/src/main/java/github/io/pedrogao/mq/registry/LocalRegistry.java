@@ -0,0 +1,121 @@
+package github.io.pedrogao.mq.registry;
+
+import github.io.pedrogao.mq.broker.BrokerInfo;
+import github.io.pedrogao.mq.broker.QueueInfo;
+import github.io.pedrogao.mq.broker.TopicInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory registry of a single JVM, for brokers started without ZooKeeper
+ */
+public class LocalRegistry implements RegistryService {
+    private final Map<String, BrokerInfo> brokerMap = new ConcurrentHashMap<>();
+
+    private final Map<String, TopicInfo> topicMap = new ConcurrentHashMap<>();
+
+    // topic id => queue id => queue
+    private final Map<String, Map<String, QueueInfo>> queueMap = new ConcurrentHashMap<>();
+
+    // topic id + "/" + queue id => consumer id
+    private final Map<String, String> consumerMap = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerBroker(String brokerId, BrokerInfo brokerInfo) {
+        brokerMap.put(brokerId, brokerInfo);
+    }
+
+    @Override
+    public void unRegisterBroker(String brokerId) {
+        brokerMap.remove(brokerId);
+    }
+
+    @Override
+    public BrokerInfo getBroker(String brokerId) {
+        return brokerMap.get(brokerId);
+    }
+
+    @Override
+    public List<BrokerInfo> getAllBrokers() {
+        return new ArrayList<>(brokerMap.values());
+    }
+
+    @Override
+    public void registerTopic(String topicId, TopicInfo topicInfo) {
+        topicMap.put(topicId, topicInfo);
+    }
+
+    @Override
+    public void unRegisterTopic(String topicId) {
+        topicMap.remove(topicId);
+        queueMap.remove(topicId);
+    }
+
+    @Override
+    public TopicInfo getTopic(String topicId) {
+        return topicMap.get(topicId);
+    }
+
+    @Override
+    public List<TopicInfo> getAllTopics() {
+        return new ArrayList<>(topicMap.values());
+    }
+
+    @Override
+    public void registerQueue(String topicId, String queueId, QueueInfo queueInfo) {
+        queueMap.computeIfAbsent(topicId, k -> new ConcurrentHashMap<>()).put(queueId, queueInfo);
+    }
+
+    @Override
+    public void unRegisterQueue(String topicId, String queueId) {
+        Map<String, QueueInfo> queues = queueMap.get(topicId);
+        if (queues != null) {
+            queues.remove(queueId);
+        }
+        consumerMap.remove(topicId + "/" + queueId);
+    }
+
+    @Override
+    public QueueInfo getQueue(String topicId, String queueId) {
+        Map<String, QueueInfo> queues = queueMap.get(topicId);
+        return queues == null ? null : queues.get(queueId);
+    }
+
+    @Override
+    public void setQueueConsumer(String topicId, String queueId, String consumerId) {
+        consumerMap.put(topicId + "/" + queueId, consumerId);
+    }
+
+    @Override
+    public String getQueueConsumer(String topicId, String queueId) {
+        return consumerMap.get(topicId + "/" + queueId);
+    }
+
+    @Override
+    public void unsetQueueConsumer(String topicId, String queueId) {
+        consumerMap.remove(topicId + "/" + queueId);
+    }
+
+    @Override
+    public List<QueueInfo> getQueuesByTopic(String topicId) {
+        Map<String, QueueInfo> queues = queueMap.get(topicId);
+        return queues == null ? new ArrayList<>() : new ArrayList<>(queues.values());
+    }
+
+    @Override
+    public List<QueueInfo> getAllQueues() {
+        List<QueueInfo> queueInfoList = new ArrayList<>();
+        for (Map<String, QueueInfo> queues : queueMap.values()) {
+            queueInfoList.addAll(queues.values());
+        }
+        return queueInfoList;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+}
@@ -0,0 +1,15 @@
+package github.io.pedrogao.mq.server;
+
+/**
+ * Executor running the gRPC handlers
+ */
+public enum ExecutorType {
+    // gRPC's shared cached thread pool
+    DEFAULT,
+    // one virtual thread per call, FIXED when the runtime has no virtual threads
+    VIRTUAL,
+    // bounded pool of platform threads with a bounded queue, calls it refuses get RESOURCE_EXHAUSTED
+    FIXED,
+    // on the Netty event loop, handlers must never block
+    DIRECT
+}
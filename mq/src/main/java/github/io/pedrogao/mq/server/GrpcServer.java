@@ -1,13 +1,24 @@
 package github.io.pedrogao.mq.server;
 
+import github.io.pedrogao.mq.metrics.MetricsInterceptor;
 import github.io.pedrogao.mq.queue.QueueManager;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GrpcServer {
 
@@ -17,23 +28,80 @@ public class GrpcServer {
 
     private final QueueManager queueManager;
 
+    private final ServerConfig config;
+
+    private EventLoopGroup bossGroup;
+
+    private EventLoopGroup workerGroup;
+
+    private ExecutorService executor;
+
     public GrpcServer(QueueManager queueManager) {
+        this(queueManager, new ServerConfig(null, null, null));
+    }
+
+    public GrpcServer(QueueManager queueManager, ServerConfig config) {
         this.queueManager = queueManager;
+        this.config = config;
     }
 
     public void start(int port) throws IOException {
-        server = ServerBuilder.forPort(port)
-                .addService(queueManager)
-                .build()
-                .start();
+        bossGroup = new NioEventLoopGroup(config.getBossThreads(), threadFactory("grpc-boss-"));
+        workerGroup = new NioEventLoopGroup(config.getWorkerThreads(), threadFactory("grpc-worker-"));
+
+        NettyServerBuilder builder = NettyServerBuilder.forPort(port)
+                .bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .channelType(NioServerSocketChannel.class)
+                .maxInboundMessageSize(config.getMaxInboundMessageSize())
+                .flowControlWindow(config.getFlowControlWindow())
+                .keepAliveTime(config.getKeepAliveTimeMs(), TimeUnit.MILLISECONDS)
+                .keepAliveTimeout(config.getKeepAliveTimeoutMs(), TimeUnit.MILLISECONDS)
+                .permitKeepAliveTime(config.getPermitKeepAliveTimeMs(), TimeUnit.MILLISECONDS);
+        HandlerExecutorInterceptor handlerInterceptor = null;
+
+        switch (config.getExecutorType()) {
+            case VIRTUAL -> {
+                executor = newVirtualThreadExecutor();
+                builder.executor(executor);
+            }
+            case FIXED -> {
+                // handed over by the interceptor, which answers a full queue with RESOURCE_EXHAUSTED
+                executor = newFixedExecutor();
+                builder.directExecutor();
+                handlerInterceptor = new HandlerExecutorInterceptor(executor);
+            }
+            case DIRECT -> builder.directExecutor();
+            default -> {
+                // gRPC's own cached pool
+            }
+        }
+        MetricsInterceptor metricsInterceptor = new MetricsInterceptor(queueManager.getMetrics());
+        if (handlerInterceptor != null) {
+            // inside the metrics interceptor, rejected calls are counted as errors
+            builder.addService(ServerInterceptors.intercept(queueManager, handlerInterceptor, metricsInterceptor));
+        } else {
+            builder.addService(ServerInterceptors.intercept(queueManager, metricsInterceptor));
+        }
 
-        log.info("Server started, listening on " + port);
+        server = builder.build().start();
+
+        log.info("Server started, listening on {}, executor {}", port, config.getExecutorType());
     }
 
     public void close() throws InterruptedException {
         if (server != null) {
             server.shutdown().awaitTermination(5, TimeUnit.SECONDS);
         }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        }
     }
 
     public void blockUntilShutdown() throws InterruptedException {
@@ -42,4 +110,30 @@ public class GrpcServer {
         }
     }
 
+    /**
+     * Looked up reflectively, the build targets a release where virtual threads are still a preview
+     */
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            log.warn("virtual threads are not available, fall back to a fixed pool", e);
+            return newFixedExecutor();
+        }
+    }
+
+    private ExecutorService newFixedExecutor() {
+        int threads = config.getExecutorThreads();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(config.getExecutorQueueSize()), threadFactory("grpc-handler-"));
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
@@ -0,0 +1,130 @@
+package github.io.pedrogao.mq.server;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the listener callbacks of every call on a bounded executor, in order per call.
+ * <p>
+ * The transport runs with a direct executor and this interceptor hands the calls over, so a
+ * rejection is seen here instead of inside gRPC: a call the executor refuses before any of its
+ * callbacks ran is closed with RESOURCE_EXHAUSTED. A call already handed to the service must not
+ * be closed behind its back, its rejected callbacks run on the transport thread instead, which
+ * stops reading from that connection for the time being.
+ */
+class HandlerExecutorInterceptor implements ServerInterceptor {
+    private static final Logger log = LoggerFactory.getLogger(HandlerExecutorInterceptor.class);
+
+    private final Executor executor;
+
+    HandlerExecutorInterceptor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        return new SerializingListener<>(call, next.startCall(call, headers));
+    }
+
+    private class SerializingListener<ReqT, RespT> extends ServerCall.Listener<ReqT> {
+        private final ServerCall<ReqT, RespT> call;
+
+        private final ServerCall.Listener<ReqT> delegate;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        // set once a drain ran, from then on the service may be using the call
+        private volatile boolean started = false;
+
+        private volatile boolean rejected = false;
+
+        SerializingListener(ServerCall<ReqT, RespT> call, ServerCall.Listener<ReqT> delegate) {
+            this.call = call;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            enqueue(() -> delegate.onMessage(message));
+        }
+
+        @Override
+        public void onHalfClose() {
+            enqueue(delegate::onHalfClose);
+        }
+
+        @Override
+        public void onCancel() {
+            enqueue(delegate::onCancel);
+        }
+
+        @Override
+        public void onComplete() {
+            enqueue(delegate::onComplete);
+        }
+
+        @Override
+        public void onReady() {
+            enqueue(delegate::onReady);
+        }
+
+        private void enqueue(Runnable task) {
+            if (rejected) {
+                return;
+            }
+            tasks.add(task);
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                if (started) {
+                    drain();
+                } else {
+                    reject();
+                }
+            }
+        }
+
+        private void drain() {
+            started = true;
+            while (true) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.error("call {} callback error", call.getMethodDescriptor().getFullMethodName(), e);
+                    }
+                }
+                scheduled.set(false);
+                // a callback may have been queued after the last poll
+                if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        private void reject() {
+            rejected = true;
+            tasks.clear();
+            log.debug("handler executor is full, reject call {}", call.getMethodDescriptor().getFullMethodName());
+            call.close(Status.RESOURCE_EXHAUSTED.withDescription("server is busy, retry later"), new Metadata());
+        }
+    }
+}
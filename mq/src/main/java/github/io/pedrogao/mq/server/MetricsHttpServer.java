@@ -0,0 +1,80 @@
+package github.io.pedrogao.mq.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import github.io.pedrogao.mq.metrics.PrometheusExporter;
+import github.io.pedrogao.mq.queue.QueueManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the broker metrics on {@code /metrics} in the Prometheus text format.
+ * <p>
+ * The exporter renders a snapshot every refresh interval, a scrape only writes the last one, so
+ * scraping costs the same however many queues the broker has. The first snapshot is rendered on
+ * the refresh thread too, a scrape before it gets an empty body.
+ */
+public class MetricsHttpServer {
+    private static final Logger log = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+    public static final String PATH = "/metrics";
+
+    private final PrometheusExporter exporter;
+
+    private final ServerConfig config;
+
+    private final ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final ExecutorService httpExecutor = Executors.newSingleThreadExecutor();
+
+    private HttpServer server;
+
+    public MetricsHttpServer(QueueManager queueManager, ServerConfig config) {
+        this.exporter = new PrometheusExporter(queueManager.getMetrics(), queueManager::getQueueStats);
+        this.config = config;
+    }
+
+    public void start(int port) throws IOException {
+        refreshExecutor.scheduleWithFixedDelay(exporter::refresh, 0, config.getMetricsRefreshIntervalMs(),
+                TimeUnit.MILLISECONDS);
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(httpExecutor);
+        server.start();
+        log.info("Metrics server started, listening on {}", port);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = exporter.getSnapshot();
+            exchange.getResponseHeaders().set("Content-Type", PrometheusExporter.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        httpExecutor.shutdown();
+        refreshExecutor.shutdown();
+    }
+}
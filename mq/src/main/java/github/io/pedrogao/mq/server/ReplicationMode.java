@@ -0,0 +1,11 @@
+package github.io.pedrogao.mq.server;
+
+/**
+ * When a leader acknowledges produces of replicated queues
+ */
+public enum ReplicationMode {
+    // once appended locally, followers catch up in the background
+    ASYNC,
+    // once every in-sync follower stored the message, at least minInsyncReplicas copies
+    SEMI_SYNC
+}
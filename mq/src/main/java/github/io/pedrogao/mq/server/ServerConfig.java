@@ -1,5 +1,10 @@
 package github.io.pedrogao.mq.server;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class ServerConfig {
     private int port;
 
@@ -19,6 +24,105 @@ public class ServerConfig {
 
     private int registerRefreshIntervalMs;
 
+    private int produceStreamWindow;
+
+    private boolean produceStreamFlush;
+
+    private int streamThreads;
+
+    private int compressMinBytes;
+
+    private int dictionaryTrainIntervalMs;
+
+    private int dictionarySize;
+
+    private int dictionarySampleSize;
+
+    private int asyncWriteRingSize;
+
+    private int asyncWriteMaxBatch;
+
+    private ExecutorType executorType;
+
+    private int executorThreads;
+
+    private int executorQueueSize;
+
+    private int bossThreads;
+
+    private int workerThreads;
+
+    private int maxInboundMessageSize;
+
+    private int flowControlWindow;
+
+    private long keepAliveTimeMs;
+
+    private long keepAliveTimeoutMs;
+
+    private long permitKeepAliveTimeMs;
+
+    private int shardCount;
+
+    private int shardQueueSize;
+
+    private boolean fairScheduling;
+
+    private int fairThreads;
+
+    private int fairQuantum;
+
+    private String fairTenantDelimiter;
+
+    private Map<String, Integer> fairWeights;
+
+    private long queueDiskQuotaBytes;
+
+    private long brokerDiskQuotaBytes;
+
+    private long queueProduceBytesPerSec;
+
+    private long brokerProduceBytesPerSec;
+
+    private int diskQuotaRetryAfterMs;
+
+    private int quotaRefreshIntervalMs;
+
+    private long retentionMaxBytes;
+
+    private boolean retentionDeleteConsumed;
+
+    private long flushDirtyBytes;
+
+    private int flushThreads;
+
+    private long flushBytesPerSec;
+
+    private long queueIdleCloseMs;
+
+    private int maxOpenQueues;
+
+    private ReplicationMode replicationMode;
+
+    private int minInsyncReplicas;
+
+    private long replicaLagMaxMs;
+
+    private String replicationLeader;
+
+    private List<String> replicatedQueues;
+
+    private int replicaFetchMaxRecords;
+
+    private int statsSampleIntervalMs;
+
+    private int metricsPort;
+
+    private int metricsRefreshIntervalMs;
+
+    private String defaultQueueEngine;
+
+    private long memoryQueueBudgetBytes;
 
     public ServerConfig(String brokerId, String host, String zkAddress) {
         this.brokerId = brokerId;
@@ -30,6 +134,56 @@ public class ServerConfig {
         this.queueCleanIntervalMs = 1000 * 10; // 10s
         this.queueExpireIntervalHour = 24;
         this.registerRefreshIntervalMs = 1000 * 10; // 10s
+        this.produceStreamWindow = 1024;
+        this.produceStreamFlush = false;
+        this.streamThreads = Runtime.getRuntime().availableProcessors() * 2; // drain push subscriptions, produce streams and replication
+        this.compressMinBytes = 1024;
+        this.dictionaryTrainIntervalMs = 1000 * 60 * 10; // 10min, 0 disables training
+        this.dictionarySize = 1024 * 16;
+        this.dictionarySampleSize = 1000;
+        this.asyncWriteRingSize = 1024 * 64;
+        this.asyncWriteMaxBatch = 1024;
+        this.executorType = ExecutorType.DEFAULT;
+        this.executorThreads = Runtime.getRuntime().availableProcessors() * 2; // FIXED only
+        this.executorQueueSize = 1024 * 10; // FIXED only
+        this.bossThreads = 1;
+        this.workerThreads = 0; // 0 means netty default, 2 * cores
+        this.maxInboundMessageSize = 1024 * 1024 * 4; // 4MB
+        this.flowControlWindow = 1024 * 1024; // 1MB
+        this.keepAliveTimeMs = 1000L * 60 * 60 * 2; // 2h
+        this.keepAliveTimeoutMs = 1000L * 20; // 20s
+        this.permitKeepAliveTimeMs = 1000L * 60 * 5; // 5min, clients pinging faster are closed
+        this.shardCount = 0; // 0 disables sharding, queues are shared by all handler threads
+        this.shardQueueSize = 1024 * 10; // requests waiting per shard before TRY_AGAIN, 0 is unbounded
+        this.fairScheduling = false;
+        this.fairThreads = Runtime.getRuntime().availableProcessors() * 2; // unused when sharded, each shard schedules its own queues
+        this.fairQuantum = 64; // cost units a weight 1 flow gets per round
+        this.fairTenantDelimiter = null; // null schedules per queue, else per queue name prefix
+        this.fairWeights = new HashMap<>(); // flow => weight, 1 if absent
+        this.queueDiskQuotaBytes = 0; // 0 is unlimited
+        this.brokerDiskQuotaBytes = 0; // sum of all queues, 0 is unlimited
+        this.queueProduceBytesPerSec = 0; // 0 is unlimited
+        this.brokerProduceBytesPerSec = 0; // 0 is unlimited
+        this.diskQuotaRetryAfterMs = 1000;
+        this.quotaRefreshIntervalMs = 1000;
+        this.retentionMaxBytes = 0; // default of queues without a policy, 0 is unlimited
+        this.retentionDeleteConsumed = false; // default of queues without a policy
+        this.flushDirtyBytes = 4 * 1024 * 1024; // flush a queue with this many unflushed bytes, or older than queueFlushIntervalMs
+        this.flushThreads = 2;
+        this.flushBytesPerSec = 0; // 0 is unlimited
+        this.queueIdleCloseMs = 10 * 60 * 1000; // close queues untouched this long, 0 keeps them open
+        this.maxOpenQueues = 0; // least recently used queues over this are closed, 0 is unlimited
+        this.replicationMode = ReplicationMode.ASYNC; // SEMI_SYNC acks produces once the in-sync replicas stored them
+        this.minInsyncReplicas = 1; // SEMI_SYNC only, leader included
+        this.replicaLagMaxMs = 1000L * 10; // a follower not caught up this long leaves the in-sync replicas
+        this.replicationLeader = null; // host:port of the leader, null when this broker is no follower
+        this.replicatedQueues = new ArrayList<>(); // queues pulled from the leader, followers only
+        this.replicaFetchMaxRecords = 500;
+        this.statsSampleIntervalMs = 1000; // interval the message and byte rates of broker stats are measured over
+        this.metricsPort = 0; // Prometheus endpoint port, 0 disables it
+        this.metricsRefreshIntervalMs = 5000; // scrapes are answered from a snapshot rendered this often
+        this.defaultQueueEngine = "disk"; // engine of queues created without one, disk or memory, queues keep the engine they were created with
+        this.memoryQueueBudgetBytes = 256 * 1024 * 1024; // rings of all open memory queues, a queue without one stays on disk, 0 is unlimited
     }
 
     public ServerConfig(String brokerId, String host, String zkAddress, String dataDir) {
@@ -114,4 +268,404 @@ public class ServerConfig {
     public void setHost(String host) {
         this.host = host;
     }
+
+    public int getProduceStreamWindow() {
+        return produceStreamWindow;
+    }
+
+    public void setProduceStreamWindow(int produceStreamWindow) {
+        this.produceStreamWindow = produceStreamWindow;
+    }
+
+    public boolean isProduceStreamFlush() {
+        return produceStreamFlush;
+    }
+
+    public void setProduceStreamFlush(boolean produceStreamFlush) {
+        this.produceStreamFlush = produceStreamFlush;
+    }
+
+    public int getStreamThreads() {
+        return streamThreads;
+    }
+
+    public void setStreamThreads(int streamThreads) {
+        this.streamThreads = streamThreads;
+    }
+
+    public int getCompressMinBytes() {
+        return compressMinBytes;
+    }
+
+    public void setCompressMinBytes(int compressMinBytes) {
+        this.compressMinBytes = compressMinBytes;
+    }
+
+    public int getDictionaryTrainIntervalMs() {
+        return dictionaryTrainIntervalMs;
+    }
+
+    public void setDictionaryTrainIntervalMs(int dictionaryTrainIntervalMs) {
+        this.dictionaryTrainIntervalMs = dictionaryTrainIntervalMs;
+    }
+
+    public int getDictionarySize() {
+        return dictionarySize;
+    }
+
+    public void setDictionarySize(int dictionarySize) {
+        this.dictionarySize = dictionarySize;
+    }
+
+    public int getDictionarySampleSize() {
+        return dictionarySampleSize;
+    }
+
+    public void setDictionarySampleSize(int dictionarySampleSize) {
+        this.dictionarySampleSize = dictionarySampleSize;
+    }
+
+    public int getAsyncWriteRingSize() {
+        return asyncWriteRingSize;
+    }
+
+    public void setAsyncWriteRingSize(int asyncWriteRingSize) {
+        this.asyncWriteRingSize = asyncWriteRingSize;
+    }
+
+    public int getAsyncWriteMaxBatch() {
+        return asyncWriteMaxBatch;
+    }
+
+    public void setAsyncWriteMaxBatch(int asyncWriteMaxBatch) {
+        this.asyncWriteMaxBatch = asyncWriteMaxBatch;
+    }
+
+    public ExecutorType getExecutorType() {
+        return executorType;
+    }
+
+    public void setExecutorType(ExecutorType executorType) {
+        this.executorType = executorType;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+    }
+
+    public int getExecutorQueueSize() {
+        return executorQueueSize;
+    }
+
+    public void setExecutorQueueSize(int executorQueueSize) {
+        this.executorQueueSize = executorQueueSize;
+    }
+
+    public int getBossThreads() {
+        return bossThreads;
+    }
+
+    public void setBossThreads(int bossThreads) {
+        this.bossThreads = bossThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getMaxInboundMessageSize() {
+        return maxInboundMessageSize;
+    }
+
+    public void setMaxInboundMessageSize(int maxInboundMessageSize) {
+        this.maxInboundMessageSize = maxInboundMessageSize;
+    }
+
+    public int getFlowControlWindow() {
+        return flowControlWindow;
+    }
+
+    public void setFlowControlWindow(int flowControlWindow) {
+        this.flowControlWindow = flowControlWindow;
+    }
+
+    public long getKeepAliveTimeMs() {
+        return keepAliveTimeMs;
+    }
+
+    public void setKeepAliveTimeMs(long keepAliveTimeMs) {
+        this.keepAliveTimeMs = keepAliveTimeMs;
+    }
+
+    public long getKeepAliveTimeoutMs() {
+        return keepAliveTimeoutMs;
+    }
+
+    public void setKeepAliveTimeoutMs(long keepAliveTimeoutMs) {
+        this.keepAliveTimeoutMs = keepAliveTimeoutMs;
+    }
+
+    public long getPermitKeepAliveTimeMs() {
+        return permitKeepAliveTimeMs;
+    }
+
+    public void setPermitKeepAliveTimeMs(long permitKeepAliveTimeMs) {
+        this.permitKeepAliveTimeMs = permitKeepAliveTimeMs;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public int getShardQueueSize() {
+        return shardQueueSize;
+    }
+
+    public void setShardQueueSize(int shardQueueSize) {
+        this.shardQueueSize = shardQueueSize;
+    }
+
+    public boolean isFairScheduling() {
+        return fairScheduling;
+    }
+
+    public void setFairScheduling(boolean fairScheduling) {
+        this.fairScheduling = fairScheduling;
+    }
+
+    public int getFairThreads() {
+        return fairThreads;
+    }
+
+    public void setFairThreads(int fairThreads) {
+        this.fairThreads = fairThreads;
+    }
+
+    public int getFairQuantum() {
+        return fairQuantum;
+    }
+
+    public void setFairQuantum(int fairQuantum) {
+        this.fairQuantum = fairQuantum;
+    }
+
+    public String getFairTenantDelimiter() {
+        return fairTenantDelimiter;
+    }
+
+    public void setFairTenantDelimiter(String fairTenantDelimiter) {
+        this.fairTenantDelimiter = fairTenantDelimiter;
+    }
+
+    public Map<String, Integer> getFairWeights() {
+        return fairWeights;
+    }
+
+    public void setFairWeights(Map<String, Integer> fairWeights) {
+        this.fairWeights = fairWeights;
+    }
+
+    public long getQueueDiskQuotaBytes() {
+        return queueDiskQuotaBytes;
+    }
+
+    public void setQueueDiskQuotaBytes(long queueDiskQuotaBytes) {
+        this.queueDiskQuotaBytes = queueDiskQuotaBytes;
+    }
+
+    public long getBrokerDiskQuotaBytes() {
+        return brokerDiskQuotaBytes;
+    }
+
+    public void setBrokerDiskQuotaBytes(long brokerDiskQuotaBytes) {
+        this.brokerDiskQuotaBytes = brokerDiskQuotaBytes;
+    }
+
+    public long getQueueProduceBytesPerSec() {
+        return queueProduceBytesPerSec;
+    }
+
+    public void setQueueProduceBytesPerSec(long queueProduceBytesPerSec) {
+        this.queueProduceBytesPerSec = queueProduceBytesPerSec;
+    }
+
+    public long getBrokerProduceBytesPerSec() {
+        return brokerProduceBytesPerSec;
+    }
+
+    public void setBrokerProduceBytesPerSec(long brokerProduceBytesPerSec) {
+        this.brokerProduceBytesPerSec = brokerProduceBytesPerSec;
+    }
+
+    public int getDiskQuotaRetryAfterMs() {
+        return diskQuotaRetryAfterMs;
+    }
+
+    public void setDiskQuotaRetryAfterMs(int diskQuotaRetryAfterMs) {
+        this.diskQuotaRetryAfterMs = diskQuotaRetryAfterMs;
+    }
+
+    public int getQuotaRefreshIntervalMs() {
+        return quotaRefreshIntervalMs;
+    }
+
+    public void setQuotaRefreshIntervalMs(int quotaRefreshIntervalMs) {
+        this.quotaRefreshIntervalMs = quotaRefreshIntervalMs;
+    }
+
+    public long getRetentionMaxBytes() {
+        return retentionMaxBytes;
+    }
+
+    public void setRetentionMaxBytes(long retentionMaxBytes) {
+        this.retentionMaxBytes = retentionMaxBytes;
+    }
+
+    public boolean isRetentionDeleteConsumed() {
+        return retentionDeleteConsumed;
+    }
+
+    public void setRetentionDeleteConsumed(boolean retentionDeleteConsumed) {
+        this.retentionDeleteConsumed = retentionDeleteConsumed;
+    }
+
+    public long getFlushDirtyBytes() {
+        return flushDirtyBytes;
+    }
+
+    public void setFlushDirtyBytes(long flushDirtyBytes) {
+        this.flushDirtyBytes = flushDirtyBytes;
+    }
+
+    public int getFlushThreads() {
+        return flushThreads;
+    }
+
+    public void setFlushThreads(int flushThreads) {
+        this.flushThreads = flushThreads;
+    }
+
+    public long getFlushBytesPerSec() {
+        return flushBytesPerSec;
+    }
+
+    public void setFlushBytesPerSec(long flushBytesPerSec) {
+        this.flushBytesPerSec = flushBytesPerSec;
+    }
+
+    public long getQueueIdleCloseMs() {
+        return queueIdleCloseMs;
+    }
+
+    public void setQueueIdleCloseMs(long queueIdleCloseMs) {
+        this.queueIdleCloseMs = queueIdleCloseMs;
+    }
+
+    public int getMaxOpenQueues() {
+        return maxOpenQueues;
+    }
+
+    public void setMaxOpenQueues(int maxOpenQueues) {
+        this.maxOpenQueues = maxOpenQueues;
+    }
+
+    public ReplicationMode getReplicationMode() {
+        return replicationMode;
+    }
+
+    public void setReplicationMode(ReplicationMode replicationMode) {
+        this.replicationMode = replicationMode;
+    }
+
+    public int getMinInsyncReplicas() {
+        return minInsyncReplicas;
+    }
+
+    public void setMinInsyncReplicas(int minInsyncReplicas) {
+        this.minInsyncReplicas = minInsyncReplicas;
+    }
+
+    public long getReplicaLagMaxMs() {
+        return replicaLagMaxMs;
+    }
+
+    public void setReplicaLagMaxMs(long replicaLagMaxMs) {
+        this.replicaLagMaxMs = replicaLagMaxMs;
+    }
+
+    public String getReplicationLeader() {
+        return replicationLeader;
+    }
+
+    public void setReplicationLeader(String replicationLeader) {
+        this.replicationLeader = replicationLeader;
+    }
+
+    public List<String> getReplicatedQueues() {
+        return replicatedQueues;
+    }
+
+    public void setReplicatedQueues(List<String> replicatedQueues) {
+        this.replicatedQueues = replicatedQueues;
+    }
+
+    public int getReplicaFetchMaxRecords() {
+        return replicaFetchMaxRecords;
+    }
+
+    public void setReplicaFetchMaxRecords(int replicaFetchMaxRecords) {
+        this.replicaFetchMaxRecords = replicaFetchMaxRecords;
+    }
+
+    public int getStatsSampleIntervalMs() {
+        return statsSampleIntervalMs;
+    }
+
+    public void setStatsSampleIntervalMs(int statsSampleIntervalMs) {
+        this.statsSampleIntervalMs = statsSampleIntervalMs;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public int getMetricsRefreshIntervalMs() {
+        return metricsRefreshIntervalMs;
+    }
+
+    public void setMetricsRefreshIntervalMs(int metricsRefreshIntervalMs) {
+        this.metricsRefreshIntervalMs = metricsRefreshIntervalMs;
+    }
+
+    public String getDefaultQueueEngine() {
+        return defaultQueueEngine;
+    }
+
+    public void setDefaultQueueEngine(String defaultQueueEngine) {
+        this.defaultQueueEngine = defaultQueueEngine;
+    }
+
+    public long getMemoryQueueBudgetBytes() {
+        return memoryQueueBudgetBytes;
+    }
+
+    public void setMemoryQueueBudgetBytes(long memoryQueueBudgetBytes) {
+        this.memoryQueueBudgetBytes = memoryQueueBudgetBytes;
+    }
 }
@@ -2,6 +2,7 @@ package github.io.pedrogao.mq.server;
 
 import github.io.pedrogao.mq.broker.BrokerInfo;
 import github.io.pedrogao.mq.queue.QueueManager;
+import github.io.pedrogao.mq.registry.LocalRegistry;
 import github.io.pedrogao.mq.registry.RegistryService;
 import github.io.pedrogao.mq.registry.ZookeeperRegistry;
 import org.slf4j.Logger;
@@ -13,7 +14,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-class Tiny {
+public class Tiny {
 
     private final static Logger log = LoggerFactory.getLogger(Tiny.class);
 
@@ -24,20 +25,26 @@ class Tiny {
     private final RegistryService registryService;
     private final QueueManager queueManager;
     private final GrpcServer server;
+    // null when the metrics endpoint is disabled
+    private final MetricsHttpServer metricsServer;
     private final BrokerInfo brokerInfo;
 
 
+    /**
+     * Without a ZooKeeper address the registry lives in memory, so brokers of one JVM can run side by side
+     */
     public Tiny(ServerConfig config) {
+        this(config, config.getZkAddress() == null ? new LocalRegistry() : new ZookeeperRegistry(config.getZkAddress()));
+    }
+
+    public Tiny(ServerConfig config, RegistryService registryService) {
         this.config = config;
         this.brokerInfo = new BrokerInfo(config.getBrokerId(), config.getHost(), config.getPort());
 
-        registryService = new ZookeeperRegistry(config.getZkAddress());
-        queueManager = new QueueManager(config.getDataDir(),
-                registryService,
-                config.getQueueFlushIntervalMs(),
-                config.getQueueCleanIntervalMs(),
-                config.getQueueExpireIntervalHour());
-        server = new GrpcServer(queueManager);
+        this.registryService = registryService;
+        queueManager = new QueueManager(config, registryService);
+        server = new GrpcServer(queueManager, config);
+        metricsServer = config.getMetricsPort() > 0 ? new MetricsHttpServer(queueManager, config) : null;
 
         registerExecutor.schedule(this::refreshRegister, config.getRegisterRefreshIntervalMs(), TimeUnit.MILLISECONDS);
     }
@@ -48,6 +55,9 @@ class Tiny {
 
     public void start() throws IOException {
         server.start(config.getPort());
+        if (metricsServer != null) {
+            metricsServer.start(config.getMetricsPort());
+        }
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             // Use stderr here since the logger may have been reset by its JVM shutdown hook.
@@ -62,6 +72,9 @@ class Tiny {
     }
 
     public void close() throws InterruptedException, IOException {
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
         server.close();
         queueManager.close();
         registryService.close();
@@ -2,22 +2,77 @@ package github.io.pedrogao.mq.storage;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 
 public interface BackendQueue extends Closeable {
     String getName();
 
+    /**
+     * @return false while the queue holds no files open, calls open it again
+     */
+    boolean isOpen();
+
     long push(byte[] data) throws IOException;
 
+    long push(List<byte[]> items) throws IOException;
+
+    /**
+     * Push a producer packed batch of {@code recordCount} messages as a single item
+     */
+    long push(byte[] data, int recordCount, int attributes) throws IOException;
+
     byte[] poll(String channel) throws IOException;
 
+    QueueItem pollItem(String channel) throws IOException;
+
     byte[] peek(String channel) throws IOException;
 
     byte[] get(long index) throws IOException;
 
+    QueueItem getItem(long index) throws IOException;
+
     boolean isEmpty(String channel) throws IOException;
 
+    /**
+     * @return index of the oldest item still stored
+     */
+    long getFrontIndex();
+
+    /**
+     * @return index the next pushed item gets
+     */
+    long getRearIndex();
+
     long size(String channel) throws IOException;
 
+    /**
+     * @return bytes of the page files
+     */
+    long getDiskUsage() throws IOException;
+
+    /**
+     * Indexes, channel fronts and disk usage without opening a closed queue
+     */
+    QueueStatus getStatus() throws IOException;
+
+    /**
+     * Like {@link #getStatus()} with every channel stored, not only those used since the queue was
+     * opened, may read the disk
+     */
+    default QueueStatus getStoredStatus() throws IOException {
+        return getStatus();
+    }
+
+    /**
+     * @return bytes pushed since the last flush
+     */
+    long getDirtyBytes();
+
+    /**
+     * @return milliseconds since the oldest push not flushed yet, 0 when all is flushed
+     */
+    long getDirtyAgeMs();
+
     void flush() throws IOException;
 
     void close() throws IOException;
@@ -25,4 +80,19 @@ public interface BackendQueue extends Closeable {
     void delete() throws IOException;
 
     void removeBefore(long timestamp) throws IOException;
+
+    /**
+     * Remove the oldest pages until the queue fits in {@code maxBytes}
+     */
+    void limitDiskUsage(long maxBytes) throws IOException;
+
+    /**
+     * Remove items every channel has consumed
+     */
+    void removeConsumed() throws IOException;
+
+    /**
+     * Drop every item and continue at {@code index}, a replica realigns to its leader with it
+     */
+    void reset(long index) throws IOException;
 }
@@ -1,8 +1,13 @@
 package github.io.pedrogao.mq.storage;
 
+import github.io.pedrogao.diskqueue.BigArrayImpl;
 import github.io.pedrogao.diskqueue.FanOutQueueImpl;
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DiskQueueImpl implements BackendQueue {
 
@@ -10,12 +15,22 @@ public class DiskQueueImpl implements BackendQueue {
 
     private final String queueName;
 
+    // bytes pushed since the last flush
+    private final AtomicLong dirtyBytes = new AtomicLong();
+
+    // nano time of the oldest push not flushed yet, 0 when clean
+    private final AtomicLong dirtySinceNanos = new AtomicLong();
+
     public DiskQueueImpl(String queueDir) throws Exception {
         this(queueDir, "unknown");
     }
 
     public DiskQueueImpl(String queueDir, String queueName) throws Exception {
-        queue = new FanOutQueueImpl(queueDir, queueName);
+        this(queueDir, queueName, IStorageMetrics.NOOP);
+    }
+
+    public DiskQueueImpl(String queueDir, String queueName, IStorageMetrics storageMetrics) throws Exception {
+        queue = new FanOutQueueImpl(queueDir, queueName, BigArrayImpl.DEFAULT_DATA_PAGE_SIZE, storageMetrics);
         this.queueName = queueName;
     }
 
@@ -24,9 +39,52 @@ public class DiskQueueImpl implements BackendQueue {
         return queueName;
     }
 
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
     @Override
     public long push(byte[] data) throws IOException {
-        return queue.enqueue(data);
+        long index = queue.enqueue(data);
+        markDirty(data.length);
+        return index;
+    }
+
+    @Override
+    public long push(List<byte[]> items) throws IOException {
+        long index = queue.enqueue(items);
+        long bytes = 0;
+        for (byte[] item : items) {
+            bytes += item.length;
+        }
+        markDirty(bytes);
+        return index;
+    }
+
+    @Override
+    public long push(byte[] data, int recordCount, int attributes) throws IOException {
+        long index = queue.enqueue(data, recordCount, attributes);
+        markDirty(data.length);
+        return index;
+    }
+
+    private void markDirty(long bytes) {
+        dirtyBytes.addAndGet(bytes);
+        if (dirtySinceNanos.get() == 0) {
+            dirtySinceNanos.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    @Override
+    public long getDirtyBytes() {
+        return dirtyBytes.get();
+    }
+
+    @Override
+    public long getDirtyAgeMs() {
+        long since = dirtySinceNanos.get();
+        return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
     }
 
     @Override
@@ -34,6 +92,21 @@ public class DiskQueueImpl implements BackendQueue {
         return queue.dequeue(channel);
     }
 
+    @Override
+    public QueueItem pollItem(String channel) throws IOException {
+        // the fanout front is locked per channel, a racing poller of the same channel makes us read again
+        while (true) {
+            if (queue.isEmpty(channel)) {
+                return null;
+            }
+            long index = queue.getFrontIndex(channel);
+            QueueItem item = getItem(index);
+            if (queue.advance(channel, index)) {
+                return item;
+            }
+        }
+    }
+
     @Override
     public byte[] peek(String channel) throws IOException {
         return queue.peek(channel);
@@ -44,18 +117,53 @@ public class DiskQueueImpl implements BackendQueue {
         return queue.get(index);
     }
 
+    @Override
+    public QueueItem getItem(long index) throws IOException {
+        return new QueueItem(queue.get(index), queue.getRecordCount(index), queue.getAttributes(index));
+    }
+
     @Override
     public boolean isEmpty(String channel) throws IOException {
         return queue.isEmpty(channel);
     }
 
+    @Override
+    public long getFrontIndex() {
+        return queue.getFrontIndex();
+    }
+
+    @Override
+    public long getRearIndex() {
+        return queue.getRearIndex();
+    }
+
     @Override
     public long size(String channel) throws IOException {
         return queue.size(channel);
     }
 
+    @Override
+    public long getDiskUsage() throws IOException {
+        return queue.getBackFileSize();
+    }
+
+    @Override
+    public QueueStatus getStatus() throws IOException {
+        return new QueueStatus(true, queue.getFrontIndex(), queue.getRearIndex(), queue.getBackFileSize(),
+                queue.getCachedPageCount(), queue.getMappedBytes(), queue.getFrontIndexes());
+    }
+
+    @Override
+    public QueueStatus getStoredStatus() throws IOException {
+        return new QueueStatus(true, queue.getFrontIndex(), queue.getRearIndex(), queue.getBackFileSize(),
+                queue.getCachedPageCount(), queue.getMappedBytes(), queue.getAllFrontIndexes());
+    }
+
     @Override
     public void flush() throws IOException {
+        // pushes racing with the flush mark the queue dirty again, flushed now or next time
+        dirtySinceNanos.set(0);
+        dirtyBytes.set(0);
         queue.flush();
     }
 
@@ -73,4 +181,19 @@ public class DiskQueueImpl implements BackendQueue {
     public void removeBefore(long timestamp) throws IOException {
         queue.removeBefore(timestamp);
     }
+
+    @Override
+    public void limitDiskUsage(long maxBytes) throws IOException {
+        queue.limitBackFileSize(maxBytes);
+    }
+
+    @Override
+    public void removeConsumed() throws IOException {
+        queue.removeBeforeIndex(queue.getMinFrontIndex());
+    }
+
+    @Override
+    public void reset(long index) throws IOException {
+        queue.resetIndex(index);
+    }
 }
@@ -0,0 +1,34 @@
+package github.io.pedrogao.mq.storage;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * The default engine, {@link DiskQueueImpl} on a fanout queue of mapped pages
+ */
+public class DiskQueueProvider implements QueueEngineProvider {
+    public static final String NAME = "disk";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void validate(Map<String, String> options) {
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("engine " + NAME + " takes no options, got " + options.keySet());
+        }
+    }
+
+    @Override
+    public BackendQueue open(File queueDir, String queueName, Map<String, String> options) throws Exception {
+        return open(queueDir, queueName, options, QueueEngineContext.DEFAULT);
+    }
+
+    @Override
+    public BackendQueue open(File queueDir, String queueName, Map<String, String> options,
+                             QueueEngineContext context) throws Exception {
+        return new DiskQueueImpl(queueDir.getAbsolutePath(), queueName, context.getStorageMetrics());
+    }
+}
@@ -0,0 +1,424 @@
+package github.io.pedrogao.mq.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * A queue opened on first access that can be closed again while idle.
+ * <p>
+ * Every call holds the read lock and closing takes the write lock, so a queue is never closed
+ * under a running call and the next call opens it again. Queues open under their own monitor,
+ * calls touching many queues at once open them in parallel.
+ * <p>
+ * Closing stores the status of the queue in {@value #STATUS_FILE}, opening removes it again, so a
+ * broker reports the queues it has not opened since it started without opening them. After a crash
+ * there is none, such a queue reports no indexes until it is opened.
+ */
+public class LazyQueue implements BackendQueue {
+    private static final Logger log = LoggerFactory.getLogger(LazyQueue.class);
+
+    public static final String STATUS_FILE = "status.json";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @FunctionalInterface
+    public interface Opener {
+        BackendQueue open() throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T call(BackendQueue queue) throws IOException;
+    }
+
+    private final String queueName;
+
+    private final File queueDir;
+
+    private final Opener opener;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // null while closed
+    private volatile BackendQueue queue;
+
+    private volatile long lastAccessNanos = System.nanoTime();
+
+    // disk usage while closed, -1 until measured
+    private volatile long closedDiskUsage = -1;
+
+    // status taken on close or read once while closed, null while open or until read
+    private volatile QueueStatus closedStatus;
+
+    public LazyQueue(String queueName, File queueDir, Opener opener) {
+        this.queueName = queueName;
+        this.queueDir = queueDir;
+        this.opener = opener;
+    }
+
+    /**
+     * Open now instead of on the first call
+     */
+    public void open() throws IOException {
+        call(queue -> null);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return queue != null;
+    }
+
+    public long getIdleMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastAccessNanos);
+    }
+
+    /**
+     * Close the queue if no call touched it for {@code idleMs}, waits for running calls
+     *
+     * @param beforeClose run on the open queue right before it is closed
+     * @return true if the queue was closed
+     */
+    public boolean closeIfIdle(long idleMs, Consumer<BackendQueue> beforeClose) {
+        lock.writeLock().lock();
+        try {
+            BackendQueue current = queue;
+            if (current == null || getIdleMs() < idleMs) {
+                return false;
+            }
+            beforeClose.accept(current);
+            keepStatus(current);
+            queue = null;
+            current.close();
+            log.info("close idle queue {}", queueName);
+            return true;
+        } catch (IOException e) {
+            log.error("close idle queue {} error", queueName, e);
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void keepStatus(BackendQueue current) throws IOException {
+        closedStatus = current.getStoredStatus().closed();
+        closedDiskUsage = closedStatus.getDiskUsage();
+        try {
+            File tmp = new File(queueDir, STATUS_FILE + ".tmp");
+            objectMapper.writeValue(tmp, new StoredStatus(closedStatus));
+            Files.move(tmp.toPath(), new File(queueDir, STATUS_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("store status of queue {} error", queueName, e);
+        }
+    }
+
+    private <T> T call(Call<T> call) throws IOException {
+        lastAccessNanos = System.nanoTime();
+        return maintain(call);
+    }
+
+    /**
+     * Like {@link #call(Call)} without counting as an access, maintenance keeps no queue open
+     */
+    public <T> T maintain(Call<T> call) throws IOException {
+        lock.readLock().lock();
+        try {
+            BackendQueue current = queue;
+            if (current == null) {
+                current = openQueue();
+            }
+            return call.call(current);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T callUnchecked(Call<T> call) {
+        try {
+            return call(call);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // read lock held, closing can not run concurrently
+    private synchronized BackendQueue openQueue() throws IOException {
+        if (queue == null) {
+            try {
+                queue = opener.open();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("open queue " + queueName + " error", e);
+            }
+            closedDiskUsage = -1;
+            closedStatus = null;
+            // stale once the queue changes
+            Files.deleteIfExists(new File(queueDir, STATUS_FILE).toPath());
+            log.info("open queue {}", queueName);
+        }
+        return queue;
+    }
+
+    @Override
+    public String getName() {
+        return queueName;
+    }
+
+    @Override
+    public long push(byte[] data) throws IOException {
+        return call(queue -> queue.push(data));
+    }
+
+    @Override
+    public long push(List<byte[]> items) throws IOException {
+        return call(queue -> queue.push(items));
+    }
+
+    @Override
+    public long push(byte[] data, int recordCount, int attributes) throws IOException {
+        return call(queue -> queue.push(data, recordCount, attributes));
+    }
+
+    @Override
+    public byte[] poll(String channel) throws IOException {
+        return call(queue -> queue.poll(channel));
+    }
+
+    @Override
+    public QueueItem pollItem(String channel) throws IOException {
+        return call(queue -> queue.pollItem(channel));
+    }
+
+    @Override
+    public byte[] peek(String channel) throws IOException {
+        return call(queue -> queue.peek(channel));
+    }
+
+    @Override
+    public byte[] get(long index) throws IOException {
+        return call(queue -> queue.get(index));
+    }
+
+    @Override
+    public QueueItem getItem(long index) throws IOException {
+        return call(queue -> queue.getItem(index));
+    }
+
+    @Override
+    public boolean isEmpty(String channel) throws IOException {
+        return call(queue -> queue.isEmpty(channel));
+    }
+
+    @Override
+    public long getFrontIndex() {
+        return callUnchecked(BackendQueue::getFrontIndex);
+    }
+
+    @Override
+    public long getRearIndex() {
+        return callUnchecked(BackendQueue::getRearIndex);
+    }
+
+    @Override
+    public long size(String channel) throws IOException {
+        return call(queue -> queue.size(channel));
+    }
+
+    /**
+     * Does not open a closed queue, its usage is measured from the directory once
+     */
+    @Override
+    public long getDiskUsage() throws IOException {
+        BackendQueue current = queue;
+        if (current != null) {
+            return current.getDiskUsage();
+        }
+        if (closedDiskUsage < 0) {
+            try (Stream<Path> files = Files.walk(queueDir.toPath())) {
+                closedDiskUsage = files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+            }
+        }
+        return closedDiskUsage;
+    }
+
+    /**
+     * Does not open a closed queue, it reports the status taken when it was closed. A queue not
+     * opened since the broker started reports the status stored when it was closed.
+     */
+    @Override
+    public QueueStatus getStatus() throws IOException {
+        lock.readLock().lock();
+        try {
+            BackendQueue current = queue;
+            if (current != null) {
+                return current.getStatus();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        QueueStatus status = closedStatus;
+        return status != null ? status : readClosedStatus();
+    }
+
+    private QueueStatus readClosedStatus() throws IOException {
+        lock.writeLock().lock();
+        try {
+            BackendQueue current = queue;
+            if (current != null) {
+                return current.getStatus();
+            }
+            if (closedStatus == null) {
+                File file = new File(queueDir, STATUS_FILE);
+                StoredStatus stored = file.exists() ? objectMapper.readValue(file, StoredStatus.class) : null;
+                closedStatus = stored == null ? new QueueStatus(false, -1, -1, getDiskUsage(), 0, 0, Map.of()) :
+                        new QueueStatus(false, stored.getFrontIndex(), stored.getRearIndex(), getDiskUsage(), 0, 0,
+                                stored.getChannelFronts());
+            }
+            return closedStatus;
+        } catch (IOException e) {
+            log.warn("read status of closed queue {} error", queueName, e);
+            return new QueueStatus(false, -1, -1, getDiskUsage(), 0, 0, Map.of());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getDirtyBytes() {
+        BackendQueue current = queue;
+        return current == null ? 0 : current.getDirtyBytes();
+    }
+
+    @Override
+    public long getDirtyAgeMs() {
+        BackendQueue current = queue;
+        return current == null ? 0 : current.getDirtyAgeMs();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        lock.readLock().lock();
+        try {
+            BackendQueue current = queue;
+            if (current != null) { // a closed queue was flushed by close
+                current.flush();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            BackendQueue current = queue;
+            queue = null;
+            if (current != null) {
+                keepStatus(current);
+                current.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete() throws IOException {
+        call(queue -> {
+            queue.delete();
+            return null;
+        });
+    }
+
+    @Override
+    public void removeBefore(long timestamp) throws IOException {
+        maintain(queue -> {
+            queue.removeBefore(timestamp);
+            return null;
+        });
+    }
+
+    @Override
+    public void limitDiskUsage(long maxBytes) throws IOException {
+        maintain(queue -> {
+            queue.limitDiskUsage(maxBytes);
+            return null;
+        });
+    }
+
+    @Override
+    public void removeConsumed() throws IOException {
+        maintain(queue -> {
+            queue.removeConsumed();
+            return null;
+        });
+    }
+
+    @Override
+    public void reset(long index) throws IOException {
+        call(queue -> {
+            queue.reset(index);
+            return null;
+        });
+    }
+
+    /**
+     * Indexes of a closed queue as stored in {@value #STATUS_FILE}
+     */
+    static class StoredStatus {
+        private long frontIndex;
+
+        private long rearIndex;
+
+        private Map<String, Long> channelFronts = Map.of();
+
+        public StoredStatus() {
+        }
+
+        StoredStatus(QueueStatus status) {
+            this.frontIndex = status.getFrontIndex();
+            this.rearIndex = status.getRearIndex();
+            this.channelFronts = status.getChannelFronts();
+        }
+
+        public long getFrontIndex() {
+            return frontIndex;
+        }
+
+        public void setFrontIndex(long frontIndex) {
+            this.frontIndex = frontIndex;
+        }
+
+        public long getRearIndex() {
+            return rearIndex;
+        }
+
+        public void setRearIndex(long rearIndex) {
+            this.rearIndex = rearIndex;
+        }
+
+        public Map<String, Long> getChannelFronts() {
+            return channelFronts;
+        }
+
+        public void setChannelFronts(Map<String, Long> channelFronts) {
+            this.channelFronts = channelFronts;
+        }
+    }
+}
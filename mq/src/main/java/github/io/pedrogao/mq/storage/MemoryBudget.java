@@ -0,0 +1,92 @@
+package github.io.pedrogao.mq.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Memory shared by the queues of a broker, taken and given back in whole rings.
+ * <p>
+ * Off-heap memory is only freed by the GC, so rings given back are pooled by size for the next
+ * queue instead of dropped, and the used bytes count every ring allocated, pooled ones too. Pooled
+ * rings of other sizes are dropped only to make room for a ring that does not fit otherwise.
+ */
+public class MemoryBudget {
+    private final long limitBytes;
+
+    // size => rings given back, guarded by this
+    private final Map<Integer, Deque<ByteBuffer>> pool = new HashMap<>();
+
+    // guarded by this
+    private long usedBytes;
+
+    private long pooledBytes;
+
+    /**
+     * @param limitBytes 0 is unlimited
+     */
+    public MemoryBudget(long limitBytes) {
+        this.limitBytes = limitBytes;
+    }
+
+    /**
+     * @return a ring of that many bytes, a pooled one if there is, null if it would exceed the limit
+     */
+    public synchronized ByteBuffer acquire(int bytes) {
+        Deque<ByteBuffer> rings = pool.get(bytes);
+        if (rings != null && !rings.isEmpty()) {
+            pooledBytes -= bytes;
+            return rings.pop();
+        }
+        if (limitBytes > 0 && usedBytes + bytes > limitBytes) {
+            if (usedBytes - pooledBytes + bytes > limitBytes) {
+                return null;
+            }
+            dropPooled(usedBytes + bytes - limitBytes);
+        }
+        usedBytes += bytes;
+        return ByteBuffer.allocateDirect(bytes);
+    }
+
+    /**
+     * Give a ring back, its content is left as is
+     */
+    public synchronized void release(ByteBuffer ring) {
+        pool.computeIfAbsent(ring.capacity(), k -> new ArrayDeque<>()).push(ring);
+        pooledBytes += ring.capacity();
+    }
+
+    private void dropPooled(long bytes) {
+        Iterator<Deque<ByteBuffer>> it = pool.values().iterator();
+        long dropped = 0;
+        while (dropped < bytes && it.hasNext()) {
+            Deque<ByteBuffer> rings = it.next();
+            while (dropped < bytes && !rings.isEmpty()) {
+                dropped += rings.pop().capacity();
+            }
+            if (rings.isEmpty()) {
+                it.remove();
+            }
+        }
+        usedBytes -= dropped;
+        pooledBytes -= dropped;
+    }
+
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * @return bytes of the rings allocated, in use or pooled
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+}
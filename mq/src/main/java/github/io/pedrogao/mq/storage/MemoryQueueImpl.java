@@ -0,0 +1,537 @@
+package github.io.pedrogao.mq.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.io.pedrogao.diskqueue.BigArrayImpl;
+import github.io.pedrogao.diskqueue.FanOutQueueImpl;
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A queue holding its items in an off-heap ring, spilled to a {@link FanOutQueueImpl} under backlog.
+ * <p>
+ * Items leave the ring once every channel consumed them, fetches by index consume nothing and leave
+ * them to retention. A push that does not fit moves all items to the disk queue, which takes every
+ * push from then on, until the channels are back to a backlog that fits and it is copied back to the
+ * ring. The disk queue continues at the index of the oldest item moved, so indexes and channel
+ * fronts are the same on both sides.
+ * <p>
+ * Items in the ring are lost on a crash, close moves them to the disk queue and stores the channel
+ * fronts next to it.
+ * <p>
+ * The ring is taken from the {@link MemoryBudget} of the broker while the items are in memory and
+ * given back to its pool on spill and close. A queue the budget has no ring for stays on disk.
+ */
+public class MemoryQueueImpl implements BackendQueue {
+    private static final Logger log = LoggerFactory.getLogger(MemoryQueueImpl.class);
+
+    static final String CHANNELS_FILE = "channels.json";
+
+    // length, record count, attributes and timestamp in front of the data
+    private static final int HEADER_LENGTH = 4 + 4 + 4 + 8;
+
+    // a spilled backlog this long or shorter is copied back if it fits in half the ring
+    private static final int DRAIN_BACK_ITEMS = 256;
+
+    private final String queueName;
+
+    private final File queueDir;
+
+    private final FanOutQueueImpl disk;
+
+    private final int memoryBytes;
+
+    private final MemoryBudget memoryBudget;
+
+    // null while spilled
+    private ByteBuffer ring;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // channel => index of the next item it reads
+    private final Map<String, Long> channels = new HashMap<>();
+
+    // ring offsets of the items in memory, index i is in slot (offsetHead + i - front) % offsets.length
+    private int[] offsets = new int[1024];
+
+    private int offsetHead;
+
+    // items [front, rear) are in the ring, or on disk while spilled
+    private long front;
+
+    private long rear;
+
+    private boolean spilled;
+
+    // while spilled, bytes the items [drainFrom, rear) take in the ring, -1 when not counted
+    private long drainFrom;
+
+    private long drainBytes = -1;
+
+    // ring offset of the front item and of the next item
+    private int head;
+
+    private int tail;
+
+    // bytes pushed to disk since the last flush
+    private final AtomicLong dirtyBytes = new AtomicLong();
+
+    // nano time of the oldest push to disk not flushed yet, 0 when clean
+    private final AtomicLong dirtySinceNanos = new AtomicLong();
+
+    public MemoryQueueImpl(File queueDir, String queueName, int memoryBytes) throws Exception {
+        this(queueDir, queueName, memoryBytes, IStorageMetrics.NOOP);
+    }
+
+    public MemoryQueueImpl(File queueDir, String queueName, int memoryBytes, IStorageMetrics storageMetrics)
+            throws Exception {
+        this(queueDir, queueName, memoryBytes, storageMetrics, new MemoryBudget(0));
+    }
+
+    public MemoryQueueImpl(File queueDir, String queueName, int memoryBytes, IStorageMetrics storageMetrics,
+                           MemoryBudget memoryBudget) throws Exception {
+        this.queueName = queueName;
+        this.queueDir = queueDir;
+        this.disk = new FanOutQueueImpl(queueDir.getAbsolutePath(), queueName, BigArrayImpl.DEFAULT_DATA_PAGE_SIZE,
+                storageMetrics);
+        this.memoryBytes = memoryBytes;
+        this.memoryBudget = memoryBudget;
+        // what close left behind stays on disk until the channels catch up
+        this.front = disk.getFrontIndex();
+        this.rear = disk.getRearIndex();
+        if (rear > front) {
+            spilled = true;
+        } else {
+            startAt(rear);
+        }
+        loadChannels();
+    }
+
+    @Override
+    public String getName() {
+        return queueName;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    /**
+     * @return true while the items are on disk
+     */
+    public synchronized boolean isSpilled() {
+        return spilled;
+    }
+
+    @Override
+    public synchronized long push(byte[] data) throws IOException {
+        return push(data, 0, 0);
+    }
+
+    @Override
+    public synchronized long push(List<byte[]> items) throws IOException {
+        long index = rear;
+        for (byte[] item : items) {
+            push(item, 0, 0);
+        }
+        return index;
+    }
+
+    @Override
+    public synchronized long push(byte[] data, int recordCount, int attributes) throws IOException {
+        long index = rear;
+        if (!spilled && place(HEADER_LENGTH + data.length) < 0) {
+            spill();
+        }
+        if (spilled) {
+            disk.enqueue(data, recordCount, attributes);
+            rear++;
+            markDirty(data.length);
+            if (drainBytes >= 0) {
+                drainBytes += HEADER_LENGTH + data.length;
+            }
+        } else {
+            write(data, recordCount, attributes, System.currentTimeMillis());
+        }
+        return index;
+    }
+
+    private void markDirty(long bytes) {
+        dirtyBytes.addAndGet(bytes);
+        if (dirtySinceNanos.get() == 0) {
+            dirtySinceNanos.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    @Override
+    public long getDirtyBytes() {
+        return dirtyBytes.get();
+    }
+
+    @Override
+    public long getDirtyAgeMs() {
+        long since = dirtySinceNanos.get();
+        return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    @Override
+    public synchronized byte[] poll(String channel) throws IOException {
+        QueueItem item = pollItem(channel);
+        return item == null ? null : item.getData();
+    }
+
+    @Override
+    public synchronized QueueItem pollItem(String channel) throws IOException {
+        long index = frontOf(channel);
+        if (index >= rear) {
+            return null;
+        }
+        QueueItem item = getItem(index);
+        channels.put(channel, index + 1);
+        if (spilled) {
+            drainBack();
+        } else {
+            removeConsumedFromRing();
+        }
+        return item;
+    }
+
+    @Override
+    public synchronized byte[] peek(String channel) throws IOException {
+        long index = frontOf(channel);
+        return index >= rear ? null : get(index);
+    }
+
+    @Override
+    public synchronized byte[] get(long index) throws IOException {
+        return getItem(index).getData();
+    }
+
+    @Override
+    public synchronized QueueItem getItem(long index) throws IOException {
+        if (index < front || index >= rear) {
+            throw new IndexOutOfBoundsException("index " + index + " out of [" + front + ", " + rear + ")");
+        }
+        if (spilled) {
+            return new QueueItem(disk.get(index), disk.getRecordCount(index), disk.getAttributes(index));
+        }
+        int offset = offsetOf(index);
+        byte[] data = new byte[ring.getInt(offset)];
+        ring.get(offset + HEADER_LENGTH, data);
+        return new QueueItem(data, ring.getInt(offset + 4), ring.getInt(offset + 8));
+    }
+
+    @Override
+    public synchronized boolean isEmpty(String channel) throws IOException {
+        return frontOf(channel) >= rear;
+    }
+
+    @Override
+    public synchronized long getFrontIndex() {
+        return front;
+    }
+
+    @Override
+    public synchronized long getRearIndex() {
+        return rear;
+    }
+
+    @Override
+    public synchronized long size(String channel) throws IOException {
+        return rear - frontOf(channel);
+    }
+
+    @Override
+    public long getDiskUsage() throws IOException {
+        return disk.getBackFileSize();
+    }
+
+    @Override
+    public synchronized QueueStatus getStatus() throws IOException {
+        return new QueueStatus(true, front, rear, disk.getBackFileSize(), disk.getCachedPageCount(),
+                disk.getMappedBytes(), new HashMap<>(channels));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // pushes racing with the flush mark the queue dirty again, flushed now or next time
+        dirtySinceNanos.set(0);
+        dirtyBytes.set(0);
+        disk.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!spilled) {
+            spill(); // an empty ring still moves the disk queue on to the next index
+        }
+        storeChannels();
+        disk.close();
+    }
+
+    @Override
+    public synchronized void delete() throws IOException {
+        startAt(0);
+        channels.replaceAll((channel, index) -> 0L);
+    }
+
+    @Override
+    public synchronized void removeBefore(long timestamp) throws IOException {
+        if (spilled) {
+            disk.removeBefore(timestamp);
+            syncFront();
+            return;
+        }
+        while (front < rear && ring.getLong(offsetOf(front) + 12) < timestamp) {
+            removeFrontFromRing();
+        }
+        adjustChannels();
+    }
+
+    @Override
+    public synchronized void limitDiskUsage(long maxBytes) throws IOException {
+        if (spilled) {
+            disk.limitBackFileSize(maxBytes);
+            syncFront();
+        }
+    }
+
+    @Override
+    public synchronized void removeConsumed() throws IOException {
+        if (spilled) {
+            if (!channels.isEmpty()) {
+                disk.removeBeforeIndex(minChannelFront());
+                syncFront();
+            }
+        } else {
+            removeConsumedFromRing();
+        }
+    }
+
+    @Override
+    public synchronized void reset(long index) throws IOException {
+        startAt(index);
+        channels.replaceAll((channel, front) -> index);
+    }
+
+    // a new channel starts at the oldest item, as on a fanout queue
+    private long frontOf(String channel) {
+        return channels.computeIfAbsent(channel, k -> front);
+    }
+
+    private long minChannelFront() {
+        long min = rear;
+        for (long index : channels.values()) {
+            min = Math.min(min, index);
+        }
+        return min;
+    }
+
+    // channels behind the front skip the items removed
+    private void adjustChannels() {
+        channels.replaceAll((channel, index) -> Math.max(index, front));
+    }
+
+    private void syncFront() {
+        front = disk.getFrontIndex();
+        if (front > drainFrom) {
+            drainBytes = -1; // the items removed can not be read any more
+        }
+        adjustChannels();
+    }
+
+    /**
+     * @return ring offset a record of {@code size} bytes fits at, -1 if it does not fit
+     */
+    private int place(int size) {
+        if (front == rear) {
+            return size <= ring.capacity() ? 0 : -1;
+        }
+        if (tail > head) { // [head, tail) used
+            if (tail + size <= ring.capacity()) {
+                return tail;
+            }
+            return size <= head ? 0 : -1;
+        }
+        // [head, capacity) and [0, tail) used
+        return tail + size <= head ? tail : -1;
+    }
+
+    // the caller checked it fits
+    private void write(byte[] data, int recordCount, int attributes, long timestamp) {
+        if (front == rear) {
+            clearRing(rear);
+        }
+        int offset = place(HEADER_LENGTH + data.length);
+        ring.putInt(offset, data.length);
+        ring.putInt(offset + 4, recordCount);
+        ring.putInt(offset + 8, attributes);
+        ring.putLong(offset + 12, timestamp);
+        ring.put(offset + HEADER_LENGTH, data);
+
+        int count = (int) (rear - front);
+        if (count == offsets.length) {
+            int[] grown = new int[offsets.length * 2];
+            for (int i = 0; i < count; i++) {
+                grown[i] = offsets[(offsetHead + i) % offsets.length];
+            }
+            offsets = grown;
+            offsetHead = 0;
+        }
+        offsets[(offsetHead + count) % offsets.length] = offset;
+        if (count == 0) {
+            head = offset;
+        }
+        tail = offset + HEADER_LENGTH + data.length;
+        rear++;
+    }
+
+    private int offsetOf(long index) {
+        return offsets[(int) ((offsetHead + index - front) % offsets.length)];
+    }
+
+    private void removeFrontFromRing() {
+        front++;
+        offsetHead = (offsetHead + 1) % offsets.length;
+        if (front < rear) {
+            head = offsetOf(front);
+        }
+    }
+
+    private void removeConsumedFromRing() {
+        if (channels.isEmpty()) {
+            return; // kept for the first channel
+        }
+        long min = minChannelFront();
+        while (front < min) {
+            removeFrontFromRing();
+        }
+    }
+
+    /**
+     * Continue empty at {@code index}, in the ring if the budget has one, else on disk
+     */
+    private void startAt(long index) throws IOException {
+        disk.resetIndex(index);
+        clearRing(index);
+        spilled = !acquireRing();
+    }
+
+    private boolean acquireRing() {
+        if (ring == null) {
+            ring = memoryBudget.acquire(memoryBytes);
+        }
+        return ring != null;
+    }
+
+    private void releaseRing() {
+        if (ring != null) {
+            memoryBudget.release(ring);
+            ring = null;
+        }
+    }
+
+    private void clearRing(long index) {
+        front = index;
+        rear = index;
+        offsetHead = 0;
+        head = 0;
+        tail = 0;
+    }
+
+    /**
+     * Move the items of the ring to the disk queue, which continues at the index of the first, and give the
+     * ring back
+     */
+    private void spill() throws IOException {
+        long count = rear - front;
+        disk.resetIndex(front);
+        drainFrom = front;
+        drainBytes = 0;
+        for (long index = front; index < rear; index++) {
+            QueueItem item = getItem(index);
+            // the push time, retention must not see spilled items as new
+            disk.enqueue(item.getData(), item.getRecordCount(), item.getAttributes(),
+                    ring.getLong(offsetOf(index) + 12));
+            markDirty(item.getData().length);
+            drainBytes += HEADER_LENGTH + item.getData().length;
+        }
+        clearRing(front);
+        rear += count;
+        spilled = true;
+        releaseRing();
+        if (count > 0) {
+            log.info("queue {} spills {} items to disk", queueName, count);
+        }
+    }
+
+    /**
+     * Copy the unconsumed items back to the ring if the channels caught up to a backlog that fits.
+     * <p>
+     * Runs on every poll, the backlog bytes are counted as pushes and polls move its ends, every item
+     * is read once on its way out. They are summed up again only when that count was lost.
+     */
+    private void drainBack() throws IOException {
+        if (channels.isEmpty()) {
+            return;
+        }
+        long from = minChannelFront();
+        if (drainBytes >= 0 && from >= drainFrom) {
+            for (; drainFrom < from; drainFrom++) {
+                drainBytes -= HEADER_LENGTH + disk.getLength(drainFrom);
+            }
+        } else {
+            drainBytes = -1; // a new channel starts behind
+        }
+        if (rear - from > DRAIN_BACK_ITEMS) {
+            return;
+        }
+        if (drainBytes < 0) {
+            drainFrom = from;
+            drainBytes = 0;
+            for (long index = from; index < rear; index++) {
+                drainBytes += HEADER_LENGTH + disk.getLength(index);
+            }
+        }
+        if (drainBytes > memoryBytes / 2 || !acquireRing()) {
+            return;
+        }
+
+        long end = rear;
+        clearRing(from);
+        for (long index = from; index < end; index++) {
+            write(disk.get(index), disk.getRecordCount(index), disk.getAttributes(index), disk.getTimestamp(index));
+        }
+        disk.removeAll();
+        spilled = false;
+        log.info("queue {} drains {} items back to memory", queueName, end - from);
+    }
+
+    private void loadChannels() throws IOException {
+        File file = new File(queueDir, CHANNELS_FILE);
+        if (file.exists()) {
+            channels.putAll(objectMapper.readValue(file, new TypeReference<Map<String, Long>>() {
+            }));
+        }
+        channels.replaceAll((channel, index) -> Math.min(Math.max(index, front), rear));
+    }
+
+    private void storeChannels() throws IOException {
+        File tmp = new File(queueDir, CHANNELS_FILE + ".tmp");
+        objectMapper.writeValue(tmp, channels);
+        Files.move(tmp.toPath(), new File(queueDir, CHANNELS_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+}
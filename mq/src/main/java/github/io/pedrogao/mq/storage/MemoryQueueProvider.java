@@ -0,0 +1,62 @@
+package github.io.pedrogao.mq.storage;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * {@link MemoryQueueImpl}, for work queues whose consumers keep up.
+ * <p>
+ * Option {@code memoryBytes} is the size of the ring of each open queue, default 32MB, taken from the
+ * memory budget of the broker.
+ */
+public class MemoryQueueProvider implements QueueEngineProvider {
+    public static final String NAME = "memory";
+
+    public static final String MEMORY_BYTES = "memoryBytes";
+
+    private static final int DEFAULT_MEMORY_BYTES = 32 * 1024 * 1024;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void validate(Map<String, String> options) {
+        for (String option : options.keySet()) {
+            if (!option.equals(MEMORY_BYTES)) {
+                throw new IllegalArgumentException("unknown option " + option + " of engine " + NAME);
+            }
+        }
+        memoryBytes(options);
+    }
+
+    @Override
+    public BackendQueue open(File queueDir, String queueName, Map<String, String> options) throws Exception {
+        return open(queueDir, queueName, options, QueueEngineContext.DEFAULT);
+    }
+
+    @Override
+    public BackendQueue open(File queueDir, String queueName, Map<String, String> options,
+                             QueueEngineContext context) throws Exception {
+        return new MemoryQueueImpl(queueDir, queueName, memoryBytes(options), context.getStorageMetrics(),
+                context.getMemoryBudget());
+    }
+
+    private static int memoryBytes(Map<String, String> options) {
+        String value = options.get(MEMORY_BYTES);
+        if (value == null) {
+            return DEFAULT_MEMORY_BYTES;
+        }
+        int memoryBytes;
+        try {
+            memoryBytes = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(MEMORY_BYTES + " of engine " + NAME + " is no int: " + value);
+        }
+        if (memoryBytes <= 0) {
+            throw new IllegalArgumentException(MEMORY_BYTES + " of engine " + NAME + " must be positive");
+        }
+        return memoryBytes;
+    }
+}
@@ -0,0 +1,37 @@
+package github.io.pedrogao.mq.storage;
+
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
+
+/**
+ * What the broker opening a queue hands to its engine, so brokers of one JVM keep apart
+ */
+public class QueueEngineContext {
+    public static final QueueEngineContext DEFAULT = new QueueEngineContext(IStorageMetrics.NOOP);
+
+    private final IStorageMetrics storageMetrics;
+
+    private final MemoryBudget memoryBudget;
+
+    public QueueEngineContext(IStorageMetrics storageMetrics) {
+        this(storageMetrics, new MemoryBudget(0));
+    }
+
+    public QueueEngineContext(IStorageMetrics storageMetrics, MemoryBudget memoryBudget) {
+        this.storageMetrics = storageMetrics;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Receives the timings of the arrays and pages of the queue
+     */
+    public IStorageMetrics getStorageMetrics() {
+        return storageMetrics;
+    }
+
+    /**
+     * Memory the queues of the broker take their rings from
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+}
@@ -0,0 +1,38 @@
+package github.io.pedrogao.mq.storage;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Storage engine of backend queues, looked up by name in {@link QueueEngines}.
+ * <p>
+ * Engines outside this module are found by {@link java.util.ServiceLoader}, listed in
+ * {@code META-INF/services/github.io.pedrogao.mq.storage.QueueEngineProvider}.
+ */
+public interface QueueEngineProvider {
+    /**
+     * @return name queues select the engine by, stored with every queue of the engine
+     */
+    String getName();
+
+    /**
+     * Reject unknown or malformed options before a queue is created with them
+     *
+     * @throws IllegalArgumentException if the engine can not open a queue with the options
+     */
+    default void validate(Map<String, String> options) {
+    }
+
+    /**
+     * Open the queue stored in {@code queueDir}, creating it if the directory is empty
+     */
+    BackendQueue open(File queueDir, String queueName, Map<String, String> options) throws Exception;
+
+    /**
+     * Open with what the broker hands to its queues, engines not using it need not override this
+     */
+    default BackendQueue open(File queueDir, String queueName, Map<String, String> options,
+                              QueueEngineContext context) throws Exception {
+        return open(queueDir, queueName, options);
+    }
+}
@@ -0,0 +1,59 @@
+package github.io.pedrogao.mq.storage;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Engine of a queue and its options, stored as json next to the queue data
+ */
+public class QueueEngineSpec {
+    private String engine;
+
+    private Map<String, String> options = new TreeMap<>();
+
+    public QueueEngineSpec() {
+    }
+
+    public QueueEngineSpec(String engine, Map<String, String> options) {
+        this.engine = engine;
+        this.options = new TreeMap<>(options);
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    public void setOptions(Map<String, String> options) {
+        this.options = new TreeMap<>(options);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QueueEngineSpec)) {
+            return false;
+        }
+        QueueEngineSpec that = (QueueEngineSpec) o;
+        return engine.equals(that.engine) && options.equals(that.options);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * engine.hashCode() + options.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return options.isEmpty() ? engine : engine + options;
+    }
+}
@@ -0,0 +1,106 @@
+package github.io.pedrogao.mq.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the queue engines and the engine file of every queue directory.
+ * <p>
+ * The built-in engines are registered first, then those found by {@link ServiceLoader}. A queue
+ * directory without an engine file predates engine selection and opens with {@link DiskQueueProvider}.
+ */
+public final class QueueEngines {
+    private static final Logger log = LoggerFactory.getLogger(QueueEngines.class);
+
+    public static final String ENGINE_FILE = "engine.json";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final Map<String, QueueEngineProvider> providers = new ConcurrentHashMap<>();
+
+    static {
+        register(new DiskQueueProvider());
+        register(new MemoryQueueProvider());
+        for (QueueEngineProvider provider : ServiceLoader.load(QueueEngineProvider.class)) {
+            register(provider);
+        }
+    }
+
+    private QueueEngines() {
+    }
+
+    /**
+     * Add an engine, replacing the one registered under the same name
+     */
+    public static void register(QueueEngineProvider provider) {
+        QueueEngineProvider previous = providers.put(provider.getName(), provider);
+        if (previous != null && previous.getClass() != provider.getClass()) {
+            log.warn("queue engine {} of {} replaced by {}", provider.getName(), previous.getClass().getName(),
+                    provider.getClass().getName());
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if no engine is registered under the name
+     */
+    public static QueueEngineProvider get(String name) {
+        QueueEngineProvider provider = providers.get(name);
+        if (provider == null) {
+            throw new IllegalArgumentException("unknown queue engine " + name + ", registered " + getNames());
+        }
+        return provider;
+    }
+
+    public static Set<String> getNames() {
+        return new TreeSet<>(providers.keySet());
+    }
+
+    /**
+     * Check the engine exists and takes the options of the spec
+     *
+     * @throws IllegalArgumentException if it does not
+     */
+    public static void validate(QueueEngineSpec spec) {
+        get(spec.getEngine()).validate(spec.getOptions());
+    }
+
+    /**
+     * @return the spec stored in the queue directory, the disk engine if there is none
+     */
+    public static QueueEngineSpec readSpec(File queueDir) throws IOException {
+        File file = new File(queueDir, ENGINE_FILE);
+        if (!file.exists()) {
+            return new QueueEngineSpec(DiskQueueProvider.NAME, Map.of());
+        }
+        return objectMapper.readValue(file, QueueEngineSpec.class);
+    }
+
+    public static void writeSpec(File queueDir, QueueEngineSpec spec) throws IOException {
+        File tmp = new File(queueDir, ENGINE_FILE + ".tmp");
+        objectMapper.writeValue(tmp, spec);
+        Files.move(tmp.toPath(), new File(queueDir, ENGINE_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Open the queue with the engine stored in its directory
+     */
+    public static BackendQueue open(File queueDir, String queueName) throws Exception {
+        return open(queueDir, queueName, QueueEngineContext.DEFAULT);
+    }
+
+    public static BackendQueue open(File queueDir, String queueName, QueueEngineContext context) throws Exception {
+        QueueEngineSpec spec = readSpec(queueDir);
+        return get(spec.getEngine()).open(queueDir, queueName, spec.getOptions(), context);
+    }
+}
@@ -0,0 +1,41 @@
+package github.io.pedrogao.mq.storage;
+
+/**
+ * An item read from a backend queue with its index metadata.
+ * <p>
+ * A plain item holds one message. A batch item holds {@code recordCount} messages packed by the
+ * producer, {@code attributes} tells how they were packed.
+ */
+public class QueueItem {
+    private final byte[] data;
+
+    private final int recordCount;
+
+    private final int attributes;
+
+    public QueueItem(byte[] data, int recordCount, int attributes) {
+        this.data = data;
+        this.recordCount = recordCount;
+        this.attributes = attributes;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public int getAttributes() {
+        return attributes;
+    }
+
+    public boolean isBatch() {
+        return recordCount > 0;
+    }
+
+    public int getMessageCount() {
+        return isBatch() ? recordCount : 1;
+    }
+}
@@ -0,0 +1,74 @@
+package github.io.pedrogao.mq.storage;
+
+import java.util.Map;
+
+/**
+ * Indexes and footprint of a backend queue, read from memory.
+ * <p>
+ * A closed queue reports what it had when it was closed, indexes are -1 if they could not be read.
+ */
+public class QueueStatus {
+    private final boolean open;
+
+    private final long frontIndex;
+
+    private final long rearIndex;
+
+    private final long diskUsage;
+
+    private final int cachedPages;
+
+    private final long mappedBytes;
+
+    // channel => front index, channels used since the queue was opened
+    private final Map<String, Long> channelFronts;
+
+    public QueueStatus(boolean open, long frontIndex, long rearIndex, long diskUsage, int cachedPages,
+                       long mappedBytes, Map<String, Long> channelFronts) {
+        this.open = open;
+        this.frontIndex = frontIndex;
+        this.rearIndex = rearIndex;
+        this.diskUsage = diskUsage;
+        this.cachedPages = cachedPages;
+        this.mappedBytes = mappedBytes;
+        this.channelFronts = channelFronts;
+    }
+
+    /**
+     * @return this status as kept once the queue is closed, with nothing mapped
+     */
+    public QueueStatus closed() {
+        return new QueueStatus(false, frontIndex, rearIndex, diskUsage, 0, 0, channelFronts);
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public long getFrontIndex() {
+        return frontIndex;
+    }
+
+    public long getRearIndex() {
+        return rearIndex;
+    }
+
+    public long getDiskUsage() {
+        return diskUsage;
+    }
+
+    /**
+     * @return pages held mapped by the page caches of the queue
+     */
+    public int getCachedPages() {
+        return cachedPages;
+    }
+
+    public long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    public Map<String, Long> getChannelFronts() {
+        return channelFronts;
+    }
+}
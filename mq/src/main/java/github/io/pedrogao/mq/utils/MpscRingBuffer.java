@@ -0,0 +1,99 @@
+package github.io.pedrogao.mq.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ * <p>
+ * Every slot carries a sequence number: a producer claims a position with a CAS on the tail
+ * and publishes the element by advancing the slot sequence, the consumer only reads slots
+ * whose sequence says they are published.
+ */
+public class MpscRingBuffer<E> {
+    private final Object[] buffer;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    // only written by the consumer, volatile for size()
+    private volatile long head = 0;
+
+    public MpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    public boolean offer(E e) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long diff = sequences.getAcquire(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                return false; // the slot is not consumed yet
+            } else {
+                position = tail.get(); // claimed by another producer
+            }
+        }
+
+        buffer[index] = e;
+        sequences.setRelease(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Single consumer only
+     *
+     * @return null if no published element
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.getAcquire(index) != position + 1) {
+            return null;
+        }
+
+        E e = (E) buffer[index];
+        buffer[index] = null;
+        sequences.setRelease(index, position + mask + 1);
+        head = position + 1;
+        return e;
+    }
+
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,71 @@
+package github.io.pedrogao.mq.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, kept as the time the bucket would be full again.
+ * <p>
+ * Taking tokens moves that time forward by their cost with a single CAS, a request is refused
+ * when it would move it more than the burst past now, and is told how long to wait instead.
+ */
+public class TokenBucket {
+    private final long nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+
+    private final long ratePerSecond;
+
+    // how far the full time may run ahead of now
+    private final long burstNanos;
+
+    private final AtomicLong fullAtNanos;
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst         tokens that can be taken at once from a full bucket
+     */
+    public TokenBucket(long ratePerSecond, long burst) {
+        if (ratePerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.burstNanos = costOf(burst);
+        this.fullAtNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return 0 when the tokens were taken, else milliseconds until they are available
+     */
+    public long tryAcquire(long tokens) {
+        long cost = costOf(tokens);
+        // a request larger than the burst waits for a full bucket, then passes alone
+        long limit = Math.max(burstNanos, cost);
+        while (true) {
+            long now = System.nanoTime();
+            long fullAt = fullAtNanos.get();
+            long next = Math.max(fullAt, now) + cost;
+            long ahead = next - now;
+            if (ahead > limit) {
+                return TimeUnit.NANOSECONDS.toMillis(ahead - limit) + 1;
+            }
+            if (fullAtNanos.compareAndSet(fullAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Put back tokens taken for work that was not done after all
+     */
+    public void refund(long tokens) {
+        fullAtNanos.addAndGet(-costOf(tokens));
+    }
+
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    private long costOf(long tokens) {
+        // split to keep tokens * 1e9 from overflowing
+        return tokens / ratePerSecond * nanosPerSecond + tokens % ratePerSecond * nanosPerSecond / ratePerSecond;
+    }
+}
@@ -0,0 +1,124 @@
+package github.io.pedrogao.mq.compress;
+
+import github.io.pedrogao.mq.api.CompressionType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressorTest {
+    private static final byte[] DICTIONARY = "{\"user\":\"\",\"event\":\"click\",\"page\":\"/home\"}".
+            getBytes(StandardCharsets.UTF_8);
+
+    private static final List<CompressionType> TYPES = List.of(CompressionType.NONE, CompressionType.GZIP,
+            CompressionType.SNAPPY, CompressionType.LZ4, CompressionType.DEFLATE_DICT);
+
+    private static byte[] payload(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ("{\"user\":\"u" + i % 97 + "\",\"event\":\"click\"}").charAt(i % 20);
+        }
+        return data;
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        for (CompressionType type : TYPES) {
+            ICompressor compressor = CompressorFactory.getCompressor(type, DICTIONARY, 4096);
+            assertEquals(type, compressor.getType());
+            for (int length : new int[]{0, 1, 100, 4096}) {
+                byte[] data = payload(length);
+                byte[] compressed = compressor.compress(data);
+                assertArrayEquals(data, compressor.decompress(compressed), type + " " + length);
+                // the unbounded codecs read it the same
+                assertArrayEquals(data, CompressorFactory.getCompressor(type, DICTIONARY).decompress(compressed));
+            }
+        }
+    }
+
+    @Test
+    void overMaxLength() throws IOException {
+        byte[] data = payload(4097);
+        for (CompressionType type : TYPES) {
+            if (type == CompressionType.NONE) {
+                continue;
+            }
+            byte[] compressed = CompressorFactory.getCompressor(type, DICTIONARY).compress(data);
+            ICompressor bounded = CompressorFactory.getCompressor(type, DICTIONARY, 4096);
+            assertThrows(IOException.class, () -> bounded.decompress(compressed), type.toString());
+        }
+    }
+
+    @Test
+    void lz4CorruptHeader() throws IOException {
+        ICompressor lz4 = new Lz4Compressor(1 << 20);
+        byte[] compressed = lz4.compress(payload(1000));
+
+        // a length over the max is refused before allocating
+        byte[] huge = compressed.clone();
+        ByteBuffer.wrap(huge).putInt(Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> lz4.decompress(huge));
+        byte[] negative = compressed.clone();
+        ByteBuffer.wrap(negative).putInt(-1);
+        assertThrows(IOException.class, () -> lz4.decompress(negative));
+
+        // within the max but not what the block holds
+        byte[] longer = compressed.clone();
+        ByteBuffer.wrap(longer).putInt(2000);
+        assertThrows(IOException.class, () -> lz4.decompress(longer));
+        byte[] shorter = compressed.clone();
+        ByteBuffer.wrap(shorter).putInt(500);
+        assertThrows(IOException.class, () -> lz4.decompress(shorter));
+
+        assertThrows(IOException.class, () -> lz4.decompress(new byte[3]));
+        assertThrows(IOException.class, () -> lz4.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+    }
+
+    @Test
+    void snappyCorruptHeader() throws IOException {
+        ICompressor snappy = new SnappyCompressor(1 << 20);
+        byte[] compressed = snappy.compress(payload(1000));
+
+        // the header is a varint length, 0xff ff ff ff 07 claims 2GB
+        byte[] huge = new byte[compressed.length + 4];
+        huge[0] = (byte) 0xff;
+        huge[1] = (byte) 0xff;
+        huge[2] = (byte) 0xff;
+        huge[3] = (byte) 0xff;
+        huge[4] = 0x07;
+        System.arraycopy(compressed, 1, huge, 5, compressed.length - 1);
+        assertThrows(IOException.class, () -> snappy.decompress(huge));
+
+        assertThrows(IOException.class, () -> snappy.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+    }
+
+    @Test
+    void gzipCorrupt() throws IOException {
+        ICompressor gzip = new GzipCompressor(1 << 20);
+        byte[] compressed = gzip.compress(payload(1000));
+
+        byte[] badMagic = compressed.clone();
+        badMagic[0] = 0;
+        assertThrows(IOException.class, () -> gzip.decompress(badMagic));
+        assertThrows(IOException.class, () -> gzip.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+    }
+
+    @Test
+    void dictionaryCorrupt() throws IOException {
+        ICompressor deflate = new DictionaryCompressor(DICTIONARY, 1 << 20);
+        byte[] compressed = deflate.compress(payload(1000));
+
+        assertThrows(IOException.class, () -> deflate.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+        byte[] garbage = compressed.clone();
+        garbage[0] = (byte) 0xff;
+        assertThrows(IOException.class, () -> deflate.decompress(garbage));
+        // another dictionary does not read it
+        ICompressor other = new DictionaryCompressor("something else".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> other.decompress(compressed));
+    }
+}
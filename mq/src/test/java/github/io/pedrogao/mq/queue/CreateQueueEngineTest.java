@@ -0,0 +1,73 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.client.AbstractApiClient;
+import github.io.pedrogao.mq.exception.StubException;
+import github.io.pedrogao.mq.server.ServerConfig;
+import github.io.pedrogao.mq.server.Tiny;
+import github.io.pedrogao.mq.storage.DiskQueueProvider;
+import github.io.pedrogao.mq.storage.MemoryQueueProvider;
+import github.io.pedrogao.mq.storage.QueueEngineSpec;
+import github.io.pedrogao.mq.storage.QueueEngines;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CreateQueueEngineTest {
+    private static final int PORT = 17205;
+
+    static class Client extends AbstractApiClient {
+        Client(int port) {
+            super("127.0.0.1", port);
+        }
+    }
+
+    @Test
+    void engineKeptOverRestart() throws Exception {
+        String dataDir = Files.createTempDirectory("create_queue_engine").toString();
+        QueueEngineSpec engine = new QueueEngineSpec(MemoryQueueProvider.NAME,
+                Map.of(MemoryQueueProvider.MEMORY_BYTES, "65536"));
+
+        Tiny broker = new Tiny(new ServerConfig("engine", "127.0.0.1", null, dataDir, PORT));
+        broker.start();
+        Client client = new Client(PORT);
+        try {
+            client.createQueue("mq", engine.getEngine(), engine.getOptions());
+            client.createQueue("plain");
+            assertEquals(engine, QueueEngines.readSpec(new File(dataDir, "mq")));
+            assertEquals(new QueueEngineSpec(DiskQueueProvider.NAME, Map.of()),
+                    QueueEngines.readSpec(new File(dataDir, "plain")));
+
+            // again on the same engine or without one is fine, another engine is rejected
+            client.createQueue("mq", engine.getEngine(), engine.getOptions());
+            client.createQueue("mq");
+            assertThrows(StubException.class, () -> client.createQueue("mq", DiskQueueProvider.NAME, Map.of()));
+            assertThrows(StubException.class, () -> client.createQueue("mq", MemoryQueueProvider.NAME, Map.of()));
+            assertThrows(StubException.class, () -> client.createQueue("bad", "unknown", Map.of()));
+            assertFalse(new File(dataDir, "bad").exists());
+
+            client.produceMessage("mq", "m0".getBytes());
+            client.produceMessage("mq", "m1".getBytes());
+        } finally {
+            client.shutdown();
+            broker.close();
+        }
+
+        // the queue opens on the engine stored in its directory
+        broker = new Tiny(new ServerConfig("engine", "127.0.0.1", null, dataDir, PORT));
+        broker.start();
+        Client restarted = new Client(PORT);
+        try {
+            assertEquals(engine, QueueEngines.readSpec(new File(dataDir, "mq")));
+            assertThrows(StubException.class,
+                    () -> restarted.createQueue("mq", DiskQueueProvider.NAME, Map.of()));
+            assertEquals(2, restarted.getQueueSize("mq", "ch"));
+        } finally {
+            restarted.shutdown();
+            broker.close();
+        }
+    }
+}
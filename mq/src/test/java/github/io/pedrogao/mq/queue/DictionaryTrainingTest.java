@@ -0,0 +1,62 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.client.AbstractApiClient;
+import github.io.pedrogao.mq.exception.StubException;
+import github.io.pedrogao.mq.server.ServerConfig;
+import github.io.pedrogao.mq.server.Tiny;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DictionaryTrainingTest {
+    private static final int PORT = 17208;
+
+    static class Client extends AbstractApiClient {
+        Client(int port) {
+            super("127.0.0.1", port);
+        }
+    }
+
+    private static byte[] event(int i) {
+        return ("{\"eventType\":\"page_view\",\"userId\":\"" + i * 7919 % 100000 +
+                "\",\"properties\":{\"path\":\"/products/" + i % 500 + "\",\"referrer\":\"https://www.example.com/\"}}").
+                getBytes();
+    }
+
+    @Test
+    void onlyQueuesUsingDictionaries() throws Exception {
+        String dataDir = Files.createTempDirectory("dictionary_training").toString();
+        ServerConfig config = new ServerConfig("dict", "127.0.0.1", null, dataDir, PORT);
+        config.setDictionaryTrainIntervalMs(200);
+        Tiny broker = new Tiny(config);
+        broker.start();
+        Client client = new Client(PORT);
+        try {
+            client.createQueue("dict");
+            client.createQueue("plain");
+            // a producer of DEFLATE_DICT asks for the current dictionary first
+            assertThrows(StubException.class, () -> client.getDictionary("dict", 0));
+            for (int i = 0; i < 200; i++) {
+                client.produceMessage("dict", event(i));
+                client.produceMessage("plain", event(i));
+            }
+
+            File trained = new File(dataDir, "dict/dict/1.dict");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!trained.isFile() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(trained.isFile());
+            assertTrue(client.getDictionary("dict", 1).length > 0);
+            // several intervals later, nothing trained for the queue without dictionary use
+            Thread.sleep(600);
+            assertFalse(new File(dataDir, "plain/dict").exists());
+        } finally {
+            client.shutdown();
+            broker.close();
+        }
+    }
+}
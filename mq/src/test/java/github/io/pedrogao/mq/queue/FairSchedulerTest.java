@@ -0,0 +1,266 @@
+package github.io.pedrogao.mq.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FairSchedulerTest {
+
+    /**
+     * Occupy the only worker until the latch opens, so submitted tasks queue up
+     */
+    private static CountDownLatch block(FairScheduler scheduler) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        scheduler.submit("blocker", 1, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    /**
+     * Waits for a task on a flow of its own, only the tasks ahead of it in the round are done then
+     */
+    private static void awaitIdle(FairScheduler scheduler) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.submit("idle", 1, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (list.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(size, list.size());
+    }
+
+    @Test
+    void roundRobin() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(1, 1, Map.of());
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = block(scheduler);
+
+        // a deep backlog of a does not hold b back
+        for (int i = 0; i < 4; i++) {
+            scheduler.submit("a", 1, () -> order.add("a"));
+        }
+        for (int i = 0; i < 2; i++) {
+            scheduler.submit("b", 1, () -> order.add("b"));
+        }
+        release.countDown();
+        awaitSize(order, 6);
+
+        assertEquals(List.of("a", "b", "a", "b", "a", "a"), order);
+        scheduler.close();
+    }
+
+    @Test
+    void weights() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(1, 1, Map.of("a", 3));
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = block(scheduler);
+
+        for (int i = 0; i < 6; i++) {
+            scheduler.submit("a", 1, () -> order.add("a"));
+            scheduler.submit("b", 1, () -> order.add("b"));
+        }
+        release.countDown();
+        awaitSize(order, 12);
+
+        assertEquals(List.of("a", "a", "a", "b", "a", "a", "a", "b", "b", "b", "b", "b"), order);
+        scheduler.close();
+    }
+
+    @Test
+    void cost() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(1, 4, Map.of());
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = block(scheduler);
+
+        // an expensive task waits until its flow saved up enough credits
+        scheduler.submit("a", 8, () -> order.add("a8"));
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit("b", 2, () -> order.add("b2"));
+        }
+        release.countDown();
+        awaitSize(order, 4);
+
+        assertEquals(List.of("b2", "b2", "a8", "b2"), order);
+        scheduler.close();
+    }
+
+    @Test
+    void orderPerFlow() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(1, 2, Map.of());
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            int seq = i;
+            scheduler.submit("a", 1 + i % 3, () -> order.add(seq));
+        }
+        awaitSize(order, n);
+        for (int i = 0; i < n; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+        scheduler.close();
+    }
+
+    @Test
+    void stats() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(1, 1, Map.of("a", 2));
+        CountDownLatch release = block(scheduler);
+        scheduler.submit("a", 1, () -> {
+        });
+        scheduler.submit("a", 1, () -> {
+        });
+        scheduler.submit("b", 1, () -> {
+        });
+
+        Map<String, FairScheduler.FlowStats> stats = scheduler.stats();
+        assertEquals(2, stats.get("a").getWeight());
+        assertEquals(2, stats.get("a").getPending());
+        assertEquals(0, stats.get("a").getServed());
+        assertEquals(1, stats.get("b").getWeight());
+        assertEquals(1, stats.get("b").getPending());
+
+        Thread.sleep(10);
+        release.countDown();
+        awaitIdle(scheduler);
+
+        stats = scheduler.stats();
+        assertEquals(0, stats.get("a").getPending());
+        assertEquals(2, stats.get("a").getServed());
+        assertEquals(1, stats.get("b").getServed());
+        assertTrue(stats.get("b").getMaxDelayMicros() >= TimeUnit.MILLISECONDS.toMicros(10));
+        // the max delay is reset on read
+        assertEquals(0, scheduler.stats().get("b").getMaxDelayMicros());
+        scheduler.close();
+    }
+
+    @Test
+    void mergeStats() {
+        FairScheduler.FlowStats a = new FairScheduler.FlowStats(2, 1, 3, 100, 500);
+        FairScheduler.FlowStats b = new FairScheduler.FlowStats(2, 4, 1, 500, 600);
+        FairScheduler.FlowStats merged = FairScheduler.FlowStats.merge(a, b);
+        assertEquals(2, merged.getWeight());
+        assertEquals(5, merged.getPending());
+        assertEquals(4, merged.getServed());
+        assertEquals(200, merged.getAvgDelayMicros());
+        assertEquals(600, merged.getMaxDelayMicros());
+
+        FairScheduler.FlowStats idle = new FairScheduler.FlowStats(1, 0, 0, 0, 0);
+        assertEquals(0, FairScheduler.FlowStats.merge(idle, idle).getAvgDelayMicros());
+    }
+
+    @Test
+    void taskError() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(1, 1, Map.of());
+        scheduler.submit("a", 1, () -> {
+            throw new IllegalStateException("boom");
+        });
+        // the worker survives
+        awaitIdle(scheduler);
+        scheduler.close();
+    }
+
+    @Test
+    void close() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(2, 1, Map.of());
+        CountDownLatch release = block(scheduler);
+        CountDownLatch ran = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit("a", 1, ran::countDown);
+        }
+        release.countDown();
+        scheduler.close();
+
+        // queued tasks still run, new ones are rejected
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertThrows(RejectedExecutionException.class, () -> scheduler.submit("a", 1, () -> {
+        }));
+    }
+
+    @Test
+    void flowsDropped() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler("fair-test", 1, 1, Map.of(), 200);
+        CountDownLatch release = block(scheduler);
+        scheduler.submit("a", 1, () -> {
+        });
+        scheduler.submit("b", 1, () -> {
+        });
+        // a removed flow with tasks queued keeps them
+        scheduler.remove("a");
+        scheduler.remove("missing");
+        assertEquals(1, scheduler.stats().get("a").getPending());
+        release.countDown();
+        awaitIdle(scheduler);
+
+        Map<String, FairScheduler.FlowStats> stats = scheduler.stats();
+        assertFalse(stats.containsKey("a"));
+        assertEquals(1, stats.get("b").getServed());
+        scheduler.remove("b");
+        assertFalse(scheduler.stats().containsKey("b"));
+
+        // empty flows expire once idle
+        assertTrue(scheduler.stats().containsKey("idle"));
+        Thread.sleep(300);
+        assertTrue(scheduler.stats().isEmpty());
+        awaitIdle(scheduler);
+        assertEquals(1, scheduler.stats().get("idle").getServed());
+        scheduler.close();
+    }
+
+    @Test
+    void fairShards() throws InterruptedException {
+        ShardDispatcher dispatcher = new ShardDispatcher(2, 0, 1, Map.of(), q -> q.substring(0, 1));
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        String a = "a-queue";
+        // a queue of another tenant on the same shard
+        String b = null;
+        for (int i = 0; b == null; i++) {
+            if (dispatcher.shardOf("b-" + i) == dispatcher.shardOf(a)) {
+                b = "b-" + i;
+            }
+        }
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        dispatcher.execute(a, 1, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            dispatcher.execute(a, 1, () -> order.add("a"));
+        }
+        dispatcher.execute(b, 1, () -> order.add("b"));
+        release.countDown();
+
+        awaitSize(order, 4);
+        assertEquals(List.of("a", "b", "a", "a"), order);
+
+        Map<String, FairScheduler.FlowStats> stats = dispatcher.stats();
+        assertEquals(4, stats.get("a").getServed());
+        assertEquals(1, stats.get("b").getServed());
+        dispatcher.close();
+    }
+}
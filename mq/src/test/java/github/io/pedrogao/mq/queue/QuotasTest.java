@@ -0,0 +1,137 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.storage.BackendQueue;
+import github.io.pedrogao.mq.storage.DiskQueueImpl;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuotasTest {
+
+    @Test
+    void unlimited() {
+        Quotas quotas = new Quotas(0, 0, 0, 0, 100);
+        assertEquals(0, quotas.acquire("q", Long.MAX_VALUE / 4));
+        assertEquals(Long.MAX_VALUE / 4, quotas.getDiskUsage("q"));
+        assertEquals(Long.MAX_VALUE / 4, quotas.getDiskUsage());
+    }
+
+    @Test
+    void queueDisk() {
+        Quotas quotas = new Quotas(100, 0, 0, 0, 50);
+        assertEquals(0, quotas.acquire("a", 60));
+        assertEquals(50, quotas.acquire("a", 60));
+        // nothing is counted for a refused produce
+        assertEquals(60, quotas.getDiskUsage("a"));
+        assertEquals(0, quotas.acquire("a", 40));
+        // other queues have their own quota
+        assertEquals(0, quotas.acquire("b", 100));
+        assertEquals(200, quotas.getDiskUsage());
+    }
+
+    @Test
+    void brokerDisk() {
+        Quotas quotas = new Quotas(0, 100, 0, 0, 50);
+        assertEquals(0, quotas.acquire("a", 60));
+        assertEquals(50, quotas.acquire("b", 60));
+        assertEquals(0, quotas.getDiskUsage("b"));
+        assertEquals(0, quotas.acquire("b", 40));
+        assertEquals(100, quotas.getDiskUsage());
+    }
+
+    @Test
+    void release() {
+        Quotas quotas = new Quotas(100, 100, 0, 0, 50);
+        assertEquals(0, quotas.acquire("a", 100));
+        assertEquals(50, quotas.acquire("a", 1));
+        quotas.release("a", 100);
+        assertEquals(0, quotas.getDiskUsage("a"));
+        assertEquals(0, quotas.getDiskUsage());
+        assertEquals(0, quotas.acquire("a", 100));
+    }
+
+    @Test
+    void rate() {
+        Quotas quotas = new Quotas(0, 0, 1000, 0, 50);
+        assertEquals(0, quotas.acquire("a", 1000));
+        assertTrue(quotas.acquire("a", 500) > 0);
+        // a refused produce is not counted on disk
+        assertEquals(1000, quotas.getDiskUsage("a"));
+        assertEquals(0, quotas.acquire("b", 1000));
+
+        // released bytes go back to the bucket
+        quotas.release("a", 500);
+        assertEquals(0, quotas.acquire("a", 500));
+    }
+
+    @Test
+    void brokerRate() {
+        Quotas quotas = new Quotas(0, 0, 1000, 1500, 50);
+        assertEquals(0, quotas.acquire("a", 1000));
+        assertTrue(quotas.acquire("b", 1000) > 0);
+        // the queue bucket of b was refunded when the broker bucket refused
+        quotas.release("a", 1000);
+        assertEquals(0, quotas.acquire("b", 1000));
+        assertEquals(1000, quotas.getDiskUsage());
+    }
+
+    @Test
+    void concurrentAcquire() throws InterruptedException {
+        // the room is handed out exactly once
+        Quotas quotas = new Quotas(1000, 0, 0, 0, 50);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (quotas.acquire("a", 1) == 0) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, accepted.get());
+        assertEquals(1000, quotas.getDiskUsage("a"));
+    }
+
+    @Test
+    void refresh() throws Exception {
+        Quotas quotas = new Quotas(0, 0, 0, 0, 50);
+        assertEquals(0, quotas.acquire("gone", 100));
+
+        BackendQueue queue = new DiskQueueImpl(Files.createTempDirectory("quotas_test").toString(), "a");
+        try {
+            queue.push(new byte[1024]);
+            queue.flush();
+            quotas.refresh(Map.of("a", queue));
+
+            long usage = queue.getDiskUsage();
+            assertTrue(usage > 0);
+            assertEquals(usage, quotas.getDiskUsage("a"));
+            assertEquals(usage, quotas.getDiskUsage());
+            // deleted queues are forgotten
+            assertEquals(0, quotas.getDiskUsage("gone"));
+        } finally {
+            queue.delete();
+        }
+    }
+}
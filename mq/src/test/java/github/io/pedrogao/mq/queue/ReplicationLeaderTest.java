@@ -0,0 +1,247 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.client.AbstractApiClient;
+import github.io.pedrogao.mq.client.ProduceStream;
+import github.io.pedrogao.mq.exception.TryAgainException;
+import github.io.pedrogao.mq.server.ReplicationMode;
+import github.io.pedrogao.mq.server.ServerConfig;
+import github.io.pedrogao.mq.server.Tiny;
+import github.io.pedrogao.mq.storage.MemoryQueueProvider;
+import github.io.pedrogao.mq.storage.QueueEngineSpec;
+import github.io.pedrogao.mq.storage.QueueEngines;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationLeaderTest {
+    private static final int LEADER_PORT = 17201;
+    private static final int FOLLOWER_PORT = 17202;
+    private static final int ENGINE_LEADER_PORT = 17203;
+    private static final int ENGINE_FOLLOWER_PORT = 17204;
+    private static final int STREAM_LEADER_PORT = 17206;
+    private static final int STREAM_FOLLOWER_PORT = 17207;
+
+    static class Client extends AbstractApiClient {
+        Client(int port) {
+            super("127.0.0.1", port);
+        }
+    }
+
+    /**
+     * The rear moves on with every fetch, the follower has to stay in sync anyway
+     */
+    @Test
+    void inSyncUnderContinuousProduce() throws Exception {
+        ServerConfig leaderConfig = new ServerConfig("leader", "127.0.0.1", null,
+                Files.createTempDirectory("replication_leader").toString(), LEADER_PORT);
+        leaderConfig.setReplicationMode(ReplicationMode.SEMI_SYNC);
+        leaderConfig.setMinInsyncReplicas(2);
+        leaderConfig.setReplicaLagMaxMs(200);
+        Tiny leader = new Tiny(leaderConfig);
+        leader.start();
+
+        ServerConfig followerConfig = new ServerConfig("follower", "127.0.0.1", null,
+                Files.createTempDirectory("replication_follower").toString(), FOLLOWER_PORT);
+        followerConfig.setReplicationLeader("127.0.0.1:" + LEADER_PORT);
+        followerConfig.setReplicatedQueues(List.of("rq"));
+        Tiny follower = null;
+
+        Client leaderClient = new Client(LEADER_PORT);
+        Client followerClient = new Client(FOLLOWER_PORT);
+        AtomicBoolean producing = new AtomicBoolean(true);
+        Thread[] producers = new Thread[2];
+        try {
+            leaderClient.createQueue("rq");
+            follower = new Tiny(followerConfig);
+            follower.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            long index = -1;
+            while (index < 0 && System.currentTimeMillis() < deadline) {
+                try {
+                    index = leaderClient.produceMessage("rq", "first".getBytes());
+                } catch (TryAgainException e) {
+                    Thread.sleep(50);
+                }
+            }
+            assertEquals(0, index);
+
+            // not waiting for the follower, these keep the rear moving
+            AtomicLong produced = new AtomicLong();
+            for (int i = 0; i < producers.length; i++) {
+                producers[i] = new Thread(() -> {
+                    Client client = new Client(LEADER_PORT);
+                    try {
+                        while (producing.get()) {
+                            try {
+                                client.asyncProduceMessage("rq", new byte[256]);
+                                produced.incrementAndGet();
+                            } catch (TryAgainException e) {
+                                Thread.onSpinWait();
+                            }
+                        }
+                    } finally {
+                        try {
+                            client.shutdown();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                producers[i].start();
+            }
+
+            // many lag windows long, every SEMI_SYNC produce finds the follower in sync
+            long end = System.currentTimeMillis() + 2000;
+            int acked = 0;
+            while (System.currentTimeMillis() < end) {
+                assertTrue(leaderClient.produceMessage("rq", "sync".getBytes()) > 0);
+                acked++;
+            }
+            assertTrue(acked > 0);
+            assertTrue(produced.get() > 0);
+
+            producing.set(false);
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            long rear = leaderClient.produceMessage("rq", "last".getBytes()) + 1;
+            // stored on the follower once acknowledged
+            assertEquals(rear, followerClient.getQueueSize("rq", "ch"));
+        } finally {
+            producing.set(false);
+            for (Thread producer : producers) {
+                if (producer != null) {
+                    producer.join();
+                }
+            }
+            followerClient.shutdown();
+            leaderClient.shutdown();
+            if (follower != null) {
+                follower.close();
+            }
+            leader.close();
+        }
+    }
+
+    /**
+     * A produce stream is acknowledged like a unary produce, once the in-sync replicas stored it
+     */
+    @Test
+    void produceStreamWaitsForReplicas() throws Exception {
+        ServerConfig leaderConfig = new ServerConfig("leader", "127.0.0.1", null,
+                Files.createTempDirectory("replication_leader").toString(), STREAM_LEADER_PORT);
+        leaderConfig.setReplicationMode(ReplicationMode.SEMI_SYNC);
+        leaderConfig.setMinInsyncReplicas(2);
+        leaderConfig.setReplicaLagMaxMs(200);
+        Tiny leader = new Tiny(leaderConfig);
+        leader.start();
+
+        ServerConfig followerConfig = new ServerConfig("follower", "127.0.0.1", null,
+                Files.createTempDirectory("replication_follower").toString(), STREAM_FOLLOWER_PORT);
+        followerConfig.setReplicationLeader("127.0.0.1:" + STREAM_LEADER_PORT);
+        followerConfig.setReplicatedQueues(List.of("sq"));
+        Tiny follower = null;
+
+        Client leaderClient = new Client(STREAM_LEADER_PORT);
+        Client followerClient = new Client(STREAM_FOLLOWER_PORT);
+        try {
+            leaderClient.createQueue("sq");
+
+            // no follower yet, not appended
+            try (ProduceStream stream = leaderClient.openProduceStream(16)) {
+                CompletableFuture<Long> future = stream.send("sq", "alone".getBytes());
+                ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof TryAgainException);
+            }
+            assertEquals(0, leaderClient.getQueueSize("sq", "ch"));
+
+            follower = new Tiny(followerConfig);
+            follower.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            long index = -1;
+            while (index < 0 && System.currentTimeMillis() < deadline) {
+                try {
+                    index = leaderClient.produceMessage("sq", "first".getBytes());
+                } catch (TryAgainException e) {
+                    Thread.sleep(50);
+                }
+            }
+            assertEquals(0, index);
+
+            int n = 200;
+            try (ProduceStream stream = leaderClient.openProduceStream(16)) {
+                CompletableFuture<?>[] futures = new CompletableFuture<?>[n];
+                for (int i = 0; i < n; i++) {
+                    futures[i] = stream.send("sq", ("m" + i).getBytes());
+                }
+                for (int i = 0; i < n; i++) {
+                    assertEquals(1L + i, futures[i].get(5, TimeUnit.SECONDS));
+                    // stored on the follower once acknowledged
+                    assertTrue(followerClient.getQueueSize("sq", "ch") >= 2 + i);
+                }
+            }
+            assertEquals(n + 1, followerClient.getQueueSize("sq", "ch"));
+        } finally {
+            followerClient.shutdown();
+            leaderClient.shutdown();
+            if (follower != null) {
+                follower.close();
+            }
+            leader.close();
+        }
+    }
+
+    /**
+     * The follower creates its replica before it knows the leader, the handshake moves it to the leader's engine
+     */
+    @Test
+    void replicaOnLeaderEngine() throws Exception {
+        Tiny leader = new Tiny(new ServerConfig("leader", "127.0.0.1", null,
+                Files.createTempDirectory("replication_leader").toString(), ENGINE_LEADER_PORT));
+        leader.start();
+
+        String followerDir = Files.createTempDirectory("replication_follower").toString();
+        ServerConfig followerConfig = new ServerConfig("follower", "127.0.0.1", null, followerDir,
+                ENGINE_FOLLOWER_PORT);
+        followerConfig.setReplicationLeader("127.0.0.1:" + ENGINE_LEADER_PORT);
+        followerConfig.setReplicatedQueues(List.of("mq"));
+        Tiny follower = null;
+
+        Client leaderClient = new Client(ENGINE_LEADER_PORT);
+        Client followerClient = new Client(ENGINE_FOLLOWER_PORT);
+        QueueEngineSpec engine = new QueueEngineSpec(MemoryQueueProvider.NAME,
+                Map.of(MemoryQueueProvider.MEMORY_BYTES, "65536"));
+        try {
+            leaderClient.createQueue("mq", engine.getEngine(), engine.getOptions());
+            for (int i = 0; i < 3; i++) {
+                leaderClient.produceMessage("mq", ("m" + i).getBytes());
+            }
+            follower = new Tiny(followerConfig);
+            follower.start();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (followerClient.getQueueSize("mq", "ch") < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(3, followerClient.getQueueSize("mq", "ch"));
+            assertEquals(engine, QueueEngines.readSpec(new File(followerDir, "mq")));
+        } finally {
+            followerClient.shutdown();
+            leaderClient.shutdown();
+            if (follower != null) {
+                follower.close();
+            }
+            leader.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.mq.storage.BackendQueue;
+import github.io.pedrogao.mq.storage.DiskQueueImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Produce and consume of the current shared-lock model, every handler thread touching the
+ * queues directly, against handing the work to the shard owning the queue.
+ * <p>
+ * {@code partitioned} gives every thread its own queue, {@code contended} makes all threads
+ * share a few queues.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(8)
+public class ShardDispatcherBenchmark {
+
+    private static final byte[] PAYLOAD = new byte[256];
+
+    @Param({"partitioned", "contended"})
+    public String workload;
+
+    @Param({"4"})
+    public int shards;
+
+    private BackendQueue[] queues;
+
+    private ShardDispatcher dispatcher;
+
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ThreadQueue {
+        BackendQueue queue;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        File dir = Files.createTempDirectory("shard-bench").toFile();
+        int count = "partitioned".equals(workload) ? 8 : 2;
+        queues = new BackendQueue[count];
+        for (int i = 0; i < count; i++) {
+            queues[i] = new DiskQueueImpl(dir.getAbsolutePath() + File.separator + "q" + i, "q" + i);
+        }
+        dispatcher = new ShardDispatcher(shards);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetThreads() {
+        threadIds.set(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        dispatcher.close();
+        for (BackendQueue queue : queues) {
+            queue.delete();
+            queue.close();
+        }
+    }
+
+    private BackendQueue queueOf(ThreadQueue state) {
+        if (state.queue == null) {
+            state.queue = queues[threadIds.getAndIncrement() % queues.length];
+        }
+        return state.queue;
+    }
+
+    @Benchmark
+    public byte[] sharedLock(ThreadQueue state) throws Exception {
+        BackendQueue queue = queueOf(state);
+        queue.push(PAYLOAD);
+        return queue.poll("bench");
+    }
+
+    @Benchmark
+    public byte[] sharded(ThreadQueue state) throws Exception {
+        BackendQueue queue = queueOf(state);
+        return dispatcher.submit(queue.getName(), () -> {
+            queue.push(PAYLOAD);
+            return queue.poll("bench");
+        }).get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = new OptionsBuilder()
+                .include(ShardDispatcherBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opts).run();
+    }
+}
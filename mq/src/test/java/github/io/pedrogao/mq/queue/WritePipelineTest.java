@@ -0,0 +1,101 @@
+package github.io.pedrogao.mq.queue;
+
+import github.io.pedrogao.diskqueue.util.FileUtil;
+import github.io.pedrogao.mq.metrics.MetricsRegistry;
+import github.io.pedrogao.mq.metrics.PrometheusExporter;
+import github.io.pedrogao.mq.storage.DiskQueueImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WritePipelineTest {
+    private File queueDir;
+
+    private DiskQueueImpl queue;
+
+    @Test
+    void drainGivesTheThreadBack() throws Exception {
+        queueDir = Files.createTempDirectory("write_pipeline_test").toFile();
+        queue = new DiskQueueImpl(queueDir.getAbsolutePath(), "wq");
+        // run by hand, like a shard thread other queues wait on
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        MetricsRegistry metrics = new MetricsRegistry();
+        WritePipeline pipeline = new WritePipeline(queue, 1024, 10, queueName -> {
+        }, tasks::add, metrics);
+
+        int n = 10 * WritePipeline.MAX_BATCHES_PER_DRAIN * 2 + 5;
+        for (int i = 0; i < n; i++) {
+            assertTrue(pipeline.offer(("m" + i).getBytes()));
+        }
+        assertEquals(1, tasks.size());
+        assertEquals(n, metrics.getGauges().get("pipeline.wq.depth").longValue());
+
+        // a few batches per task, the next one queued behind whatever else the thread has
+        tasks.poll().run();
+        assertEquals(10 * WritePipeline.MAX_BATCHES_PER_DRAIN, queue.getRearIndex());
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+        tasks.poll().run();
+        assertTrue(tasks.isEmpty());
+        assertEquals(n, queue.getRearIndex());
+        assertEquals("m" + (n - 1), new String(queue.get(n - 1)));
+
+        assertEquals(0L, metrics.getGauges().get("pipeline.wq.depth").longValue());
+        assertEquals(5L, metrics.getGauges().get("pipeline.wq.batch_size").longValue());
+        assertEquals(n, metrics.getCounters().get("pipeline.wq.written").longValue());
+        assertEquals(2 * WritePipeline.MAX_BATCHES_PER_DRAIN + 1, metrics.getCounters().get("pipeline.wq.batches").longValue());
+        assertEquals(2 * WritePipeline.MAX_BATCHES_PER_DRAIN + 1, pipeline.getBatchCount());
+        assertEquals((double) n / pipeline.getBatchCount(), pipeline.getAverageBatchSize());
+
+        PrometheusExporter exporter = new PrometheusExporter(metrics, List::of);
+        exporter.refresh();
+        String text = new String(exporter.getSnapshot(), StandardCharsets.UTF_8);
+        assertTrue(text.contains("tinymq_pipeline_written_total{queue=\"wq\"} " + n + "\n"), text);
+        assertTrue(text.contains("tinymq_pipeline_depth{queue=\"wq\"} 0\n"), text);
+
+        pipeline.close(1000);
+        assertTrue(metrics.getCounters().isEmpty());
+        assertTrue(metrics.getGauges().isEmpty());
+    }
+
+    @Test
+    void fullRingRejects() throws Exception {
+        queueDir = Files.createTempDirectory("write_pipeline_test").toFile();
+        queue = new DiskQueueImpl(queueDir.getAbsolutePath(), "wq");
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        MetricsRegistry metrics = new MetricsRegistry();
+        WritePipeline pipeline = new WritePipeline(queue, 4, 10, queueName -> {
+        }, tasks::add, metrics);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(pipeline.offer(("m" + i).getBytes()));
+        }
+        assertFalse(pipeline.offer("m4".getBytes()));
+        assertEquals(1, pipeline.getRejectedCount());
+        assertEquals(1L, metrics.getCounters().get("pipeline.wq.rejected").longValue());
+
+        tasks.poll().run();
+        assertTrue(pipeline.offer("m4".getBytes()));
+        tasks.poll().run();
+        pipeline.close(1000);
+        assertEquals(5, queue.getRearIndex());
+    }
+
+    @AfterEach
+    void clean() throws Exception {
+        if (queue != null) {
+            queue.close();
+        }
+        if (queueDir != null) {
+            FileUtil.deleteDirectory(queueDir);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package github.io.pedrogao.mq.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazyQueueTest {
+    private File queueDir;
+
+    private LazyQueue queue;
+
+    private LazyQueue newQueue(AtomicInteger opens) throws Exception {
+        File dir = queueDir;
+        return new LazyQueue(dir.getName(), dir, () -> {
+            opens.incrementAndGet();
+            return new DiskQueueImpl(dir.getAbsolutePath(), dir.getName());
+        });
+    }
+
+    @Test
+    void statusOfQueueNotOpenedSinceRestart() throws Exception {
+        queueDir = Files.createTempDirectory("lazy_queue_test").toFile();
+        AtomicInteger opens = new AtomicInteger();
+        queue = newQueue(opens);
+        for (int i = 0; i < 5; i++) {
+            queue.push(("m" + i).getBytes());
+        }
+        queue.poll("ch1");
+        queue.poll("ch2");
+        queue.poll("ch2");
+        queue.close();
+
+        // like a broker restart, the queue is only known by its directory
+        queue = newQueue(opens);
+        opens.set(0);
+        QueueStatus status = queue.getStatus();
+        assertFalse(status.isOpen());
+        assertFalse(queue.isOpen());
+        assertEquals(0, status.getFrontIndex());
+        assertEquals(5, status.getRearIndex());
+        assertEquals(Map.of("ch1", 1L, "ch2", 2L), status.getChannelFronts());
+        assertTrue(status.getDiskUsage() > 0);
+        assertEquals(0, status.getCachedPages());
+        // stored on close, not opened to read it
+        assertEquals(0, opens.get());
+        assertEquals(5, queue.getStatus().getRearIndex());
+
+        // an open queue reports its own status
+        queue.push("m5".getBytes());
+        assertTrue(queue.isOpen());
+        assertEquals(6, queue.getStatus().getRearIndex());
+        assertFalse(new File(queueDir, LazyQueue.STATUS_FILE).exists());
+        queue.close();
+        assertEquals(6, queue.getStatus().getRearIndex());
+        assertEquals(1, opens.get());
+    }
+
+    @Test
+    void statusAfterCrash() throws Exception {
+        queueDir = Files.createTempDirectory("lazy_queue_test").toFile();
+        AtomicInteger opens = new AtomicInteger();
+        LazyQueue crashed = newQueue(opens);
+        crashed.push("m0".getBytes());
+        crashed.close();
+        crashed.push("m1".getBytes());
+
+        // never closed, the status stored before is stale and gone
+        queue = newQueue(opens);
+        QueueStatus status = queue.getStatus();
+        assertFalse(status.isOpen());
+        assertEquals(-1, status.getFrontIndex());
+        assertEquals(-1, status.getRearIndex());
+        assertTrue(status.getDiskUsage() > 0);
+        assertEquals(2, opens.get());
+        crashed.close();
+    }
+
+    @Test
+    void statusOfUnreadableQueue() throws Exception {
+        queueDir = Files.createTempDirectory("lazy_queue_test").toFile();
+        queue = new LazyQueue("broken", queueDir, () -> {
+            throw new IllegalStateException("broken");
+        });
+        QueueStatus status = queue.getStatus();
+        assertFalse(status.isOpen());
+        assertEquals(-1, status.getFrontIndex());
+        assertEquals(-1, status.getRearIndex());
+        assertTrue(status.getChannelFronts().isEmpty());
+        queue = null;
+    }
+
+    @AfterEach
+    void clean() throws Exception {
+        if (queue != null) {
+            queue.delete();
+        }
+    }
+}
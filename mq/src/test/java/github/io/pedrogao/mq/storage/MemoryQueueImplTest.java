@@ -0,0 +1,322 @@
+package github.io.pedrogao.mq.storage;
+
+import github.io.pedrogao.diskqueue.metrics.IStorageMetrics;
+import github.io.pedrogao.diskqueue.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryQueueImplTest {
+    // item header in the ring
+    private static final int HEADER = 20;
+
+    // 34 items of 100 bytes
+    private static final int RING = 4096;
+
+    private final List<File> dirs = new ArrayList<>();
+
+    private final List<MemoryQueueImpl> queues = new ArrayList<>();
+
+    private MemoryQueueImpl open(File dir, int memoryBytes, MemoryBudget budget) throws Exception {
+        MemoryQueueImpl queue = new MemoryQueueImpl(dir, dir.getName(), memoryBytes, IStorageMetrics.NOOP, budget);
+        queues.add(queue);
+        return queue;
+    }
+
+    private File newDir() throws Exception {
+        File dir = Files.createTempDirectory("memory_queue_test").toFile();
+        dirs.add(dir);
+        return dir;
+    }
+
+    private static byte[] item(long index) {
+        return ByteBuffer.allocate(100).putLong(index).putLong(~index).array();
+    }
+
+    private static void assertItem(long index, byte[] data) {
+        assertArrayEquals(item(index), data, "item " + index);
+    }
+
+    private static void assertItems(MemoryQueueImpl queue) throws Exception {
+        for (long index = queue.getFrontIndex(); index < queue.getRearIndex(); index++) {
+            assertItem(index, queue.get(index));
+        }
+    }
+
+    private static void poll(MemoryQueueImpl queue, String channel, long from, long to) throws Exception {
+        for (long index = from; index < to; index++) {
+            assertItem(index, queue.poll(channel));
+        }
+    }
+
+    @Test
+    void spillDrainBackAndReopen() throws Exception {
+        File dir = newDir();
+        MemoryQueueImpl queue = open(dir, RING, new MemoryBudget(0));
+        assertTrue(queue.isEmpty("a"));
+        assertTrue(queue.isEmpty("b"));
+
+        // several rings worth
+        for (long index = 0; index < 200; index++) {
+            assertEquals(index, queue.push(item(index)));
+            assertEquals(index >= RING / (HEADER + 100), queue.isSpilled());
+        }
+        assertEquals(0, queue.getFrontIndex());
+        assertEquals(200, queue.getRearIndex());
+        assertItems(queue);
+
+        poll(queue, "a", 0, 150);
+        poll(queue, "b", 0, 60);
+        assertTrue(queue.isSpilled());
+        assertEquals(140, queue.size("b"));
+
+        // b catches up to a backlog that fits in half the ring
+        poll(queue, "a", 150, 200);
+        poll(queue, "b", 60, 185);
+        assertFalse(queue.isSpilled());
+        assertTrue(queue.getFrontIndex() <= 185);
+        assertEquals(200, queue.getRearIndex());
+        assertItems(queue);
+        assertNull(queue.poll("a"));
+        assertEquals(15, queue.size("b"));
+
+        // in memory again, indexes go on
+        for (long index = 200; index < 210; index++) {
+            assertEquals(index, queue.push(item(index)));
+        }
+        assertFalse(queue.isSpilled());
+        poll(queue, "b", 185, 190);
+        queue.close();
+
+        // close moves the ring to disk, the channels continue where they were
+        queue = open(dir, RING, new MemoryBudget(0));
+        assertTrue(queue.isSpilled());
+        assertEquals(210, queue.getRearIndex());
+        assertEquals(10, queue.size("a"));
+        assertEquals(20, queue.size("b"));
+        assertItems(queue);
+        poll(queue, "b", 190, 200);
+        poll(queue, "a", 200, 210);
+        assertFalse(queue.isSpilled());
+        poll(queue, "b", 200, 210);
+        assertNull(queue.poll("b"));
+        assertEquals(210, queue.push(item(210)));
+        assertItem(210, queue.poll("a"));
+    }
+
+    @Test
+    void ringWrap() throws Exception {
+        MemoryQueueImpl queue = open(newDir(), RING, new MemoryBudget(0));
+        assertTrue(queue.isEmpty("a"));
+
+        // a backlog of 20 items moves around the ring many times without spilling
+        for (long index = 0; index < 20; index++) {
+            queue.push(item(index));
+        }
+        for (long index = 20; index < 1000; index++) {
+            assertEquals(index, queue.push(item(index)));
+            assertItem(index - 20, queue.poll("a"));
+            assertFalse(queue.isSpilled());
+            assertEquals(index - 19, queue.getFrontIndex());
+        }
+        assertItems(queue);
+        poll(queue, "a", 980, 1000);
+        assertTrue(queue.isEmpty("a"));
+    }
+
+    @Test
+    void growOffsets() throws Exception {
+        // room for 4096 small items, more than the offsets hold at first
+        MemoryQueueImpl queue = open(newDir(), 4096 * (HEADER + 8), new MemoryBudget(0));
+        assertTrue(queue.isEmpty("a"));
+        for (long index = 0; index < 1500; index++) {
+            assertEquals(index, queue.push(ByteBuffer.allocate(8).putLong(index).array()));
+        }
+        // the offsets grow again while their head is not at 0
+        for (long index = 0; index < 700; index++) {
+            assertEquals(index, ByteBuffer.wrap(queue.pollItem("a").getData()).getLong());
+        }
+        for (long index = 1500; index < 4000; index++) {
+            assertEquals(index, queue.push(ByteBuffer.allocate(8).putLong(index).array()));
+        }
+        assertFalse(queue.isSpilled());
+        assertEquals(700, queue.getFrontIndex());
+        for (long index = 700; index < 4000; index++) {
+            assertEquals(index, ByteBuffer.wrap(queue.get(index)).getLong());
+        }
+        for (long index = 700; index < 4000; index++) {
+            assertEquals(index, ByteBuffer.wrap(queue.poll("a")).getLong());
+        }
+        assertTrue(queue.isEmpty("a"));
+    }
+
+    @Test
+    void resetAndDelete() throws Exception {
+        MemoryQueueImpl queue = open(newDir(), RING, new MemoryBudget(0));
+        for (long index = 0; index < 10; index++) {
+            queue.push(item(index));
+        }
+        poll(queue, "a", 0, 3);
+
+        queue.reset(1000);
+        assertEquals(1000, queue.getFrontIndex());
+        assertEquals(1000, queue.getRearIndex());
+        assertTrue(queue.isEmpty("a"));
+        assertEquals(1000, queue.push(item(1000)));
+        assertItem(1000, queue.poll("a"));
+
+        // from disk too
+        for (long index = 1001; index < 1100; index++) {
+            queue.push(item(index));
+        }
+        assertTrue(queue.isSpilled());
+        queue.reset(5);
+        assertFalse(queue.isSpilled());
+        assertEquals(5, queue.getRearIndex());
+        assertEquals(5, queue.push(item(5)));
+        assertItem(5, queue.poll("a"));
+
+        for (long index = 6; index < 100; index++) {
+            queue.push(item(index));
+        }
+        assertTrue(queue.isSpilled());
+        queue.delete();
+        assertFalse(queue.isSpilled());
+        assertEquals(0, queue.getFrontIndex());
+        assertEquals(0, queue.getRearIndex());
+        assertTrue(queue.isEmpty("a"));
+        assertEquals(0, queue.push(item(0)));
+        assertItem(0, queue.poll("a"));
+    }
+
+    @Test
+    void spillKeepsTimestamps() throws Exception {
+        // 68 items in the ring, a backlog of 34 drains back
+        MemoryQueueImpl queue = open(newDir(), 68 * (HEADER + 100), new MemoryBudget(0));
+        assertTrue(queue.isEmpty("a"));
+        for (long index = 0; index < 60; index++) {
+            queue.push(item(index));
+        }
+        Thread.sleep(20);
+        long cut = System.currentTimeMillis();
+        Thread.sleep(20);
+        for (long index = 60; index < 71; index++) {
+            queue.push(item(index));
+        }
+        assertTrue(queue.isSpilled());
+
+        poll(queue, "a", 0, 37);
+        assertFalse(queue.isSpilled());
+        assertEquals(37, queue.getFrontIndex());
+
+        // the items pushed before the cut are still older after the round trip through disk
+        queue.removeBefore(cut);
+        assertEquals(60, queue.getFrontIndex());
+        poll(queue, "a", 60, 71);
+    }
+
+    @Test
+    void memoryBudget() throws Exception {
+        MemoryBudget budget = new MemoryBudget(2 * RING);
+        MemoryQueueImpl q1 = open(newDir(), RING, budget);
+        MemoryQueueImpl q2 = open(newDir(), RING, budget);
+        File dir3 = newDir();
+        MemoryQueueImpl q3 = open(dir3, RING, budget);
+        assertFalse(q1.isSpilled());
+        assertFalse(q2.isSpilled());
+        // no ring left, on disk at the same indexes
+        assertTrue(q3.isSpilled());
+        assertEquals(2 * RING, budget.getUsedBytes());
+        assertTrue(q3.isEmpty("a"));
+        assertEquals(0, q3.push(item(0)));
+        assertEquals(1, q3.push(item(1)));
+
+        // a spill gives the ring back to the pool, the next poll of q3 takes it
+        assertTrue(q1.isEmpty("a"));
+        for (long index = 0; index < 40; index++) {
+            q1.push(item(index));
+        }
+        assertTrue(q1.isSpilled());
+        assertEquals(2 * RING, budget.getUsedBytes());
+        assertEquals(RING, budget.getPooledBytes());
+        assertItem(0, q3.poll("a"));
+        assertFalse(q3.isSpilled());
+        assertEquals(2 * RING, budget.getUsedBytes());
+        assertEquals(0, budget.getPooledBytes());
+        assertItem(1, q3.poll("a"));
+
+        // q1 stays on disk while the budget is taken
+        poll(q1, "a", 0, 40);
+        assertTrue(q1.isSpilled());
+
+        q2.close();
+        assertEquals(RING, budget.getPooledBytes());
+        q3.close();
+        q1.close();
+        // still allocated, pooled for the next queues
+        assertEquals(2 * RING, budget.getUsedBytes());
+        assertEquals(2 * RING, budget.getPooledBytes());
+
+        q3 = open(dir3, RING, budget);
+        assertFalse(q3.isSpilled());
+        assertEquals(2 * RING, budget.getUsedBytes());
+        assertEquals(RING, budget.getPooledBytes());
+        assertEquals(2, q3.push(item(2)));
+        assertItem(2, q3.poll("a"));
+        q3.close();
+        assertEquals(2 * RING, budget.getPooledBytes());
+    }
+
+    @Test
+    void budgetAccounting() {
+        MemoryBudget budget = new MemoryBudget(0);
+        ByteBuffer ring = budget.acquire(64);
+        assertEquals(64, ring.capacity());
+        assertTrue(ring.isDirect());
+        budget.release(ring);
+        assertEquals(64, budget.getUsedBytes());
+        assertEquals(64, budget.getPooledBytes());
+        // the same size reuses it
+        assertSame(ring, budget.acquire(64));
+        assertEquals(64, budget.getUsedBytes());
+        assertEquals(0, budget.getPooledBytes());
+
+        MemoryBudget limited = new MemoryBudget(10);
+        ByteBuffer six = limited.acquire(6);
+        assertNull(limited.acquire(5));
+        assertEquals(6, limited.getUsedBytes());
+        ByteBuffer four = limited.acquire(4);
+        assertNotNull(four);
+        limited.release(four);
+        // pooled rings of another size make room, the ones in use do not
+        assertNull(limited.acquire(5));
+        limited.release(six);
+        assertEquals(10, limited.getPooledBytes());
+        ByteBuffer five = limited.acquire(5);
+        assertEquals(5, five.capacity());
+        assertTrue(limited.getUsedBytes() <= 10);
+        assertEquals(limited.getUsedBytes() - 5, limited.getPooledBytes());
+        limited.release(five);
+        assertSame(five, limited.acquire(5));
+    }
+
+    @AfterEach
+    void clean() throws Exception {
+        for (MemoryQueueImpl queue : queues) {
+            try {
+                queue.close();
+            } catch (Exception ignored) {
+            }
+        }
+        for (File dir : dirs) {
+            FileUtil.deleteDirectory(dir);
+        }
+    }
+}
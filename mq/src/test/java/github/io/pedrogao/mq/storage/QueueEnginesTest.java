@@ -0,0 +1,81 @@
+package github.io.pedrogao.mq.storage;
+
+import github.io.pedrogao.diskqueue.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueueEnginesTest {
+    private File queueDir;
+
+    @Test
+    void specRoundTrip() throws Exception {
+        queueDir = Files.createTempDirectory("queue_engines_test").toFile();
+        QueueEngineSpec spec = new QueueEngineSpec(MemoryQueueProvider.NAME,
+                Map.of(MemoryQueueProvider.MEMORY_BYTES, "65536"));
+        QueueEngines.writeSpec(queueDir, spec);
+
+        assertTrue(new File(queueDir, QueueEngines.ENGINE_FILE).isFile());
+        assertFalse(new File(queueDir, QueueEngines.ENGINE_FILE + ".tmp").exists());
+        assertEquals(spec, QueueEngines.readSpec(queueDir));
+
+        // replaced as a whole
+        QueueEngineSpec disk = new QueueEngineSpec(DiskQueueProvider.NAME, Map.of());
+        QueueEngines.writeSpec(queueDir, disk);
+        assertEquals(disk, QueueEngines.readSpec(queueDir));
+    }
+
+    @Test
+    void noSpecIsDisk() throws Exception {
+        queueDir = Files.createTempDirectory("queue_engines_test").toFile();
+        assertEquals(new QueueEngineSpec(DiskQueueProvider.NAME, Map.of()), QueueEngines.readSpec(queueDir));
+
+        BackendQueue queue = QueueEngines.open(queueDir, queueDir.getName());
+        assertTrue(queue instanceof DiskQueueImpl);
+        queue.close();
+    }
+
+    @Test
+    void reopenWithStoredEngine() throws Exception {
+        queueDir = Files.createTempDirectory("queue_engines_test").toFile();
+        QueueEngines.writeSpec(queueDir, new QueueEngineSpec(MemoryQueueProvider.NAME,
+                Map.of(MemoryQueueProvider.MEMORY_BYTES, "65536")));
+
+        BackendQueue queue = QueueEngines.open(queueDir, queueDir.getName());
+        assertTrue(queue instanceof MemoryQueueImpl);
+        queue.push("m0".getBytes());
+        queue.push("m1".getBytes());
+        assertArrayEquals("m0".getBytes(), queue.poll("ch"));
+        queue.close();
+
+        queue = QueueEngines.open(queueDir, queueDir.getName());
+        assertTrue(queue instanceof MemoryQueueImpl);
+        assertEquals(2, queue.getRearIndex());
+        assertArrayEquals("m1".getBytes(), queue.poll("ch"));
+        queue.close();
+    }
+
+    @Test
+    void validate() {
+        QueueEngines.validate(new QueueEngineSpec(MemoryQueueProvider.NAME,
+                Map.of(MemoryQueueProvider.MEMORY_BYTES, "1024")));
+        assertThrows(IllegalArgumentException.class,
+                () -> QueueEngines.validate(new QueueEngineSpec("unknown", Map.of())));
+        assertThrows(IllegalArgumentException.class, () -> QueueEngines.validate(
+                new QueueEngineSpec(MemoryQueueProvider.NAME, Map.of("pageSize", "1024"))));
+        assertThrows(IllegalArgumentException.class, () -> QueueEngines.validate(
+                new QueueEngineSpec(MemoryQueueProvider.NAME, Map.of(MemoryQueueProvider.MEMORY_BYTES, "0"))));
+    }
+
+    @AfterEach
+    void clean() throws Exception {
+        if (queueDir != null) {
+            FileUtil.deleteDirectory(queueDir);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package github.io.pedrogao.mq.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTest {
+
+    @Test
+    void capacity() {
+        assertEquals(1, new MpscRingBuffer<Integer>(1).capacity());
+        assertEquals(8, new MpscRingBuffer<Integer>(8).capacity());
+        assertEquals(16, new MpscRingBuffer<Integer>(9).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new MpscRingBuffer<Integer>(0));
+        assertThrows(IllegalArgumentException.class, () -> new MpscRingBuffer<Integer>(-1));
+    }
+
+    @Test
+    void offerPoll() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4)); // full
+        assertEquals(4, ring.size());
+
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(4)); // the freed slot is reused
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    void wrap() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ring.offer(i));
+            assertTrue(ring.offer(-i));
+            assertEquals(Integer.valueOf(i), ring.poll());
+            assertEquals(Integer.valueOf(-i), ring.poll());
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    void concurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 100_000;
+        MpscRingBuffer<long[]> ring = new MpscRingBuffer<>(1024);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long i = 0; i < perProducer; i++) {
+                    while (!ring.offer(new long[]{producer, i})) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        // every element exactly once, in order per producer
+        long[] next = new long[producers];
+        start.countDown();
+        long received = 0;
+        while (received < (long) producers * perProducer) {
+            long[] e = ring.poll();
+            if (e == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            assertEquals(next[(int) e[0]], e[1]);
+            next[(int) e[0]]++;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(ring.poll());
+        for (long n : next) {
+            assertEquals(perProducer, n);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package github.io.pedrogao.mq.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    @Test
+    void invalid() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, 0));
+    }
+
+    @Test
+    void burst() {
+        TokenBucket bucket = new TokenBucket(1000, 1000);
+        assertEquals(0, bucket.tryAcquire(600));
+        assertEquals(0, bucket.tryAcquire(400));
+        // empty now, 100 tokens take about 100ms to come back
+        long retryAfterMs = bucket.tryAcquire(100);
+        assertTrue(retryAfterMs > 0 && retryAfterMs <= 101, "retry after " + retryAfterMs);
+    }
+
+    @Test
+    void refill() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 100);
+        assertEquals(0, bucket.tryAcquire(100));
+        assertTrue(bucket.tryAcquire(50) > 0);
+        Thread.sleep(60);
+        assertEquals(0, bucket.tryAcquire(50));
+    }
+
+    @Test
+    void largerThanBurst() {
+        TokenBucket bucket = new TokenBucket(1000, 100);
+        // passes alone on a full bucket
+        assertEquals(0, bucket.tryAcquire(500));
+        assertTrue(bucket.tryAcquire(1) > 0);
+    }
+
+    @Test
+    void refund() {
+        TokenBucket bucket = new TokenBucket(1000, 1000);
+        assertEquals(0, bucket.tryAcquire(1000));
+        assertTrue(bucket.tryAcquire(500) > 0);
+        bucket.refund(500);
+        assertEquals(0, bucket.tryAcquire(500));
+        assertTrue(bucket.tryAcquire(500) > 0);
+    }
+
+    @Test
+    void largeRate() {
+        // costs do not overflow
+        TokenBucket bucket = new TokenBucket(Long.MAX_VALUE / 2, Long.MAX_VALUE / 2);
+        assertEquals(0, bucket.tryAcquire(Long.MAX_VALUE / 4));
+    }
+
+    @Test
+    void concurrent() throws InterruptedException {
+        // over a short run the threads together never take much more than the burst
+        TokenBucket bucket = new TokenBucket(1000, 10_000);
+        AtomicLong taken = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 10_000; i++) {
+                    if (bucket.tryAcquire(1) == 0) {
+                        taken.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedMs = (System.nanoTime() - begin) / 1_000_000;
+        assertTrue(taken.get() >= 10_000, "taken " + taken.get());
+        assertTrue(taken.get() <= 10_000 + elapsedMs + 1, "taken " + taken.get() + " in " + elapsedMs + "ms");
+    }
+}